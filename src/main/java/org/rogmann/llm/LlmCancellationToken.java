@@ -0,0 +1,39 @@
+package org.rogmann.llm;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Token used to cancel a running computation cooperatively.
+ * The computation checks the token between steps (e.g. layers or tokens).
+ */
+public class LlmCancellationToken {
+
+	/** <code>true</code> if the computation should stop */
+	private final AtomicBoolean isCancelled = new AtomicBoolean(false);
+
+	/**
+	 * Requests the cancellation of the computation.
+	 * This method may be called by any thread.
+	 */
+	public void cancel() {
+		isCancelled.set(true);
+	}
+
+	/**
+	 * Gets <code>true</code> if the cancellation has been requested.
+	 * @return cancellation-flag
+	 */
+	public boolean isCancelled() {
+		return isCancelled.get();
+	}
+
+	/**
+	 * Throws an exception if the cancellation has been requested.
+	 * @throws LlmCancelledException if the computation has been cancelled
+	 */
+	public void checkCancelled() {
+		if (isCancelled.get()) {
+			throw new LlmCancelledException("Computation has been cancelled");
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.rogmann.llm;
+
+/**
+ * Exception thrown when a computation has been cancelled by a {@link LlmCancellationToken}.
+ */
+public class LlmCancelledException extends RuntimeException {
+	/** serial number */
+	private static final long serialVersionUID = 20231018L;
+
+	/**
+	 * Constructor
+	 * @param message message
+	 */
+	public LlmCancelledException(String message) {
+		super(message);
+	}
+
+}
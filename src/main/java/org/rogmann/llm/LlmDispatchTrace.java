@@ -0,0 +1,177 @@
+package org.rogmann.llm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+
+import org.rogmann.llm.metrics.LlmJfr;
+
+/**
+ * JFR-trace of a dispatch of an executor (events <code>org.rogmann.llm.Dispatch</code>
+ * and <code>org.rogmann.llm.Barrier</code> emitted by {@link LlmJfr}).
+ *
+ * <p>{@link #start(LlmExecutor, int, int)} returns <code>null</code> if none of the events is enabled
+ * or if JFR isn't available, a dispatch isn't changed in that case.
+ * Otherwise the parts are wrapped to measure their execution times.</p>
+ */
+final class LlmDispatchTrace {
+
+	/** dispatch-event or <code>null</code> */
+	private final Object dispatchEvent;
+
+	/** barrier-event or <code>null</code> */
+	private final Object barrierEvent;
+
+	/** executor */
+	private final LlmExecutor executor;
+
+	/** number of items */
+	private final int n;
+
+	/** execution time of each part */
+	private final AtomicLongArray partNanos;
+
+	/** number of items of each part */
+	private final AtomicLongArray partItems;
+
+	/** start of the dispatch */
+	private final long tsStart;
+
+	/** calling thread */
+	private final Thread callerThread;
+
+	/** end of the part of the calling thread, 0 if the calling thread doesn't execute a part */
+	private volatile long tsCallerEnd;
+
+	/**
+	 * Constructor
+	 * @param dispatchEvent dispatch-event or <code>null</code>
+	 * @param barrierEvent barrier-event or <code>null</code>
+	 * @param executor executor
+	 * @param n number of items
+	 * @param nParts number of parts
+	 */
+	private LlmDispatchTrace(final Object dispatchEvent, final Object barrierEvent,
+			final LlmExecutor executor, final int n, final int nParts) {
+		this.dispatchEvent = dispatchEvent;
+		this.barrierEvent = barrierEvent;
+		this.executor = executor;
+		this.n = n;
+		partNanos = new AtomicLongArray(nParts);
+		partItems = new AtomicLongArray(nParts);
+		callerThread = Thread.currentThread();
+		tsStart = System.nanoTime();
+	}
+
+	/**
+	 * Starts the trace of a dispatch.
+	 * @param executor executor
+	 * @param n number of items of the loop (number of parts in case of tasks without loop)
+	 * @param nParts maximal number of parts (threads)
+	 * @return trace or <code>null</code> if the events are disabled
+	 */
+	static LlmDispatchTrace start(final LlmExecutor executor, final int n, final int nParts) {
+		if (!LlmJfr.isAvailable()) {
+			return null;
+		}
+		final Object dispatchEvent = LlmJfr.beginDispatch();
+		final Object barrierEvent = LlmJfr.beginBarrier();
+		if (dispatchEvent == null && barrierEvent == null) {
+			return null;
+		}
+		return new LlmDispatchTrace(dispatchEvent, barrierEvent, executor, n, nParts);
+	}
+
+	/**
+	 * Wraps a part to measure its execution time.
+	 * @param idxPart index of the part
+	 * @param numItems number of items of the part
+	 * @param task part
+	 * @return wrapped part
+	 */
+	Runnable wrap(final int idxPart, final int numItems, final Runnable task) {
+		return wrap(() -> idxPart, numItems, task);
+	}
+
+	/**
+	 * Wraps a part which may be executed by any thread of a pool.
+	 * The times and items are summed by part.
+	 * @param partOfThread function computing the part of the current thread
+	 * @param numItems number of items of the part
+	 * @param task part
+	 * @return wrapped part
+	 */
+	Runnable wrap(final IntSupplier partOfThread, final int numItems, final Runnable task) {
+		return () -> {
+			final long tsPartStart = System.nanoTime();
+			try {
+				task.run();
+			}
+			finally {
+				final long tsEnd = System.nanoTime();
+				final int idxPart = partOfThread.getAsInt();
+				partNanos.addAndGet(idxPart, tsEnd - tsPartStart);
+				partItems.addAndGet(idxPart, numItems);
+				if (Thread.currentThread() == callerThread) {
+					tsCallerEnd = tsEnd;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wraps a loop-function whose ranges may be executed by any thread of a pool.
+	 * @param taskFunction loop-function
+	 * @param partOfThread function computing the part of the current thread
+	 * @return wrapped loop-function
+	 */
+	LlmTaskLoopFunction wrapLoop(final LlmTaskLoopFunction taskFunction, final IntSupplier partOfThread) {
+		return (idxStart, idxEnd) -> wrap(partOfThread, idxEnd - idxStart, taskFunction.apply(idxStart, idxEnd));
+	}
+
+	/**
+	 * Ends the trace after all parts have finished and commits the events.
+	 */
+	void end() {
+		final long tsEnd = System.nanoTime();
+		final int nParts = partNanos.length();
+		// Parts without items (e.g. an idle worker of a fork-join-pool) are ignored.
+		long minItems = 0;
+		long maxItems = 0;
+		int fastestPart = -1;
+		int slowestPart = -1;
+		int numActiveParts = 0;
+		for (int i = 0; i < nParts; i++) {
+			final long items = partItems.get(i);
+			if (items == 0) {
+				continue;
+			}
+			final long nanos = partNanos.get(i);
+			if (numActiveParts == 0) {
+				minItems = items;
+				maxItems = items;
+				fastestPart = i;
+				slowestPart = i;
+			}
+			else {
+				minItems = Math.min(minItems, items);
+				maxItems = Math.max(maxItems, items);
+				if (nanos < partNanos.get(fastestPart)) {
+					fastestPart = i;
+				}
+				if (nanos > partNanos.get(slowestPart)) {
+					slowestPart = i;
+				}
+			}
+			numActiveParts++;
+		}
+		final String executorName = executor.getClass().getSimpleName();
+		final long tsCaller = tsCallerEnd;
+		// A calling thread without part waits during the whole dispatch.
+		LlmJfr.commitDispatch(dispatchEvent, executorName, n, numActiveParts, (int) minItems, (int) maxItems,
+				tsEnd - ((tsCaller != 0L) ? tsCaller : tsStart));
+		if (numActiveParts > 0) {
+			LlmJfr.commitBarrier(barrierEvent, executorName, numActiveParts,
+					fastestPart, partNanos.get(fastestPart), slowestPart, partNanos.get(slowestPart));
+		}
+	}
+}
@@ -2,9 +2,16 @@ package org.rogmann.llm;
 
 /**
  * Interface used to do a computation in a pool of worker-threads.
+ *
+ * <p>The methods return after all parts of the computation have been finished.
+ * An implementation may execute one part in the calling thread, so a task must not
+ * depend on being executed in a worker-thread.</p>
  */
 public interface LlmExecutor extends AutoCloseable {
 
+	/** minimal estimated number of operations of a loop to be worth a dispatch to the worker-threads */
+	int INLINE_COST_THRESHOLD = 16384;
+
 	/**
 	 * Starts a task to be executed in parallel.
 	 * @param taskFunction task-function
@@ -18,9 +25,39 @@ public interface LlmExecutor extends AutoCloseable {
 	 */
 	void startLoopTasks(int n, LlmTaskLoopFunction taskFunction);
 
+	/**
+	 * Starts a task consisting of a loop to be executed in parallel.
+	 * The loop is executed in the calling thread if its estimated cost is below
+	 * {@link #INLINE_COST_THRESHOLD}, the handoff to the workers would cost more than it saves.
+	 * @param n number of items to be processed (loop from 0 to n-1 inclusive)
+	 * @param costPerItem estimated number of operations of one item
+	 * @param taskFunction task-loop-function
+	 */
+	default void startLoopTasks(int n, int costPerItem, LlmTaskLoopFunction taskFunction) {
+		if (n <= 1 || (long) n * costPerItem < INLINE_COST_THRESHOLD) {
+			if (n > 0) {
+				taskFunction.apply(0, n).run();
+			}
+			return;
+		}
+		startLoopTasks(n, taskFunction);
+	}
+
 	/**
 	 * Shutdown of the executor.
 	 */
 	void close();
 
+	/**
+	 * Computes the start-index of a part of a loop split into balanced parts.
+	 * The sizes of the parts differ by one item at most.
+	 * @param n number of items of the loop
+	 * @param idxPart index of the part (0 to nParts inclusive, nParts gives n)
+	 * @param nParts number of parts
+	 * @return start-index of the part
+	 */
+	static int splitIndex(int n, int idxPart, int nParts) {
+		return (int) ((long) n * idxPart / nParts);
+	}
+
 }
@@ -0,0 +1,179 @@
+package org.rogmann.llm;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/**
+ * Executor using a work-stealing fork-join-pool.
+ *
+ * <p>A loop is split lazily: a task splits its range while the queue of its worker
+ * contains few tasks only (see {@link ForkJoinTask#getSurplusQueuedTaskCount()}).
+ * Idle workers steal the split halves, so uneven work (causal attention-rows,
+ * a noisy neighbour on a shared host) is balanced dynamically.</p>
+ */
+public class LlmExecutorForkJoin implements LlmExecutor {
+	/** logger */
+	private static final Logger LOGGER = Logger.getLogger(LlmExecutorForkJoin.class.getName());
+
+	/** surplus of queued tasks up to which a task splits its range */
+	private static final int SURPLUS_THRESHOLD = 3;
+
+	/** fork-join-pool */
+	private final ForkJoinPool pool;
+
+	/** number of worker-threads */
+	private final int nThreads;
+
+	/** minimal number of items of a range which isn't split further */
+	private final int minChunkSize;
+
+	private int nCalls = 0;
+	private int nCallsLoop = 0;
+
+	/**
+	 * Constructor
+	 * @param nThreads number of worker-threads
+	 */
+	public LlmExecutorForkJoin(final int nThreads) {
+		this(nThreads, 1);
+	}
+
+	/**
+	 * Constructor
+	 * @param nThreads number of worker-threads
+	 * @param minChunkSize minimal number of items of a range which isn't split further
+	 */
+	public LlmExecutorForkJoin(final int nThreads, final int minChunkSize) {
+		if (minChunkSize < 1) {
+			throw new IllegalArgumentException("minChunkSize must be positive: " + minChunkSize);
+		}
+		this.nThreads = nThreads;
+		this.minChunkSize = minChunkSize;
+		LOGGER.info("Start fork-join-pool of " + nThreads + ((nThreads == 1) ? " thread" : " threads"));
+		pool = new ForkJoinPool(nThreads, p -> {
+			final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			thread.setName("LlmWorker-" + thread.getPoolIndex());
+			thread.setDaemon(true);
+			return thread;
+		}, null, false);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void startTasks(LlmTaskFunction taskFunction) {
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, nThreads, 1 + nThreads);
+		final ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[nThreads];
+		for (int i = 0; i < nThreads; i++) {
+			final Runnable task = taskFunction.apply(i, nThreads);
+			tasks[i] = ForkJoinTask.adapt((trace != null) ? trace.wrap(this::getPartOfThread, 1, task) : task);
+		}
+		nCalls++;
+		try {
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		}
+		catch (RuntimeException | Error e) {
+			throw new RuntimeException("Exception while executing runnable", e);
+		}
+		if (trace != null) {
+			trace.end();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void startLoopTasks(int n, LlmTaskLoopFunction taskFunction) {
+		nCallsLoop++;
+		if (n <= minChunkSize) {
+			taskFunction.apply(0, n).run();
+			return;
+		}
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, n, 1 + nThreads);
+		final LlmTaskLoopFunction loopFunction = (trace != null) ? trace.wrapLoop(taskFunction, this::getPartOfThread) : taskFunction;
+		try {
+			pool.invoke(new LoopAction(loopFunction, 0, n, minChunkSize));
+		}
+		catch (RuntimeException | Error e) {
+			throw new RuntimeException("Exception while executing loop-runnable", e);
+		}
+		if (trace != null) {
+			trace.end();
+		}
+	}
+
+	/**
+	 * Gets the part of the current thread in a dispatch-trace.
+	 * The calling thread may execute a task while waiting, it is part 0.
+	 * The pool-index of a worker may exceed the parallelism (compensating threads), it is folded.
+	 * @return part 0 (calling thread) or 1 to nThreads (worker-thread)
+	 */
+	private int getPartOfThread() {
+		final Thread thread = Thread.currentThread();
+		if (thread instanceof ForkJoinWorkerThread) {
+			return 1 + ((ForkJoinWorkerThread) thread).getPoolIndex() % nThreads;
+		}
+		return 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		LOGGER.info("close");
+		pool.shutdown();
+		if (nCalls > 0) {
+			LOGGER.info("nCalls: " + nCalls);
+		}
+		if (nCallsLoop > 0) {
+			LOGGER.info("nCallsLoop: " + nCallsLoop);
+		}
+		LOGGER.info("steal-count: " + pool.getStealCount());
+	}
+
+	/**
+	 * Task executing a range of a loop. The range is split lazily.
+	 */
+	static class LoopAction extends RecursiveAction {
+		private static final long serialVersionUID = 20231020L;
+
+		private final transient LlmTaskLoopFunction taskFunction;
+		private final int idxStart;
+		private final int idxEnd;
+		private final int minChunkSize;
+
+		LoopAction(LlmTaskLoopFunction taskFunction, int idxStart, int idxEnd, int minChunkSize) {
+			this.taskFunction = taskFunction;
+			this.idxStart = idxStart;
+			this.idxEnd = idxEnd;
+			this.minChunkSize = minChunkSize;
+		}
+
+		@Override
+		protected void compute() {
+			int end = idxEnd;
+			LoopAction[] forkedTasks = null;
+			int numForked = 0;
+			// Split the upper halves off while the local queue is nearly empty.
+			while (end - idxStart > minChunkSize && getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD) {
+				final int mid = (idxStart + end) >>> 1;
+				final LoopAction forked = new LoopAction(taskFunction, mid, end, minChunkSize);
+				forked.fork();
+				if (forkedTasks == null) {
+					forkedTasks = new LoopAction[8];
+				}
+				else if (numForked == forkedTasks.length) {
+					forkedTasks = Arrays.copyOf(forkedTasks, 2 * numForked);
+				}
+				forkedTasks[numForked++] = forked;
+				end = mid;
+			}
+			taskFunction.apply(idxStart, end).run();
+			// Join in reverse order: the last forked task is on top of the local queue.
+			for (int i = numForked - 1; i >= 0; i--) {
+				forkedTasks[i].join();
+			}
+		}
+	}
+}
@@ -12,15 +12,23 @@ public class LlmExecutorSingleThread implements LlmExecutor {
 	/** {@inheritDoc} */
 	@Override
 	public void startTasks(LlmTaskFunction taskFunction) {
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, 1, 1);
 		final Runnable runnable = taskFunction.apply(0, 1);
-		runnable.run();
+		((trace != null) ? trace.wrap(0, 1, runnable) : runnable).run();
+		if (trace != null) {
+			trace.end();
+		}
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public void startLoopTasks(int n, LlmTaskLoopFunction taskFunction) {
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, n, 1);
 		final Runnable runnable = taskFunction.apply(0, n);
-		runnable.run();
+		((trace != null) ? trace.wrap(0, n, runnable) : runnable).run();
+		if (trace != null) {
+			trace.end();
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -2,6 +2,7 @@ package org.rogmann.llm;
 
 /**
  * Interface to create a runnable to be executed in a worker-thread.
+ * The function is called by the dispatching thread, the runnables may be executed in other threads.
  */
 @FunctionalInterface
 public interface LlmTaskFunction {
@@ -0,0 +1,225 @@
+package org.rogmann.llm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Placement of worker-threads on CPUs and NUMA-nodes (Linux only, without JNI).
+ *
+ * <p>The allowed CPUs are read from <code>/proc/self/status</code>, the CPUs of the NUMA-nodes
+ * from <code>/sys/devices/system/node</code>. A thread pins itself by calling <code>taskset</code>
+ * with its own thread-id, read from <code>/proc/thread-self</code>.</p>
+ *
+ * <p>A worker-pool pins its workers if it gets an array of CPUs, see {@link #planCpus(int)}.
+ * The calling thread executes part 0, the pool pins it to the first CPU at its first dispatch.
+ * The weights are placed near their workers by {@link org.rogmann.llm.bloom.BloomModel#localizeWeights()}.</p>
+ */
+public class LlmThreadAffinity {
+	/** logger */
+	private static final Logger LOGGER = Logger.getLogger(LlmThreadAffinity.class.getName());
+
+	/** folder of the NUMA-nodes */
+	private static final String FOLDER_NODES = "/sys/devices/system/node";
+
+	/** private constructor of utility-class */
+	private LlmThreadAffinity() {
+		// no instance
+	}
+
+	/**
+	 * Assigns CPUs to the parts of an executor. Part i is executed by worker i
+	 * (part 0 is executed by the calling thread, which is pinned by the pool at its first dispatch).
+	 * The parts are distributed over the NUMA-nodes in contiguous blocks, so
+	 * neighboring row-ranges of a matrix are located in the same node.
+	 * @param nThreads number of threads
+	 * @return CPU of each part, <code>null</code> if the allowed CPUs are unknown
+	 */
+	public static int[] planCpus(final int nThreads) {
+		final int[] allowed = readAllowedCpus();
+		if (allowed == null) {
+			return null;
+		}
+		final List<int[]> nodes = new ArrayList<>();
+		for (int[] nodeCpus : readNodeCpus()) {
+			final int[] nodeAllowed = Arrays.stream(nodeCpus).filter(cpu -> contains(allowed, cpu)).toArray();
+			if (nodeAllowed.length > 0) {
+				nodes.add(nodeAllowed);
+			}
+		}
+		if (nodes.isEmpty()) {
+			nodes.add(allowed);
+		}
+		final int numNodes = nodes.size();
+		final int[] cpus = new int[nThreads];
+		for (int node = 0; node < numNodes; node++) {
+			final int[] nodeCpus = nodes.get(node);
+			final int partStart = LlmExecutor.splitIndex(nThreads, node, numNodes);
+			final int partEnd = LlmExecutor.splitIndex(nThreads, node + 1, numNodes);
+			for (int i = partStart; i < partEnd; i++) {
+				cpus[i] = nodeCpus[(i - partStart) % nodeCpus.length];
+			}
+		}
+		if (LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine(String.format("CPUs of %d threads on %d nodes: %s",
+					Integer.valueOf(nThreads), Integer.valueOf(numNodes), Arrays.toString(cpus)));
+		}
+		return cpus;
+	}
+
+	/**
+	 * Pins the current thread to a CPU by executing <code>taskset</code>.
+	 * @param cpu CPU-number
+	 * @return <code>true</code> if the thread has been pinned
+	 */
+	public static boolean pinCurrentThread(final int cpu) {
+		final String tid = readThreadId();
+		if (tid == null) {
+			return false;
+		}
+		final ProcessBuilder pb = new ProcessBuilder("taskset", "-p", "-c", Integer.toString(cpu), tid);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(ProcessBuilder.Redirect.to(new File("/dev/null")));
+		try {
+			final Process process = pb.start();
+			if (!process.waitFor(10, TimeUnit.SECONDS)) {
+				process.destroy();
+				LOGGER.warning("taskset didn't terminate, thread " + tid);
+				return false;
+			}
+			final int rc = process.exitValue();
+			if (rc != 0) {
+				LOGGER.warning(String.format("taskset of thread %s to cpu %d failed: rc=%d",
+						tid, Integer.valueOf(cpu), Integer.valueOf(rc)));
+				return false;
+			}
+		}
+		catch (IOException e) {
+			LOGGER.warning("Can't execute taskset: " + e.getMessage());
+			return false;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		if (LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine(String.format("Thread %s (%s) pinned to cpu %d",
+					Thread.currentThread().getName(), tid, Integer.valueOf(cpu)));
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the CPUs the process may use (Cpus_allowed_list in /proc/self/status).
+	 * @return CPUs or <code>null</code> if not available
+	 */
+	public static int[] readAllowedCpus() {
+		final Path pathStatus = Paths.get("/proc/self/status");
+		if (!Files.isReadable(pathStatus)) {
+			return null;
+		}
+		try {
+			for (String line : Files.readAllLines(pathStatus, StandardCharsets.ISO_8859_1)) {
+				if (line.startsWith("Cpus_allowed_list:")) {
+					return parseCpuList(line.substring(line.indexOf(':') + 1));
+				}
+			}
+		}
+		catch (IOException e) {
+			LOGGER.warning("Can't read " + pathStatus + ": " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the CPUs of the NUMA-nodes.
+	 * @return list of CPUs of each node, empty if not available
+	 */
+	public static List<int[]> readNodeCpus() {
+		final List<int[]> nodes = new ArrayList<>();
+		for (int node = 0; ; node++) {
+			final Path pathCpuList = Paths.get(FOLDER_NODES, "node" + node, "cpulist");
+			if (!Files.isReadable(pathCpuList)) {
+				break;
+			}
+			try {
+				nodes.add(parseCpuList(new String(Files.readAllBytes(pathCpuList), StandardCharsets.ISO_8859_1)));
+			}
+			catch (IOException e) {
+				LOGGER.warning("Can't read " + pathCpuList + ": " + e.getMessage());
+				break;
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Parses a list of CPUs, e.g. "0-3,8-11,16".
+	 * @param cpuList list of CPUs
+	 * @return CPUs
+	 */
+	public static int[] parseCpuList(final String cpuList) {
+		final List<Integer> cpus = new ArrayList<>();
+		for (String part : cpuList.trim().split(",")) {
+			if (part.isEmpty()) {
+				continue;
+			}
+			final int idxMinus = part.indexOf('-');
+			try {
+				if (idxMinus < 0) {
+					cpus.add(Integer.valueOf(part));
+				}
+				else {
+					final int first = Integer.parseInt(part.substring(0, idxMinus));
+					final int last = Integer.parseInt(part.substring(idxMinus + 1));
+					for (int cpu = first; cpu <= last; cpu++) {
+						cpus.add(Integer.valueOf(cpu));
+					}
+				}
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid cpu-list: " + cpuList, e);
+			}
+		}
+		return cpus.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Reads the thread-id of the current thread (link /proc/thread-self, e.g. "1234/task/1240").
+	 * @return thread-id or <code>null</code>
+	 */
+	static String readThreadId() {
+		try {
+			final String target = Files.readSymbolicLink(Paths.get("/proc/thread-self")).toString();
+			return target.substring(target.lastIndexOf('/') + 1);
+		}
+		catch (IOException | UnsupportedOperationException e) {
+			LOGGER.warning("Can't read the thread-id: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if an array contains a value.
+	 * @param values array
+	 * @param value value
+	 * @return <code>true</code> if the value is contained
+	 */
+	private static boolean contains(final int[] values, final int value) {
+		for (int v : values) {
+			if (v == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
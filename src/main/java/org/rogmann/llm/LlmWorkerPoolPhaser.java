@@ -8,6 +8,9 @@ import java.util.logging.Logger;
 
 /**
  * This class manages a pool of worker-threads using a phaser.
+ *
+ * <p>The calling thread executes the first part of a computation,
+ * so there are <code>nThreads - 1</code> worker-threads.</p>
  */
 public class LlmWorkerPoolPhaser implements LlmExecutor {
 	/** logger */
@@ -22,37 +25,63 @@ public class LlmWorkerPoolPhaser implements LlmExecutor {
 	/** exception while executing a computation */
 	private final AtomicReference<Throwable> refECause = new AtomicReference<>();
 	
+	/** CPU of the calling thread or -1 */
+	private final int callerCpu;
+
+	/** calling thread which has been pinned to callerCpu */
+	private Thread pinnedCaller;
+
 	private int nCalls = 0;
 	private int nCallsLoop = 0;
 
 	public LlmWorkerPoolPhaser(final int nThreads) {
+		this(nThreads, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param nThreads number of threads including the calling thread
+	 * @param cpus optional CPU of each part (index 0 is the calling thread, it is pinned at its first dispatch),
+	 * see {@link LlmThreadAffinity#planCpus(int)}
+	 */
+	public LlmWorkerPoolPhaser(final int nThreads, final int[] cpus) {
 		this.nThreads = nThreads;
+		this.callerCpu = (cpus != null) ? cpus[0] : -1;
 		LOGGER.info("Start thread-pool of " + nThreads + ((nThreads == 1) ? " thread" : " threads"));
-		phaserStart = new Phaser(1 + nThreads) {
+		// The calling thread is the party of the first part.
+		phaserStart = new Phaser(nThreads) {
 		     protected boolean onAdvance(int phase, int parties) { return false; }
 		     };
-		phaserFinished = new Phaser(1 + nThreads) {
+		phaserFinished = new Phaser(nThreads) {
 		     protected boolean onAdvance(int phase, int parties) { return false; }
 		     };
-		pool = new LlmWorkerThread[1 + nThreads];
-		for (int i = 0; i < nThreads; i++) {
-			pool[i] = new LlmWorkerThread(i, phaserStart, phaserFinished, refECause);
+		pool = new LlmWorkerThread[nThreads];
+		for (int i = 1; i < nThreads; i++) {
+			pool[i] = new LlmWorkerThread(i, (cpus != null) ? cpus[i] : -1, phaserStart, phaserFinished, refECause);
 			pool[i].start();
 		}
 	}
 	
 	public void startTasks(LlmTaskFunction taskFunction) {
-		for (int i = 0; i < nThreads; i++) {
-			pool[i].task.set(taskFunction.apply(i, nThreads));
+		pinCaller();
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, nThreads, nThreads);
+		for (int i = 1; i < nThreads; i++) {
+			final Runnable task = taskFunction.apply(i, nThreads);
+			pool[i].task.set((trace != null) ? trace.wrap(i, 1, task) : task);
 		}
 		LOGGER.finer("Start Tasks");
 		phaserStart.arrive();
 		nCalls++;
+		final Runnable callerTask = taskFunction.apply(0, nThreads);
+		runCallerPart((trace != null) ? trace.wrap(0, 1, callerTask) : callerTask);
 		
 		LOGGER.finer("Wait for tasks");
 		phaserFinished.arriveAndAwaitAdvance();
 		LOGGER.finer("End of Tasks");
-		final Throwable eCause = refECause.get();
+		if (trace != null) {
+			trace.end();
+		}
+		final Throwable eCause = refECause.getAndSet(null);
 		if (eCause != null) {
 			throw new RuntimeException("Exception while executing runnable", eCause);
 		}
@@ -60,34 +89,63 @@ public class LlmWorkerPoolPhaser implements LlmExecutor {
 
 	@Override
 	public void startLoopTasks(int n, LlmTaskLoopFunction taskFunction) {
-		if (n == 1) {
-			taskFunction.apply(0, 1).run();
+		pinCaller();
+		if (n <= 1 || nThreads == 1) {
+			taskFunction.apply(0, n).run();
 			return;
 		}
-		int blockSize = Math.max(1, n / nThreads);
-		int idxStart = 0;
-		int idxEnd = blockSize;
-		for (int i = 0; i < nThreads; i++) {
-			if (i == nThreads - 1 && idxEnd < n) {
-				idxEnd = n;
-			}
-			pool[i].task.set(taskFunction.apply(idxStart, idxEnd));
-			idxStart = Math.min(idxStart + blockSize, n);
-			idxEnd =+ Math.min(idxEnd + blockSize, n);
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, n, nThreads);
+		for (int i = 1; i < nThreads; i++) {
+			final int idxStart = LlmExecutor.splitIndex(n, i, nThreads);
+			final int idxEnd = LlmExecutor.splitIndex(n, i + 1, nThreads);
+			final Runnable task = taskFunction.apply(idxStart, idxEnd);
+			pool[i].task.set((trace != null) ? trace.wrap(i, idxEnd - idxStart, task) : task);
 		}
 		LOGGER.finer("Start loop-tasks");
 		phaserStart.arrive();
 		nCallsLoop++;
+		final int callerEnd = LlmExecutor.splitIndex(n, 1, nThreads);
+		final Runnable callerTask = taskFunction.apply(0, callerEnd);
+		runCallerPart((trace != null) ? trace.wrap(0, callerEnd, callerTask) : callerTask);
 		
 		LOGGER.finer("Wait for loop-tasks");
 		phaserFinished.arriveAndAwaitAdvance();
 		LOGGER.finer("End of Tasks");
-		final Throwable eCause = refECause.get();
+		if (trace != null) {
+			trace.end();
+		}
+		final Throwable eCause = refECause.getAndSet(null);
 		if (eCause != null) {
 			throw new RuntimeException("Exception while executing loop-runnable", eCause);
 		}
 	}
 
+	/**
+	 * Pins the calling thread to the CPU of part 0 at its first dispatch,
+	 * so the rows localized by part 0 stay near the thread which uses them.
+	 */
+	private void pinCaller() {
+		final Thread caller = Thread.currentThread();
+		if (callerCpu >= 0 && pinnedCaller != caller) {
+			LlmThreadAffinity.pinCurrentThread(callerCpu);
+			pinnedCaller = caller;
+		}
+	}
+
+	/**
+	 * Executes the first part of a computation in the calling thread.
+	 * An exception is thrown after the workers have finished.
+	 * @param runnable first part
+	 */
+	private void runCallerPart(final Runnable runnable) {
+		try {
+			runnable.run();
+		}
+		catch (Throwable e) {
+			refECause.compareAndSet(null, e);
+		}
+	}
+
 	@Override
 	public void close() {
 		isFinished.set(true);
@@ -110,14 +168,17 @@ public class LlmWorkerPoolPhaser implements LlmExecutor {
 		private static final Logger LOGGER = Logger.getLogger(LlmWorkerPoolPhaser.class.getName());
 
 		private final int idxThread;
+		/** CPU of the thread, -1 if not pinned */
+		private final int cpu;
 		private final Phaser phaserStart;
 		private final Phaser phaserTaskFinished;
 		private final AtomicReference<Throwable> eCause;
 		final AtomicReference<Runnable> task = new AtomicReference<>();
 
-		LlmWorkerThread(int idxThread, Phaser phaserStart, Phaser phaserTaskFinished, AtomicReference<Throwable> eCause) {
+		LlmWorkerThread(int idxThread, int cpu, Phaser phaserStart, Phaser phaserTaskFinished, AtomicReference<Throwable> eCause) {
 			super("LlmWorker-" + idxThread);
 			this.idxThread = idxThread;
+			this.cpu = cpu;
 			this.phaserStart = phaserStart;
 			this.phaserTaskFinished = phaserTaskFinished;
 			this.eCause = eCause;
@@ -125,6 +186,9 @@ public class LlmWorkerPoolPhaser implements LlmExecutor {
 
 		@Override
 		public void run() {
+			if (cpu >= 0) {
+				LlmThreadAffinity.pinCurrentThread(cpu);
+			}
 			long cnt = 0;
 			while (!phaserStart.isTerminated()) {
 				phaserStart.arriveAndAwaitAdvance();
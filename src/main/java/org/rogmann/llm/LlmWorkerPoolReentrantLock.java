@@ -9,6 +9,9 @@ import java.util.logging.Logger;
 
 /**
  * This class manages a pool of worker-threads.
+ *
+ * <p>The calling thread executes the first part of a computation,
+ * so there are <code>nThreads - 1</code> worker-threads.</p>
  */
 public class LlmWorkerPoolReentrantLock implements LlmExecutor {
 	/** logger */
@@ -26,7 +29,7 @@ public class LlmWorkerPoolReentrantLock implements LlmExecutor {
 		this.nThreads = nThreads;
 		LOGGER.info("Start thread-pool of " + nThreads + ((nThreads == 1) ? " thread" : " threads"));
 		pool = new LlmWorkerThread[1 + nThreads];
-		for (int i = 0; i < nThreads; i++) {
+		for (int i = 1; i < nThreads; i++) {
 			pool[i] = new LlmWorkerThread(i);
 			pool[i].lockStart.lock();
 			pool[i].start();
@@ -34,49 +37,71 @@ public class LlmWorkerPoolReentrantLock implements LlmExecutor {
 	}
 
 	public void startTasks(LlmTaskFunction taskFunction) {
-		for (int i = 0; i < nThreads; i++) {
-			pool[i].task.set(taskFunction.apply(i, nThreads));
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, nThreads, nThreads);
+		for (int i = 1; i < nThreads; i++) {
+			final Runnable task = taskFunction.apply(i, nThreads);
+			pool[i].task.set((trace != null) ? trace.wrap(i, 1, task) : task);
 			pool[i].lockFinished.lock();
 			pool[i].lockStart.unlock();
 		}
 		LOGGER.finer("Start Tasks");
 		nCalls++;
-		
-		LOGGER.finer("Wait for tasks");
-		for (int i = 0; i < nThreads; i++) {
-			pool[i].lockStart.lock();
+		try {
+			final Runnable callerTask = taskFunction.apply(0, nThreads);
+			((trace != null) ? trace.wrap(0, 1, callerTask) : callerTask).run();
 		}
-		for (int i = 0; i < nThreads; i++) {
-			pool[i].lockFinished.unlock();
+		finally {
+			LOGGER.finer("Wait for tasks");
+			awaitWorkers();
 		}
 		LOGGER.finer("End of Tasks");
+		if (trace != null) {
+			trace.end();
+		}
 	}
 
 	@Override
 	public void startLoopTasks(int n, LlmTaskLoopFunction taskFunction) {
-		int blockSize = Math.max(1, n / nThreads);
-		int idxStart = 0;
-		int idxEnd = blockSize;
+		if (n <= 1 || nThreads == 1) {
+			taskFunction.apply(0, n).run();
+			return;
+		}
 		LOGGER.finer("Start loop-tasks");
-		for (int i = 0; i < nThreads; i++) {
-			if (i == nThreads - 1 && idxEnd < n) {
-				idxEnd = n;
-			}
-			pool[i].task.set(taskFunction.apply(idxStart, idxEnd));
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, n, nThreads);
+		for (int i = 1; i < nThreads; i++) {
+			final int idxStart = LlmExecutor.splitIndex(n, i, nThreads);
+			final int idxEnd = LlmExecutor.splitIndex(n, i + 1, nThreads);
+			final Runnable task = taskFunction.apply(idxStart, idxEnd);
+			pool[i].task.set((trace != null) ? trace.wrap(i, idxEnd - idxStart, task) : task);
 			pool[i].lockFinished.lock();
 			pool[i].lockStart.unlock();
-			idxStart = Math.min(idxStart + blockSize, n);
-			idxEnd =+ Math.min(idxEnd + blockSize, n);
 		}
 		nCallsLoop++;
-		LOGGER.finer("Wait for loop-tasks");
-		for (int i = 0; i < nThreads; i++) {
+		try {
+			final int callerEnd = LlmExecutor.splitIndex(n, 1, nThreads);
+			final Runnable callerTask = taskFunction.apply(0, callerEnd);
+			((trace != null) ? trace.wrap(0, callerEnd, callerTask) : callerTask).run();
+		}
+		finally {
+			LOGGER.finer("Wait for loop-tasks");
+			awaitWorkers();
+		}
+		LOGGER.finer("End of Tasks");
+		if (trace != null) {
+			trace.end();
+		}
+	}
+
+	/**
+	 * Waits until the worker-threads have finished their tasks.
+	 */
+	private void awaitWorkers() {
+		for (int i = 1; i < nThreads; i++) {
 			pool[i].lockStart.lock();
 		}
-		for (int i = 0; i < nThreads; i++) {
+		for (int i = 1; i < nThreads; i++) {
 			pool[i].lockFinished.unlock();
 		}
-		LOGGER.finer("End of Tasks");
 	}
 
 	@Override
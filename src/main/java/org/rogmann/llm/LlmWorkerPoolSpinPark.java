@@ -0,0 +1,341 @@
+package org.rogmann.llm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class manages a pool of worker-threads which spin for a short time
+ * before they park.
+ *
+ * <p>The thousands of dispatches while computing a token follow each other closely,
+ * a spinning worker sees the next task without the wake-up latency of parking.
+ * Between two requests the workers park and release the CPU.</p>
+ *
+ * <p>The spin-interval of each thread is self-tuned by the measured wait for the event:
+ * it grows at once to twice a short wait and decays slowly if the waits get shorter.
+ * A wait longer than the maximal spin-interval (e.g. the idle gap between two requests)
+ * doesn't change the interval, so the next request doesn't pay the latency of parking again.
+ * If there are not more cores than worker-threads the threads park without spinning.</p>
+ *
+ * <p>The calling thread executes the first part of a computation,
+ * so there are <code>nThreads - 1</code> worker-threads.</p>
+ */
+public class LlmWorkerPoolSpinPark implements LlmExecutor {
+	/** logger */
+	private static final Logger LOGGER = Logger.getLogger(LlmWorkerPoolSpinPark.class.getName());
+
+	/** default maximal spin-interval in nanoseconds */
+	public static final long DEFAULT_MAX_SPIN_NANOS = 200_000L;
+
+	/** minimal spin-interval in nanoseconds */
+	private static final long MIN_SPIN_NANOS = 1_000L;
+
+	private final int nThreads;
+	private final LlmWorkerThread[] pool;
+
+	/** maximal spin-interval in nanoseconds */
+	private final long maxSpinNanos;
+
+	/** number of workers which haven't finished the current task */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/** calling thread if it is parked while waiting for the workers */
+	private volatile Thread waitingCaller;
+
+	/** current spin-interval of the calling thread */
+	private long callerSpinNanos;
+
+	/** generation of the current tasks */
+	private long generation;
+
+	private volatile boolean isFinished;
+
+	/** exception while executing a computation */
+	private final AtomicReference<Throwable> refECause = new AtomicReference<>();
+
+	/** CPU of the calling thread or -1 */
+	private final int callerCpu;
+
+	/** calling thread which has been pinned to callerCpu */
+	private Thread pinnedCaller;
+
+	private int nCalls = 0;
+	private int nCallsLoop = 0;
+	private int nCallerParks = 0;
+
+	/**
+	 * Constructor
+	 * @param nThreads number of worker-threads
+	 */
+	public LlmWorkerPoolSpinPark(final int nThreads) {
+		this(nThreads, DEFAULT_MAX_SPIN_NANOS);
+	}
+
+	/**
+	 * Constructor
+	 * @param nThreads number of worker-threads
+	 * @param maxSpinNanos maximal spin-interval in nanoseconds before parking
+	 */
+	public LlmWorkerPoolSpinPark(final int nThreads, final long maxSpinNanos) {
+		this(nThreads, maxSpinNanos, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param nThreads number of threads including the calling thread
+	 * @param maxSpinNanos maximal spin-interval in nanoseconds before parking
+	 * @param cpus optional CPU of each part (index 0 is the calling thread, it is pinned at its first dispatch),
+	 * see {@link LlmThreadAffinity#planCpus(int)}
+	 */
+	public LlmWorkerPoolSpinPark(final int nThreads, final long maxSpinNanos, final int[] cpus) {
+		this.nThreads = nThreads;
+		this.callerCpu = (cpus != null) ? cpus[0] : -1;
+		// A spinning thread would steal the CPU of a working thread if there are not enough cores.
+		final int numCpus = Runtime.getRuntime().availableProcessors();
+		this.maxSpinNanos = (numCpus > nThreads) ? Math.max(MIN_SPIN_NANOS, maxSpinNanos) : 0L;
+		callerSpinNanos = this.maxSpinNanos;
+		LOGGER.info("Start thread-pool of " + nThreads + ((nThreads == 1) ? " thread" : " threads")
+				+ ", max-spin " + (this.maxSpinNanos / 1000) + " us (" + numCpus + " cpus)");
+		pool = new LlmWorkerThread[nThreads - 1];
+		for (int i = 0; i < pool.length; i++) {
+			pool[i] = new LlmWorkerThread(i + 1, (cpus != null) ? cpus[i + 1] : -1);
+			pool[i].start();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void startTasks(LlmTaskFunction taskFunction) {
+		pinCaller();
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, nThreads, nThreads);
+		for (int i = 1; i < nThreads; i++) {
+			final Runnable task = taskFunction.apply(i, nThreads);
+			pool[i - 1].task = (trace != null) ? trace.wrap(i, 1, task) : task;
+		}
+		nCalls++;
+		final Runnable callerTask = taskFunction.apply(0, nThreads);
+		execute((trace != null) ? trace.wrap(0, 1, callerTask) : callerTask);
+		if (trace != null) {
+			trace.end();
+		}
+		final Throwable eCause = refECause.getAndSet(null);
+		if (eCause != null) {
+			throw new RuntimeException("Exception while executing runnable", eCause);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void startLoopTasks(int n, LlmTaskLoopFunction taskFunction) {
+		pinCaller();
+		if (n <= 1 || nThreads == 1) {
+			taskFunction.apply(0, n).run();
+			return;
+		}
+		final LlmDispatchTrace trace = LlmDispatchTrace.start(this, n, nThreads);
+		for (int i = 1; i < nThreads; i++) {
+			final int idxStart = LlmExecutor.splitIndex(n, i, nThreads);
+			final int idxEnd = LlmExecutor.splitIndex(n, i + 1, nThreads);
+			final Runnable task = taskFunction.apply(idxStart, idxEnd);
+			pool[i - 1].task = (trace != null) ? trace.wrap(i, idxEnd - idxStart, task) : task;
+		}
+		nCallsLoop++;
+		final int callerEnd = LlmExecutor.splitIndex(n, 1, nThreads);
+		final Runnable callerTask = taskFunction.apply(0, callerEnd);
+		execute((trace != null) ? trace.wrap(0, callerEnd, callerTask) : callerTask);
+		if (trace != null) {
+			trace.end();
+		}
+		final Throwable eCause = refECause.getAndSet(null);
+		if (eCause != null) {
+			throw new RuntimeException("Exception while executing loop-runnable", eCause);
+		}
+	}
+
+	/**
+	 * Pins the calling thread to the CPU of part 0 at its first dispatch,
+	 * so the rows localized by part 0 stay near the thread which uses them.
+	 */
+	private void pinCaller() {
+		final Thread caller = Thread.currentThread();
+		if (callerCpu >= 0 && pinnedCaller != caller) {
+			LlmThreadAffinity.pinCurrentThread(callerCpu);
+			pinnedCaller = caller;
+		}
+	}
+
+	/**
+	 * Publishes the tasks, executes the first part and waits until all workers have finished.
+	 * @param callerTask first part to be executed in the calling thread
+	 */
+	private void execute(final Runnable callerTask) {
+		pending.set(pool.length);
+		generation++;
+		for (LlmWorkerThread worker : pool) {
+			worker.publish(generation);
+		}
+		try {
+			callerTask.run();
+		}
+		catch (Throwable e) {
+			refECause.compareAndSet(null, e);
+		}
+		LOGGER.finer("Wait for tasks");
+
+		// Spin, then park.
+		final long tsStart = System.nanoTime();
+		int spins = 0;
+		boolean hasParked = false;
+		while (pending.get() != 0) {
+			if (callerSpinNanos == 0L || ((++spins & 0x3f) == 0 && System.nanoTime() - tsStart > callerSpinNanos)) {
+				hasParked = true;
+				waitingCaller = Thread.currentThread();
+				while (pending.get() != 0) {
+					LockSupport.park(this);
+				}
+				waitingCaller = null;
+				break;
+			}
+			Thread.onSpinWait();
+		}
+		callerSpinNanos = tuneSpinNanos(callerSpinNanos, System.nanoTime() - tsStart);
+		if (hasParked) {
+			nCallerParks++;
+		}
+		LOGGER.finer("End of Tasks");
+	}
+
+	/**
+	 * Adapts a spin-interval to the measured wait for an event.
+	 * @param spinNanos current spin-interval
+	 * @param waitNanos time between the start of the wait and the arrival of the event
+	 * @return new spin-interval
+	 */
+	long tuneSpinNanos(final long spinNanos, final long waitNanos) {
+		if (maxSpinNanos == 0L) {
+			return 0L;
+		}
+		if (waitNanos > maxSpinNanos) {
+			// An idle gap (e.g. between two requests) says nothing about the gaps between the dispatches.
+			return spinNanos;
+		}
+		final long target = Math.max(MIN_SPIN_NANOS, Math.min(maxSpinNanos, 2 * waitNanos));
+		return (target >= spinNanos) ? target : spinNanos - ((spinNanos - target) >> 3);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		isFinished = true;
+		LOGGER.info("close");
+		for (LlmWorkerThread worker : pool) {
+			worker.publish(generation + 1);
+		}
+		if (nCalls > 0) {
+			LOGGER.info("nCalls: " + nCalls);
+		}
+		if (nCallsLoop > 0) {
+			LOGGER.info("nCallsLoop: " + nCallsLoop + ", caller parked: " + nCallerParks);
+		}
+	}
+
+	class LlmWorkerThread extends Thread {
+
+		private final int idxThread;
+
+		/** CPU of the thread, -1 if not pinned */
+		private final int cpu;
+
+		/** task of the current generation (published by the volatile write of generation) */
+		Runnable task;
+
+		/** generation of the published task */
+		private volatile long taskGeneration;
+
+		/** <code>true</code> while the thread is parked or about to park */
+		private volatile boolean parked;
+
+		/** current spin-interval */
+		private long spinNanos = maxSpinNanos;
+
+		LlmWorkerThread(int idxThread, int cpu) {
+			super("LlmWorker-" + idxThread);
+			this.idxThread = idxThread;
+			this.cpu = cpu;
+			setDaemon(true);
+		}
+
+		/**
+		 * Publishes a new generation and unparks the thread if necessary.
+		 * @param newGeneration new generation
+		 */
+		void publish(final long newGeneration) {
+			taskGeneration = newGeneration;
+			if (parked) {
+				LockSupport.unpark(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			if (cpu >= 0) {
+				LlmThreadAffinity.pinCurrentThread(cpu);
+			}
+			long seenGeneration = 0;
+			long cnt = 0;
+			long cntParks = 0;
+			while (true) {
+				// Spin, then park.
+				final long tsStart = System.nanoTime();
+				int spins = 0;
+				boolean hasParked = false;
+				while (taskGeneration == seenGeneration) {
+					if (spinNanos == 0L || ((++spins & 0x3f) == 0 && System.nanoTime() - tsStart > spinNanos)) {
+						hasParked = true;
+						parked = true;
+						while (taskGeneration == seenGeneration) {
+							LockSupport.park(this);
+						}
+						parked = false;
+						break;
+					}
+					Thread.onSpinWait();
+				}
+				spinNanos = tuneSpinNanos(spinNanos, System.nanoTime() - tsStart);
+				if (hasParked) {
+					cntParks++;
+				}
+				seenGeneration = taskGeneration;
+				if (isFinished) {
+					break;
+				}
+				if (LOGGER.isLoggable(Level.FINER)) {
+					LOGGER.finer("Thread " + idxThread + ": start runnable");
+				}
+				try {
+					task.run();
+				}
+				catch (Throwable e) {
+					LOGGER.log(Level.SEVERE, "Exception in run", e);
+					refECause.compareAndSet(null, e);
+				}
+				finally {
+					if (pending.decrementAndGet() == 0) {
+						final Thread caller = waitingCaller;
+						if (caller != null) {
+							LockSupport.unpark(caller);
+						}
+					}
+				}
+				cnt++;
+			}
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine("Thread " + idxThread + ": terminates (count " + cnt + ", parks " + cntParks + ")");
+			}
+		}
+	}
+
+}
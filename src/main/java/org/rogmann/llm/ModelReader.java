@@ -1,11 +1,8 @@
 package org.rogmann.llm;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -13,6 +10,7 @@ import java.util.regex.Pattern;
 
 import org.rogmann.llm.json.JSONException;
 import org.rogmann.llm.json.JSONObject;
+import org.rogmann.llm.json.JSONStreamReader;
 
 /**
  * This class reads a model saved by torch by huggingface.
@@ -37,6 +35,12 @@ public class ModelReader {
 	public final int offsetAlibi;
 	//spublic final int seqLength;
 	public final int unkTokenId;
+	/** id of the beginning-of-sequence token */
+	public final int bosTokenId;
+	/** id of the end-of-sequence token */
+	public final int eosTokenId;
+	/** id of the padding token used in batches of different lengths */
+	public final int padTokenId;
 	public final int vocabSize;
 	public final String transformersVersion;
 
@@ -77,6 +81,9 @@ public class ModelReader {
 			//seqLength = readInt("seq_length");
 			// unkTokenId = readInt("unk_token_id");
 			unkTokenId = 0;
+			bosTokenId = readInt("bos_token_id", 1);
+			eosTokenId = readInt("eos_token_id", 2);
+			padTokenId = readInt("pad_token_id", 3);
 			transformersVersion = readString("transformers_version");
 			vocabSize = readInt("vocab_size");
 		} catch (LlmConfigException e) {
@@ -128,6 +135,13 @@ public class ModelReader {
 		}
 	}
 
+	private int readInt(String key, int defaultValue) throws LlmConfigException {
+		if (!fConfigJson.hasKey(key)) {
+			return defaultValue;
+		}
+		return readInt(key);
+	}
+
 	private float readFloat(String key) throws LlmConfigException {
 		try {
 			return fConfigJson.getFloat(key);
@@ -145,22 +159,17 @@ public class ModelReader {
 	}
 
 	private JSONObject readJsonFile(File file) throws IOException {
-		final StringBuilder sb = new StringBuilder(500);
-		final char[] cBuf = new char[1024];
-		try (InputStreamReader isr = new InputStreamReader(new BufferedInputStream(new FileInputStream(file)),
-				StandardCharsets.UTF_8)) {
-			while (true) {
-				final int len = isr.read(cBuf);
-				if (len == -1) {
-					break;
-				}
-				sb.append(cBuf, 0, len);
-			}
+		final Object value;
+		try (JSONStreamReader reader = new JSONStreamReader(new FileInputStream(file))) {
+			value = reader.readValue();
 		}
 		catch (IOException e) {
 			throw new IOException("IO-error while reading json-file " + file, e);
 		}
-		return new JSONObject(sb.toString());
+		if (!(value instanceof JSONObject)) {
+			throw new JSONException("JSON-object expected in json-file " + file);
+		}
+		return (JSONObject) value;
 	}
 
 	/**
@@ -6,6 +6,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -69,6 +73,47 @@ public class ModelReaderBinary implements Closeable {
 		return zip.getInputStream(zipEntry);
 	}
 
+	/**
+	 * Reads an data entry into a buffer.
+	 * The file of an unpacked model is mapped, the entry of a zip-file is read completely.
+	 * @param entry name, e.g. "data.pkl"
+	 * @return buffer
+	 * @throws IOException in case of an IO-error
+	 */
+	public ByteBuffer getAsBuffer(final String entry) throws IOException {
+		if (folderArchive != null) {
+			final File file = new File(folderArchive, entry);
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+					FileChannel channel = raf.getChannel()) {
+				return channel.map(MapMode.READ_ONLY, 0, channel.size());
+			} catch (FileNotFoundException e) {
+				throw new IOException("Can't open " + file, e);
+			}
+		}
+		final String entryName = entryPrefix + entry;
+		final ZipEntry zipEntry = zip.getEntry(entryName);
+		if (zipEntry == null) {
+			throw new IOException("No entry " + entryName + " in " + zip.getName());
+		}
+		final long size = zipEntry.getSize();
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			throw new IOException(String.format("Unexpected size %d of entry %s in %s",
+					Long.valueOf(size), entryName, zip.getName()));
+		}
+		final byte[] buf = new byte[(int) size];
+		try (InputStream is = zip.getInputStream(zipEntry)) {
+			int offset = 0;
+			while (offset < buf.length) {
+				final int n = is.read(buf, offset, buf.length - offset);
+				if (n < 0) {
+					throw new IOException(String.format("Unexpected end of entry %s at %d", entryName, Integer.valueOf(offset)));
+				}
+				offset += n;
+			}
+		}
+		return ByteBuffer.wrap(buf);
+	}
+
 	@Override
 	public void close() throws IOException {
 		if (zip != null) {
@@ -17,7 +17,7 @@ public class BloomAlibi {
 	/**
 	 * Computes a ALiBi-tensor (see https://arxiv.org/abs/2108.12409).
 	 * 
-	 * @param attentionMask attention-mask of shape (batchSize, maxSeqLen)
+	 * @param attentionMask attention-mask of shape (batchSize, maxSeqLen), 1 = token, 0 = padding
 	 * @param numHeads number of heads
 	 * @param executor executor
 	 * @return 3d-tensor of shape (batchSize * numHeads, 1, maxSeqLen)
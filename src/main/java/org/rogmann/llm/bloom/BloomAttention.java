@@ -5,9 +5,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.metrics.LlmMetrics;
+import org.rogmann.llm.metrics.LlmOp;
 import org.rogmann.llm.nn.Linear;
 import org.rogmann.llm.nn.Softmax;
 import org.rogmann.llm.nn.Tensor;
+import org.rogmann.llm.parallel.LlmAllReduce;
 
 /**
  * Class to compute the scaled dot-product of the attention in the BLOOM-model.
@@ -17,6 +20,11 @@ public class BloomAttention {
 	/** Logger */
 	private static final Logger LOG = Logger.getLogger(BloomAttention.class.getName());
 
+	/** number of heads of the model */
+	private final int numHeadsTotal;
+	/** index of the first head computed by this instance */
+	private final int headOffset;
+	/** number of heads computed by this instance */
 	private final int numHeads;
 	private final int headDim;
 
@@ -28,8 +36,17 @@ public class BloomAttention {
 	private final Linear queryKeyValue;
 	private final Linear dense;
 
+	/** all-reduce of the partial outputs of a tensor-parallel model or <code>null</code> */
+	private final LlmAllReduce allReduce;
+
 	private final LlmExecutor executor;
-	
+
+	/** latency-metrics or <code>null</code> */
+	private LlmMetrics metrics;
+
+	/** layer of the attention (used in the metrics) */
+	private int layer;
+
 
 	/**
 	 * Constructor
@@ -41,8 +58,28 @@ public class BloomAttention {
 	 */
 	public BloomAttention(final int hiddenSize, final int numHeads, Linear queryKeyValue, Linear dense,
 			LlmExecutor executor) {
-		this.numHeads = numHeads;
-		headDim = hiddenSize / numHeads;
+		this(hiddenSize, numHeads, 0, numHeads, queryKeyValue, dense, null, executor);
+	}
+
+	/**
+	 * Constructor of an attention or of a part of the heads of a tensor-parallel attention.
+	 * The partial outputs of the dense product are summed by the all-reduce.
+	 * @param hiddenSize size of hidden layer
+	 * @param numHeadsTotal number of attention-heads of the model
+	 * @param headOffset index of the first head of this part
+	 * @param numLocalHeads number of heads of this part
+	 * @param queryKeyValue weights to compute query, key and value of the heads of this part
+	 * @param dense linear dense transformation of the columns of the heads of this part
+	 * @param allReduce all-reduce of the partial outputs or <code>null</code>
+	 * @param executor executor
+	 */
+	public BloomAttention(final int hiddenSize, final int numHeadsTotal, final int headOffset, final int numLocalHeads,
+			Linear queryKeyValue, Linear dense, LlmAllReduce allReduce, LlmExecutor executor) {
+		this.numHeadsTotal = numHeadsTotal;
+		this.headOffset = headOffset;
+		this.numHeads = numLocalHeads;
+		headDim = hiddenSize / numHeadsTotal;
+		this.allReduce = allReduce;
 		
 		invNormFactor = (float) (1.0 / Math.sqrt(headDim));
 		beta = 1.0f;
@@ -55,38 +92,57 @@ public class BloomAttention {
 		this.executor = executor;
 	}
 	
+	/**
+	 * Sets the latency-metrics.
+	 * @param metrics metrics or <code>null</code>
+	 * @param layer layer of the attention
+	 */
+	public void setMetrics(final LlmMetrics metrics, final int layer) {
+		this.metrics = metrics;
+		this.layer = layer;
+	}
+
 	/**
 	 * Computes an attention.
 	 * 
 	 * <p>
 	 * @param hiddenStates input-tensor (batchSize, numSeq, hiddenSize)
 	 * @param fusedQkv temporary tensor ([batchSize][numSeq][3 * dimHidden])
-	 * @param numSeqLenCache <code>null</code> if no cache is used, numSeq in fusedQkv otherwise
+	 * @param numSeqLenCache <code>null</code> if no cache is used, number of rows computed in fusedQkv otherwise
 	 * @param alibi ALiBi-tensor of shape executor(batchSize * numHeads, 1, numSeq)
-	 * @param residual residual-tensor (batchSize, numSeq, hiddenSize)
-	 * @param attentionMask attention-mask (batchSize, 1, maxSeqLen, maxSeqLen)
-	 * @param output output-tensor (batchSize, seqLength, numHeads * headDim)
+	 * @param attentionMask attention-mask of the new tokens (batchSize, 1, numNewTokens, maxSeqLen)
+	 * @param output output-tensor (batchSize, seqLength, numHeads * headDim), the residual hasn't been added
 	 */
 	public void forward(float[][][] hiddenStates,
 			final float[][][] fusedQkv, final Integer numSeqLenCache,
-			final Tensor alibi,
-			final float[][][] residual, final boolean[][][][] attentionMask,
+			final Tensor alibi, final boolean[][][][] attentionMask,
 			final float[][][] output) {
 		final int batchSize = hiddenStates.length;
+		// number of new tokens (query-rows)
+		final int numQuery = hiddenStates[0].length;
+		// offset of the first new token
+		final int queryOffset;
 		final int numSeq;
+		final boolean timed = (metrics != null && metrics.isEnabled());
+		long tStart = timed ? System.nanoTime() : 0L;
 		if (numSeqLenCache == null) {
-			numSeq = hiddenStates[0].length;
+			queryOffset = 0;
+			numSeq = numQuery;
 			queryKeyValue.mult(hiddenStates, fusedQkv);
 		}
 		else {
-			// numSeqLenCache token-rows haven been processed already.
+			// numSeqLenCache token-rows haven been processed already, the hidden states contain the new tokens.
 			final int numSeqComputed = numSeqLenCache.intValue();
-			numSeq = numSeqComputed + 1;
+			queryOffset = numSeqComputed;
+			numSeq = numSeqComputed + numQuery;
 			if (LOG.isLoggable(Level.FINER)) {
 				LOG.finer(String.format("forward: numSeqComputed=%d", Integer.valueOf(numSeqComputed)));
 			}
 			queryKeyValue.multMinDim2(hiddenStates, fusedQkv, numSeqComputed);
 		}
+		if (timed) {
+			tStart = metrics.record(layer, LlmOp.QKV, tStart);
+		}
 		if (LOG.isLoggable(Level.FINER) ) {
 			LOG.finer(String.format("qKV (%d, %d, %d)", fusedQkv.length, fusedQkv[0].length, fusedQkv[0][0].length));
 			for(float[] row : fusedQkv[0]) {
@@ -106,77 +162,117 @@ public class BloomAttention {
 		// keyLayer[b + i * headDim][k][j] = fusedQkv[b][j][(i * 3 + 1) * headDim + k]
 		// valueLayer[b + i * headDim][j][k] = fusedQkv[b][j][(i * 3 + 2) * headDim + k]
 
-		float[][][][] multResult = new float[batchSize][numHeads][numSeq][numSeq];
-		alibi.baddbmmView4(numSeq, fusedQkv, 3, numHeads, headDim, 0, 1,
-				invNormFactor, beta, multResult);
+		// Only the rows of the new tokens are computed.
+		final float[][][] contextLayer = new float[batchSize][numQuery][numHeads * headDim];
+		attendHeads(fusedQkv, queryOffset, numQuery, numSeq, alibi.t3, attentionMask, contextLayer, timed);
+		if (timed) {
+			tStart = metrics.record(layer, LlmOp.ATTENTION, tStart);
+		}
+
 		if (LOG.isLoggable(Level.FINER) ) {
-			LOG.finer(String.format("multResult (%d, %d, %d, %d)",
-					multResult.length, multResult[0].length, multResult[0][0].length, multResult[0][0][0].length));
-			for (int h = 0; h < 3; h++) {
-				for (int r = 0; r < 3; r++) {
-					LOG.finer("Head " + h + ", row " + r + ": " + Arrays.toString(multResult[0][h][r]));
-				}
+			LOG.finer("after attendHeads");
+			for (int h = 0; h < 3 && h < numQuery; h++) {
+				LOG.finer("CtxLayer " + h + ": " + Arrays.toString(Arrays.copyOfRange(contextLayer[0][h], 0, 3)));
 			}
 		}
 
-		// multResult has to be viewed as (batchSize, numHeads, numSeq, numSeq)
-		// -> attention_scores
-
-		if (LOG.isLoggable(Level.FINER) ) {
-			LOG.finer(String.format("attionmask.size (%d, %d)", attentionMask.length, attentionMask[0].length));
+		// The residual is added by the following layer-norm.
+		dense.mult(contextLayer, output);
+		if (allReduce != null) {
+			allReduce.allReduceSum(output);
+		}
+		if (timed) {
+			metrics.record(layer, LlmOp.DENSE, tStart);
 		}
-		for (int b = 0; b < batchSize; b++) {
-			for (int h = 0; h < numHeads; h++) {
-				for (int i = 0; i < numSeq; i++) {
+	}
+
+	/**
+	 * Computes the context-layer of the new tokens, one task per batch-entry and head.
+	 *
+	 * <p>The scaled scores Q*K^T, the ALiBi-bias, the attention-mask, the softmax and
+	 * the product with V are computed in one pass on a row of scores. The heads are independent,
+	 * so this replaces the dispatches of baddbmm, softmax and bmm and the tensor of all scores.</p>
+	 * @param fusedQkv fused query, key and value (batchSize, numSeq, numHeads * 3 * headDim)
+	 * @param queryOffset position of the first new token
+	 * @param numQuery number of new tokens
+	 * @param numSeq number of tokens including the new tokens
+	 * @param alibi ALiBi-tensor (batchSize * numHeads, 1, numSeq)
+	 * @param attentionMask attention-mask of the new tokens (batchSize, 1, numQuery, maxSeqLen)
+	 * @param contextLayer context-layer to be computed (batchSize, numQuery, numHeads * headDim)
+	 * @param timed <code>true</code> if the times of scores, softmax and context are added to the metrics
+	 */
+	private void attendHeads(final float[][][] fusedQkv, final int queryOffset, final int numQuery, final int numSeq,
+			final float[][][] alibi, final boolean[][][][] attentionMask, final float[][][] contextLayer,
+			final boolean timed) {
+		final int batchSize = contextLayer.length;
+		final int costPerHead = 2 * numQuery * numSeq * headDim;
+		executor.startLoopTasks(batchSize * numHeads, costPerHead, (bhStart, bhEnd) -> () -> {
+			final float[] scores = new float[numSeq];
+			final double[] tmp = new double[numSeq];
+			long nanosScores = 0;
+			long nanosSoftmax = 0;
+			long nanosContext = 0;
+			long t = timed ? System.nanoTime() : 0L;
+			for (int bh = bhStart; bh < bhEnd; bh++) {
+				final int b = bh / numHeads;
+				final int h = bh % numHeads;
+				final int offsetQuery = (h * 3) * headDim;
+				final int offsetKey = (h * 3 + 1) * headDim;
+				final int offsetValue = (h * 3 + 2) * headDim;
+				final int hh = h * headDim;
+				final float[] alibiRow = alibi[b * numHeadsTotal + headOffset + h][0];
+				for (int i = 0; i < numQuery; i++) {
+					final float[] rowQuery = fusedQkv[b][queryOffset + i];
+					final boolean[] rowMask = attentionMask[b][0][i];
 					for (int j = 0; j < numSeq; j++) {
-						if (attentionMask[b][0][i][j]) {
-							multResult[b][h][i][j] = -3.4028e+38f;
+						if (rowMask[j]) {
+							scores[j] = -3.4028e+38f;
+							continue;
+						}
+						final float[] rowKey = fusedQkv[b][j];
+						float sum = 0f;
+						for (int k = 0; k < headDim; k++) {
+							sum += rowQuery[offsetQuery + k] * rowKey[offsetKey + k];
 						}
+						scores[j] = invNormFactor * sum + beta * alibiRow[j];
+					}
+					if (timed) {
+						final long tNow = System.nanoTime();
+						nanosScores += tNow - t;
+						t = tNow;
+					}
+					Softmax.softmaxInline(scores, numSeq, tmp);
+					if (timed) {
+						final long tNow = System.nanoTime();
+						nanosSoftmax += tNow - t;
+						t = tNow;
 					}
-				}
-			}
-		}
-
-		Softmax.softmaxInlineLastDim(multResult, executor);
 
-		if (LOG.isLoggable(Level.FINER) ) {
-			LOG.finer("After softmax");
-			for (int h = 0; h < 3; h++) {
-				for (int r = 0; r < 3; r++) {
-					LOG.finer("Head " + h + ", row " + r + ": " + Arrays.toString(multResult[0][h][r]));
+					// Row-wise accumulation reads the value-rows sequentially.
+					final float[] rowOut = contextLayer[b][i];
+					for (int j = 0; j < numSeq; j++) {
+						final float p = scores[j];
+						if (p == 0f) {
+							continue;
+						}
+						final float[] rowValue = fusedQkv[b][j];
+						for (int k = 0; k < headDim; k++) {
+							rowOut[hh + k] += p * rowValue[offsetValue + k];
+						}
+					}
+					if (timed) {
+						final long tNow = System.nanoTime();
+						nanosContext += tNow - t;
+						t = tNow;
+					}
 				}
 			}
-		}
-
-		// No attention dropout.
-
-		// fused_qkv = fused_qkv.view(batch_size, seq_length, self.num_heads, 3, self.head_dim)
-		// -> 3 * dimHidden = numHeads * 3 * headDim
-		// value_layer = value_layer.transpose(1, 2).reshape(batch_size * self.num_heads, q_length, self.head_dim)
-		// -> valueLayer (batchSize * numHeads, numSeq, headDim)s
-		// valueLayer[b + i * headDim][j][k] = fusedQkv[b][j][(i * 3 + 2) * headDim + k]
-		//
-		//float[][][][] multResult = new float[batchSize][numHeads][numSeq][numSeq];
-		float[][][] contextLayer = new float[batchSize][numSeq][numHeads * headDim];
-		Tensor.bmmView4(multResult, fusedQkv, numSeq, 3, numHeads, headDim, 2, contextLayer, executor);
-
-		if (LOG.isLoggable(Level.FINER) ) {
-			LOG.finer("after bmmView4");
-			for (int h = 0; h < 3; h++) {
-				LOG.finer("CtxLayer " + h + ": " + Arrays.toString(Arrays.copyOfRange(contextLayer[0][h], 0, 3)));
-			}
-		}
-
-		if (numSeqLenCache != null) {
-			// We need the last token-row only.
-			float[][][] contextLayerLast = new float[batchSize][1][];
-			for (int b = 0; b < batchSize; b++) {
-				contextLayerLast[b][0] = contextLayer[b][numSeqLenCache.intValue()];
+			if (timed) {
+				final int numRows = (bhEnd - bhStart) * numQuery;
+				metrics.addTaskTime(layer, LlmOp.SCORES, nanosScores, numRows);
+				metrics.addTaskTime(layer, LlmOp.SOFTMAX, nanosSoftmax, numRows);
+				metrics.addTaskTime(layer, LlmOp.CONTEXT, nanosContext, numRows);
 			}
-			contextLayer = contextLayerLast;
-		}
-		dense.mult(contextLayer, output);
-
-		Tensor.add(output, residual, output);
+		});
 	}
 }
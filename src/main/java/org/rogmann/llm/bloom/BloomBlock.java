@@ -8,13 +8,30 @@ import java.util.logging.Logger;
 
 import org.rogmann.llm.LlmConfigException;
 import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.metrics.LlmMetrics;
 import org.rogmann.llm.nn.LayerNorm;
 import org.rogmann.llm.nn.Linear;
 import org.rogmann.llm.nn.Tensor;
 import org.rogmann.llm.nn.TensorProvider;
+import org.rogmann.llm.parallel.LlmAllReduce;
+import org.rogmann.llm.parallel.TensorParallelConfig;
 
 /**
  * Class to execute a decoder block (e.g. layer) in the BLOOM-model.
+ *
+ * <p>Each stage of a block is computed in one dispatch over all rows of the batch:</p>
+ * <ol>
+ * <li>input layer-norm of all rows,</li>
+ * <li>query, key and value,</li>
+ * <li>attention of each batch-entry and head (scores, ALiBi, mask, softmax and context),</li>
+ * <li>dense,</li>
+ * <li>residual and post-attention layer-norm of all rows,</li>
+ * <li>MLP.</li>
+ * </ol>
+ * <p>A stage depends on the complete output of the previous stage (a matrix-product
+ * reads whole rows, the attention reads all previous tokens), so the stages are
+ * separated by the barrier of the executor. Small stages, e.g. the layer-norms of a single
+ * token, are executed inline.</p>
  */
 public class BloomBlock {
 	/** Logger */
@@ -45,6 +62,10 @@ public class BloomBlock {
 	private final BloomMLP mlp;
 
 	private final LlmExecutor executor;
+
+	/** linear layers of attention and MLP */
+	private final Linear[] linears;
+
 	
 	/** Interface to read a data-block of a model-file */
 	public static interface IsProvider {
@@ -58,6 +79,26 @@ public class BloomBlock {
 
 	public BloomBlock(final int batchSize, final int hiddenSize, final int numHeads,
 			int layer, TensorProvider mapTensor, LlmExecutor executor) throws IOException, LlmConfigException {
+		this(batchSize, hiddenSize, numHeads, layer, mapTensor, executor, null);
+	}
+
+	/**
+	 * Constructor of a block or of a block of a process of a tensor-parallel model.
+	 * The tensors of attention and MLP contain the part of the process only.
+	 * The biases of the dense products are added by rank 0.
+	 * @param batchSize batch-size
+	 * @param hiddenSize hidden size
+	 * @param numHeads number of heads of the model
+	 * @param layer index of the layer
+	 * @param mapTensor provider of the tensors
+	 * @param executor executor
+	 * @param tensorParallel configuration of a tensor-parallel process or <code>null</code>
+	 * @throws IOException in case of an IO-error
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	public BloomBlock(final int batchSize, final int hiddenSize, final int numHeads,
+			int layer, TensorProvider mapTensor, LlmExecutor executor,
+			TensorParallelConfig tensorParallel) throws IOException, LlmConfigException {
 		fHiddenSize = hiddenSize;
 		fNumHeads = numHeads;
 
@@ -85,21 +126,61 @@ public class BloomBlock {
 
 		inputLayerNorm = new LayerNorm(1e-5f, tInputLayernormWeight, tInputLayernormBias);
 
+		final boolean addsBias = (tensorParallel == null || tensorParallel.getRank() == 0);
+		final LlmAllReduce allReduce = (tensorParallel != null) ? tensorParallel.getAllReduce() : null;
 		final Linear queryKeyValue = new Linear(tSelfAttentionQueryKeyValueWeight, tSelfAttentionQueryKeyValueBias, executor);
-		final Linear dense = new Linear(tSelfAttentionDenseWeight, tSelfAttentionDenseBias, executor);
-		attention = new BloomAttention(hiddenSize, numHeads, queryKeyValue, dense, executor);
+		final Linear dense = addsBias ? new Linear(tSelfAttentionDenseWeight, tSelfAttentionDenseBias, executor)
+				: new Linear(tSelfAttentionDenseWeight, executor);
+		if (tensorParallel != null) {
+			final int headStart = tensorParallel.getPartStart(numHeads);
+			final int headEnd = tensorParallel.getPartEnd(numHeads);
+			attention = new BloomAttention(hiddenSize, numHeads, headStart, headEnd - headStart,
+					queryKeyValue, dense, allReduce, executor);
+		}
+		else {
+			attention = new BloomAttention(hiddenSize, numHeads, queryKeyValue, dense, executor);
+		}
 
 		postAttentionLayerNorm = new LayerNorm(1e-5f, tPostAttentionLayernormWeight, tPostAttentionLayernormBias);
 
 		final Linear denseHTo4H = new Linear(tMlpDenseHTo4HWeight, tMlpDenseHTo4HBias, executor);
-		final Linear dense4HToH = new Linear(tMlpDense4HToHWeight, tMlpDense4HToHBias, executor);
-		mlp = new BloomMLP(denseHTo4H, dense4HToH, executor);
+		final Linear dense4HToH = addsBias ? new Linear(tMlpDense4HToHWeight, tMlpDense4HToHBias, executor)
+				: new Linear(tMlpDense4HToHWeight, executor);
+		mlp = new BloomMLP(denseHTo4H, dense4HToH, allReduce, addsBias);
+		linears = new Linear[] { queryKeyValue, dense, denseHTo4H, dense4HToH };
 		
 		this.executor = executor;
 	}
 
+	/**
+	 * Copies the rows of the weights in the threads which use them, see {@link Linear#localizeRows()}.
+	 */
+	public void localizeWeights() {
+		for (Linear linear : linears) {
+			linear.localizeRows();
+		}
+	}
+
+	/**
+	 * Sets the latency-metrics of attention and MLP.
+	 * @param metrics metrics or <code>null</code>
+	 */
+	public void setMetrics(final LlmMetrics metrics) {
+		attention.setMetrics(metrics, fLayer);
+		mlp.setMetrics(metrics, fLayer);
+	}
+
+	/**
+	 * Gets the size of the rows of the intermediate tensor of the MLP.
+	 * @return size of the rows of the h-to-4h product (of this part)
+	 */
+	public int getIntermediateSize() {
+		return mlp.getIntermediateSize();
+	}
+
 	/**
 	 * Computes a BLOOM-block.
+	 * The temporary tensors of layer-norm and MLP are allocated in each call.
 	 * @param hiddenStates tensor (batchSize, numSeq, hiddenSize)
 	 * @param fusedQkv temporary tensor ([batchSize][numSeq][3 * dimHidden])
 	 * @param numSeqLenCache <code>null</code> if no cache is used, numSeq in fusedQkv otherwise
@@ -114,43 +195,51 @@ public class BloomBlock {
 			final float[][][] output) {
 		final int batchSize = hiddenStates.length;
 		final int numSeq = hiddenStates[0].length;
-		final float[][][] layernormOutput = new float[batchSize][numSeq][];
-		for (int idxI = 0; idxI < batchSize; idxI++) {
-			final int i = idxI;
-			executor.startLoopTasks(numSeq, (jStart, jEnd) -> () -> {
-				for (int j = jStart; j < jEnd; j++) {
-					layernormOutput[i][j] = inputLayerNorm.normalize(hiddenStates[i][j]);
-				}
-			});
-		}
+		forward(hiddenStates, fusedQkv, numSeqLenCache, attentionMask, alibi, attentionResidual,
+				new float[batchSize][numSeq][fHiddenSize], new float[batchSize][numSeq][getIntermediateSize()],
+				output);
+	}
+
+	/**
+	 * Computes a BLOOM-block.
+	 * The temporary tensors are given by the caller, so a block can be used by several threads at the same time.
+	 * @param hiddenStates tensor (batchSize, numSeq, hiddenSize)
+	 * @param fusedQkv temporary tensor ([batchSize][numSeq][3 * dimHidden])
+	 * @param numSeqLenCache <code>null</code> if no cache is used, numSeq in fusedQkv otherwise
+	 * @param attentionMask attention mask
+	 * @param alibi ALiBi-tensor
+	 * @param attentionResidual attention residual
+	 * @param layernormOutput temporary tensor of the layer-norms (batchSize, numSeq, hiddenSize)
+	 * @param hidden4H temporary tensor of the MLP (batchSize, numSeq, intermediateSize), see {@link #getIntermediateSize()}
+	 * @param output output tensor (batchSize, numSeq, hiddenSize)
+	 */
+	public void forward(final float[][][] hiddenStates,
+			final float[][][] fusedQkv, final Integer numSeqLenCache,
+			final boolean[][][][] attentionMask, final Tensor alibi, final float[][][] attentionResidual,
+			final float[][][] layernormOutput, final float[][][] hidden4H,
+			final float[][][] output) {
+		inputLayerNorm.normalizeRows(hiddenStates, layernormOutput, executor);
 		if (LOG.isLoggable(Level.FINER)) {
 			for (float[] row : layernormOutput[0]) {
 				LOG.finer("Layernorm-output: " + Arrays.toString(Arrays.copyOfRange(row, 0, 3)));
 			}
 		}
 
-		attention.forward(layernormOutput, fusedQkv, numSeqLenCache, alibi, hiddenStates, attentionMask, attentionResidual);
+		attention.forward(layernormOutput, fusedQkv, numSeqLenCache, alibi, attentionMask, attentionResidual);
 		if (LOG.isLoggable(Level.FINER)) {
 			for (int h = 0; h < 3 && h < attentionResidual[0].length; h++) {
 				LOG.finer("attention.out " + h + ": " + Arrays.toString(Arrays.copyOfRange(attentionResidual[0][h], 0, 3)));
 			}
 		}
 
-		for (int idxI = 0; idxI < batchSize; idxI++) {
-			final int i = idxI;
-			executor.startLoopTasks(numSeq, (jStart, jEnd) -> () -> {
-				for (int j = jStart; j < jEnd; j++) {
-					layernormOutput[i][j] = postAttentionLayerNorm.normalize(attentionResidual[i][j]);
-				}
-			});
-		}
+		postAttentionLayerNorm.addNormalizeRows(attentionResidual, hiddenStates, attentionResidual, layernormOutput, executor);
 		if (LOG.isLoggable(Level.FINER)) {
 			for (float[] row : layernormOutput[0]) {
 				LOG.finer("attn/Layernorm-output: " + Arrays.toString(Arrays.copyOfRange(row, 0, 3)));
 			}
 		}
 
-		mlp.forward(layernormOutput, attentionResidual, output);
+		mlp.forward(layernormOutput, attentionResidual, hidden4H, output);
 		if (LOG.isLoggable(Level.FINE)) {
 			for (int h = 0; h < 3 && h < output[0].length; h++) {
 				LOG.fine("mlp.out " + h + ": " + Arrays.toString(Arrays.copyOfRange(output[0][h], 0, 3)));
@@ -7,8 +7,14 @@ import org.rogmann.llm.LlmExecutor;
  * Adapted from Megatron-DeepSpeed code.
  * 
  * <p>x * 0.5 * (1.0 + torch.tanh(0.79788456 * x * (1 + 0.044715 * x * x)))</p>
+ *
+ * @deprecated The GELU is computed in the epilogue of the h-to-4h product, see {@link BloomMLP#gelu(float)}.
  */
+@Deprecated
 public class BloomGELU {
+	/** estimated number of operations of one element (tanh) */
+	private static final int COST_PER_ELEMENT = 16;
+
 	/** executor */
 	private final LlmExecutor executor;
 
@@ -32,39 +38,15 @@ public class BloomGELU {
 		for (int i = 0; i < d1; i++) {
 			final float[][] m1 = input[i];
 			final float[][] m2 = output[i];
-			if (d2 == 1) {
-				final int j = 0;
-				final float[] r1 = m1[j];
-				final float[] r2 = m2[j];
-				executor.startLoopTasks(d3, (kStart, kEnd) -> () -> {
-					for (int k = kStart; k < kEnd; k++) {
-						final float x = r1[k];
-						final float z = 1f + 0.044715f * x * x;
-						final float y = 1.0f + (float) (Math.tanh(0.79788456f * x * z));
-						r2[k] = x * 0.5f * y;
-						if (Float.isNaN(r2[k])) {
-							throw new IllegalStateException("Nan");
-						}
-					}
-				});
-			}
-			else {
-				executor.startLoopTasks(d2, (jStart, jEnd) -> () -> {
-					for (int j = jStart; j < jEnd; j++) {
-						final float[] r1 = m1[j];
-						final float[] r2 = m2[j];
-						for (int k = 0; k < d3; k++) {
-							final float x = r1[k];
-							final float z = 1f + 0.044715f * x * x;
-							final float y = 1.0f + (float) (Math.tanh(0.79788456f * x * z));
-							r2[k] = x * 0.5f * y;
-							if (Float.isNaN(r2[k])) {
-								throw new IllegalStateException("Nan");
-							}
-						}
+			executor.startLoopTasks(d2, COST_PER_ELEMENT * d3, (jStart, jEnd) -> () -> {
+				for (int j = jStart; j < jEnd; j++) {
+					final float[] r1 = m1[j];
+					final float[] r2 = m2[j];
+					for (int k = 0; k < d3; k++) {
+						r2[k] = BloomMLP.gelu(r1[k]);
 					}
-				});
-			}
+				}
+			});
 		}
 	}
 }
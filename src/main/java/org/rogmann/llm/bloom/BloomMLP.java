@@ -1,41 +1,137 @@
 package org.rogmann.llm.bloom;
 
 import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.metrics.LlmMetrics;
+import org.rogmann.llm.metrics.LlmOp;
+import org.rogmann.llm.nn.Activation;
 import org.rogmann.llm.nn.Linear;
-import org.rogmann.llm.nn.Tensor;
+import org.rogmann.llm.parallel.LlmAllReduce;
 
 /**
  * MLP (multilayer perceptron) of BLOOM.
+ *
+ * <p>The GELU is computed in the epilogue of the h-to-4h product and the residual
+ * is added in the epilogue of the 4h-to-h product. The intermediate tensor is given by the caller,
+ * an instance can be used by several threads at the same time.</p>
  */
 public class BloomMLP {
+	/** GELU of BLOOM */
+	private static final Activation GELU = BloomMLP::gelu;
 
 	private final Linear denseHTo4H;
 	private final Linear dense4HToH;
-	private final BloomGELU gelu;
 
+	/** all-reduce of the partial outputs of a tensor-parallel model or <code>null</code> */
+	private final LlmAllReduce allReduce;
+
+	/** <code>true</code> if this part adds the residual */
+	private final boolean addsResidual;
+
+	/** latency-metrics or <code>null</code> */
+	private LlmMetrics metrics;
+
+	/** layer of the MLP (used in the metrics) */
+	private int layer;
+
+	public BloomMLP(final Linear denseHTo4H, final Linear dense4HToH) {
+		this(denseHTo4H, dense4HToH, null, true);
+	}
+
+	/**
+	 * Constructor
+	 * @param denseHTo4H h-to-4h product
+	 * @param dense4HToH 4h-to-h product
+	 * @param executor executor (not used, the products use the executors of the linear layers)
+	 * @deprecated use {@link #BloomMLP(Linear, Linear)}
+	 */
+	@Deprecated
 	public BloomMLP(final Linear denseHTo4H, final Linear dense4HToH, LlmExecutor executor) {
+		this(denseHTo4H, dense4HToH, null, true);
+	}
+
+	/**
+	 * Constructor of a MLP or of a part of a tensor-parallel MLP.
+	 * A part computes some rows of the h-to-4h product and the corresponding columns of the 4h-to-h product,
+	 * the partial outputs are summed by the all-reduce. Only one part adds the bias and the residual.
+	 * @param denseHTo4H h-to-4h product
+	 * @param dense4HToH 4h-to-h product
+	 * @param allReduce all-reduce of the partial outputs or <code>null</code>
+	 * @param addsResidual <code>true</code> if this part adds the residual
+	 */
+	public BloomMLP(final Linear denseHTo4H, final Linear dense4HToH, final LlmAllReduce allReduce,
+			final boolean addsResidual) {
 		this.denseHTo4H = denseHTo4H;
 		this.dense4HToH = dense4HToH;
-		this.gelu = new BloomGELU(executor);
+		this.allReduce = allReduce;
+		this.addsResidual = addsResidual;
 	}
 	
+	/**
+	 * Sets the latency-metrics.
+	 * @param metrics metrics or <code>null</code>
+	 * @param layer layer of the MLP
+	 */
+	public void setMetrics(final LlmMetrics metrics, final int layer) {
+		this.metrics = metrics;
+		this.layer = layer;
+	}
+
+	/**
+	 * Gets the size of the rows of the intermediate tensor.
+	 * @return number of rows of the h-to-4h product (of this part)
+	 */
+	public int getIntermediateSize() {
+		return denseHTo4H.getOutputSize();
+	}
+
 	/**
 	 * Does a feedforward computation.
+	 * The intermediate tensor is allocated in each call.
 	 * @param hiddenStates input-tensor (batchSize, numSeq, hiddenSize)
 	 * @param residual residual-tensor (batchSize, numSeq, hiddenSize)
 	 * @param output output-tensor (batchSize, numSeq, hiddenSize)
 	 */
 	public void forward(float[][][] hiddenStates, float[][][] residual, final float[][][] output) {
-		final int batchSize = hiddenStates.length;
-		final int numSeq = hiddenStates[0].length;
-		final int dimHidden = hiddenStates[0][0].length;
+		final float[][][] hidden4H = new float[hiddenStates.length][hiddenStates[0].length][getIntermediateSize()];
+		forward(hiddenStates, residual, hidden4H, output);
+	}
 
-		final float[][][] hidden4H = new float[batchSize][numSeq][4 * dimHidden];
-		denseHTo4H.mult(hiddenStates, hidden4H);
-		gelu.forward(hidden4H, hidden4H);
+	/**
+	 * Does a feedforward computation.
+	 * @param hiddenStates input-tensor (batchSize, numSeq, hiddenSize)
+	 * @param residual residual-tensor (batchSize, numSeq, hiddenSize)
+	 * @param hidden4H temporary tensor (batchSize, numSeq, intermediateSize), see {@link #getIntermediateSize()}
+	 * @param output output-tensor (batchSize, numSeq, hiddenSize)
+	 */
+	public void forward(float[][][] hiddenStates, float[][][] residual, final float[][][] hidden4H,
+			final float[][][] output) {
+		final boolean timed = (metrics != null && metrics.isEnabled());
+		final long tStart = timed ? System.nanoTime() : 0L;
 
-		dense4HToH.mult(hidden4H, output);
+		denseHTo4H.multActivation(hiddenStates, GELU, hidden4H);
 
-		Tensor.add(output, residual, output);
+		if (addsResidual) {
+			dense4HToH.multAddResidual(hidden4H, residual, output);
+		}
+		else {
+			dense4HToH.mult(hidden4H, output);
+		}
+		if (allReduce != null) {
+			allReduce.allReduceSum(output);
+		}
+		if (timed) {
+			metrics.record(layer, LlmOp.MLP, tStart);
+		}
+	}
+
+	/**
+	 * GELU (Gaussian Error Linear Unit) in the tanh-approximation of BLOOM.
+	 * @param x input
+	 * @return x * 0.5 * (1.0 + tanh(0.79788456 * x * (1 + 0.044715 * x * x)))
+	 */
+	public static float gelu(final float x) {
+		final float z = 1f + 0.044715f * x * x;
+		final float y = 1.0f + (float) (Math.tanh(0.79788456f * x * z));
+		return x * 0.5f * y;
 	}
 }
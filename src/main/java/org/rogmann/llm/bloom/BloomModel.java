@@ -1,6 +1,5 @@
 package org.rogmann.llm.bloom;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -13,16 +12,23 @@ import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.rogmann.llm.LlmCancellationToken;
+import org.rogmann.llm.LlmCancelledException;
 import org.rogmann.llm.LlmConfigException;
 import org.rogmann.llm.LlmExecutor;
 import org.rogmann.llm.ModelReader;
 import org.rogmann.llm.ModelReaderBinary;
+import org.rogmann.llm.metrics.LlmMetrics;
+import org.rogmann.llm.metrics.LlmPhase;
 import org.rogmann.llm.nn.Embeddings;
 import org.rogmann.llm.nn.LayerNorm;
 import org.rogmann.llm.nn.PickleReducerTorch;
 import org.rogmann.llm.nn.Tensor;
 import org.rogmann.llm.nn.TensorProvider;
+import org.rogmann.llm.parallel.PipelineStageConfig;
+import org.rogmann.llm.parallel.TensorParallelConfig;
 import org.rogmann.llm.pickle.PickleReader;
+import org.rogmann.llm.tokenizer.PaddedBatch;
 import org.rogmann.llm.tokenizer.Tokenizer;
 
 public class BloomModel implements TensorProvider {
@@ -38,6 +44,27 @@ public class BloomModel implements TensorProvider {
 
 	/** maximum batch-size */
 	protected final int maxBatchSize;
+
+	/** configuration of a tensor-parallel process or <code>null</code> */
+	private final TensorParallelConfig tensorParallel;
+
+	/** number of heads computed in this process */
+	private final int numLocalHeads;
+
+	/** configuration of a pipeline-stage or <code>null</code> */
+	private final PipelineStageConfig pipelineStage;
+
+	/** first layer computed in this process */
+	private final int layerStart;
+
+	/** end of the layers computed in this process */
+	private final int layerEnd;
+
+	/** id of the end-of-sequence token */
+	private final int eosTokenId;
+
+	/** id of the padding token */
+	private final int padTokenId;
 	
 	/** map from key to tensor */
 	private final Map<String, Tensor> mapTensors = new HashMap<>(100);
@@ -45,7 +72,7 @@ public class BloomModel implements TensorProvider {
 	/** key-prefix, e.g. "" or "transformer." */
 	private final String keyPrefix;
 
-	/** embeddings of token in hidden states */
+	/** embeddings of token in hidden states (<code>null</code> in a pipeline-stage without embeddings) */
 	private final Embeddings embeddings;
 
 	private final LayerNorm wordEmbeddingsLayerNorm;
@@ -56,10 +83,81 @@ public class BloomModel implements TensorProvider {
 
 	private final LlmExecutor executor;
 
+	/** latency-metrics of the operations (disabled by default) */
+	private final LlmMetrics metrics;
+
 	public BloomModel(ModelReader modelReader, int maxBatchSize, LlmExecutor executor) throws IOException, LlmConfigException {
+		this(modelReader, maxBatchSize, executor, null, null);
+	}
+
+	/**
+	 * Constructor of a model or of a process of a tensor-parallel model.
+	 *
+	 * <p>A process of a tensor-parallel model reads its part of the heads of query, key and value
+	 * and of the rows of the h-to-4h product. The dense products after the attention and
+	 * the MLP read the corresponding columns, their partial sums are summed by an all-reduce.
+	 * Embeddings and layer-norms are read by each process.</p>
+	 * @param modelReader model-reader
+	 * @param maxBatchSize maximum batch-size
+	 * @param executor executor
+	 * @param tensorParallel configuration of a tensor-parallel process or <code>null</code>
+	 * @throws IOException in case of an IO-error
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	public BloomModel(ModelReader modelReader, int maxBatchSize, LlmExecutor executor,
+			TensorParallelConfig tensorParallel) throws IOException, LlmConfigException {
+		this(modelReader, maxBatchSize, executor, tensorParallel, null);
+	}
+
+	/**
+	 * Constructor of a stage of a pipeline-parallel model.
+	 *
+	 * <p>A stage reads the tensors of its layers only. The first stage reads the word-embeddings
+	 * and its layer-norm, the last stage reads the final layer-norm.
+	 * A stage is executed by {@link #forwardStage(int[][], float[][][], float[][], float[][][][], Integer, LlmCancellationToken)}.</p>
+	 * @param modelReader model-reader
+	 * @param maxBatchSize maximum batch-size
+	 * @param executor executor
+	 * @param pipelineStage configuration of the stage
+	 * @throws IOException in case of an IO-error
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	public BloomModel(ModelReader modelReader, int maxBatchSize, LlmExecutor executor,
+			PipelineStageConfig pipelineStage) throws IOException, LlmConfigException {
+		this(modelReader, maxBatchSize, executor, null, pipelineStage);
+	}
+
+	/**
+	 * Constructor of a model, a process of a tensor-parallel model or a pipeline-stage.
+	 * @param modelReader model-reader
+	 * @param maxBatchSize maximum batch-size
+	 * @param executor executor
+	 * @param tensorParallel configuration of a tensor-parallel process or <code>null</code>
+	 * @param pipelineStage configuration of a pipeline-stage or <code>null</code>
+	 * @throws IOException in case of an IO-error
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	public BloomModel(ModelReader modelReader, int maxBatchSize, LlmExecutor executor,
+			TensorParallelConfig tensorParallel, PipelineStageConfig pipelineStage) throws IOException, LlmConfigException {
 		this.numLayers = modelReader.nLayer;
 		this.numHeads = modelReader.nHead;
 		this.hiddenSize = modelReader.hiddenSize;
+		this.tensorParallel = tensorParallel;
+		if (tensorParallel != null && tensorParallel.getWorldSize() > numHeads) {
+			throw new LlmConfigException(String.format("World-size %d exceeds the number of heads %d",
+					Integer.valueOf(tensorParallel.getWorldSize()), Integer.valueOf(numHeads)));
+		}
+		this.numLocalHeads = (tensorParallel != null)
+				? tensorParallel.getPartEnd(numHeads) - tensorParallel.getPartStart(numHeads) : numHeads;
+		if (pipelineStage != null && pipelineStage.getNumStages() > numLayers) {
+			throw new LlmConfigException(String.format("Number of stages %d exceeds the number of layers %d",
+					Integer.valueOf(pipelineStage.getNumStages()), Integer.valueOf(numLayers)));
+		}
+		this.pipelineStage = pipelineStage;
+		this.layerStart = (pipelineStage != null) ? pipelineStage.getLayerStart(numLayers) : 0;
+		this.layerEnd = (pipelineStage != null) ? pipelineStage.getLayerEnd(numLayers) : numLayers;
+		final boolean isFirstStage = (pipelineStage == null || pipelineStage.isFirst());
+		final boolean isLastStage = (pipelineStage == null || pipelineStage.isLast());
 		LOG.info(String.format("Read %s-model '%s' with %d %s, %d %s and hidden size %d",
 				modelReader.modelType, modelReader.getModelName(),
 				Integer.valueOf(numLayers), (numLayers == 1) ? "layer" : "layers",
@@ -67,6 +165,8 @@ public class BloomModel implements TensorProvider {
 				Integer.valueOf(hiddenSize)));
 		this.executor = executor;
 		this.maxBatchSize = maxBatchSize;
+		this.eosTokenId = modelReader.eosTokenId;
+		this.padTokenId = modelReader.padTokenId;
 		
 		String keyPrefix = "";
 		
@@ -74,21 +174,26 @@ public class BloomModel implements TensorProvider {
 		for (File modelFile : modelFiles) {
 			LOG.info("Read model-file " + modelFile.getName());
 			try (ModelReaderBinary readerBinary = new ModelReaderBinary(modelFile, modelReader.supportUnpacked())) {
-				final Map<String, Object> result;
-				try (BufferedInputStream bis = new BufferedInputStream(readerBinary.getAsStream("data.pkl"))) {
-					PickleReader reader = new PickleReader(bis, new PickleReducerTorch(executor));
-					@SuppressWarnings("unchecked")
-					final Map<String, Object> mResult = reader.getResult(Map.class);
-					result = mResult;
-				}
+				final PickleReader reader = new PickleReader(readerBinary.getAsBuffer("data.pkl"), new PickleReducerTorch(executor));
+				@SuppressWarnings("unchecked")
+				final Map<String, Object> result = reader.getResult(Map.class);
 				LOG.info("pickle-map.size: " + result.size());
 				for (Entry<String, Object> entry : result.entrySet()) {
 					final String key = entry.getKey();
 					final Object oValue = entry.getValue();
 					if (oValue instanceof Tensor) {
+						if (pipelineStage != null && !isTensorOfStage(key, isFirstStage, isLastStage)) {
+							continue;
+						}
 						final Tensor tensor = (Tensor) oValue;
 						try {
-							tensor.readTensorData(key, readerBinary);
+							if (tensorParallel != null) {
+								final int[] slice = computeShardSlice(key, tensor.getShape(), numHeads, hiddenSize, tensorParallel);
+								tensor.readTensorData(key, readerBinary, slice[0], slice[1], slice[2], slice[3]);
+							}
+							else {
+								tensor.readTensorData(key, readerBinary);
+							}
 						} catch (LlmConfigException e) {
 							throw new LlmConfigException("Configuration error when reading tensor " + key, e);
 						}
@@ -109,41 +214,142 @@ public class BloomModel implements TensorProvider {
 		}
 		this.keyPrefix = keyPrefix;
 		
-		final float[][] tWeights = get("word_embeddings.weight").t2;
-		embeddings = new Embeddings(tWeights, executor);
+		if (isFirstStage) {
+			final float[][] tWeights = get("word_embeddings.weight").t2;
+			embeddings = new Embeddings(tWeights, executor);
 
-		final float[] tWordEmbeddingsLayernomWeight = get("word_embeddings_layernorm.weight").t1;
-		final float[] tWordEmbeddingsLayernomBias = get("word_embeddings_layernorm.bias").t1;
-		LOG.finer("we.weight: " + Arrays.toString(Arrays.copyOfRange(tWordEmbeddingsLayernomWeight, 0, 5)));
-		LOG.finer("we.bias:   " + Arrays.toString(Arrays.copyOfRange(tWordEmbeddingsLayernomBias, 0, 5)));
-		wordEmbeddingsLayerNorm = new LayerNorm(1e-5f, tWordEmbeddingsLayernomWeight, tWordEmbeddingsLayernomBias);
+			final float[] tWordEmbeddingsLayernomWeight = get("word_embeddings_layernorm.weight").t1;
+			final float[] tWordEmbeddingsLayernomBias = get("word_embeddings_layernorm.bias").t1;
+			LOG.finer("we.weight: " + Arrays.toString(Arrays.copyOfRange(tWordEmbeddingsLayernomWeight, 0, 5)));
+			LOG.finer("we.bias:   " + Arrays.toString(Arrays.copyOfRange(tWordEmbeddingsLayernomBias, 0, 5)));
+			wordEmbeddingsLayerNorm = new LayerNorm(1e-5f, tWordEmbeddingsLayernomWeight, tWordEmbeddingsLayernomBias);
+		}
+		else {
+			embeddings = null;
+			wordEmbeddingsLayerNorm = null;
+		}
 
+		// A pipeline-stage has the blocks of its layers only.
+		metrics = new LlmMetrics(numLayers);
 		blocks = new BloomBlock[numLayers];
-		for (int i = 0; i < numLayers; i++) {
+		for (int i = layerStart; i < layerEnd; i++) {
 			final int layer = i;
 			LOG.info("Load Layer " + layer);
 			try {
 				blocks[i] = new BloomBlock(maxBatchSize, hiddenSize, numHeads, i,
-					this, executor);
+					this, executor, tensorParallel);
 			} catch (IOException e) {
 				throw new IOException("IO-exception while reading block of layer " + i, e);
 			}
+			blocks[i].setMetrics(metrics);
 		}
 
-		final float[] tLnFWeight = get("ln_f.weight").t1;
-		final float[] tLnFBias = get("ln_f.bias").t1;
-		lnF = new LayerNorm(1e-5f, tLnFWeight, tLnFBias);
+		if (isLastStage) {
+			final float[] tLnFWeight = get("ln_f.weight").t1;
+			final float[] tLnFBias = get("ln_f.bias").t1;
+			lnF = new LayerNorm(1e-5f, tLnFWeight, tLnFBias);
+		}
+		else {
+			lnF = null;
+		}
+
+	}
 
+	/**
+	 * Checks if a tensor is used by a pipeline-stage.
+	 * @param key key of the tensor, e.g. "transformer.h.3.mlp.dense_h_to_4h.weight"
+	 * @param isFirstStage <code>true</code> if the stage computes the word-embeddings
+	 * @param isLastStage <code>true</code> if the stage computes the final layer-norm
+	 * @return <code>true</code> if the tensor is used
+	 */
+	private boolean isTensorOfStage(final String key, final boolean isFirstStage, final boolean isLastStage) {
+		final String name = key.startsWith("transformer.") ? key.substring("transformer.".length()) : key;
+		if (name.startsWith("h.")) {
+			final int idxDot = name.indexOf('.', 2);
+			final int layer;
+			try {
+				layer = Integer.parseInt(name.substring(2, (idxDot > 0) ? idxDot : name.length()));
+			}
+			catch (NumberFormatException e) {
+				return true;
+			}
+			return layer >= layerStart && layer < layerEnd;
+		}
+		if (name.startsWith("word_embeddings")) {
+			return isFirstStage;
+		}
+		if (name.startsWith("ln_f.")) {
+			return isLastStage;
+		}
+		return true;
 	}
 
 	/**
 	 * Gets the embeddings of the token into the hidden states.
-	 * @return embeddings
+	 * @return embeddings, <code>null</code> in a pipeline-stage which isn't the first one
 	 */
 	public Embeddings getEmbeddings() {
 		return embeddings;
 	}
 
+	/**
+	 * Gets the latency-metrics of the operations of this model.
+	 * The metrics are disabled by default, see {@link LlmMetrics#setEnabled(boolean)}.
+	 * @return metrics
+	 */
+	public LlmMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Copies the rows of the weight-matrices in the worker-threads which use them.
+	 *
+	 * <p>Linux allocates a page in the NUMA-node of the thread which touches it first.
+	 * After loading, all weights have been touched by the loading thread. With a pinned
+	 * worker-pool (see {@link org.rogmann.llm.LlmThreadAffinity#planCpus(int)}) and
+	 * <code>-XX:+UseNUMA</code> each worker gets its row-ranges in its own node.</p>
+	 */
+	public void localizeWeights() {
+		for (int layer = layerStart; layer < layerEnd; layer++) {
+			blocks[layer].localizeWeights();
+		}
+		if (embeddings != null) {
+			embeddings.localizeRows();
+		}
+	}
+
+	/**
+	 * Computes the slice of a tensor read by a process of a tensor-parallel model.
+	 * @param key key of the tensor
+	 * @param shape shape of the tensor
+	 * @param numHeads number of heads
+	 * @param hiddenSize hidden size
+	 * @param tp configuration of the process
+	 * @return row-start, row-end, column-start and column-end
+	 */
+	static int[] computeShardSlice(final String key, final int[] shape, final int numHeads, final int hiddenSize,
+			final TensorParallelConfig tp) {
+		final int numRows = shape[0];
+		final int numCols = (shape.length > 1) ? shape[1] : 0;
+		final int headDim = hiddenSize / numHeads;
+		final int headStart = tp.getPartStart(numHeads);
+		final int headEnd = tp.getPartEnd(numHeads);
+		if (key.endsWith(".self_attention.query_key_value.weight") || key.endsWith(".self_attention.query_key_value.bias")) {
+			// The rows of a head (query, key and value) are consecutive.
+			return new int[] { headStart * 3 * headDim, headEnd * 3 * headDim, 0, numCols };
+		}
+		if (key.endsWith(".self_attention.dense.weight")) {
+			return new int[] { 0, numRows, headStart * headDim, headEnd * headDim };
+		}
+		if (key.endsWith(".mlp.dense_h_to_4h.weight") || key.endsWith(".mlp.dense_h_to_4h.bias")) {
+			return new int[] { tp.getPartStart(numRows), tp.getPartEnd(numRows), 0, numCols };
+		}
+		if (key.endsWith(".mlp.dense_4h_to_h.weight")) {
+			return new int[] { 0, numRows, tp.getPartStart(numCols), tp.getPartEnd(numCols) };
+		}
+		return new int[] { 0, numRows, 0, numCols };
+	}
+
 	/**
 	 * Gets the number of layers of the transformer model.
 	 * @return number of layers
@@ -152,6 +358,30 @@ public class BloomModel implements TensorProvider {
 		return numLayers;
 	}
 
+	/**
+	 * Gets the configuration of the pipeline-stage.
+	 * @return configuration or <code>null</code> if the model isn't a pipeline-stage
+	 */
+	public PipelineStageConfig getPipelineStage() {
+		return pipelineStage;
+	}
+
+	/**
+	 * Gets the first layer computed by this process.
+	 * @return 0 or the first layer of a pipeline-stage
+	 */
+	public int getLayerStart() {
+		return layerStart;
+	}
+
+	/**
+	 * Gets the end of the layers computed by this process.
+	 * @return number of layers or the end of the layers of a pipeline-stage
+	 */
+	public int getLayerEnd() {
+		return layerEnd;
+	}
+
 	/**
 	 * Gets the dimension of the hidden size.
 	 * @return hidden size
@@ -160,6 +390,31 @@ public class BloomModel implements TensorProvider {
 		return hiddenSize;
 	}
 
+	/**
+	 * Gets the size of the rows of the fusedQkv-cache.
+	 * A process of a tensor-parallel model stores its heads only.
+	 * @return 3 * hiddenSize or 3 * headDim * number of heads of the process
+	 */
+	public int getFusedQkvSize() {
+		return 3 * (hiddenSize / numHeads) * numLocalHeads;
+	}
+
+	/**
+	 * Gets the id of the end-of-sequence token.
+	 * @return token-id
+	 */
+	public int getEosTokenId() {
+		return eosTokenId;
+	}
+
+	/**
+	 * Gets the id of the padding token.
+	 * @return token-id
+	 */
+	public int getPadTokenId() {
+		return padTokenId;
+	}
+
 	/**
 	 * Reads a configured tensor.
 	 * @param key key of the tensor
@@ -187,7 +442,7 @@ public class BloomModel implements TensorProvider {
 	public float[][][] forward(final int[][] inputIds) {
 		final int batchSize = inputIds.length;
 		final int numSeq = inputIds[0].length;
-		final float[][][] fusedQkv = new float[batchSize][numSeq][3 * hiddenSize];
+		final float[][][] fusedQkv = new float[batchSize][numSeq][getFusedQkvSize()];
 		float[][][][] layersFusedQkv = new float[numLayers][][][];
 		// We use the same temporary tensor in each layer.
 		Arrays.fill(layersFusedQkv, fusedQkv);
@@ -204,9 +459,45 @@ public class BloomModel implements TensorProvider {
 	 */
 	public float[][][][] forward(final int[][] inputIds,
 			final float[][][][] layersFusedQkv, final Integer numSeqLenCache) {
+		return forward(inputIds, null, layersFusedQkv, numSeqLenCache);
+	}
+
+	/**
+	 * Executes the model on a batch of padded rows.
+	 * @param inputIds input-ids (batchSize, numSeq)
+	 * @param attentionMask <code>null</code> or attention-mask (batchSize, numSeqLenCache + numSeq), 1 = token, 0 = padding
+	 * @param layersFusedQkv fusedQkv-tensor to be used in attention-computation (numLayers, batchSize, numSeq, 3 * hiddenSize)
+	 * @param numSeqLenCache <code>null</code> if no cache is used, numSeq in fusedQkv otherwise
+	 * @return hidden states (layers + 1, batchSize, seqLen, dim of weights)
+	 */
+	public float[][][][] forward(final int[][] inputIds, final float[][] attentionMask,
+			final float[][][][] layersFusedQkv, final Integer numSeqLenCache) {
+		return forward(inputIds, attentionMask, layersFusedQkv, numSeqLenCache, null);
+	}
+
+	/**
+	 * Executes the model on a batch of padded rows.
+	 * If a cache is used the input-ids may contain several new tokens which are appended to the cache.
+	 * The computation can be cancelled between two layers.
+	 * @param inputIds input-ids (batchSize, numSeq)
+	 * @param attentionMask <code>null</code> or attention-mask (batchSize, numSeqLenCache + numSeq), 1 = token, 0 = padding
+	 * @param layersFusedQkv fusedQkv-tensor to be used in attention-computation (numLayers, batchSize, numSeq, 3 * hiddenSize)
+	 * @param numSeqLenCache <code>null</code> if no cache is used, numSeq in fusedQkv otherwise
+	 * @param cancellation optional cancellation-token (may be <code>null</code>)
+	 * @return hidden states (layers + 1, batchSize, seqLen, dim of weights)
+	 * @throws LlmCancelledException if the computation has been cancelled
+	 */
+	public float[][][][] forward(final int[][] inputIds, final float[][] attentionMask,
+			final float[][][][] layersFusedQkv, final Integer numSeqLenCache,
+			final LlmCancellationToken cancellation) {
+		if (pipelineStage != null) {
+			throw new IllegalStateException("The model is a pipeline-stage, use forwardStage");
+		}
 		final int batchSize = inputIds.length;
 		final int seqLen = inputIds[0].length;
 		final int totalSeqLen = (numSeqLenCache == null) ? seqLen : numSeqLenCache + seqLen;
+		checkAttentionMask(attentionMask, batchSize, totalSeqLen);
+		metrics.setPhase((numSeqLenCache == null) ? LlmPhase.PREFILL : LlmPhase.DECODE);
 
 		float[][][] inputEmbeds = embeddings.wordEmbeddings(inputIds);
 		if (LOG.isLoggable(Level.FINE)) {
@@ -217,54 +508,37 @@ public class BloomModel implements TensorProvider {
 
 		// hidden states is a tensor of shape (batchSize, inputSize, hiddenSize).
 		final float[][][][] hiddenStates = new float[numLayers + 1][batchSize][seqLen][hiddenSize];
-		for (int idxI = 0; idxI < batchSize; idxI++) {
-			final int i = idxI;
-			executor.startLoopTasks(seqLen, (jStart, jEnd) -> () -> {
-				for (int j = 0; j < seqLen; j++) {
-					hiddenStates[0][i][j] = wordEmbeddingsLayerNorm.normalize(inputEmbeds[i][j]);
-				}
-			});
-		}
+		wordEmbeddingsLayerNorm.normalizeRows(inputEmbeds, hiddenStates[0], executor);
 		if (LOG.isLoggable(Level.FINER)) {
 			for (float[] row : hiddenStates[0][0]) {
 				LOG.finer("Hidden-Row: " + Arrays.toString(Arrays.copyOfRange(row, 0, 3)));
 			}
 		}
 		
-		final float[][] attentionMask = new float[batchSize][totalSeqLen];
-		for (int i = 0; i < batchSize; i++) {
-			Arrays.fill(attentionMask[i], 1.0f);
-		}
-
-		final Tensor alibi = BloomAlibi.buildAlibiTensor(attentionMask, numHeads, executor);
+		final float[][] mask = buildMask(attentionMask, batchSize, totalSeqLen);
+		final Tensor alibi = BloomAlibi.buildAlibiTensor(mask, numHeads, executor);
 		if (LOG.isLoggable(Level.FINER)) {
 			for (float[][] aTmp : alibi.t3) {
 				LOG.finer("ALiBi row: " + Arrays.toString(aTmp[0]));
 			}
 		}
+		final boolean[][][][] causalMask = buildCausalMask(mask, seqLen);
 
-		boolean[][][][] causalMask = new boolean[batchSize][1][totalSeqLen][totalSeqLen];
-		for (boolean[][][] batchCM : causalMask) {
-			for (int i = 0; i < totalSeqLen; i++) {
-				for (int j = i + 1; j < totalSeqLen; j++) {
-					batchCM[0][i][j] = true;
-				}
-			}
-		}
-
+		// The temporary tensors of the layers belong to this call, the model may be used by several threads.
 		final float[][][] attentionResidual = new float[batchSize][seqLen][hiddenSize];
+		final float[][][] layernormOutput = new float[batchSize][seqLen][hiddenSize];
+		final float[][][] hidden4H = new float[batchSize][seqLen][blocks[0].getIntermediateSize()];
 		for(int layer = 0; layer < numLayers; layer++) {
+			if (cancellation != null) {
+				cancellation.checkCancelled();
+			}
 			LOG.fine("Compute Layer " + layer);
 			blocks[layer].forward(hiddenStates[layer],
 					layersFusedQkv[layer], numSeqLenCache,
-					causalMask, alibi, attentionResidual, hiddenStates[layer + 1]);
+					causalMask, alibi, attentionResidual, layernormOutput, hidden4H, hiddenStates[layer + 1]);
 		}
 
-		for (int i = 0; i < batchSize; i++) {
-			for (int j = 0; j < seqLen; j++) {
-				hiddenStates[numLayers][i][j] = lnF.normalize(hiddenStates[numLayers][i][j]);
-			}
-		}
+		lnF.normalizeRows(hiddenStates[numLayers], hiddenStates[numLayers], executor);
 		if (LOG.isLoggable(Level.FINER)) {
 			for (float[] row : hiddenStates[0][0]) {
 				LOG.finer("Last normalize: " + Arrays.toString(Arrays.copyOfRange(row, 0, 3)));
@@ -274,6 +548,121 @@ public class BloomModel implements TensorProvider {
 		return hiddenStates;
 	}
 
+	/**
+	 * Executes the layers of a pipeline-stage.
+	 * The first stage computes the word-embeddings of the input-ids, the other stages
+	 * get the hidden states of the previous stage. The last stage applies the final layer-norm.
+	 * @param inputIds input-ids (batchSize, numSeq) in the first stage, <code>null</code> otherwise
+	 * @param inputHiddenStates <code>null</code> in the first stage, hidden states (batchSize, numSeq, hiddenSize) of the previous stage otherwise
+	 * @param attentionMask <code>null</code> or attention-mask (batchSize, numSeqLenCache + numSeq), 1 = token, 0 = padding
+	 * @param layersFusedQkv fusedQkv-tensor (numLayers, batchSize, numSeq, fusedQkvSize), only the layers of the stage are used
+	 * @param numSeqLenCache <code>null</code> if no cache is used, numSeq in fusedQkv otherwise
+	 * @param cancellation optional cancellation-token (may be <code>null</code>)
+	 * @return hidden states (batchSize, numSeq, hiddenSize) after the last layer of the stage
+	 * @throws LlmCancelledException if the computation has been cancelled
+	 */
+	public float[][][] forwardStage(final int[][] inputIds, final float[][][] inputHiddenStates,
+			final float[][] attentionMask, final float[][][][] layersFusedQkv, final Integer numSeqLenCache,
+			final LlmCancellationToken cancellation) {
+		final float[][][] hiddenIn;
+		if (embeddings != null) {
+			final float[][][] inputEmbeds = embeddings.wordEmbeddings(inputIds);
+			hiddenIn = new float[inputIds.length][inputIds[0].length][hiddenSize];
+			wordEmbeddingsLayerNorm.normalizeRows(inputEmbeds, hiddenIn, executor);
+		}
+		else {
+			hiddenIn = inputHiddenStates;
+		}
+		final int batchSize = hiddenIn.length;
+		final int seqLen = hiddenIn[0].length;
+		final int totalSeqLen = (numSeqLenCache == null) ? seqLen : numSeqLenCache + seqLen;
+		checkAttentionMask(attentionMask, batchSize, totalSeqLen);
+		metrics.setPhase((numSeqLenCache == null) ? LlmPhase.PREFILL : LlmPhase.DECODE);
+		final float[][] mask = buildMask(attentionMask, batchSize, totalSeqLen);
+		final Tensor alibi = BloomAlibi.buildAlibiTensor(mask, numHeads, executor);
+		final boolean[][][][] causalMask = buildCausalMask(mask, seqLen);
+
+		// The layers alternate between two buffers, the input of the previous stage isn't overwritten.
+		final float[][][] attentionResidual = new float[batchSize][seqLen][hiddenSize];
+		final float[][][][] buffers = new float[2][batchSize][seqLen][hiddenSize];
+		final float[][][] layernormOutput = new float[batchSize][seqLen][hiddenSize];
+		final float[][][] hidden4H = new float[batchSize][seqLen][blocks[layerStart].getIntermediateSize()];
+		float[][][] hiddenCur = hiddenIn;
+		for (int layer = layerStart; layer < layerEnd; layer++) {
+			if (cancellation != null) {
+				cancellation.checkCancelled();
+			}
+			LOG.fine("Compute Layer " + layer);
+			final float[][][] hiddenNext = buffers[(layer - layerStart) & 1];
+			blocks[layer].forward(hiddenCur, layersFusedQkv[layer], numSeqLenCache,
+					causalMask, alibi, attentionResidual, layernormOutput, hidden4H, hiddenNext);
+			hiddenCur = hiddenNext;
+		}
+
+		if (lnF != null) {
+			lnF.normalizeRows(hiddenCur, hiddenCur, executor);
+		}
+		return hiddenCur;
+	}
+
+	/**
+	 * Checks the shape of an attention-mask.
+	 * @param attentionMask <code>null</code> or attention-mask
+	 * @param batchSize batch-size
+	 * @param totalSeqLen number of cached and new tokens
+	 */
+	private static void checkAttentionMask(final float[][] attentionMask, final int batchSize, final int totalSeqLen) {
+		if (attentionMask != null && (attentionMask.length != batchSize || attentionMask[0].length != totalSeqLen)) {
+			throw new IllegalArgumentException(String.format("attention-mask (%d, %d) doesn't match (%d, %d)",
+					Integer.valueOf(attentionMask.length), Integer.valueOf(attentionMask[0].length),
+					Integer.valueOf(batchSize), Integer.valueOf(totalSeqLen)));
+		}
+	}
+
+	/**
+	 * Gets the attention-mask or a mask without padding.
+	 * @param attentionMask <code>null</code> or attention-mask
+	 * @param batchSize batch-size
+	 * @param totalSeqLen number of cached and new tokens
+	 * @return attention-mask (batchSize, totalSeqLen)
+	 */
+	private static float[][] buildMask(final float[][] attentionMask, final int batchSize, final int totalSeqLen) {
+		if (attentionMask != null) {
+			return attentionMask;
+		}
+		final float[][] mask = new float[batchSize][totalSeqLen];
+		for (int i = 0; i < batchSize; i++) {
+			Arrays.fill(mask[i], 1.0f);
+		}
+		return mask;
+	}
+
+	/**
+	 * Builds the causal mask of the new tokens.
+	 * A token must not see following tokens or padding-tokens.
+	 * The mask contains the rows of the new tokens only, they start at position queryOffset.
+	 * @param mask attention-mask (batchSize, totalSeqLen)
+	 * @param seqLen number of new tokens
+	 * @return causal mask (batchSize, 1, seqLen, totalSeqLen), <code>true</code> = masked
+	 */
+	private static boolean[][][][] buildCausalMask(final float[][] mask, final int seqLen) {
+		final int batchSize = mask.length;
+		final int totalSeqLen = mask[0].length;
+		final int queryOffset = totalSeqLen - seqLen;
+		final boolean[][][][] causalMask = new boolean[batchSize][1][seqLen][totalSeqLen];
+		for (int b = 0; b < batchSize; b++) {
+			final boolean[][] batchCM = causalMask[b][0];
+			final float[] rowMask = mask[b];
+			for (int i = 0; i < seqLen; i++) {
+				final int pos = queryOffset + i;
+				for (int j = 0; j < totalSeqLen; j++) {
+					batchCM[i][j] = (j > pos) || (rowMask[j] == 0.0f);
+				}
+			}
+		}
+		return causalMask;
+	}
+
 	/**
 	 * Text generation: Computes the next tokens.
 	 * @param tokenizer LLM-tokenizer
@@ -289,12 +678,12 @@ public class BloomModel implements TensorProvider {
 			final int[] aIdx = new int[inputIds.length];
 			final float[][][] hiddenState = forward(inputIds);
 			for (int batch = 0; batch < inputIds.length; batch++) {
-				LOG.info("Batch " + batch + ", Inference " + idxInf);
+				LOG.fine("Batch " + batch + ", Inference " + idxInf);
 				final float[][] batchState = hiddenState[batch];
 				final int idx = model.getEmbeddings().computeMaxToken(batchState, tokenizer);
 				final String sToken = tokenizer.decode(idx);
 				aIdx[batch] = idx;
-				LOG.info("Token: " + sToken);
+				LOG.fine("Token: " + sToken);
 				if (batch == 0) {
 					// We collect the tokens of the first batch-element only.
 					listToken.add(sToken);
@@ -305,4 +694,47 @@ public class BloomModel implements TensorProvider {
 		return listToken;
 	}
 
+	/**
+	 * Text generation: Computes the next tokens of several prompts in one batch.
+	 * The prompts are left-padded, the fusedQkv-cache is used after the first forward pass.
+	 * @param tokenizer LLM-tokenizer
+	 * @param inputSentences prompts
+	 * @param maxToken maximum number of tokens to be generated
+	 * @return generated list of tokens of each prompt
+	 */
+	public List<List<String>> computeNextTokens(Tokenizer tokenizer, List<String> inputSentences, int maxToken) {
+		final PaddedBatch batch = tokenizer.encode(inputSentences, padTokenId, true);
+		final int batchSize = batch.getBatchSize();
+		final int numTokenInput = batch.getSeqLen();
+		final float[][][][] layersFusedQkv = new float[numLayers][batchSize][numTokenInput + maxToken][getFusedQkvSize()];
+		final List<List<String>> listBatchesToken = new ArrayList<>(batchSize);
+		for (int b = 0; b < batchSize; b++) {
+			listBatchesToken.add(new ArrayList<>());
+		}
+		for(int idxInf = 1; idxInf <= maxToken; idxInf++) {
+			final float[][][][] hiddenState;
+			if (idxInf == 1) {
+				hiddenState = forward(batch.getInputIds(), batch.getAttentionMask(), layersFusedQkv, null);
+			}
+			else {
+				final int[][] inputIds = batch.getInputIds();
+				final int curNumSeq = batch.getSeqLen();
+				final int[][] inputIdsForward = new int[batchSize][1];
+				for (int b = 0; b < batchSize; b++) {
+					inputIdsForward[b][0] = inputIds[b][curNumSeq - 1];
+				}
+				hiddenState = forward(inputIdsForward, batch.getAttentionMask(), layersFusedQkv, Integer.valueOf(curNumSeq - 1));
+			}
+			final int[] nextTokens = new int[batchSize];
+			for (int b = 0; b < batchSize; b++) {
+				final float[][] batchState = hiddenState[numLayers][b];
+				final int idx = embeddings.computeMaxToken(batchState, tokenizer);
+				nextTokens[b] = idx;
+				listBatchesToken.get(b).add(tokenizer.decode(idx));
+			}
+			batch.appendTokens(nextTokens);
+		}
+		return listBatchesToken;
+	}
+
 }
@@ -0,0 +1,190 @@
+package org.rogmann.llm.bloom;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rogmann.llm.parallel.PipelineChannel;
+import org.rogmann.llm.parallel.PipelineMessage;
+import org.rogmann.llm.parallel.PipelineMessage.Type;
+
+/**
+ * First stage of a pipeline-parallel BLOOM-model which submits the micro-batches.
+ *
+ * <p>The first stage computes the word-embeddings and its layers and sends the hidden states
+ * to the next stage. The results of the last stage are received by a separate thread,
+ * so the submitting thread is never blocked by a full connection of the ring.
+ * With n stages up to n micro-batches are computed at the same time.</p>
+ */
+public class BloomPipeline implements AutoCloseable {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(BloomPipeline.class.getName());
+
+	/** model of the first stage */
+	private final BloomModel model;
+
+	/** local computation of the first stage */
+	private final BloomPipelineStage stage;
+
+	/** connections of the first stage */
+	private final PipelineChannel channel;
+
+	/** results of the last stage */
+	private final BlockingQueue<PipelineMessage> queueResults = new LinkedBlockingQueue<>();
+
+	/** thread receiving the results of the last stage */
+	private final Thread threadReceiver;
+
+	/** IO-error of the receiving thread */
+	private volatile IOException receiveError;
+
+	/**
+	 * Constructor
+	 * @param model model of the first stage
+	 * @param channel connections of the first stage
+	 */
+	public BloomPipeline(final BloomModel model, final PipelineChannel channel) {
+		if (model.getPipelineStage() == null || !model.getPipelineStage().isFirst()) {
+			throw new IllegalArgumentException("The model isn't the first stage of a pipeline");
+		}
+		this.model = model;
+		this.stage = new BloomPipelineStage(model);
+		this.channel = channel;
+		threadReceiver = new Thread(this::receiveResults, "Pipeline-Receiver");
+		threadReceiver.setDaemon(true);
+		threadReceiver.start();
+	}
+
+	/**
+	 * Receives the messages of the last stage.
+	 */
+	private void receiveResults() {
+		try {
+			while (true) {
+				final PipelineMessage message = channel.receive();
+				if (message.getType() == Type.FORWARD) {
+					queueResults.add(message);
+				}
+				else if (message.getType() == Type.SHUTDOWN) {
+					queueResults.add(message);
+					break;
+				}
+			}
+		}
+		catch (IOException e) {
+			receiveError = e;
+			queueResults.add(new PipelineMessage(Type.SHUTDOWN, -1, null, 0, null, null));
+		}
+	}
+
+	/**
+	 * Computes the first stage of a micro-batch and sends it to the next stage.
+	 * @param microBatch id of the micro-batch
+	 * @param inputIds input-ids (batchSize, numSeq)
+	 * @param attentionMask <code>null</code> or attention-mask (batchSize, numSeqLenCache + numSeq)
+	 * @param numSeqLenCache <code>null</code> to start the micro-batch, number of cached tokens otherwise
+	 * @param maxSeqLen maximum number of tokens of the micro-batch (size of the caches)
+	 * @throws IOException in case of an IO-error
+	 */
+	public void submit(final int microBatch, final int[][] inputIds, final float[][] attentionMask,
+			final Integer numSeqLenCache, final int maxSeqLen) throws IOException {
+		final PipelineMessage request = new PipelineMessage(Type.FORWARD, microBatch, numSeqLenCache, maxSeqLen,
+				attentionMask, null);
+		channel.send(stage.forward(inputIds, request));
+	}
+
+	/**
+	 * Waits for the next result of the last stage. The results are returned in the order of submission.
+	 * @return message containing the micro-batch and the normalized hidden states (batchSize, numSeq, hiddenSize)
+	 * @throws IOException in case of an IO-error of the pipeline
+	 * @throws InterruptedException if the thread has been interrupted
+	 */
+	public PipelineMessage take() throws IOException, InterruptedException {
+		final PipelineMessage message = queueResults.take();
+		if (message.getType() != Type.FORWARD) {
+			throw new IOException("The pipeline has been terminated", receiveError);
+		}
+		return message;
+	}
+
+	/**
+	 * Releases the caches of a micro-batch in all stages.
+	 * @param microBatch id of the micro-batch
+	 * @throws IOException in case of an IO-error
+	 */
+	public void release(final int microBatch) throws IOException {
+		stage.release(microBatch);
+		channel.send(new PipelineMessage(Type.RELEASE, microBatch, null, 0, null, null));
+	}
+
+	/**
+	 * Generates tokens of several prompts greedily, each prompt is a micro-batch.
+	 * All micro-batches are in flight: after the result of a micro-batch its next token is submitted
+	 * while the other stages compute the other micro-batches.
+	 * @param prompts tokens of the prompts
+	 * @param maxTokens maximum number of tokens to be generated
+	 * @param stopAtEos <code>true</code> if the generation of a prompt stops at the end-of-sequence token
+	 * @return generated tokens of each prompt
+	 * @throws IOException in case of an IO-error of the pipeline
+	 * @throws InterruptedException if the thread has been interrupted
+	 */
+	public List<int[]> generateGreedy(final List<int[]> prompts, final int maxTokens, final boolean stopAtEos)
+			throws IOException, InterruptedException {
+		final int numPrompts = prompts.size();
+		final int[][] generated = new int[numPrompts][maxTokens];
+		final int[] numGenerated = new int[numPrompts];
+		final int[] numTokens = new int[numPrompts];
+		for (int mb = 0; mb < numPrompts; mb++) {
+			final int[] promptIds = prompts.get(mb);
+			numTokens[mb] = promptIds.length;
+			submit(mb, new int[][] { promptIds }, null, null, promptIds.length + maxTokens);
+		}
+		int numActive = numPrompts;
+		while (numActive > 0) {
+			final PipelineMessage result = take();
+			final int mb = result.getMicroBatch();
+			final float[][] batchState = result.getHiddenStates()[0];
+			final int tokenId = model.getEmbeddings().computeMaxToken(batchState[batchState.length - 1]);
+			generated[mb][numGenerated[mb]++] = tokenId;
+			numTokens[mb]++;
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine(String.format("Micro-batch %d: token %d", Integer.valueOf(mb), Integer.valueOf(tokenId)));
+			}
+			if (numGenerated[mb] == maxTokens || (stopAtEos && tokenId == model.getEosTokenId())) {
+				release(mb);
+				numActive--;
+				continue;
+			}
+			submit(mb, new int[][] { { tokenId } }, null, Integer.valueOf(numTokens[mb] - 1),
+					prompts.get(mb).length + maxTokens);
+		}
+		final List<int[]> listGenerated = new ArrayList<>(numPrompts);
+		for (int mb = 0; mb < numPrompts; mb++) {
+			listGenerated.add(Arrays.copyOf(generated[mb], numGenerated[mb]));
+		}
+		return listGenerated;
+	}
+
+	/**
+	 * Shuts the stages down and closes the connections.
+	 * @throws IOException in case of an IO-error
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.send(new PipelineMessage(Type.SHUTDOWN, -1, null, 0, null, null));
+			threadReceiver.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			channel.close();
+		}
+	}
+}
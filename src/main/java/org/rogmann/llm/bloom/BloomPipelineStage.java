@@ -0,0 +1,110 @@
+package org.rogmann.llm.bloom;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rogmann.llm.parallel.PipelineChannel;
+import org.rogmann.llm.parallel.PipelineMessage;
+import org.rogmann.llm.parallel.PipelineMessage.Type;
+
+/**
+ * Stage of a pipeline-parallel BLOOM-model.
+ *
+ * <p>A stage keeps the fusedQkv-cache of its layers of each micro-batch. The messages of a
+ * micro-batch are processed in order, the micro-batches of the pipeline are processed
+ * concurrently by the different stages.</p>
+ */
+public class BloomPipelineStage {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(BloomPipelineStage.class.getName());
+
+	/** model of the stage */
+	private final BloomModel model;
+
+	/** fusedQkv-caches of the micro-batches */
+	private final Map<Integer, float[][][][]> mapCaches = new HashMap<>();
+
+	/**
+	 * Constructor
+	 * @param model model of the stage, see {@link BloomModel#BloomModel(org.rogmann.llm.ModelReader, int, org.rogmann.llm.LlmExecutor, org.rogmann.llm.parallel.PipelineStageConfig)}
+	 */
+	public BloomPipelineStage(final BloomModel model) {
+		if (model.getPipelineStage() == null) {
+			throw new IllegalArgumentException("The model isn't a pipeline-stage");
+		}
+		this.model = model;
+	}
+
+	/**
+	 * Computes the layers of the stage of a micro-batch.
+	 * A new cache is allocated if the message doesn't refer to cached tokens.
+	 * @param inputIds input-ids in the first stage, <code>null</code> otherwise
+	 * @param message message containing micro-batch, cache-position, attention-mask and the hidden states of the previous stage
+	 * @return message containing the hidden states of this stage
+	 */
+	public PipelineMessage forward(final int[][] inputIds, final PipelineMessage message) {
+		final Integer key = Integer.valueOf(message.getMicroBatch());
+		final float[][][][] layersFusedQkv;
+		if (message.getNumSeqLenCache() == null) {
+			final int batchSize = (inputIds != null) ? inputIds.length : message.getHiddenStates().length;
+			final int numSeq = (inputIds != null) ? inputIds[0].length : message.getHiddenStates()[0].length;
+			final int maxSeqLen = Math.max(numSeq, message.getMaxSeqLen());
+			layersFusedQkv = new float[model.getNumLayers()][][][];
+			for (int layer = model.getLayerStart(); layer < model.getLayerEnd(); layer++) {
+				layersFusedQkv[layer] = new float[batchSize][maxSeqLen][model.getFusedQkvSize()];
+			}
+			mapCaches.put(key, layersFusedQkv);
+		}
+		else {
+			layersFusedQkv = mapCaches.get(key);
+			if (layersFusedQkv == null) {
+				throw new IllegalStateException("No cache of micro-batch " + key);
+			}
+		}
+		final float[][][] output = model.forwardStage(inputIds, message.getHiddenStates(), message.getAttentionMask(),
+				layersFusedQkv, message.getNumSeqLenCache(), null);
+		return new PipelineMessage(Type.FORWARD, message.getMicroBatch(), message.getNumSeqLenCache(),
+				message.getMaxSeqLen(), message.getAttentionMask(), output);
+	}
+
+	/**
+	 * Releases the cache of a micro-batch.
+	 * @param microBatch id of the micro-batch
+	 */
+	public void release(final int microBatch) {
+		mapCaches.remove(Integer.valueOf(microBatch));
+	}
+
+	/**
+	 * Processes the messages of the previous stage until the pipeline is shut down.
+	 * This loop is executed by the stages following the first stage.
+	 * @param channel connections of the stage
+	 * @throws IOException in case of an IO-error
+	 */
+	public void run(final PipelineChannel channel) throws IOException {
+		while (true) {
+			final PipelineMessage message = channel.receive();
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine(String.format("Stage %d: %s of micro-batch %d", Integer.valueOf(model.getPipelineStage().getStage()),
+						message.getType(), Integer.valueOf(message.getMicroBatch())));
+			}
+			switch (message.getType()) {
+			case FORWARD:
+				channel.send(forward(null, message));
+				break;
+			case RELEASE:
+				release(message.getMicroBatch());
+				channel.send(message);
+				break;
+			case SHUTDOWN:
+				channel.send(message);
+				return;
+			default:
+				throw new IOException("Unexpected message " + message.getType());
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.rogmann.llm.generation;
+
+import java.util.Arrays;
+
+/**
+ * Finished (or unfinished) sequence of a beam search.
+ */
+public class BeamHypothesis {
+
+	/** generated tokens (without prompt) */
+	private final int[] tokens;
+
+	/** sum of the log-probabilities of the generated tokens */
+	private final double sumLogProbs;
+
+	/** score: sum of the log-probabilities divided by length^lengthPenalty */
+	private final double score;
+
+	/** <code>true</code> if the sequence ended with the end-of-sequence token */
+	private final boolean finished;
+
+	/**
+	 * Constructor
+	 * @param tokens generated tokens (without prompt)
+	 * @param sumLogProbs sum of the log-probabilities
+	 * @param score length-normalized score
+	 * @param finished <code>true</code> if the end-of-sequence token has been generated
+	 */
+	public BeamHypothesis(int[] tokens, double sumLogProbs, double score, boolean finished) {
+		this.tokens = tokens;
+		this.sumLogProbs = sumLogProbs;
+		this.score = score;
+		this.finished = finished;
+	}
+
+	/**
+	 * Gets the generated tokens.
+	 * @return tokens (without prompt)
+	 */
+	public int[] getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * Gets the sum of the log-probabilities of the generated tokens.
+	 * @return sum of log-probabilities
+	 */
+	public double getSumLogProbs() {
+		return sumLogProbs;
+	}
+
+	/**
+	 * Gets the length-normalized score.
+	 * @return score
+	 */
+	public double getScore() {
+		return score;
+	}
+
+	/**
+	 * Gets <code>true</code> if the sequence ended with the end-of-sequence token.
+	 * @return finished-flag
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("Hypothesis{score=%.4f, sumLogProbs=%.4f, finished=%s, tokens=%s}",
+				Double.valueOf(score), Double.valueOf(sumLogProbs), Boolean.valueOf(finished), Arrays.toString(tokens));
+	}
+}
@@ -0,0 +1,290 @@
+package org.rogmann.llm.generation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rogmann.llm.LlmCancellationToken;
+import org.rogmann.llm.LlmCancelledException;
+import org.rogmann.llm.bloom.BloomModel;
+import org.rogmann.llm.nn.Embeddings;
+import org.rogmann.llm.nn.TopKSelection;
+import org.rogmann.llm.tokenizer.Tokenizer;
+
+/**
+ * Beam search using the batch-dimension of the model: each beam is a row of the batch.
+ *
+ * <p>The prompt is computed once. In each step the 2 * numBeams candidates of largest
+ * cumulative log-probability are selected, the log-probabilities are computed in the LM-head
+ * without materializing the logits. A candidate ending with the end-of-sequence token
+ * becomes a finished hypothesis scored by sumLogProbs / length^lengthPenalty.</p>
+ *
+ * <p>If beams are pruned or duplicated the fusedQkv-cache isn't copied: a beam gets
+ * the row-references of its parent for the positions computed already. These rows
+ * are read only, the rows of the following positions stay owned by the beam.</p>
+ */
+public class BeamSearchGenerator {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(BeamSearchGenerator.class.getName());
+
+	/** model */
+	private final BloomModel model;
+
+	/** tokenizer */
+	private final Tokenizer tokenizer;
+
+	/** number of beams */
+	private final int numBeams;
+
+	/** exponent of the length in the score (&gt; 0 prefers longer sequences) */
+	private final double lengthPenalty;
+
+	/** <code>true</code> if the search stops as soon as numBeams hypotheses are finished */
+	private final boolean earlyStopping;
+
+	/**
+	 * Constructor
+	 * @param model LLM-model
+	 * @param tokenizer tokenizer of the model
+	 * @param numBeams number of beams
+	 * @param lengthPenalty exponent of the length in the score, e.g. 1.0
+	 * @param earlyStopping <code>true</code> if the search stops as soon as numBeams hypotheses are finished
+	 */
+	public BeamSearchGenerator(BloomModel model, Tokenizer tokenizer, int numBeams,
+			double lengthPenalty, boolean earlyStopping) {
+		if (numBeams < 1) {
+			throw new IllegalArgumentException("numBeams must be positive: " + numBeams);
+		}
+		this.model = model;
+		this.tokenizer = tokenizer;
+		this.numBeams = numBeams;
+		this.lengthPenalty = lengthPenalty;
+		this.earlyStopping = earlyStopping;
+	}
+
+	/**
+	 * Searches the best continuations of a prompt.
+	 * @param prompt prompt
+	 * @param maxTokens maximum number of tokens to be generated
+	 * @param cancellation optional cancellation-token (may be <code>null</code>)
+	 * @return hypotheses, best first
+	 * @throws LlmCancelledException if the search has been cancelled
+	 */
+	public List<BeamHypothesis> generate(final String prompt, final int maxTokens,
+			final LlmCancellationToken cancellation) {
+		final int[] promptIds = tokenizer.encode(prompt)[0];
+		return generate(promptIds, maxTokens, cancellation);
+	}
+
+	/**
+	 * Searches the best continuations of a tokenized prompt.
+	 * @param promptIds tokens of the prompt
+	 * @param maxTokens maximum number of tokens to be generated
+	 * @param cancellation optional cancellation-token (may be <code>null</code>)
+	 * @return hypotheses, best first
+	 * @throws LlmCancelledException if the search has been cancelled
+	 */
+	public List<BeamHypothesis> generate(final int[] promptIds, final int maxTokens,
+			final LlmCancellationToken cancellation) {
+		if (maxTokens < 1) {
+			throw new IllegalArgumentException("maxTokens must be positive: " + maxTokens);
+		}
+		final int numLayers = model.getNumLayers();
+		final int promptLen = promptIds.length;
+		final int maxLen = promptLen + maxTokens;
+		final int eosTokenId = model.getEosTokenId();
+		final Embeddings embeddings = model.getEmbeddings();
+		final int numCandPerBeam = Math.min(2 * numBeams, embeddings.getNumTokens());
+
+		final float[][][][] layersFusedQkv = new float[numLayers][numBeams][maxLen][model.getFusedQkvSize()];
+		// row-references of the parents while reordering the cache
+		final float[][][] scratchRows = new float[numBeams][maxLen][];
+
+		// generated tokens and cumulative log-probabilities of the beams
+		int[][] beamTokens = new int[numBeams][maxTokens];
+		int[][] nextBeamTokens = new int[numBeams][maxTokens];
+		final double[] beamScores = new double[numBeams];
+		final int[] beamParent = new int[numBeams];
+		final int[] beamNextToken = new int[numBeams];
+
+		// candidates of all beams
+		final TopKSelection beamCandidates = new TopKSelection(numCandPerBeam);
+		final int[] candBeam = new int[numBeams * numCandPerBeam];
+		final int[] candToken = new int[numBeams * numCandPerBeam];
+		final double[] candLogProb = new double[numBeams * numCandPerBeam];
+		final TopKSelection selection = new TopKSelection(2 * numBeams);
+
+		final List<BeamHypothesis> hypotheses = new ArrayList<>(numBeams + 1);
+
+		// The prompt is computed once in the cache-rows of the first beam.
+		final float[][][][] prefillQkv = new float[numLayers][][][];
+		for (int l = 0; l < numLayers; l++) {
+			prefillQkv[l] = new float[][][] { layersFusedQkv[l][0] };
+		}
+		float[][][][] hiddenState = model.forward(new int[][] { promptIds }, null, prefillQkv, null, cancellation);
+		int numActive = 1;
+		int numGenerated = 0;
+		boolean isDone = false;
+		while (true) {
+			int numCand = 0;
+			for (int b = 0; b < numActive; b++) {
+				final float[][] batchState = hiddenState[numLayers][b];
+				beamCandidates.reset(numCandPerBeam);
+				final double logSumExp = embeddings.computeTopKLogSumExp(batchState[batchState.length - 1], beamCandidates);
+				for (int i = 0; i < beamCandidates.size(); i++) {
+					candBeam[numCand] = b;
+					candToken[numCand] = beamCandidates.getIndices()[i];
+					candLogProb[numCand] = beamScores[b] + beamCandidates.getValues()[i] - logSumExp;
+					numCand++;
+				}
+			}
+			selection.reset(Math.min(2 * numBeams, numCand));
+			for (int c = 0; c < numCand; c++) {
+				selection.offer(c, (float) candLogProb[c]);
+			}
+			selection.sortDescending();
+
+			final int step = numGenerated;
+			numGenerated++;
+			int numNext = 0;
+			for (int rank = 0; rank < selection.size() && numNext < numBeams; rank++) {
+				final int c = selection.getIndices()[rank];
+				if (candToken[c] == eosTokenId) {
+					// An end-of-sequence token below the top numBeams candidates is ignored.
+					if (rank < numBeams) {
+						final int[] tokens = Arrays.copyOf(beamTokens[candBeam[c]], numGenerated);
+						tokens[step] = eosTokenId;
+						addHypothesis(hypotheses, tokens, candLogProb[c], true);
+					}
+					continue;
+				}
+				beamParent[numNext] = candBeam[c];
+				beamNextToken[numNext] = candToken[c];
+				// The scores of the current step have been used in candLogProb already.
+				beamScores[numNext] = candLogProb[c];
+				numNext++;
+			}
+			if (numNext == 0) {
+				isDone = true;
+				break;
+			}
+			for (int b = 0; b < numNext; b++) {
+				System.arraycopy(beamTokens[beamParent[b]], 0, nextBeamTokens[b], 0, step);
+				nextBeamTokens[b][step] = beamNextToken[b];
+			}
+			final int[][] tmpTokens = beamTokens;
+			beamTokens = nextBeamTokens;
+			nextBeamTokens = tmpTokens;
+			numActive = numNext;
+			if (LOG.isLoggable(Level.FINE)) {
+				for (int b = 0; b < numActive; b++) {
+					LOG.fine(String.format("Step %d, beam %d (parent %d): score=%.4f, token %d (%s)",
+							Integer.valueOf(step), Integer.valueOf(b), Integer.valueOf(beamParent[b]),
+							Double.valueOf(beamScores[b]), Integer.valueOf(beamNextToken[b]),
+							tokenizer.decode(beamNextToken[b])));
+				}
+			}
+
+			isDone = isDone(hypotheses, beamScores[0], numGenerated);
+			if (isDone || numGenerated == maxTokens) {
+				break;
+			}
+
+			final int numSeqComputed = promptLen + step;
+			reorderCache(layersFusedQkv, beamParent, numActive, numSeqComputed, scratchRows);
+			final int[][] inputIdsForward = new int[numActive][1];
+			for (int b = 0; b < numActive; b++) {
+				inputIdsForward[b][0] = beamNextToken[b];
+			}
+			final float[][][][] activeQkv;
+			if (numActive == numBeams) {
+				activeQkv = layersFusedQkv;
+			}
+			else {
+				activeQkv = new float[numLayers][][][];
+				for (int l = 0; l < numLayers; l++) {
+					activeQkv[l] = Arrays.copyOf(layersFusedQkv[l], numActive);
+				}
+			}
+			hiddenState = model.forward(inputIdsForward, null, activeQkv, Integer.valueOf(numSeqComputed), cancellation);
+		}
+		if (!isDone) {
+			// The running beams are candidates, too.
+			for (int b = 0; b < numActive; b++) {
+				addHypothesis(hypotheses, Arrays.copyOf(beamTokens[b], numGenerated), beamScores[b], false);
+			}
+		}
+		return hypotheses;
+	}
+
+	/**
+	 * Adds a hypothesis if it belongs to the best numBeams hypotheses.
+	 * @param hypotheses hypotheses sorted by score, best first
+	 * @param tokens generated tokens
+	 * @param sumLogProbs sum of the log-probabilities
+	 * @param finished <code>true</code> if the hypothesis ends with the end-of-sequence token
+	 */
+	private void addHypothesis(final List<BeamHypothesis> hypotheses, final int[] tokens,
+			final double sumLogProbs, final boolean finished) {
+		final double score = sumLogProbs / Math.pow(tokens.length, lengthPenalty);
+		if (hypotheses.size() == numBeams && score <= hypotheses.get(numBeams - 1).getScore()) {
+			return;
+		}
+		int pos = hypotheses.size();
+		while (pos > 0 && hypotheses.get(pos - 1).getScore() < score) {
+			pos--;
+		}
+		hypotheses.add(pos, new BeamHypothesis(tokens, sumLogProbs, score, finished));
+		if (hypotheses.size() > numBeams) {
+			hypotheses.remove(numBeams);
+		}
+	}
+
+	/**
+	 * Checks if no running beam can improve the finished hypotheses.
+	 * @param hypotheses finished hypotheses
+	 * @param bestRunningScore cumulative log-probability of the best running beam
+	 * @param numGenerated number of generated tokens
+	 * @return <code>true</code> if the search is done
+	 */
+	private boolean isDone(final List<BeamHypothesis> hypotheses, final double bestRunningScore, final int numGenerated) {
+		if (hypotheses.size() < numBeams) {
+			return false;
+		}
+		if (earlyStopping) {
+			return true;
+		}
+		final double worstScore = hypotheses.get(hypotheses.size() - 1).getScore();
+		return worstScore >= bestRunningScore / Math.pow(numGenerated, lengthPenalty);
+	}
+
+	/**
+	 * Reorders the fusedQkv-cache: each beam gets the row-references of its parent
+	 * of the positions computed already. No rows are copied.
+	 * @param layersFusedQkv cache (numLayers, numBeams, maxLen, 3 * hiddenSize)
+	 * @param beamParent index of the parent of each beam
+	 * @param numActive number of active beams
+	 * @param numSeqComputed number of positions computed already
+	 * @param scratchRows temporary array of row-references (numBeams, maxLen)
+	 */
+	private static void reorderCache(final float[][][][] layersFusedQkv, final int[] beamParent,
+			final int numActive, final int numSeqComputed, final float[][][] scratchRows) {
+		boolean isIdentity = true;
+		for (int b = 0; b < numActive; b++) {
+			isIdentity &= (beamParent[b] == b);
+		}
+		if (isIdentity) {
+			return;
+		}
+		for (final float[][][] layerQkv : layersFusedQkv) {
+			for (int b = 0; b < numActive; b++) {
+				System.arraycopy(layerQkv[beamParent[b]], 0, scratchRows[b], 0, numSeqComputed);
+			}
+			for (int b = 0; b < numActive; b++) {
+				System.arraycopy(scratchRows[b], 0, layerQkv[b], 0, numSeqComputed);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.rogmann.llm.generation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stop conditions of a text generation.
+ */
+public class GenerationConfig {
+
+	/** maximum number of tokens to be generated */
+	private final int maxTokens;
+
+	/** <code>true</code> if the generation stops at the end-of-sequence token */
+	private final boolean stopAtEos;
+
+	/** strings which stop the generation */
+	private final List<String> stopStrings;
+
+	/**
+	 * Constructor, the generation stops at the end-of-sequence token.
+	 * @param maxTokens maximum number of tokens to be generated
+	 */
+	public GenerationConfig(int maxTokens) {
+		this(maxTokens, true, Collections.emptyList());
+	}
+
+	/**
+	 * Constructor
+	 * @param maxTokens maximum number of tokens to be generated
+	 * @param stopAtEos <code>true</code> if the generation stops at the end-of-sequence token
+	 * @param stopStrings strings which stop the generation when they occur in the generated text
+	 */
+	public GenerationConfig(int maxTokens, boolean stopAtEos, List<String> stopStrings) {
+		if (maxTokens < 1) {
+			throw new IllegalArgumentException("maxTokens must be positive: " + maxTokens);
+		}
+		this.maxTokens = maxTokens;
+		this.stopAtEos = stopAtEos;
+		this.stopStrings = Collections.unmodifiableList(new ArrayList<>(stopStrings));
+	}
+
+	/**
+	 * Gets the maximum number of tokens to be generated.
+	 * @return maximum number
+	 */
+	public int getMaxTokens() {
+		return maxTokens;
+	}
+
+	/**
+	 * Gets <code>true</code> if the generation stops at the end-of-sequence token.
+	 * @return flag
+	 */
+	public boolean isStopAtEos() {
+		return stopAtEos;
+	}
+
+	/**
+	 * Gets the strings which stop the generation.
+	 * @return list of stop-strings
+	 */
+	public List<String> getStopStrings() {
+		return stopStrings;
+	}
+}
@@ -0,0 +1,42 @@
+package org.rogmann.llm.generation;
+
+/**
+ * Sampler which chooses the token of maximum logit.
+ */
+public class GreedySampler implements Sampler {
+
+	/** {@inheritDoc} */
+	@Override
+	public int sample(float[] logits, int[] history, int historyLen) {
+		return argMax(logits);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getNumCandidates(int historyLen) {
+		return 1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int sampleCandidates(int[] candIdx, float[] candLogit, int numCand, int[] history, int historyLen) {
+		return candIdx[0];
+	}
+
+	/**
+	 * Computes the index of the maximum value.
+	 * @param logits logits
+	 * @return index of the first maximum
+	 */
+	static int argMax(final float[] logits) {
+		int idx = 0;
+		float max = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < logits.length; i++) {
+			if (logits[i] > max) {
+				max = logits[i];
+				idx = i;
+			}
+		}
+		return idx;
+	}
+}
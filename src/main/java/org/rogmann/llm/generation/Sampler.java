@@ -0,0 +1,47 @@
+package org.rogmann.llm.generation;
+
+/**
+ * Strategy to choose the next token based on the logits of the LM-head.
+ *
+ * <p>A sampler which needs only the largest logits can announce the number of candidates
+ * by {@link #getNumCandidates(int)}. In that case the candidates are selected while computing
+ * the LM-head and the logits of the whole vocabulary are not materialized.</p>
+ */
+public interface Sampler {
+
+	/**
+	 * Chooses the next token.
+	 * The logits may be modified by the sampler (e.g. by a repetition penalty),
+	 * the caller can reuse the buffer in the next step.
+	 * @param logits logits of the vocabulary
+	 * @param history previous tokens (prompt and generated tokens)
+	 * @param historyLen number of valid entries in history
+	 * @return id of the next token
+	 */
+	int sample(float[] logits, int[] history, int historyLen);
+
+	/**
+	 * Gets the number of largest logits needed to choose the next token.
+	 * @param historyLen number of previous tokens
+	 * @return number of candidates, 0 if the logits of the whole vocabulary are needed
+	 */
+	default int getNumCandidates(int historyLen) {
+		return 0;
+	}
+
+	/**
+	 * Chooses the next token from the candidates of largest logits.
+	 * This method is used if {@link #getNumCandidates(int)} returned a positive number.
+	 * The arrays of the candidates may be modified by the sampler.
+	 * @param candIdx token-ids of the candidates, sorted descending by logit
+	 * @param candLogit logits of the candidates
+	 * @param numCand number of candidates
+	 * @param history previous tokens (prompt and generated tokens)
+	 * @param historyLen number of valid entries in history
+	 * @return id of the next token
+	 */
+	default int sampleCandidates(int[] candIdx, float[] candLogit, int numCand, int[] history, int historyLen) {
+		throw new UnsupportedOperationException("Sampler needs the logits of the whole vocabulary: " + getClass().getName());
+	}
+
+}
@@ -0,0 +1,219 @@
+package org.rogmann.llm.generation;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rogmann.llm.LlmCancellationToken;
+import org.rogmann.llm.LlmCancelledException;
+import org.rogmann.llm.bloom.BloomModel;
+import org.rogmann.llm.tokenizer.StreamingDecoder;
+import org.rogmann.llm.tokenizer.Tokenizer;
+
+/**
+ * Greedy text generation using speculative decoding.
+ *
+ * <p>A small draft-model (e.g. bloomz-560m) proposes k tokens one by one. The target-model
+ * (e.g. bloomz-7b1) verifies the k tokens in one multi-token forward pass on its fusedQkv-cache.
+ * The longest prefix of the draft matching the greedy choices of the target-model is accepted,
+ * followed by the choice of the target-model at the first mismatch. The rejected suffix is
+ * rolled back by resetting the cache-positions, the stale rows are overwritten later.</p>
+ *
+ * <p>The generated tokens are identical to a greedy generation using the target-model only.
+ * Both models must use the same tokenizer.</p>
+ */
+public class SpeculativeGenerator {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(SpeculativeGenerator.class.getName());
+
+	/** target-model */
+	private final BloomModel model;
+
+	/** draft-model */
+	private final BloomModel draftModel;
+
+	/** tokenizer of both models */
+	private final Tokenizer tokenizer;
+
+	/** number of tokens drafted per verification */
+	private final int numDraftTokens;
+
+	/** number of drafted tokens in the last generation */
+	private int numDrafted;
+
+	/** number of accepted draft-tokens in the last generation */
+	private int numAccepted;
+
+	/**
+	 * Constructor
+	 * @param model target-model
+	 * @param draftModel draft-model
+	 * @param tokenizer tokenizer of both models
+	 * @param numDraftTokens number of tokens drafted per verification, e.g. 4
+	 */
+	public SpeculativeGenerator(BloomModel model, BloomModel draftModel, Tokenizer tokenizer, int numDraftTokens) {
+		if (numDraftTokens < 1) {
+			throw new IllegalArgumentException("numDraftTokens must be positive: " + numDraftTokens);
+		}
+		if (model.getEmbeddings().getNumTokens() != draftModel.getEmbeddings().getNumTokens()) {
+			throw new IllegalArgumentException(String.format("Vocabulary-sizes of target (%d) and draft (%d) differ",
+					Integer.valueOf(model.getEmbeddings().getNumTokens()),
+					Integer.valueOf(draftModel.getEmbeddings().getNumTokens())));
+		}
+		this.model = model;
+		this.draftModel = draftModel;
+		this.tokenizer = tokenizer;
+		this.numDraftTokens = numDraftTokens;
+	}
+
+	/**
+	 * Gets the fraction of accepted draft-tokens in the last generation.
+	 * @return acceptance-rate (0 if nothing has been drafted)
+	 */
+	public double getAcceptanceRate() {
+		return (numDrafted > 0) ? numAccepted / (double) numDrafted : 0.0;
+	}
+
+	/**
+	 * Generates tokens following a prompt.
+	 * @param prompt prompt
+	 * @param config stop conditions
+	 * @param listener listener receiving the generated tokens
+	 * @param cancellation optional cancellation-token (may be <code>null</code>)
+	 * @return reason why the generation stopped
+	 */
+	public StopReason generate(final String prompt, final GenerationConfig config,
+			final TokenListener listener, final LlmCancellationToken cancellation) {
+		final int[] promptIds = tokenizer.encode(prompt)[0];
+		return generate(promptIds, config, listener, cancellation);
+	}
+
+	/**
+	 * Generates tokens following a tokenized prompt.
+	 * @param promptIds tokens of the prompt
+	 * @param config stop conditions
+	 * @param listener listener receiving the generated tokens
+	 * @param cancellation optional cancellation-token (may be <code>null</code>)
+	 * @return reason why the generation stopped
+	 */
+	public StopReason generate(final int[] promptIds, final GenerationConfig config,
+			final TokenListener listener, final LlmCancellationToken cancellation) {
+		final int maxTokens = config.getMaxTokens();
+		final int numTokenInput = promptIds.length;
+		final int maxLen = numTokenInput + maxTokens + numDraftTokens + 1;
+		final int numLayers = model.getNumLayers();
+		final int numDraftLayers = draftModel.getNumLayers();
+		final float[][][][] layersFusedQkv = new float[numLayers][1][maxLen][model.getFusedQkvSize()];
+		final float[][][][] draftFusedQkv = new float[numDraftLayers][1][maxLen][draftModel.getFusedQkvSize()];
+		final int maxStopLen = config.getStopStrings().stream().mapToInt(String::length).max().orElse(0);
+		final StringBuilder sbText = new StringBuilder(100);
+		final StreamingDecoder decoder = new StreamingDecoder(tokenizer);
+		// prompt, generated tokens and drafted tokens
+		final int[] tokens = new int[maxLen];
+		System.arraycopy(promptIds, 0, tokens, 0, numTokenInput);
+		numDrafted = 0;
+		numAccepted = 0;
+
+		try {
+			// The prompt is processed by both models.
+			float[][][][] hiddenState = model.forward(new int[][] { promptIds }, null, layersFusedQkv, null, cancellation);
+			draftModel.forward(new int[][] { promptIds }, null, draftFusedQkv, null, cancellation);
+			final float[][] promptState = hiddenState[numLayers][0];
+			tokens[numTokenInput] = model.getEmbeddings().computeMaxToken(promptState[numTokenInput - 1]);
+			int numTokens = numTokenInput + 1;
+			// number of rows in the caches
+			int numCached = numTokenInput;
+			int numDraftCached = numTokenInput;
+			int idxToken = 0;
+			StopReason stopReason = emit(idxToken++, tokens[numTokens - 1], config, listener, decoder, sbText, maxStopLen, cancellation);
+			while (stopReason == null) {
+				// Draft k tokens, the first forward pass appends the tokens accepted in the last verification.
+				final int numDraft = Math.min(numDraftTokens, maxTokens - idxToken);
+				for (int i = 0; i < numDraft; i++) {
+					final int[] inputIds = Arrays.copyOfRange(tokens, numDraftCached, numTokens + i);
+					final float[][][][] draftState = draftModel.forward(new int[][] { inputIds }, null, draftFusedQkv,
+							Integer.valueOf(numDraftCached), cancellation);
+					numDraftCached += inputIds.length;
+					final float[][] lastRows = draftState[numDraftLayers][0];
+					tokens[numTokens + i] = draftModel.getEmbeddings().computeMaxToken(lastRows[lastRows.length - 1]);
+				}
+				numDrafted += numDraft;
+
+				// Verify the drafted tokens in one forward pass of the target-model.
+				final int[] verifyIds = Arrays.copyOfRange(tokens, numCached, numTokens + numDraft);
+				hiddenState = model.forward(new int[][] { verifyIds }, null, layersFusedQkv,
+						Integer.valueOf(numCached), cancellation);
+				final float[][] verifyRows = hiddenState[numLayers][0];
+				// row of the last accepted token
+				final int rowOffset = numTokens - 1 - numCached;
+				int numAcceptedStep = 0;
+				int nextToken = model.getEmbeddings().computeMaxToken(verifyRows[rowOffset]);
+				while (numAcceptedStep < numDraft && nextToken == tokens[numTokens + numAcceptedStep]) {
+					numAcceptedStep++;
+					nextToken = model.getEmbeddings().computeMaxToken(verifyRows[rowOffset + numAcceptedStep]);
+				}
+				numAccepted += numAcceptedStep;
+				if (LOG.isLoggable(Level.FINE)) {
+					LOG.fine(String.format("Accepted %d of %d draft-tokens",
+							Integer.valueOf(numAcceptedStep), Integer.valueOf(numDraft)));
+				}
+
+				// Roll back the rejected suffix: the cache-rows beyond the accepted tokens are stale.
+				final int numTokensPrev = numTokens;
+				tokens[numTokens + numAcceptedStep] = nextToken;
+				numCached = numTokens + numAcceptedStep;
+				numDraftCached = Math.min(numDraftCached, numCached);
+				numTokens += numAcceptedStep + 1;
+				for (int i = numTokensPrev; i < numTokens && stopReason == null; i++) {
+					stopReason = emit(idxToken++, tokens[i], config, listener, decoder, sbText, maxStopLen, cancellation);
+				}
+			}
+			return TextGenerator.finish(listener, decoder, stopReason);
+		}
+		catch (LlmCancelledException e) {
+			LOG.fine("Generation has been cancelled");
+			return TextGenerator.finish(listener, decoder, StopReason.CANCELLED);
+		}
+	}
+
+	/**
+	 * Emits a generated token and checks the stop conditions.
+	 * @param idxToken index of the generated token
+	 * @param tokenId token-id
+	 * @param config stop conditions
+	 * @param listener listener receiving the generated tokens
+	 * @param decoder decoder of the generated tokens
+	 * @param sbText generated text (used if there are stop-strings)
+	 * @param maxStopLen maximum length of a stop-string
+	 * @param cancellation optional cancellation-token
+	 * @return stop-reason or <code>null</code> if the generation continues
+	 */
+	private StopReason emit(final int idxToken, final int tokenId, final GenerationConfig config,
+			final TokenListener listener, final StreamingDecoder decoder, final StringBuilder sbText,
+			final int maxStopLen, final LlmCancellationToken cancellation) {
+		final String token = decoder.decode(tokenId);
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine(String.format("Token %d: %d (%s)", Integer.valueOf(idxToken), Integer.valueOf(tokenId), token));
+		}
+		listener.onToken(idxToken, tokenId, token);
+		if (config.isStopAtEos() && tokenId == model.getEosTokenId()) {
+			return StopReason.END_OF_SEQUENCE;
+		}
+		if (maxStopLen > 0) {
+			final int searchStart = Math.max(0, sbText.length() - maxStopLen + 1);
+			sbText.append(token);
+			for (String stopString : config.getStopStrings()) {
+				if (sbText.indexOf(stopString, searchStart) >= 0) {
+					return StopReason.STOP_STRING;
+				}
+			}
+		}
+		if (cancellation != null && cancellation.isCancelled()) {
+			return StopReason.CANCELLED;
+		}
+		if (idxToken + 1 >= config.getMaxTokens()) {
+			return StopReason.MAX_TOKENS;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,15 @@
+package org.rogmann.llm.generation;
+
+/**
+ * Reason why a text generation stopped.
+ */
+public enum StopReason {
+	/** the end-of-sequence token has been generated */
+	END_OF_SEQUENCE,
+	/** the maximum number of tokens has been generated */
+	MAX_TOKENS,
+	/** the generated text contains a stop-string */
+	STOP_STRING,
+	/** the generation has been cancelled */
+	CANCELLED;
+}
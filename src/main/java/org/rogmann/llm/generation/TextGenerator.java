@@ -0,0 +1,189 @@
+package org.rogmann.llm.generation;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rogmann.llm.LlmCancellationToken;
+import org.rogmann.llm.LlmCancelledException;
+import org.rogmann.llm.bloom.BloomModel;
+import org.rogmann.llm.metrics.LlmJfr;
+import org.rogmann.llm.metrics.LlmMetrics;
+import org.rogmann.llm.metrics.LlmOp;
+import org.rogmann.llm.metrics.LlmPhase;
+import org.rogmann.llm.nn.Embeddings;
+import org.rogmann.llm.nn.TopKSelection;
+import org.rogmann.llm.tokenizer.StreamingDecoder;
+import org.rogmann.llm.tokenizer.Tokenizer;
+
+/**
+ * Text generation which emits each token as soon as it has been computed.
+ *
+ * <p>The fusedQkv-cache is used after processing the prompt.
+ * The generation can be cancelled between two layers by a cancellation-token.</p>
+ *
+ * <p>If the sampler needs the largest logits only, the candidates are selected in the LM-head
+ * and the logits of the vocabulary are not materialized.</p>
+ */
+public class TextGenerator {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(TextGenerator.class.getName());
+
+	/** model */
+	private final BloomModel model;
+
+	/** tokenizer */
+	private final Tokenizer tokenizer;
+
+	/** sampler choosing the next token */
+	private final Sampler sampler;
+
+	/**
+	 * Constructor of a greedy text generation.
+	 * @param model LLM-model
+	 * @param tokenizer tokenizer of the model
+	 */
+	public TextGenerator(BloomModel model, Tokenizer tokenizer) {
+		this(model, tokenizer, new GreedySampler());
+	}
+
+	/**
+	 * Constructor
+	 * @param model LLM-model
+	 * @param tokenizer tokenizer of the model
+	 * @param sampler sampler choosing the next token
+	 */
+	public TextGenerator(BloomModel model, Tokenizer tokenizer, Sampler sampler) {
+		this.model = model;
+		this.tokenizer = tokenizer;
+		this.sampler = sampler;
+	}
+
+	/**
+	 * Generates tokens following a prompt.
+	 * @param prompt prompt
+	 * @param config stop conditions
+	 * @param listener listener receiving the generated tokens
+	 * @param cancellation optional cancellation-token (may be <code>null</code>)
+	 * @return reason why the generation stopped
+	 */
+	public StopReason generate(final String prompt, final GenerationConfig config,
+			final TokenListener listener, final LlmCancellationToken cancellation) {
+		final int[] promptIds = tokenizer.encode(prompt)[0];
+		return generate(promptIds, config, listener, cancellation);
+	}
+
+	/**
+	 * Generates tokens following a tokenized prompt.
+	 * @param promptIds tokens of the prompt
+	 * @param config stop conditions
+	 * @param listener listener receiving the generated tokens
+	 * @param cancellation optional cancellation-token (may be <code>null</code>)
+	 * @return reason why the generation stopped
+	 */
+	public StopReason generate(final int[] promptIds, final GenerationConfig config,
+			final TokenListener listener, final LlmCancellationToken cancellation) {
+		final int maxTokens = config.getMaxTokens();
+		final int numTokenInput = promptIds.length;
+		final int numLayers = model.getNumLayers();
+		final float[][][][] layersFusedQkv = new float[numLayers][1]
+				[numTokenInput + maxTokens][model.getFusedQkvSize()];
+		final int maxStopLen = config.getStopStrings().stream().mapToInt(String::length).max().orElse(0);
+		final StringBuilder sbText = new StringBuilder(100);
+		final StreamingDecoder decoder = new StreamingDecoder(tokenizer);
+		// prompt and generated tokens
+		final int[] tokens = new int[numTokenInput + maxTokens];
+		System.arraycopy(promptIds, 0, tokens, 0, numTokenInput);
+		int numTokens = numTokenInput;
+		final Embeddings embeddings = model.getEmbeddings();
+		final LlmMetrics metrics = model.getMetrics();
+		// The logits of the vocabulary are computed only if the sampler needs them.
+		float[] logits = null;
+		TopKSelection candidates = null;
+
+		try {
+			for (int idxToken = 0; idxToken < maxTokens; idxToken++) {
+				final Object tokenEvent = LlmJfr.beginToken();
+				final float[][][][] hiddenState;
+				if (idxToken == 0) {
+					hiddenState = model.forward(new int[][] { promptIds }, null, layersFusedQkv, null, cancellation);
+				}
+				else {
+					final int[][] inputIdsForward = new int[][] { { tokens[numTokens - 1] } };
+					hiddenState = model.forward(inputIdsForward, null, layersFusedQkv,
+							Integer.valueOf(numTokens - 1), cancellation);
+				}
+				final float[][] batchState = hiddenState[numLayers][0];
+				final float[] lastState = batchState[batchState.length - 1];
+				final int numCand = Math.min(sampler.getNumCandidates(numTokens), embeddings.getNumTokens());
+				final boolean timed = metrics.isEnabled();
+				long tStart = timed ? System.nanoTime() : 0L;
+				final int tokenId;
+				if (numCand > 0) {
+					if (candidates == null || candidates.getCapacity() < numCand) {
+						candidates = new TopKSelection(Math.max(numCand, 2 * ((candidates != null) ? candidates.getCapacity() : 0)));
+					}
+					candidates.reset(numCand);
+					embeddings.computeTopK(lastState, candidates);
+					if (timed) {
+						tStart = metrics.record(-1, LlmOp.LM_HEAD, tStart);
+					}
+					tokenId = sampler.sampleCandidates(candidates.getIndices(), candidates.getValues(), candidates.size(),
+							tokens, numTokens);
+				}
+				else {
+					if (logits == null) {
+						logits = new float[embeddings.getNumTokens()];
+					}
+					embeddings.computeLastEmbedding(lastState, logits);
+					if (timed) {
+						tStart = metrics.record(-1, LlmOp.LM_HEAD, tStart);
+					}
+					tokenId = sampler.sample(logits, tokens, numTokens);
+				}
+				if (timed) {
+					metrics.record(-1, LlmOp.SAMPLING, tStart);
+				}
+				LlmJfr.commitToken(tokenEvent, idxToken, tokenId, (idxToken == 0) ? LlmPhase.PREFILL : LlmPhase.DECODE,
+						(idxToken == 0) ? numTokenInput : 1, numTokens);
+				final String token = decoder.decode(tokenId);
+				if (LOG.isLoggable(Level.FINE)) {
+					LOG.fine(String.format("Token %d: %d (%s)", Integer.valueOf(idxToken), Integer.valueOf(tokenId), token));
+				}
+				listener.onToken(idxToken, tokenId, token);
+				if (config.isStopAtEos() && tokenId == model.getEosTokenId()) {
+					return finish(listener, decoder, StopReason.END_OF_SEQUENCE);
+				}
+				if (maxStopLen > 0) {
+					final int searchStart = Math.max(0, sbText.length() - maxStopLen + 1);
+					sbText.append(token);
+					for (String stopString : config.getStopStrings()) {
+						if (sbText.indexOf(stopString, searchStart) >= 0) {
+							return finish(listener, decoder, StopReason.STOP_STRING);
+						}
+					}
+				}
+				if (cancellation != null && cancellation.isCancelled()) {
+					return finish(listener, decoder, StopReason.CANCELLED);
+				}
+				tokens[numTokens++] = tokenId;
+			}
+		}
+		catch (LlmCancelledException e) {
+			LOG.fine("Generation has been cancelled");
+			return finish(listener, decoder, StopReason.CANCELLED);
+		}
+		return finish(listener, decoder, StopReason.MAX_TOKENS);
+	}
+
+	/**
+	 * Ends a generation: the remaining bytes of the decoder are flushed and given to the listener.
+	 * @param listener listener receiving the generated tokens
+	 * @param decoder decoder of the generated tokens
+	 * @param stopReason reason why the generation stopped
+	 * @return stop-reason
+	 */
+	static StopReason finish(final TokenListener listener, final StreamingDecoder decoder, final StopReason stopReason) {
+		listener.onEnd(decoder.flush(), stopReason);
+		return stopReason;
+	}
+}
@@ -0,0 +1,28 @@
+package org.rogmann.llm.generation;
+
+/**
+ * Listener receiving the tokens of a text generation as soon as they are computed.
+ */
+@FunctionalInterface
+public interface TokenListener {
+
+	/**
+	 * Called after a token has been generated.
+	 * @param idxToken index of the generated token (0 = first generated token)
+	 * @param tokenId id of the token
+	 * @param token decoded text of the token, a character split over several tokens
+	 * is given with the token completing it (the text may be empty)
+	 */
+	void onToken(int idxToken, int tokenId, String token);
+
+	/**
+	 * Called at the end of a text generation (after the last token or after a cancellation).
+	 * @param remainder bytes of an incomplete character at the end of the generation, decoded as
+	 * replacement character (usually empty)
+	 * @param stopReason reason why the generation stopped
+	 */
+	default void onEnd(final String remainder, final StopReason stopReason) {
+		// The remainder is ignored by default.
+	}
+
+}
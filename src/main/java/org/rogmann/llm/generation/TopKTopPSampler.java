@@ -0,0 +1,306 @@
+package org.rogmann.llm.generation;
+
+import java.util.Random;
+
+import org.rogmann.llm.nn.TopKSelection;
+
+/**
+ * Sampler using temperature, top-k, nucleus (top-p) and a repetition penalty.
+ *
+ * <p>The top-k candidates are selected by a bounded min-heap in one pass over the logits,
+ * there is no sorting of the vocabulary. If top-k is enabled the candidates can be selected
+ * in the LM-head directly, see {@link #getNumCandidates(int)}.</p>
+ *
+ * <p>If top-k is disabled but top-p is enabled the nucleus is searched in the
+ * {@link #MAX_NUCLEUS_CANDIDATES} most probable tokens.</p>
+ */
+public class TopKTopPSampler implements Sampler {
+
+	/** maximum number of candidates of the nucleus if top-k is disabled */
+	public static final int MAX_NUCLEUS_CANDIDATES = 1024;
+
+	/** temperature (0 = greedy) */
+	private final float temperature;
+
+	/** number of candidates (0 = disabled) */
+	private final int topK;
+
+	/** cumulative probability of the nucleus (1 = disabled) */
+	private final float topP;
+
+	/** repetition penalty (1 = disabled) */
+	private final float repetitionPenalty;
+
+	/** random number generator */
+	private final Random random;
+
+	/** selection of the candidates if the whole logits are given */
+	private final TopKSelection selection;
+
+	/** weights of the candidates */
+	private double[] candWeight;
+
+	/** marker of penalized tokens (index = token, value = step of the last penalty) */
+	private int[] penaltyStep;
+
+	/** current step of the repetition penalty */
+	private int curStep;
+
+	/**
+	 * Constructor
+	 * @param temperature temperature (0 = greedy)
+	 * @param topK number of candidates (0 = disabled)
+	 * @param topP cumulative probability of the nucleus (1 = disabled)
+	 * @param repetitionPenalty penalty of tokens in the history (1 = disabled)
+	 * @param seed seed of the random number generator
+	 */
+	public TopKTopPSampler(float temperature, int topK, float topP, float repetitionPenalty, long seed) {
+		if (temperature < 0f) {
+			throw new IllegalArgumentException("Negative temperature: " + temperature);
+		}
+		if (topK < 0) {
+			throw new IllegalArgumentException("Negative topK: " + topK);
+		}
+		if (topP <= 0f || topP > 1f) {
+			throw new IllegalArgumentException("topP not in (0, 1]: " + topP);
+		}
+		if (repetitionPenalty <= 0f) {
+			throw new IllegalArgumentException("Repetition penalty must be positive: " + repetitionPenalty);
+		}
+		this.temperature = temperature;
+		this.topK = topK;
+		this.topP = topP;
+		this.repetitionPenalty = repetitionPenalty;
+		this.random = new Random(seed);
+		final int maxCandidates = (topK > 0) ? topK : ((topP < 1f) ? MAX_NUCLEUS_CANDIDATES : 0);
+		selection = (maxCandidates > 0) ? new TopKSelection(maxCandidates) : null;
+		candWeight = new double[maxCandidates];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int sample(final float[] logits, final int[] history, final int historyLen) {
+		if (repetitionPenalty != 1f) {
+			applyRepetitionPenalty(logits, history, historyLen);
+		}
+		if (temperature == 0f) {
+			return GreedySampler.argMax(logits);
+		}
+		final float invTemperature = 1f / temperature;
+		if (selection == null) {
+			return sampleFull(logits, invTemperature);
+		}
+
+		selection.reset(Math.min(selection.getCapacity(), logits.length));
+		for (int i = 0; i < logits.length; i++) {
+			selection.offer(i, logits[i]);
+		}
+		selection.sortDescending();
+		// The probabilities of the nucleus refer to the whole vocabulary if top-k is disabled.
+		return sampleSorted(selection.getIndices(), selection.getValues(), selection.size(),
+				invTemperature, (topK > 0) ? null : logits);
+	}
+
+	/**
+	 * Gets the number of candidates.
+	 * A penalized token may leave the top-k, so the candidates are extended by the history.
+	 * A penalty below 1 may lift a token of the history into the top-k, this needs the whole logits.
+	 * @param historyLen number of previous tokens
+	 * @return number of candidates, 0 if the whole logits are needed
+	 */
+	@Override
+	public int getNumCandidates(int historyLen) {
+		if (repetitionPenalty < 1f) {
+			return 0;
+		}
+		final int numPenalized = (repetitionPenalty != 1f) ? historyLen : 0;
+		if (temperature == 0f) {
+			return 1 + numPenalized;
+		}
+		if (topK == 0) {
+			return 0;
+		}
+		return topK + numPenalized;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int sampleCandidates(final int[] candIdx, final float[] candLogit, final int numCand,
+			final int[] history, final int historyLen) {
+		if (repetitionPenalty != 1f && penalizeCandidates(candIdx, candLogit, numCand, history, historyLen)) {
+			sortCandidates(candIdx, candLogit, numCand);
+		}
+		if (temperature == 0f) {
+			return candIdx[0];
+		}
+		return sampleSorted(candIdx, candLogit, Math.min(numCand, topK), 1f / temperature, null);
+	}
+
+	/**
+	 * Samples from candidates sorted descending.
+	 * @param candIdx token-ids of the candidates
+	 * @param candLogit logits of the candidates
+	 * @param numCand number of candidates
+	 * @param invTemperature inverse temperature
+	 * @param logits logits of the whole vocabulary as reference of top-p or <code>null</code> to refer to the candidates
+	 * @return token-id
+	 */
+	private int sampleSorted(final int[] candIdx, final float[] candLogit, final int numCand,
+			final float invTemperature, final float[] logits) {
+		if (candWeight.length < numCand) {
+			candWeight = new double[numCand];
+		}
+		final float maxLogit = candLogit[0];
+		double sumCand = 0;
+		for (int i = 0; i < numCand; i++) {
+			final double w = Math.exp((candLogit[i] - maxLogit) * invTemperature);
+			candWeight[i] = w;
+			sumCand += w;
+		}
+		int numNucleus = numCand;
+		double sumNucleus = sumCand;
+		if (topP < 1f) {
+			final double total = (logits == null) ? sumCand : sumWeights(logits, maxLogit, invTemperature);
+			final double limit = topP * total;
+			double cum = 0;
+			for (int i = 0; i < numCand; i++) {
+				cum += candWeight[i];
+				if (cum >= limit) {
+					numNucleus = i + 1;
+					sumNucleus = cum;
+					break;
+				}
+			}
+		}
+
+		final double u = random.nextDouble() * sumNucleus;
+		double cum = 0;
+		for (int i = 0; i < numNucleus; i++) {
+			cum += candWeight[i];
+			if (u < cum) {
+				return candIdx[i];
+			}
+		}
+		return candIdx[numNucleus - 1];
+	}
+
+	/**
+	 * Applies the repetition penalty to the candidates which are contained in the history.
+	 * @param candIdx token-ids of the candidates
+	 * @param candLogit logits of the candidates
+	 * @param numCand number of candidates
+	 * @param history previous tokens
+	 * @param historyLen number of previous tokens
+	 * @return <code>true</code> if a candidate has been penalized
+	 */
+	private boolean penalizeCandidates(final int[] candIdx, final float[] candLogit, final int numCand,
+			final int[] history, final int historyLen) {
+		int maxToken = 0;
+		for (int i = 0; i < historyLen; i++) {
+			maxToken = Math.max(maxToken, history[i]);
+		}
+		if (penaltyStep == null || penaltyStep.length <= maxToken) {
+			penaltyStep = new int[Math.max(maxToken + 1, (penaltyStep != null) ? 2 * penaltyStep.length : 0)];
+			curStep = 0;
+		}
+		curStep++;
+		for (int i = 0; i < historyLen; i++) {
+			penaltyStep[history[i]] = curStep;
+		}
+		boolean isPenalized = false;
+		for (int i = 0; i < numCand; i++) {
+			final int token = candIdx[i];
+			if (token < penaltyStep.length && penaltyStep[token] == curStep) {
+				final float l = candLogit[i];
+				candLogit[i] = (l > 0) ? l / repetitionPenalty : l * repetitionPenalty;
+				isPenalized = true;
+			}
+		}
+		return isPenalized;
+	}
+
+	/**
+	 * Sorts a small number of candidates descending by logit (insertion-sort, smaller token-id first on ties).
+	 * @param candIdx token-ids of the candidates
+	 * @param candLogit logits of the candidates
+	 * @param numCand number of candidates
+	 */
+	private static void sortCandidates(final int[] candIdx, final float[] candLogit, final int numCand) {
+		for (int i = 1; i < numCand; i++) {
+			final int idx = candIdx[i];
+			final float l = candLogit[i];
+			int j = i - 1;
+			while (j >= 0 && (candLogit[j] < l || (candLogit[j] == l && candIdx[j] > idx))) {
+				candIdx[j + 1] = candIdx[j];
+				candLogit[j + 1] = candLogit[j];
+				j--;
+			}
+			candIdx[j + 1] = idx;
+			candLogit[j + 1] = l;
+		}
+	}
+
+	/**
+	 * Divides positive logits and multiplies negative logits of previous tokens by the penalty.
+	 * Each token is penalized once.
+	 * @param logits logits
+	 * @param history previous tokens
+	 * @param historyLen number of previous tokens
+	 */
+	private void applyRepetitionPenalty(final float[] logits, final int[] history, final int historyLen) {
+		if (penaltyStep == null || penaltyStep.length != logits.length) {
+			penaltyStep = new int[logits.length];
+			curStep = 0;
+		}
+		curStep++;
+		for (int i = 0; i < historyLen; i++) {
+			final int token = history[i];
+			if (penaltyStep[token] == curStep) {
+				continue;
+			}
+			penaltyStep[token] = curStep;
+			final float l = logits[token];
+			logits[token] = (l > 0) ? l / repetitionPenalty : l * repetitionPenalty;
+		}
+	}
+
+	/**
+	 * Samples from the whole vocabulary.
+	 * @param logits logits
+	 * @param invTemperature inverse temperature
+	 * @return token-id
+	 */
+	private int sampleFull(final float[] logits, final float invTemperature) {
+		float maxLogit = Float.NEGATIVE_INFINITY;
+		for (float l : logits) {
+			if (l > maxLogit) {
+				maxLogit = l;
+			}
+		}
+		final double total = sumWeights(logits, maxLogit, invTemperature);
+		final double u = random.nextDouble() * total;
+		double cum = 0;
+		for (int i = 0; i < logits.length; i++) {
+			cum += Math.exp((logits[i] - maxLogit) * invTemperature);
+			if (u < cum) {
+				return i;
+			}
+		}
+		return GreedySampler.argMax(logits);
+	}
+
+	/**
+	 * Computes the sum of the unnormalized probabilities of the vocabulary.
+	 * @param logits logits
+	 * @param maxLogit maximum logit
+	 * @param invTemperature inverse temperature
+	 * @return sum
+	 */
+	private static double sumWeights(final float[] logits, final float maxLogit, final float invTemperature) {
+		double sum = 0;
+		for (float l : logits) {
+			sum += Math.exp((l - maxLogit) * invTemperature);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,2 @@
+/** Text generation (streaming of tokens, stop conditions) */
+package org.rogmann.llm.generation;
@@ -10,6 +10,13 @@ public class JSONArray {
 	/** array-elements */
 	private final List<Object> list;
 
+	/**
+	 * Constructor of an empty array filled by {@link JSONStreamReader}.
+	 */
+	JSONArray() {
+		list = new ArrayList<>();
+	}
+
 	/**
 	 * Constructor
 	 * @param jsonReader JSON-reader
@@ -40,6 +47,14 @@ public class JSONArray {
 		
 	}
 
+	/**
+	 * Adds an element.
+	 * @param value element
+	 */
+	void add(Object value) {
+		list.add(value);
+	}
+
 	/**
 	 * Gets the length of the JSON-array.
 	 * @return number of elements
@@ -48,4 +63,86 @@ public class JSONArray {
 		return list.size();
 	}
 
+	/**
+	 * Gets an element of the JSON-array.
+	 * @param index index
+	 * @return element (String, JSONNumber, JSONObject, JSONArray, Boolean or <code>null</code>)
+	 */
+	public Object get(int index) {
+		return list.get(index);
+	}
+
+	/**
+	 * Reads a string.
+	 * @param index index
+	 * @return string
+	 * @throws JSONException if the element isn't a string
+	 */
+	public String getString(int index) {
+		final Object oValue = getValue(index);
+		if (!(oValue instanceof String)) {
+			throw new JSONException(String.format("Invalid value %s at index %d, string expected.", oValue.getClass().getName(), Integer.valueOf(index)));
+		}
+		return (String) oValue;
+	}
+
+	/**
+	 * Reads an integer.
+	 * @param index index
+	 * @return integer
+	 * @throws JSONException if the element isn't an int
+	 */
+	public int getInt(int index) {
+		final Object oValue = getValue(index);
+		if (!(oValue instanceof JSONNumber)) {
+			throw new JSONException(String.format("Invalid value %s at index %d, number expected.", oValue.getClass().getName(), Integer.valueOf(index)));
+		}
+		final String sValue = ((JSONNumber) oValue).getNumberAsString();
+		try {
+			return Integer.parseInt(sValue);
+		} catch (NumberFormatException e) {
+			throw new JSONException(String.format("Invalid number format (%s) at index %d, expected int.", sValue, Integer.valueOf(index)), e);
+		}
+	}
+
+	/**
+	 * Reads a JSON-object.
+	 * @param index index
+	 * @return JSON-object
+	 */
+	public JSONObject getJSONObject(int index) {
+		final Object oValue = getValue(index);
+		if (!(oValue instanceof JSONObject)) {
+			throw new JSONException(String.format("Invalid value %s at index %d, JSONObject expected.", oValue.getClass().getName(), Integer.valueOf(index)));
+		}
+		return (JSONObject) oValue;
+	}
+
+	/**
+	 * Reads a JSON-array.
+	 * @param index index
+	 * @return JSON-array
+	 */
+	public JSONArray getJSONArray(int index) {
+		final Object oValue = getValue(index);
+		if (!(oValue instanceof JSONArray)) {
+			throw new JSONException(String.format("Invalid value %s at index %d, JSONArray expected.", oValue.getClass().getName(), Integer.valueOf(index)));
+		}
+		return (JSONArray) oValue;
+	}
+
+	/**
+	 * Gets the internal value at a given index.
+	 * @param index index
+	 * @return internal value
+	 * @throws JSONException if the value is <code>null</code>
+	 */
+	private Object getValue(int index) {
+		final Object oValue = list.get(index);
+		if (oValue == null) {
+			throw new JSONException(String.format("There is no value at index %d.", Integer.valueOf(index)));
+		}
+		return oValue;
+	}
+
 }
@@ -7,7 +7,7 @@ import java.util.regex.Pattern;
  */
 public class JSONNumber {
 	/** Pattern of JSON-number */
-	static final Pattern P_NUMBER = Pattern.compile("-?(?:0|[1-9][0-9]*)(?:[.][0-9]+)?(?:[eE][+-][0-9]+)?");
+	static final Pattern P_NUMBER = Pattern.compile("-?(?:0|[1-9][0-9]*)(?:[.][0-9]+)?(?:[eE][+-]?[0-9]+)?");
 
 	/** number */
 	 private final String number;
@@ -24,6 +24,13 @@ public class JSONObject {
 		this(new JSONReader(jsonString));
 	}
 
+	/**
+	 * Constructor of an empty object filled by {@link JSONStreamReader}.
+	 */
+	JSONObject() {
+		// entries are added by put
+	}
+
 	/**
 	 * Constructor
 	 * @param jsonReader JSON-reader
@@ -61,6 +68,15 @@ public class JSONObject {
 		}
 	}
 
+	/**
+	 * Adds an entry.
+	 * @param key key
+	 * @param value value
+	 */
+	void put(String key, Object value) {
+		dict.put(key, value);
+	}
+
 	/**
 	 * Reads an integer.
 	 * @param key key
@@ -122,6 +138,41 @@ public class JSONObject {
 		return (JSONObject) oValue;
 	}
 
+	/**
+	 * Reads a JSON-array.
+	 * @param key key
+	 * @return JSON-array
+	 */
+	public JSONArray getJSONArray(String key) {
+		final Object oValue = getValue(key);
+		if (!(oValue instanceof JSONArray)) {
+			throw new JSONException(String.format("Invalid value %s of key \"%s\", JSONArray expected.", oValue.getClass().getName(), key));
+		}
+		return (JSONArray) oValue;
+	}
+
+	/**
+	 * Reads a boolean.
+	 * @param key key
+	 * @return boolean
+	 */
+	public boolean getBoolean(String key) {
+		final Object oValue = getValue(key);
+		if (!(oValue instanceof Boolean)) {
+			throw new JSONException(String.format("Invalid value %s of key \"%s\", boolean expected.", oValue.getClass().getName(), key));
+		}
+		return ((Boolean) oValue).booleanValue();
+	}
+
+	/**
+	 * Gets <code>true</code> if the key is missing or its value is <code>null</code>.
+	 * @param key key
+	 * @return <code>true</code> if there is no value
+	 */
+	public boolean isNull(String key) {
+		return dict.get(key) == null;
+	}
+
 	/**
 	 * Gets <code>true</code> if the object contains the given key.
 	 * @param key key
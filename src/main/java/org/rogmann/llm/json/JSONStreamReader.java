@@ -0,0 +1,556 @@
+package org.rogmann.llm.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pull-parser reading the events of a UTF-8 JSON-document from an input-stream or a (mapped) byte-buffer.
+ *
+ * <p>In contrast to {@link JSONObject} the document isn't materialized as string or map.
+ * The caller pulls one event after the other, so large parts (e.g. the vocabulary of a tokenizer)
+ * can be stored in the caller's own structures. Small parts can be read as JSON-object or JSON-array
+ * by {@link #readValue()}.</p>
+ */
+public class JSONStreamReader implements Closeable {
+
+	/** events of the parser */
+	public enum Event {
+		/** start of an object */
+		START_OBJECT,
+		/** end of an object */
+		END_OBJECT,
+		/** start of an array */
+		START_ARRAY,
+		/** end of an array */
+		END_ARRAY,
+		/** key of an entry of an object, see {@link JSONStreamReader#getText()} */
+		KEY,
+		/** string-value, see {@link JSONStreamReader#getText()} */
+		STRING,
+		/** number-value, see {@link JSONStreamReader#getText()} and {@link JSONStreamReader#getInt()} */
+		NUMBER,
+		/** value true */
+		TRUE,
+		/** value false */
+		FALSE,
+		/** value null */
+		NULL,
+		/** end of the document */
+		END_DOCUMENT;
+	}
+
+	/** state: start of a container */
+	private static final int STATE_START = 0;
+	/** state: after a key of an object */
+	private static final int STATE_AFTER_KEY = 1;
+	/** state: after a value */
+	private static final int STATE_AFTER_VALUE = 2;
+
+	/** input-stream or <code>null</code> if the document is in the buffer */
+	private final InputStream is;
+
+	/** buffer */
+	private final ByteBuffer buf;
+
+	/** number of bytes of the stream before the buffer */
+	private long bufferOffset;
+
+	/** <code>true</code> if the container of a level is an object */
+	private boolean[] stackIsObject = new boolean[32];
+
+	/** current depth */
+	private int depth;
+
+	/** state in the current container */
+	private int state = STATE_START;
+
+	/** <code>true</code> if the top-level value has been started */
+	private boolean isTopLevelStarted;
+
+	/** text of the current key, string or number */
+	private final StringBuilder sbText = new StringBuilder(64);
+
+	/**
+	 * Constructor
+	 * @param is input-stream of the UTF-8 document
+	 */
+	public JSONStreamReader(final InputStream is) {
+		this.is = is;
+		buf = ByteBuffer.allocate(65536);
+		buf.limit(0);
+	}
+
+	/**
+	 * Constructor
+	 * @param bb buffer containing the UTF-8 document between position and limit
+	 */
+	public JSONStreamReader(final ByteBuffer bb) {
+		this.is = null;
+		this.buf = bb;
+	}
+
+	/**
+	 * Reads the next event.
+	 * @return event
+	 * @throws IOException in case of an IO-error
+	 * @throws JSONException in case of an invalid document
+	 */
+	public Event next() throws IOException {
+		int c = readNonWhitespace();
+		if (depth == 0) {
+			if (isTopLevelStarted) {
+				if (c >= 0) {
+					throw new JSONException(String.format("Unexpected character after document at pos 0x%x: %c",
+							Long.valueOf(getPrevPos()), Character.valueOf((char) c)));
+				}
+				return Event.END_DOCUMENT;
+			}
+			isTopLevelStarted = true;
+			return readValueEvent(c);
+		}
+		final boolean isObject = stackIsObject[depth - 1];
+		if (state == STATE_AFTER_KEY) {
+			return readValueEvent(c);
+		}
+		if (c == (isObject ? '}' : ']')) {
+			depth--;
+			state = STATE_AFTER_VALUE;
+			return isObject ? Event.END_OBJECT : Event.END_ARRAY;
+		}
+		if (state == STATE_AFTER_VALUE) {
+			if (c != ',') {
+				throw new JSONException(String.format("Unexpected character after value at pos 0x%x: %s",
+						Long.valueOf(getPrevPos()), displayChar(c)));
+			}
+			c = readNonWhitespace();
+		}
+		if (!isObject) {
+			return readValueEvent(c);
+		}
+		if (c != '"') {
+			throw new JSONException(String.format("Missing quotation mark of key at pos 0x%x: %s",
+					Long.valueOf(getPrevPos()), displayChar(c)));
+		}
+		readString();
+		final int cColon = readNonWhitespace();
+		if (cColon != ':') {
+			throw new JSONException(String.format("Missing colon at pos 0x%x (after key '%s'): %s",
+					Long.valueOf(getPrevPos()), sbText, displayChar(cColon)));
+		}
+		state = STATE_AFTER_KEY;
+		return Event.KEY;
+	}
+
+	/**
+	 * Gets the text of the current key, string or number.
+	 * @return text
+	 */
+	public String getText() {
+		return sbText.toString();
+	}
+
+	/**
+	 * Gets the current number as int.
+	 * @return number
+	 * @throws JSONException if the number isn't an int
+	 */
+	public int getInt() {
+		final int len = sbText.length();
+		final boolean isNegative = (len > 0 && sbText.charAt(0) == '-');
+		long value = 0;
+		int i = isNegative ? 1 : 0;
+		if (i == len || len - i > 10) {
+			throw new JSONException(String.format("Invalid number format (%s), expected int.", sbText));
+		}
+		for (; i < len; i++) {
+			final char c = sbText.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new JSONException(String.format("Invalid number format (%s), expected int.", sbText));
+			}
+			value = 10 * value + (c - '0');
+		}
+		value = isNegative ? -value : value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new JSONException(String.format("Invalid number format (%s), expected int.", sbText));
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Skips the next value (e.g. the value after a key), a container is skipped including its content.
+	 * @throws IOException in case of an IO-error
+	 */
+	public void skipValue() throws IOException {
+		final Event event = next();
+		if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+			final int depthValue = depth;
+			while (depth >= depthValue) {
+				next();
+			}
+		}
+		else if (event == Event.END_OBJECT || event == Event.END_ARRAY || event == Event.KEY || event == Event.END_DOCUMENT) {
+			throw new JSONException(String.format("Value expected at pos 0x%x: %s", Long.valueOf(getPrevPos()), event));
+		}
+	}
+
+	/**
+	 * Reads the next value (e.g. the value after a key) as in {@link JSONObject}.
+	 * @return JSONObject, JSONArray, String, JSONNumber, Boolean or <code>null</code>
+	 * @throws IOException in case of an IO-error
+	 */
+	public Object readValue() throws IOException {
+		return readValue(next());
+	}
+
+	/**
+	 * Reads a value starting with a given event.
+	 * @param event first event of the value
+	 * @return JSONObject, JSONArray, String, JSONNumber, Boolean or <code>null</code>
+	 * @throws IOException in case of an IO-error
+	 */
+	private Object readValue(final Event event) throws IOException {
+		switch (event) {
+		case START_OBJECT:
+			final JSONObject jsonObject = new JSONObject();
+			while (next() == Event.KEY) {
+				final String key = getText();
+				jsonObject.put(key, readValue());
+			}
+			return jsonObject;
+		case START_ARRAY:
+			final JSONArray jsonArray = new JSONArray();
+			while (true) {
+				final Event eventElement = next();
+				if (eventElement == Event.END_ARRAY) {
+					break;
+				}
+				jsonArray.add(readValue(eventElement));
+			}
+			return jsonArray;
+		case STRING:
+			return getText();
+		case NUMBER:
+			return new JSONNumber(getText());
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case NULL:
+			return null;
+		default:
+			throw new JSONException(String.format("Value expected at pos 0x%x: %s", Long.valueOf(getPrevPos()), event));
+		}
+	}
+
+	/**
+	 * Reads a value which starts with a given character.
+	 * @param c first character
+	 * @return event
+	 * @throws IOException in case of an IO-error
+	 */
+	private Event readValueEvent(final int c) throws IOException {
+		state = STATE_AFTER_VALUE;
+		switch (c) {
+		case '{':
+			push(true);
+			return Event.START_OBJECT;
+		case '[':
+			push(false);
+			return Event.START_ARRAY;
+		case '"':
+			readString();
+			return Event.STRING;
+		case 't':
+			readLiteral("rue");
+			return Event.TRUE;
+		case 'f':
+			readLiteral("alse");
+			return Event.FALSE;
+		case 'n':
+			readLiteral("ull");
+			return Event.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				readNumber(c);
+				return Event.NUMBER;
+			}
+			throw new JSONException(String.format("Unexpected start of value at pos 0x%x: %s",
+					Long.valueOf(getPrevPos()), displayChar(c)));
+		}
+	}
+
+	/**
+	 * Enters a container.
+	 * @param isObject <code>true</code> in case of an object, <code>false</code> in case of an array
+	 */
+	private void push(final boolean isObject) {
+		if (depth == stackIsObject.length) {
+			stackIsObject = Arrays.copyOf(stackIsObject, 2 * depth);
+		}
+		stackIsObject[depth++] = isObject;
+		state = STATE_START;
+	}
+
+	/**
+	 * Reads the remaining characters of a literal (true, false, null).
+	 * @param remaining remaining characters
+	 * @throws IOException in case of an IO-error
+	 */
+	private void readLiteral(final String remaining) throws IOException {
+		for (int i = 0; i < remaining.length(); i++) {
+			final int c = readByte();
+			if (c != remaining.charAt(i)) {
+				throw new JSONException(String.format("Invalid literal at pos 0x%x: %s",
+						Long.valueOf(getPrevPos()), displayChar(c)));
+			}
+		}
+	}
+
+	/**
+	 * Reads a number.
+	 * @param cFirst first character
+	 * @throws IOException in case of an IO-error
+	 */
+	private void readNumber(final int cFirst) throws IOException {
+		sbText.setLength(0);
+		sbText.append((char) cFirst);
+		while (true) {
+			final int c = readByte();
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+				sbText.append((char) c);
+				continue;
+			}
+			if (c >= 0) {
+				// The character belongs to the next token.
+				buf.position(buf.position() - 1);
+			}
+			break;
+		}
+		if (!isValidNumber(sbText)) {
+			throw new JSONException(String.format("Invalid number before pos 0x%x: '%s'",
+					Long.valueOf(getPrevPos()), sbText));
+		}
+	}
+
+	/**
+	 * Checks the syntax of a number (see {@link JSONNumber#P_NUMBER}) without a matcher.
+	 * @param number number
+	 * @return <code>true</code> if the number is valid
+	 */
+	private static boolean isValidNumber(final CharSequence number) {
+		final int len = number.length();
+		int i = (len > 0 && number.charAt(0) == '-') ? 1 : 0;
+		if (i < len && number.charAt(i) == '0') {
+			i++;
+		}
+		else {
+			final int start = i;
+			i = skipDigits(number, i);
+			if (i == start || number.charAt(start) == '0') {
+				return false;
+			}
+		}
+		if (i < len && number.charAt(i) == '.') {
+			final int start = ++i;
+			i = skipDigits(number, i);
+			if (i == start) {
+				return false;
+			}
+		}
+		if (i < len && (number.charAt(i) == 'e' || number.charAt(i) == 'E')) {
+			i++;
+			// The sign of the exponent is optional (RFC 8259).
+			if (i < len && (number.charAt(i) == '+' || number.charAt(i) == '-')) {
+				i++;
+			}
+			final int start = i;
+			i = skipDigits(number, i);
+			if (i == start) {
+				return false;
+			}
+		}
+		return i == len;
+	}
+
+	/**
+	 * Skips decimal digits.
+	 * @param s text
+	 * @param start start-position
+	 * @return position after the digits
+	 */
+	private static int skipDigits(final CharSequence s, final int start) {
+		int i = start;
+		while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Reads a string after its quotation mark and decodes UTF-8 and escapes.
+	 * @throws IOException in case of an IO-error
+	 */
+	private void readString() throws IOException {
+		sbText.setLength(0);
+		while (true) {
+			final int b = readByte();
+			if (b == '"') {
+				break;
+			}
+			if (b < 0) {
+				throw new JSONException(String.format("Unexpected end of stream in string at pos 0x%x", Long.valueOf(getPrevPos())));
+			}
+			if (b == '\\') {
+				sbText.append(readEscape());
+			}
+			else if (b < 0x80) {
+				sbText.append((char) b);
+			}
+			else {
+				final int numCont;
+				int cp;
+				if ((b & 0xe0) == 0xc0) {
+					numCont = 1;
+					cp = b & 0x1f;
+				}
+				else if ((b & 0xf0) == 0xe0) {
+					numCont = 2;
+					cp = b & 0x0f;
+				}
+				else if ((b & 0xf8) == 0xf0) {
+					numCont = 3;
+					cp = b & 0x07;
+				}
+				else {
+					throw new JSONException(String.format("Invalid UTF-8 byte at pos 0x%x: 0x%02x",
+							Long.valueOf(getPrevPos()), Integer.valueOf(b)));
+				}
+				for (int i = 0; i < numCont; i++) {
+					final int bCont = readByte();
+					if ((bCont & 0xc0) != 0x80) {
+						throw new JSONException(String.format("Invalid UTF-8 continuation-byte at pos 0x%x: 0x%02x",
+								Long.valueOf(getPrevPos()), Integer.valueOf(bCont)));
+					}
+					cp = (cp << 6) | (bCont & 0x3f);
+				}
+				sbText.appendCodePoint(cp);
+			}
+		}
+	}
+
+	/**
+	 * Reads an escape-sequence after the backslash.
+	 * @return escaped character
+	 * @throws IOException in case of an IO-error
+	 */
+	private char readEscape() throws IOException {
+		final int cEsc = readByte();
+		switch (cEsc) {
+		case '"':
+		case '\\':
+		case '/':
+			return (char) cEsc;
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case 'u':
+			int codepoint = 0;
+			for (int i = 0; i < 4; i++) {
+				final int h = readByte();
+				final int digit = Character.digit(h, 16);
+				if (h < 0 || h >= 0x80 || digit < 0) {
+					throw new JSONException(String.format("Invalid hex digit at pos 0x%x: %s",
+							Long.valueOf(getPrevPos()), displayChar(h)));
+				}
+				codepoint = (codepoint << 4) | digit;
+			}
+			return (char) codepoint;
+		default:
+			throw new JSONException(String.format("Unexpected escape character at pos 0x%x: %s",
+					Long.valueOf(getPrevPos()), displayChar(cEsc)));
+		}
+	}
+
+	/**
+	 * Reads the next non-whitespace byte.
+	 * @return byte or -1 at the end of the document
+	 * @throws IOException in case of an IO-error
+	 */
+	private int readNonWhitespace() throws IOException {
+		while (true) {
+			final int c = readByte();
+			if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Reads the next byte.
+	 * @return byte or -1 at the end of the document
+	 * @throws IOException in case of an IO-error
+	 */
+	private int readByte() throws IOException {
+		if (!buf.hasRemaining() && !fillBuffer()) {
+			return -1;
+		}
+		return buf.get() & 0xff;
+	}
+
+	/**
+	 * Reads the next block of the input-stream.
+	 * @return <code>false</code> at the end of the document
+	 * @throws IOException in case of an IO-error
+	 */
+	private boolean fillBuffer() throws IOException {
+		if (is == null) {
+			return false;
+		}
+		bufferOffset += buf.limit();
+		buf.clear();
+		int len;
+		do {
+			len = is.read(buf.array(), 0, buf.capacity());
+		} while (len == 0);
+		buf.limit(Math.max(len, 0));
+		return len > 0;
+	}
+
+	/**
+	 * Gets the position of the previous byte.
+	 * @return position
+	 */
+	private long getPrevPos() {
+		return bufferOffset + buf.position() - 1;
+	}
+
+	/**
+	 * Displays a character in an error-message.
+	 * @param c character or -1
+	 * @return display-text
+	 */
+	private static String displayChar(final int c) {
+		return (c < 0) ? "end of stream" : Character.toString((char) c);
+	}
+
+	/**
+	 * Closes the input-stream.
+	 * @throws IOException in case of an IO-error
+	 */
+	@Override
+	public void close() throws IOException {
+		if (is != null) {
+			is.close();
+		}
+	}
+}
@@ -82,13 +82,13 @@ class JSONValue {
 					c = '\r';
 				}
 				else if (cEsc == 't') {
-					c = '\r';
+					c = '\t';
 				}
 				else if (cEsc == 'u') {
 					final char[] hex = new char[4];
 					for (int i = 0; i < 4; i++) {
 						final char h = jsonReader.read();
-						if ((h >= '0' && h <= '9') || (h >= 'A' && h <= 'F') || (h <= 'a' || h >= 'f')) {
+						if ((h >= '0' && h <= '9') || (h >= 'A' && h <= 'F') || (h >= 'a' && h <= 'f')) {
 							hex[i] = h;
 						}
 						else {
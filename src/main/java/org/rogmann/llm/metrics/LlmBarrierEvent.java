@@ -0,0 +1,55 @@
+package org.rogmann.llm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR-event of the imbalance of the parts of a dispatch at the barrier of an executor.
+ * The slowest part determines the duration of the dispatch, a large imbalance shows a straggler-thread.
+ */
+@Name("org.rogmann.llm.Barrier")
+@Label("LLM Barrier Imbalance")
+@Description("Fastest and slowest part of a dispatch waiting at the barrier of an executor")
+@Category({ "JBLOOMz", "Executor" })
+@StackTrace(false)
+@Threshold("20 us")
+class LlmBarrierEvent extends Event {
+
+	/** simple class-name of the executor */
+	@Label("Executor")
+	String executor;
+
+	/** number of parts (threads) */
+	@Label("Parts")
+	int parts;
+
+	/** index of the fastest part (0 is the calling thread) */
+	@Label("Fastest Part")
+	int fastestPart;
+
+	/** execution time of the fastest part */
+	@Label("Fastest Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long fastestTime;
+
+	/** index of the slowest part (0 is the calling thread) */
+	@Label("Slowest Part")
+	int slowestPart;
+
+	/** execution time of the slowest part */
+	@Label("Slowest Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long slowestTime;
+
+	/** difference between slowest and fastest part */
+	@Label("Imbalance")
+	@Timespan(Timespan.NANOSECONDS)
+	long imbalance;
+
+}
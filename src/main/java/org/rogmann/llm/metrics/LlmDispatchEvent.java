@@ -0,0 +1,50 @@
+package org.rogmann.llm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR-event of a dispatch of a computation to the worker-threads of an executor.
+ * The duration of the event is the duration of the dispatch including the wait for the workers.
+ * There are thousands of dispatches per token, the default threshold drops the short ones.
+ */
+@Name("org.rogmann.llm.Dispatch")
+@Label("LLM Dispatch")
+@Description("Dispatch of a computation to the worker-threads of an executor")
+@Category({ "JBLOOMz", "Executor" })
+@StackTrace(false)
+@Threshold("20 us")
+class LlmDispatchEvent extends Event {
+
+	/** simple class-name of the executor */
+	@Label("Executor")
+	String executor;
+
+	/** number of items of the loop (number of parts in case of tasks without loop) */
+	@Label("Items")
+	int n;
+
+	/** number of parts (slices) */
+	@Label("Parts")
+	int parts;
+
+	/** number of items of the smallest slice */
+	@Label("Min Slice")
+	int minSlice;
+
+	/** number of items of the largest slice */
+	@Label("Max Slice")
+	int maxSlice;
+
+	/** time the calling thread waited for the workers after finishing its own part */
+	@Label("Wait Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long waitTime;
+
+}
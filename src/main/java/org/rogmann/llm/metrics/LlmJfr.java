@@ -0,0 +1,238 @@
+package org.rogmann.llm.metrics;
+
+import java.util.logging.Logger;
+
+/**
+ * Emitter of the JFR-events of JBLOOMz.
+ *
+ * <p>The event-classes (subclasses of <code>jdk.jfr.Event</code>) are used by this class only.
+ * The availability of the module jdk.jfr (it may be missing in a jlink-image) is checked once.
+ * Without JFR a method returns after checking a static final flag and the event-classes are not loaded.</p>
+ */
+public final class LlmJfr {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(LlmJfr.class.getName());
+
+	/** <code>true</code> if the JFR-API is available */
+	private static final boolean AVAILABLE = lookupJfr();
+
+	/** private constructor */
+	private LlmJfr() {
+		// static methods only
+	}
+
+	/**
+	 * Checks if the JFR-API (jdk.jfr) is available.
+	 * @return <code>true</code> if the JFR-events can be emitted
+	 */
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	/**
+	 * Emits the span of an operation of the inference (event <code>org.rogmann.llm.Operation</code>).
+	 * @param op operation
+	 * @param layer layer or -1 in case of an operation of the model
+	 * @param phase phase
+	 * @param span duration of the span in nanoseconds
+	 */
+	static void commitOperation(final LlmOp op, final int layer, final LlmPhase phase, final long span) {
+		if (!AVAILABLE) {
+			return;
+		}
+		final LlmOpEvent event = new LlmOpEvent();
+		if (event.isEnabled()) {
+			event.op = op.name();
+			event.layer = layer;
+			event.phase = phase.name();
+			event.span = span;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Begins a dispatch of an executor (event <code>org.rogmann.llm.Dispatch</code>).
+	 * @return event or <code>null</code> if the event is disabled
+	 */
+	public static Object beginDispatch() {
+		if (!AVAILABLE) {
+			return null;
+		}
+		final LlmDispatchEvent event = new LlmDispatchEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends a dispatch of an executor and commits the event if it exceeds the threshold.
+	 * @param dispatchEvent event returned by {@link #beginDispatch()} or <code>null</code>
+	 * @param executor simple class-name of the executor
+	 * @param n number of items of the loop
+	 * @param parts number of parts
+	 * @param minSlice number of items of the smallest slice
+	 * @param maxSlice number of items of the largest slice
+	 * @param waitTime time the calling thread waited for the workers in nanoseconds
+	 */
+	public static void commitDispatch(final Object dispatchEvent, final String executor, final int n,
+			final int parts, final int minSlice, final int maxSlice, final long waitTime) {
+		if (dispatchEvent == null) {
+			return;
+		}
+		final LlmDispatchEvent event = (LlmDispatchEvent) dispatchEvent;
+		event.end();
+		if (event.shouldCommit()) {
+			event.executor = executor;
+			event.n = n;
+			event.parts = parts;
+			event.minSlice = minSlice;
+			event.maxSlice = maxSlice;
+			event.waitTime = waitTime;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Begins the imbalance of the parts of a dispatch (event <code>org.rogmann.llm.Barrier</code>).
+	 * @return event or <code>null</code> if the event is disabled
+	 */
+	public static Object beginBarrier() {
+		if (!AVAILABLE) {
+			return null;
+		}
+		final LlmBarrierEvent event = new LlmBarrierEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends the imbalance of the parts of a dispatch and commits the event if it exceeds the threshold.
+	 * @param barrierEvent event returned by {@link #beginBarrier()} or <code>null</code>
+	 * @param executor simple class-name of the executor
+	 * @param parts number of parts
+	 * @param fastestPart index of the fastest part
+	 * @param fastestTime execution time of the fastest part in nanoseconds
+	 * @param slowestPart index of the slowest part
+	 * @param slowestTime execution time of the slowest part in nanoseconds
+	 */
+	public static void commitBarrier(final Object barrierEvent, final String executor, final int parts,
+			final int fastestPart, final long fastestTime, final int slowestPart, final long slowestTime) {
+		if (barrierEvent == null) {
+			return;
+		}
+		final LlmBarrierEvent event = (LlmBarrierEvent) barrierEvent;
+		event.end();
+		if (event.shouldCommit()) {
+			event.executor = executor;
+			event.parts = parts;
+			event.fastestPart = fastestPart;
+			event.fastestTime = fastestTime;
+			event.slowestPart = slowestPart;
+			event.slowestTime = slowestTime;
+			event.imbalance = slowestTime - fastestTime;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Begins reading the data of a tensor (event <code>org.rogmann.llm.TensorLoad</code>).
+	 * @return event or <code>null</code> if the event is disabled
+	 */
+	public static Object beginTensorLoad() {
+		if (!AVAILABLE) {
+			return null;
+		}
+		final LlmTensorLoadEvent event = new LlmTensorLoadEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends reading the data of a tensor and commits the event.
+	 * @param tensorLoadEvent event returned by {@link #beginTensorLoad()} or <code>null</code>
+	 * @param key name of the tensor
+	 * @param format storage-format in the model-file
+	 * @param shape shape of the slice which has been read
+	 * @param bytes number of bytes read
+	 */
+	public static void commitTensorLoad(final Object tensorLoadEvent, final String key, final String format,
+			final String shape, final long bytes) {
+		if (tensorLoadEvent == null) {
+			return;
+		}
+		final LlmTensorLoadEvent event = (LlmTensorLoadEvent) tensorLoadEvent;
+		event.end();
+		if (event.shouldCommit()) {
+			event.key = key;
+			event.format = format;
+			event.shape = shape;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Begins the generation of a token (event <code>org.rogmann.llm.Token</code>).
+	 * @return event or <code>null</code> if the event is disabled
+	 */
+	public static Object beginToken() {
+		if (!AVAILABLE) {
+			return null;
+		}
+		final LlmTokenEvent event = new LlmTokenEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends the generation of a token and commits the event.
+	 * @param tokenEvent event returned by {@link #beginToken()} or <code>null</code>
+	 * @param index index of the generated token
+	 * @param tokenId id of the token
+	 * @param phase phase of the forward pass
+	 * @param inputTokens number of tokens processed by the forward pass
+	 * @param contextTokens number of tokens in the context including the prompt
+	 */
+	public static void commitToken(final Object tokenEvent, final int index, final int tokenId,
+			final LlmPhase phase, final int inputTokens, final int contextTokens) {
+		if (tokenEvent == null) {
+			return;
+		}
+		final LlmTokenEvent event = (LlmTokenEvent) tokenEvent;
+		event.end();
+		if (event.shouldCommit()) {
+			event.index = index;
+			event.tokenId = tokenId;
+			event.phase = phase.name();
+			event.inputTokens = inputTokens;
+			event.contextTokens = contextTokens;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Looks for the JFR-API.
+	 * @return <code>true</code> if jdk.jfr.Event can be loaded
+	 */
+	private static boolean lookupJfr() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		}
+		catch (ClassNotFoundException | LinkageError e) {
+			LOG.fine("JFR-events are disabled, jdk.jfr isn't available: " + e);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package org.rogmann.llm.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency-metrics of the operations of a model, per operation, layer and phase.
+ *
+ * <p>The metrics are disabled by default. When disabled, a span costs the read of a volatile flag.
+ * When enabled, a span costs two calls of {@link System#nanoTime()} and two atomic additions.
+ * Each span of a wall-time of enabled metrics is emitted as JFR-event <code>org.rogmann.llm.Operation</code>,
+ * if this event is enabled in a recording, too (see {@link LlmJfr}).</p>
+ *
+ * <p>The phase is set by the thread executing the forward pass. The times of the tasks
+ * (e.g. {@link LlmOp#SCORES}) may be added by the worker-threads.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * final LlmMetrics metrics = model.getMetrics();
+ * metrics.setEnabled(true);
+ * // generate some tokens
+ * System.out.println(metrics);
+ * final long nanosMlpDecode = metrics.getTotalNanos(LlmPhase.DECODE, LlmOp.MLP);
+ * </pre>
+ */
+public class LlmMetrics {
+
+	/** operations */
+	private static final LlmOp[] OPS = LlmOp.values();
+
+	/** phases */
+	private static final LlmPhase[] PHASES = LlmPhase.values();
+
+	/** number of layers */
+	private final int numLayers;
+
+	/** sum of the nanoseconds by phase, layer (the last slot is the model) and operation */
+	private final AtomicLongArray nanos;
+
+	/** number of spans by phase, layer and operation */
+	private final AtomicLongArray counts;
+
+	/** <code>true</code> if spans are recorded */
+	private volatile boolean enabled;
+
+	/** current phase */
+	private volatile LlmPhase phase = LlmPhase.PREFILL;
+
+	/**
+	 * Constructor
+	 * @param numLayers number of layers of the model
+	 */
+	public LlmMetrics(final int numLayers) {
+		this.numLayers = numLayers;
+		final int size = PHASES.length * (numLayers + 1) * OPS.length;
+		nanos = new AtomicLongArray(size);
+		counts = new AtomicLongArray(size);
+	}
+
+	/**
+	 * Checks if spans are recorded.
+	 * @return <code>true</code> if enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables the recording of spans.
+	 * @param enabled <code>true</code> to record spans
+	 */
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Gets the current phase.
+	 * @return phase
+	 */
+	public LlmPhase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Sets the phase of the following spans.
+	 * @param phase phase
+	 */
+	public void setPhase(final LlmPhase phase) {
+		this.phase = phase;
+	}
+
+	/**
+	 * Gets the number of layers.
+	 * @return number of layers
+	 */
+	public int getNumLayers() {
+		return numLayers;
+	}
+
+	/**
+	 * Records the span of an operation ending now.
+	 * @param layer layer or -1 in case of an operation of the model (e.g. LM-head)
+	 * @param op operation
+	 * @param tStart start of the span (see {@link System#nanoTime()})
+	 * @return end of the span, can be used as start of a following span
+	 */
+	public long record(final int layer, final LlmOp op, final long tStart) {
+		final long tEnd = System.nanoTime();
+		final long span = tEnd - tStart;
+		final LlmPhase curPhase = phase;
+		final int idx = index(curPhase, layer, op);
+		nanos.addAndGet(idx, span);
+		counts.incrementAndGet(idx);
+		LlmJfr.commitOperation(op, layer, curPhase, span);
+		return tEnd;
+	}
+
+	/**
+	 * Adds the time of tasks (e.g. the sum of the times of the scores in a task).
+	 * @param layer layer
+	 * @param op operation
+	 * @param nanosTask nanoseconds
+	 * @param count number of computations (e.g. rows)
+	 */
+	public void addTaskTime(final int layer, final LlmOp op, final long nanosTask, final int count) {
+		final int idx = index(phase, layer, op);
+		nanos.addAndGet(idx, nanosTask);
+		counts.addAndGet(idx, count);
+	}
+
+	/**
+	 * Gets the sum of the spans of an operation in a layer.
+	 * @param phase phase
+	 * @param layer layer or -1 in case of an operation of the model
+	 * @param op operation
+	 * @return nanoseconds
+	 */
+	public long getNanos(final LlmPhase phase, final int layer, final LlmOp op) {
+		return nanos.get(index(phase, layer, op));
+	}
+
+	/**
+	 * Gets the number of spans of an operation in a layer.
+	 * @param phase phase
+	 * @param layer layer or -1 in case of an operation of the model
+	 * @param op operation
+	 * @return number of spans (number of rows in case of a task-time)
+	 */
+	public long getCount(final LlmPhase phase, final int layer, final LlmOp op) {
+		return counts.get(index(phase, layer, op));
+	}
+
+	/**
+	 * Gets the sum of the spans of an operation in all layers.
+	 * @param phase phase
+	 * @param op operation
+	 * @return nanoseconds
+	 */
+	public long getTotalNanos(final LlmPhase phase, final LlmOp op) {
+		long sum = 0;
+		for (int layer = -1; layer < numLayers; layer++) {
+			sum += getNanos(phase, layer, op);
+		}
+		return sum;
+	}
+
+	/**
+	 * Gets the number of spans of an operation in all layers.
+	 * @param phase phase
+	 * @param op operation
+	 * @return number of spans
+	 */
+	public long getTotalCount(final LlmPhase phase, final LlmOp op) {
+		long sum = 0;
+		for (int layer = -1; layer < numLayers; layer++) {
+			sum += getCount(phase, layer, op);
+		}
+		return sum;
+	}
+
+	/**
+	 * Clears the recorded spans.
+	 */
+	public void reset() {
+		for (int i = 0; i < nanos.length(); i++) {
+			nanos.set(i, 0L);
+			counts.set(i, 0L);
+		}
+	}
+
+	/**
+	 * Computes the index of a counter.
+	 * @param phase phase
+	 * @param layer layer or -1
+	 * @param op operation
+	 * @return index
+	 */
+	private int index(final LlmPhase phase, final int layer, final LlmOp op) {
+		if (layer < -1 || layer >= numLayers) {
+			throw new IllegalArgumentException(String.format("Invalid layer %d of %d layers",
+					Integer.valueOf(layer), Integer.valueOf(numLayers)));
+		}
+		final int slot = (layer >= 0) ? layer : numLayers;
+		return (phase.ordinal() * (numLayers + 1) + slot) * OPS.length + op.ordinal();
+	}
+
+	/**
+	 * Summary of the operations of all layers by phase.
+	 * @return summary, a line per phase and operation
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(500);
+		for (LlmPhase p : PHASES) {
+			for (LlmOp op : OPS) {
+				final long count = getTotalCount(p, op);
+				if (count == 0) {
+					continue;
+				}
+				final long sumNanos = getTotalNanos(p, op);
+				sb.append(String.format("%-7s %-9s %8d %s, total %10.3f ms, mean %10.3f us%n",
+						p, op, Long.valueOf(count), op.isTaskTime() ? "rows " : "spans",
+						Double.valueOf(sumNanos / 1e6), Double.valueOf(sumNanos / 1e3 / count)));
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,48 @@
+package org.rogmann.llm.metrics;
+
+/**
+ * Operation measured by {@link LlmMetrics}.
+ *
+ * <p>Scores, softmax and context are computed in one pass per row of the attention
+ * in the worker-threads (see BloomAttention). Their times are the sums of the times of the
+ * tasks, the wall-time of the fused computation is {@link #ATTENTION}.</p>
+ */
+public enum LlmOp {
+	/** product of query, key and value */
+	QKV(false),
+	/** attention of all heads (scores, softmax and context) */
+	ATTENTION(false),
+	/** scaled scores Q*K^T including ALiBi and mask (time of the tasks) */
+	SCORES(true),
+	/** softmax of the scores (time of the tasks) */
+	SOFTMAX(true),
+	/** product of the probabilities and V (time of the tasks) */
+	CONTEXT(true),
+	/** dense product of the attention including the all-reduce */
+	DENSE(false),
+	/** MLP including the all-reduce */
+	MLP(false),
+	/** LM-head (logits or candidates of the vocabulary) */
+	LM_HEAD(false),
+	/** sampler choosing the next token */
+	SAMPLING(false);
+
+	/** <code>true</code> if the time is the sum of the times of the tasks in the worker-threads */
+	private final boolean taskTime;
+
+	/**
+	 * Constructor
+	 * @param taskTime <code>true</code> if the time is the sum of the times of the tasks
+	 */
+	LlmOp(final boolean taskTime) {
+		this.taskTime = taskTime;
+	}
+
+	/**
+	 * Checks if the time of this operation is the sum of the times of the tasks in the worker-threads.
+	 * @return <code>true</code> in case of a task-time, <code>false</code> in case of a wall-time
+	 */
+	public boolean isTaskTime() {
+		return taskTime;
+	}
+}
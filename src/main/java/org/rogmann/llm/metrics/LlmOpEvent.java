@@ -0,0 +1,39 @@
+package org.rogmann.llm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR-event of a span of an operation of the inference.
+ * The event is committed at the end of the span, the duration of the span is in the field <code>span</code>.
+ */
+@Name("org.rogmann.llm.Operation")
+@Label("LLM Operation")
+@Description("Span of an operation of a forward pass or of the sampling")
+@Category({ "JBLOOMz", "Inference" })
+@StackTrace(false)
+class LlmOpEvent extends Event {
+
+	/** operation */
+	@Label("Operation")
+	String op;
+
+	/** layer, -1 in case of an operation of the model */
+	@Label("Layer")
+	int layer;
+
+	/** phase */
+	@Label("Phase")
+	String phase;
+
+	/** duration of the span */
+	@Label("Span")
+	@Timespan(Timespan.NANOSECONDS)
+	long span;
+
+}
@@ -0,0 +1,11 @@
+package org.rogmann.llm.metrics;
+
+/**
+ * Phase of a forward pass.
+ */
+public enum LlmPhase {
+	/** processing of the prompt (no fusedQkv-cache) */
+	PREFILL,
+	/** generation of tokens using the fusedQkv-cache */
+	DECODE;
+}
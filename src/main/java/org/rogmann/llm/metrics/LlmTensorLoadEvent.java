@@ -0,0 +1,38 @@
+package org.rogmann.llm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR-event of reading the data of a tensor of a model-file.
+ */
+@Name("org.rogmann.llm.TensorLoad")
+@Label("LLM Tensor Load")
+@Description("Reading and conversion of the data of a tensor of a model-file")
+@Category({ "JBLOOMz", "Model" })
+@StackTrace(false)
+class LlmTensorLoadEvent extends Event {
+
+	/** name of the tensor */
+	@Label("Tensor")
+	String key;
+
+	/** storage-format in the model-file, e.g. "BFLOAT16" */
+	@Label("Format")
+	String format;
+
+	/** shape of the slice which has been read, e.g. "[1024, 4096]" */
+	@Label("Shape")
+	String shape;
+
+	/** number of bytes read */
+	@Label("Bytes")
+	@DataAmount(DataAmount.BYTES)
+	long bytes;
+
+}
@@ -0,0 +1,41 @@
+package org.rogmann.llm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR-event of a generated token.
+ * The duration of the event is the time from the start of the forward pass to the choice of the token.
+ */
+@Name("org.rogmann.llm.Token")
+@Label("LLM Token")
+@Description("Generation of a token (forward pass, LM-head and sampling)")
+@Category({ "JBLOOMz", "Generation" })
+@StackTrace(false)
+class LlmTokenEvent extends Event {
+
+	/** index of the generated token (0 is the first token after the prompt) */
+	@Label("Index")
+	int index;
+
+	/** id of the token */
+	@Label("Token Id")
+	int tokenId;
+
+	/** phase of the forward pass, "PREFILL" or "DECODE" */
+	@Label("Phase")
+	String phase;
+
+	/** number of tokens processed by the forward pass (prompt or new tokens) */
+	@Label("Input Tokens")
+	int inputTokens;
+
+	/** number of tokens in the context including the prompt */
+	@Label("Context Tokens")
+	int contextTokens;
+
+}
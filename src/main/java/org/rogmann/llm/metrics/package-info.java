@@ -0,0 +1,4 @@
+/**
+ * Latency-metrics of the inference (spans per operation, layer and phase) and JFR-events.
+ */
+package org.rogmann.llm.metrics;
@@ -0,0 +1,16 @@
+package org.rogmann.llm.nn;
+
+/**
+ * Element-wise activation function (e.g. a GELU), applied in the epilogue of a matrix-multiplication.
+ */
+@FunctionalInterface
+public interface Activation {
+
+	/**
+	 * Computes the activation of a value.
+	 * @param x input
+	 * @return activation
+	 */
+	float apply(float x);
+
+}
@@ -50,8 +50,22 @@ public class Embeddings {
 		return output;
 	}
 
+	/**
+	 * Computes the logits of the vocabulary (LM-head).
+	 * @param lastState last hidden state
+	 * @return logits
+	 */
 	public float[] computeLastEmbedding(final float[] lastState) {
-		final float[] lastEmbedding = new float[weights.length];
+		return computeLastEmbedding(lastState, new float[weights.length]);
+	}
+
+	/**
+	 * Computes the logits of the vocabulary (LM-head) into a given buffer.
+	 * @param lastState last hidden state
+	 * @param lastEmbedding buffer to be filled, length is the number of tokens
+	 * @return logits (the given buffer)
+	 */
+	public float[] computeLastEmbedding(final float[] lastState, final float[] lastEmbedding) {
 		executor.startLoopTasks(weights.length, (iStart, iEnd) -> () -> {
 			for (int i = iStart; i < iEnd; i++) {
 				float sum = 0;
@@ -67,27 +81,155 @@ public class Embeddings {
 		return lastEmbedding;
 	}
 
+	/**
+	 * Gets the number of tokens in the vocabulary.
+	 * @return number of tokens
+	 */
+	public int getNumTokens() {
+		return weights.length;
+	}
+
+	/**
+	 * Copies each row of the weights in the thread which uses the row in the LM-head,
+	 * see {@link Linear#localizeRows()}. The rows of part 0 are copied by the calling thread.
+	 */
+	public void localizeRows() {
+		executor.startLoopTasks(weights.length, (iStart, iEnd) -> () -> {
+			for (int i = iStart; i < iEnd; i++) {
+				weights[i] = weights[i].clone();
+			}
+		});
+	}
+
+	/**
+	 * Computes the token of maximum logit without materializing the logits.
+	 * Each slice of the LM-head keeps its running maximum, the maxima of the slices are merged.
+	 * @param lastState last hidden state
+	 * @return index of the token of maximum logit
+	 */
+	public int computeMaxToken(final float[] lastState) {
+		final TopKSelection result = new TopKSelection(1);
+		executor.startLoopTasks(weights.length, (iStart, iEnd) -> () -> {
+			int idxMax = -1;
+			float max = Float.NEGATIVE_INFINITY;
+			for (int i = iStart; i < iEnd; i++) {
+				final float[] row = weights[i];
+				float sum = 0;
+				for (int j = 0; j < lastState.length; j++) {
+					sum += row[j] * lastState[j];
+				}
+				if (sum > max || idxMax < 0) {
+					max = sum;
+					idxMax = i;
+				}
+			}
+			if (idxMax >= 0) {
+				synchronized (result) {
+					result.offer(idxMax, max);
+				}
+			}
+		});
+		return result.getIndices()[0];
+	}
+
+	/**
+	 * Computes the tokens of largest logits without materializing the logits.
+	 * Each slice of the LM-head keeps its own top-k candidates, the candidates of the slices are merged.
+	 * @param lastState last hidden state
+	 * @param selection selection to be filled, the number k of candidates has to be set, sorted descending afterwards
+	 */
+	public void computeTopK(final float[] lastState, final TopKSelection selection) {
+		computeTopK(lastState, selection, null);
+	}
+
+	/**
+	 * Computes the tokens of largest logits and the log-sum-exp of all logits without materializing the logits.
+	 * The log-probability of a candidate is its logit minus the log-sum-exp.
+	 * @param lastState last hidden state
+	 * @param selection selection to be filled, the number k of candidates has to be set, sorted descending afterwards
+	 * @return log-sum-exp of the logits of the vocabulary
+	 */
+	public double computeTopKLogSumExp(final float[] lastState, final TopKSelection selection) {
+		// maximum and sum of exp(logit - maximum)
+		final double[] maxSum = { Double.NEGATIVE_INFINITY, 0.0 };
+		computeTopK(lastState, selection, maxSum);
+		return maxSum[0] + Math.log(maxSum[1]);
+	}
+
+	/**
+	 * Computes the tokens of largest logits.
+	 * @param lastState last hidden state
+	 * @param selection selection to be filled
+	 * @param maxSum <code>null</code> or array to store the maximum and the sum of exp(logit - maximum)
+	 */
+	private void computeTopK(final float[] lastState, final TopKSelection selection, final double[] maxSum) {
+		final int k = selection.getK();
+		selection.reset(k);
+		// One partial selection per part, they are merged after the tasks have finished.
+		executor.startTasks((idxTask, nTasks) -> {
+			final int iStart = LlmExecutor.splitIndex(weights.length, idxTask, nTasks);
+			final int iEnd = LlmExecutor.splitIndex(weights.length, idxTask + 1, nTasks);
+			final TopKSelection local = selection.preparePart(idxTask, nTasks, Math.min(k, iEnd - iStart));
+			final double[] partsMaxSum = selection.getPartsMaxSum();
+			return () -> {
+				double localMax = Double.NEGATIVE_INFINITY;
+				double localSum = 0.0;
+				for (int i = iStart; i < iEnd; i++) {
+					final float[] row = weights[i];
+					float sum = 0;
+					for (int j = 0; j < lastState.length; j++) {
+						sum += row[j] * lastState[j];
+					}
+					local.offer(i, sum);
+					if (maxSum != null) {
+						// online log-sum-exp
+						if (sum > localMax) {
+							localSum = localSum * Math.exp(localMax - sum) + 1.0;
+							localMax = sum;
+						}
+						else {
+							localSum += Math.exp(sum - localMax);
+						}
+					}
+				}
+				partsMaxSum[2 * idxTask] = localMax;
+				partsMaxSum[2 * idxTask + 1] = localSum;
+			};
+		});
+		selection.mergeParts();
+		if (maxSum != null) {
+			final double[] partsMaxSum = selection.getPartsMaxSum();
+			for (int i = 0; i < selection.getNumParts(); i++) {
+				final double localMax = partsMaxSum[2 * i];
+				final double localSum = partsMaxSum[2 * i + 1];
+				if (localSum == 0.0) {
+					continue;
+				}
+				if (localMax > maxSum[0]) {
+					maxSum[1] = maxSum[1] * Math.exp(maxSum[0] - localMax) + localSum;
+					maxSum[0] = localMax;
+				}
+				else {
+					maxSum[1] += localSum * Math.exp(localMax - maxSum[0]);
+				}
+			}
+		}
+		selection.sortDescending();
+	}
+
 	/**
 	 * Compute the token with maximum probability in the last state of the hidden state.
-	 * @param hiddenState batch-element of hidden state
+	 * @param batchState batch-element of hidden state
 	 * @param tokenizer tokenizer (used for logging only)
 	 * @return index of next token
 	 */
 	public int computeMaxToken(float[][] batchState, Tokenizer tokenizer) {
 		final float[] lastState = batchState[batchState.length - 1];
-		final float[] lastEmbedding = computeLastEmbedding(lastState);
-		int idx = 0;
-		float max = -1e10f;
-		for (int i = 0; i < lastEmbedding.length; i++) {
-			if (lastEmbedding[i] > max) {
-				max = lastEmbedding[i];
-				idx = i;
-				String token = tokenizer.decode(i);
-				if (LOG.isLoggable(Level.FINE)) {
-					LOG.fine(String.format("idx=%d, max=%f, token=%s (%s)",
-							idx, max, token, tokenizer.convertToInternal(token)));
-				}
-			}
+		final int idx = computeMaxToken(lastState);
+		if (LOG.isLoggable(Level.FINE)) {
+			final String token = tokenizer.decode(idx);
+			LOG.fine(String.format("idx=%d, token=%s (%s)",
+					Integer.valueOf(idx), token, tokenizer.convertToInternal(token)));
 		}
 		return idx;
 	}
@@ -1,5 +1,7 @@
 package org.rogmann.llm.nn;
 
+import org.rogmann.llm.LlmExecutor;
+
 /**
  * Computes the layer norm.
  * 
@@ -59,33 +61,102 @@ public class LayerNorm {
 
 	/**
 	 * Computes the layer normalization of a 1d-tensor.
-	 * The gain is set to 1, the bias is set to 0.
 	 * @param input input
 	 * @return normalized input
 	 */
 	public float[] normalize(float[] input) {
-		final int d1 = input.length;
+		final float[] output = new float[input.length];
+		normalize(input, null, null, output);
+		return output;
+	}
 
-		float mu = 0;
-		for (float a : input) {
-			mu += a;
-		}
-		mu /= d1;
+	/**
+	 * Computes the layer normalization of a 1d-tensor into an output-array.
+	 * @param input input
+	 * @param output normalized input (may be equal to input)
+	 */
+	public void normalize(final float[] input, final float[] output) {
+		normalize(input, null, null, output);
+	}
 
-		float sigma = 0;
-		for (float a : input) {
-			float d = (a - mu);
-			sigma += d * d;
-		}
-		sigma = (float) Math.sqrt(sigma / d1 + eps);
+	/**
+	 * Adds a residual to a 1d-tensor and computes the layer normalization of the sum.
+	 * @param input input
+	 * @param residual residual
+	 * @param sum array receiving input + residual (may be equal to input)
+	 * @param output normalized sum
+	 */
+	public void addNormalize(final float[] input, final float[] residual, final float[] sum, final float[] output) {
+		normalize(input, residual, sum, output);
+	}
 
-		float denom = sigma;
-		final float[] output = new float[d1];
+	/**
+	 * Computes the layer normalization of a 1d-tensor or of the sum of a 1d-tensor and a residual.
+	 * Mean and variance are computed in double precision in one pass (Welford's algorithm),
+	 * a second pass writes the normalized values.
+	 * @param input input
+	 * @param residual <code>null</code> or residual to be added
+	 * @param sum <code>null</code> or array receiving input + residual (may be equal to input)
+	 * @param output normalized input or sum (may be equal to input)
+	 */
+	private void normalize(final float[] input, final float[] residual, final float[] sum, final float[] output) {
+		final int d1 = input.length;
+		final float[] values = (sum != null) ? sum : input;
+		double mean = 0;
+		double m2 = 0;
 		for (int j = 0; j < d1; j++) {
-			output[j] = ((input[j] - mu) * alpha[j]) / denom + beta[j];
+			final float x = (residual != null) ? input[j] + residual[j] : input[j];
+			if (sum != null) {
+				sum[j] = x;
+			}
+			final double delta = x - mean;
+			mean += delta / (j + 1);
+			m2 += delta * (x - mean);
 		}
-		
-		return output;
+		final float mu = (float) mean;
+		final float denom = (float) Math.sqrt(m2 / d1 + eps);
+		for (int j = 0; j < d1; j++) {
+			output[j] = ((values[j] - mu) * alpha[j]) / denom + beta[j];
+		}
+	}
+
+	/**
+	 * Computes the layer normalization of each row of a batch.
+	 * The rows of all batch-entries are computed in one dispatch.
+	 * @param input input (batchSize, numSeq, hiddenSize)
+	 * @param output normalized rows (batchSize, numSeq, hiddenSize), may be equal to input
+	 * @param executor executor
+	 */
+	public void normalizeRows(final float[][][] input, final float[][][] output, final LlmExecutor executor) {
+		final int numSeq = input[0].length;
+		executor.startLoopTasks(input.length * numSeq, 4 * alpha.length, (rStart, rEnd) -> () -> {
+			for (int r = rStart; r < rEnd; r++) {
+				final int b = r / numSeq;
+				final int j = r % numSeq;
+				normalize(input[b][j], output[b][j]);
+			}
+		});
+	}
+
+	/**
+	 * Adds a residual to each row of a batch and computes the layer normalization of the sums.
+	 * The rows of all batch-entries are computed in one dispatch.
+	 * @param input input (batchSize, numSeq, hiddenSize)
+	 * @param residual residual (batchSize, numSeq, hiddenSize)
+	 * @param sum tensor receiving input + residual, may be equal to input
+	 * @param output normalized sums (batchSize, numSeq, hiddenSize)
+	 * @param executor executor
+	 */
+	public void addNormalizeRows(final float[][][] input, final float[][][] residual,
+			final float[][][] sum, final float[][][] output, final LlmExecutor executor) {
+		final int numSeq = input[0].length;
+		executor.startLoopTasks(input.length * numSeq, 6 * alpha.length, (rStart, rEnd) -> () -> {
+			for (int r = rStart; r < rEnd; r++) {
+				final int b = r / numSeq;
+				final int j = r % numSeq;
+				addNormalize(input[b][j], residual[b][j], sum[b][j], output[b][j]);
+			}
+		});
 	}
 
 	/**
@@ -40,84 +40,133 @@ public class Linear {
 		this.executor = executor;
 	}
 
+	/**
+	 * Gets the size of an output-row.
+	 * @return number of rows of the matrix
+	 */
+	public int getOutputSize() {
+		return dim1;
+	}
+
 	/**
 	 * Computes input * transposed(mat) + bias.
+	 * All rows of the batch are computed in one dispatch.
 	 * @param input input
 	 * @param output result
 	 */
 	public void mult(float[][][] input, final float[][][] output) {
+		multMinDim2(input, output, 0);
+	}
+
+	/**
+	 * Computes input * transposed(mat) + bias.
+	 * This method can be used when a part of the result has already been computed.
+	 * The input may contain several rows (e.g. new tokens appended to a cache).
+	 * @param input input
+	 * @param output result
+	 * @param startOffsetOutputDim2 start-offset in the second dimension in the output-tensor
+	 */
+	public void multMinDim2(float[][][] input, final float[][][] output, final int startOffsetOutputDim2) {
+		multKernel(input, output, startOffsetOutputDim2, null);
+	}
+
+	/**
+	 * Computes activation(input * transposed(mat) + bias).
+	 * The activation is applied to the sum before it is stored, there is no separate pass over the output.
+	 * @param input input
+	 * @param activation element-wise activation function
+	 * @param output result
+	 */
+	public void multActivation(float[][][] input, final Activation activation, final float[][][] output) {
+		multKernel(input, output, 0, (b, i, j, sum) -> activation.apply(sum));
+	}
+
+	/**
+	 * Computes input * transposed(mat) + bias + residual.
+	 * The residual is added to the sum before it is stored, there is no separate pass over the output.
+	 * @param input input
+	 * @param residual residual (same shape as the output)
+	 * @param output result (may be equal to residual)
+	 */
+	public void multAddResidual(float[][][] input, final float[][][] residual, final float[][][] output) {
+		multKernel(input, output, 0, (b, i, j, sum) -> sum + residual[b][i][j]);
+	}
+
+	/**
+	 * Epilogue of the matrix-multiplication, computes the value to be stored from the sum.
+	 */
+	@FunctionalInterface
+	private interface Epilogue {
+		/**
+		 * Computes the value of an output-element.
+		 * @param b index in the batch
+		 * @param i index of the row of the input
+		 * @param j index of the row of the matrix
+		 * @param sum sum of products and bias
+		 * @return value to be stored in output[b][i][j]
+		 */
+		float apply(int b, int i, int j, float sum);
+	}
+
+	/**
+	 * Computes epilogue(input * transposed(mat) + bias).
+	 * All rows of the batch are computed in one dispatch: a row of the matrix is used for all new tokens of the batch.
+	 * @param input input
+	 * @param output result
+	 * @param startOffsetOutputDim2 start-offset in the second dimension in the output-tensor
+	 * @param epilogue <code>null</code> (the sum is stored) or epilogue
+	 */
+	private void multKernel(float[][][] input, final float[][][] output, final int startOffsetOutputDim2,
+			final Epilogue epilogue) {
 		final int dimBatch = input.length;
 		final int d = input[0].length;
-		if (input[0][0].length != dim2 || d > output[0].length || output[0][0].length != dim1) {
-			throw new IllegalArgumentException(String.format("mult: dimension mismatch, input (%d, %d, %d), mat (%d, %d), output(%d, %d, %d)",
-					input.length, input[0].length, input[0][0].length,
-					mat.length, mat[0].length,
-					output.length, output[0].length, output[0][0].length));
-		}
-		if (d == 1) {
-			for (int idxB = 0; idxB < dimBatch; idxB++) {
-				final int b = idxB;
-				final int i = 0;
-				executor.startLoopTasks(dim1, (jStart, jEnd) -> () -> {
-					for (int j = jStart; j < jEnd; j++) {
+		checkDimensions(input, output, startOffsetOutputDim2);
+		executor.startLoopTasks(dim1, (jStart, jEnd) -> () -> {
+			for (int j = jStart; j < jEnd; j++) {
+				final float[] row = mat[j];
+				for (int b = 0; b < dimBatch; b++) {
+					for (int i = 0; i < d; i++) {
+						final float[] rowInput = input[b][i];
 						float sum = bias[j];
 						for (int k = 0; k < dim2; k++) {
-							sum += input[b][i][k] * mat[j][k];
+							sum += rowInput[k] * row[k];
 						}
-						output[b][i][j] = sum;
+						output[b][startOffsetOutputDim2 + i][j] = (epilogue != null) ? epilogue.apply(b, i, j, sum) : sum;
 					}
-				});
+				}
 			}
-		}
-		else {
-			for (int idxB = 0; idxB < dimBatch; idxB++) {
-				final int b = idxB;
-				executor.startLoopTasks(d, (iStart, iEnd) -> () -> {
-					for (int i = iStart; i < iEnd; i++) {
-						for (int j = 0; j < dim1; j++) {
-							float sum = bias[j];
-							for (int k = 0; k < dim2; k++) {
-								sum += input[b][i][k] * mat[j][k];
-							}
-							output[b][i][j] = sum;
-						}
-					}
-				});
+		});
+	}
+
+	/**
+	 * Copies each row of the matrix in the thread which computes the row in {@link #mult(float[][][], float[][][])}.
+	 * The new rows are first touched by their worker, with <code>-XX:+UseNUMA</code> they are
+	 * allocated in the NUMA-node of the worker. This requires an executor with a fixed assignment
+	 * of the parts to threads (e.g. a pinned worker-pool). Part 0 is executed by the calling thread,
+	 * so the same thread has to call this method and the computations (a pinned worker-pool pins it).
+	 */
+	public void localizeRows() {
+		executor.startLoopTasks(dim1, (jStart, jEnd) -> () -> {
+			for (int j = jStart; j < jEnd; j++) {
+				mat[j] = mat[j].clone();
 			}
-		}
+		});
 	}
 
 	/**
-	 * Computes input * transposed(mat) + bias.
-	 * This method can be used when a part of the result has already been computed.
+	 * Checks the dimensions of input and output.
 	 * @param input input
 	 * @param output result
 	 * @param startOffsetOutputDim2 start-offset in the second dimension in the output-tensor
 	 */
-	public void multMinDim2(float[][][] input, final float[][][] output, final int startOffsetOutputDim2) {
-		final int dimBatch = input.length;
+	private void checkDimensions(float[][][] input, final float[][][] output, final int startOffsetOutputDim2) {
 		final int d = input[0].length;
-		if (input[0][0].length != dim2 || d > output[0].length || output[0][0].length != dim1) {
+		if (input[0][0].length != dim2 || startOffsetOutputDim2 + d > output[0].length || output[0][0].length != dim1) {
 			throw new IllegalArgumentException(String.format("mult: dimension mismatch, input (%d, %d, %d), mat (%d, %d), output(%d, %d, %d)",
 					input.length, input[0].length, input[0][0].length,
 					mat.length, mat[0].length,
 					output.length, output[0].length, output[0][0].length));
 		}
-		for (int idxB = 0; idxB < dimBatch; idxB++) {
-			final int b = idxB;
-			for (int idxI = 0; idxI < d; idxI++) {
-				final int i = idxI;
-				executor.startLoopTasks(dim1, (jStart, jEnd) -> () -> {
-					for (int j = jStart; j < jEnd; j++) {
-						float sum = bias[j];
-						for (int k = 0; k < dim2; k++) {
-							sum += input[b][i][k] * mat[j][k];
-						}
-						output[b][startOffsetOutputDim2 + i][j] = sum;
-					}
-				});
-			}
-		}
 	}
 
 }
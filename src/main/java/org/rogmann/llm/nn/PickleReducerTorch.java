@@ -40,16 +40,16 @@ public class PickleReducerTorch extends PickleReaderBase {
 							Integer.valueOf(args.length), global.className, Arrays.toString(args)));
 				}
 				final Storage storage = (Storage) args[0];
-				final int storageOffset = ((Integer) args[1]).intValue();
+				final int storageOffset = ((Number) args[1]).intValue();
 				final Object[] oSize = (Object[]) args[2];
 				final int[] size = new int[oSize.length];
 				for (int i = 0; i < oSize.length; i++) {
-					size[i] = ((Integer) oSize[i]).intValue();
+					size[i] = ((Number) oSize[i]).intValue();
 				}
 				final Object[] oStride = (Object[]) args[3];
 				final int[] stride = new int[oStride.length];
 				for (int i = 0; i < oStride.length; i++) {
-					stride[i] = ((Integer) oStride[i]).intValue();
+					stride[i] = ((Number) oStride[i]).intValue();
 				}
 				final boolean requiresGrad = ((Boolean) args[4]).booleanValue();
 				if (LOGGER.isLoggable(Level.FINE)) {
@@ -77,55 +77,65 @@ public class Softmax {
 	public static void softmaxInlineLastDim(float[][][][] input, LlmExecutor executor) {
 		for (float[][][] mat1 : input) {
 			final int d1 = mat1.length;
-			executor.startLoopTasks(d1, (hStart, hEnd) -> () -> {
-				final double[] tmp = new double[input[0][0].length];
+			final int costPerHead = 4 * mat1[0].length * mat1[0][0].length;
+			executor.startLoopTasks(d1, costPerHead, (hStart, hEnd) -> () -> {
+				final double[] tmp = new double[input[0][0][0].length];
 				for (int h = hStart; h < hEnd; h++) {
-					float[][] mat2 = mat1[h];
-					for (float[] row : mat2) {
-						final int d = row.length;
-						float max = 0;
-						for (float r : row) {
-							if (r > max) {
-								max = r;
-							}
-						}
-						// maximum of double is exp(709.78), we want to avoid infinity.
-						if (max < 20) {
-							double denom = 0;
-							for (int j = 0; j < d; j++) {
-								double r = row[j];
-								double e = Math.exp(r);
-								tmp[j] = e;
-								denom += e;
-							}
-							for (int j = 0; j < d; j++) {
-								final double t = tmp[j];
-								row[j] = (t > 0) ? (float) (tmp[j] / denom) : 0f;
-								if (Float.isNaN(row[j])) {
-									throw new IllegalStateException(String.format("NaN: %f = %f / %f, len=%d",
-											row[j], tmp[j], denom, row.length));
-								}
-							}
-						}
-						else {
-							if (!SWITCHED_TO_SOFTMAX_MINUS_MAX.getAndSet(true)) {
-								LOG.info(String.format("Switched to softmax minus max: h=%d, max=%.1f", h, max));
-							}
-							double denom = 0;
-							for (int j = 0; j < d; j++) {
-								double r = row[j] - max;
-								double e = Math.exp(r);
-								tmp[j] = e;
-								denom += e;
-							}
-							for (int j = 0; j < d; j++) {
-								row[j] = (float) (tmp[j] / denom);
-							}
-						}
+					for (float[] row : mat1[h]) {
+						softmaxInline(row, row.length, tmp);
 					}
 				}
 			});
 		}
 	}
 
+	/**
+	 * Computes the softmax of the first entries of a row in-place.
+	 * @param row input and output
+	 * @param d number of entries to be used
+	 * @param tmp temporary array of at least d entries
+	 */
+	public static void softmaxInline(final float[] row, final int d, final double[] tmp) {
+		float max = 0;
+		for (int j = 0; j < d; j++) {
+			final float r = row[j];
+			if (r > max) {
+				max = r;
+			}
+		}
+		// maximum of double is exp(709.78), we want to avoid infinity.
+		if (max < 20) {
+			double denom = 0;
+			for (int j = 0; j < d; j++) {
+				double r = row[j];
+				double e = Math.exp(r);
+				tmp[j] = e;
+				denom += e;
+			}
+			for (int j = 0; j < d; j++) {
+				final double t = tmp[j];
+				row[j] = (t > 0) ? (float) (tmp[j] / denom) : 0f;
+				if (Float.isNaN(row[j])) {
+					throw new IllegalStateException(String.format("NaN: %f = %f / %f, len=%d",
+							row[j], tmp[j], denom, d));
+				}
+			}
+		}
+		else {
+			if (!SWITCHED_TO_SOFTMAX_MINUS_MAX.getAndSet(true)) {
+				LOG.info(String.format("Switched to softmax minus max: max=%.1f", max));
+			}
+			double denom = 0;
+			for (int j = 0; j < d; j++) {
+				double r = row[j] - max;
+				double e = Math.exp(r);
+				tmp[j] = e;
+				denom += e;
+			}
+			for (int j = 0; j < d; j++) {
+				row[j] = (float) (tmp[j] / denom);
+			}
+		}
+	}
+
 }
@@ -12,6 +12,7 @@ import java.util.logging.Logger;
 import org.rogmann.llm.LlmConfigException;
 import org.rogmann.llm.LlmExecutor;
 import org.rogmann.llm.ModelReaderBinary;
+import org.rogmann.llm.metrics.LlmJfr;
 import org.rogmann.llm.pickle.Storage;
 
 /**
@@ -21,6 +22,9 @@ public class Tensor {
 	/** Logger */
 	private static final Logger LOG = Logger.getLogger(Tensor.class.getName());
 
+	/** maximal size of the buffer of the rows of a matrix which are read and converted at once */
+	private static final int MAX_ROWS_BUFFER = 16 * 1024 * 1024;
+
 	/** storage */
 	protected final Storage storage;
 	
@@ -39,11 +43,11 @@ public class Tensor {
 	/** <code>true</code> if tensor requires gradients */
 	protected boolean requiresGrad;
 
-	/** float data of a 1-dimensional tensor */
-	public final float[] t1;
+	/** float data of a 1-dimensional tensor (allocated when the data is read, it may contain a slice only) */
+	public float[] t1;
 
-	/** float data of a 2-dimensional tensor */
-	public final float[][] t2;
+	/** float data of a 2-dimensional tensor (allocated when the data is read, it may contain a slice only) */
+	public float[][] t2;
 
 	/** float data of a 2-dimensional tensor */
 	public final float[][][] t3;
@@ -75,25 +79,17 @@ public class Tensor {
 		this.stride = stride;
 		this.requiresGrad = requiresGrad;
 		this.executor = executor;
+		// The data is allocated when it is read, a process of a tensor-parallel model reads a slice only.
 		if (size.length == 1) {
 			dim1 = size[0];
 			dim2 = 0;
 			dim3 = 0;
-			t1 = new float[dim1];
-			t2 = null;
 			t3 = null;
 		}
 		else if (size.length == 2) {
 			dim1 = size[0];
 			dim2 = size[1];
 			dim3 = 0;
-			t1 = null;
-			try {
-				t2 = new float[dim1][dim2];
-			} catch (OutOfMemoryError e) {
-				throw new LlmConfigException(String.format("Can't allocate %s-tensor %d \u00d7 %d",
-						storage, Integer.valueOf(dim1), Integer.valueOf(dim2)), e);
-			}
 			t3 = null;
 		}
 		else {
@@ -131,33 +127,132 @@ public class Tensor {
 	 * @throws LlmConfigException in case of a configuration-error
 	 */
 	public void readTensorData(String key, ModelReaderBinary readerBinary) throws IOException, LlmConfigException {
+		readTensorData(key, readerBinary, 0, dim1, 0, dim2);
+	}
+
+	/**
+	 * Reads a slice of the data of a tensor.
+	 * A 1-dimensional tensor uses the row-range as range of its elements.
+	 * @param key name of the tensor
+	 * @param readerBinary binary-reader
+	 * @param rowStart first row to be read
+	 * @param rowEnd end of the rows (exclusive)
+	 * @param colStart first column to be read (2-dimensional tensor only)
+	 * @param colEnd end of the columns (exclusive, 2-dimensional tensor only)
+	 * @throws IOException in case of an IO-error
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	public void readTensorData(String key, ModelReaderBinary readerBinary,
+			final int rowStart, final int rowEnd, final int colStart, final int colEnd) throws IOException, LlmConfigException {
+		final Object event = LlmJfr.beginTensorLoad();
 		String entryName = "data/" + storage.key;
 		StorageFormat format = StorageFormat.lookupByTorchName(storage.type.className);
+		final int bytesPerValue = (format == StorageFormat.FLOAT16 || format == StorageFormat.BFLOAT16) ? 2 : 4;
 		if (shape.length == 1 ) {
+			if (rowStart < 0 || rowEnd > dim1 || rowStart >= rowEnd) {
+				throw new LlmConfigException(String.format("Invalid slice [%d, %d) of tensor %s with %d elements",
+						Integer.valueOf(rowStart), Integer.valueOf(rowEnd), key, Integer.valueOf(dim1)));
+			}
+			t1 = new float[rowEnd - rowStart];
+			final InputStream is = readerBinary.getAsStream(entryName);
+			skipFully(is, (long) rowStart * bytesPerValue);
 			if (format == StorageFormat.FLOAT16) {
-				readTensorFloat16(readerBinary.getAsStream(entryName), t1, executor);
+				readTensorFloat16(is, t1, executor);
 			}
 			else if (format == StorageFormat.BFLOAT16) {
-				readTensorBFloat16(readerBinary.getAsStream(entryName), t1, executor);
+				readTensorBFloat16(is, t1, executor);
 			}
 			else {
-				readTensorFloat32(readerBinary.getAsStream(entryName), t1, executor);
+				readTensorFloat32(is, t1, executor);
 			}
 		}
 		else if (shape.length == 2 ) {
+			if (rowStart < 0 || rowEnd > dim1 || rowStart >= rowEnd || colStart < 0 || colEnd > dim2 || colStart >= colEnd) {
+				throw new LlmConfigException(String.format("Invalid slice [%d, %d) x [%d, %d) of tensor %s (%d, %d)",
+						Integer.valueOf(rowStart), Integer.valueOf(rowEnd), Integer.valueOf(colStart), Integer.valueOf(colEnd),
+						key, Integer.valueOf(dim1), Integer.valueOf(dim2)));
+			}
+			try {
+				t2 = new float[rowEnd - rowStart][colEnd - colStart];
+			} catch (OutOfMemoryError e) {
+				throw new LlmConfigException(String.format("Can't allocate %s-tensor %d \u00d7 %d",
+						storage, Integer.valueOf(rowEnd - rowStart), Integer.valueOf(colEnd - colStart)), e);
+			}
+			final InputStream is = readerBinary.getAsStream(entryName);
+			skipFully(is, (long) rowStart * dim2 * bytesPerValue);
 			if (format == StorageFormat.FLOAT16) {
-				readTensorFloat16(readerBinary.getAsStream(entryName), t2, executor);
+				readTensorFloat16(is, t2, dim2, colStart, executor);
 			}
 			else if (format == StorageFormat.BFLOAT16) {
-				readTensorBFloat16(readerBinary.getAsStream(entryName), t2, executor);
+				readTensorBFloat16(is, t2, dim2, colStart, executor);
 			}
 			else {
-				readTensorFloat32(readerBinary.getAsStream(entryName), t2, executor);
+				readTensorFloat32(is, t2, dim2, colStart, executor);
 			}
 		}
 		else {
 			throw new LlmConfigException("Unsupported shape " + Arrays.toString(shape));
 		}
+		if (event != null) {
+			final int numRows = rowEnd - rowStart;
+			final int numCols = (shape.length == 2) ? colEnd - colStart : 1;
+			final String sliceShape = (shape.length == 2) ? Arrays.toString(new int[] { numRows, numCols }) : Arrays.toString(new int[] { numRows });
+			LlmJfr.commitTensorLoad(event, key, format.name(), sliceShape, (long) numRows * numCols * bytesPerValue);
+		}
+	}
+
+	/**
+	 * Skips bytes of an input-stream.
+	 * @param is input-stream
+	 * @param numBytes number of bytes to be skipped
+	 * @throws IOException in case of an IO-error or end of file
+	 */
+	private static void skipFully(final InputStream is, final long numBytes) throws IOException {
+		long remaining = numBytes;
+		while (remaining > 0) {
+			final long skipped = is.skip(remaining);
+			if (skipped > 0) {
+				remaining -= skipped;
+			}
+			else if (is.read() >= 0) {
+				remaining--;
+			}
+			else {
+				throw new IOException(String.format("Unexpected end of file while skipping %d bytes", Long.valueOf(numBytes)));
+			}
+		}
+	}
+
+	/**
+	 * Reads bytes until the buffer is full or the end of the stream has been reached.
+	 * @param is input-stream
+	 * @param buf buffer
+	 * @return number of bytes read
+	 * @throws IOException in case of an IO-error
+	 */
+	private static int readFully(final InputStream is, final byte[] buf) throws IOException {
+		return readFully(is, buf, 0, buf.length);
+	}
+
+	/**
+	 * Reads bytes until the given length has been read or the end of the stream has been reached.
+	 * @param is input-stream
+	 * @param buf buffer
+	 * @param offset offset in the buffer
+	 * @param length number of bytes to be read
+	 * @return number of bytes read
+	 * @throws IOException in case of an IO-error
+	 */
+	private static int readFully(final InputStream is, final byte[] buf, final int offset, final int length) throws IOException {
+		int len = 0;
+		while (len < length) {
+			final int n = is.read(buf, offset + len, length - len);
+			if (n < 0) {
+				break;
+			}
+			len += n;
+		}
+		return len;
 	}
 
 	public static float[] readTensor(File file, int dim, LlmExecutor executor) throws IOException {
@@ -189,14 +284,11 @@ public class Tensor {
 	static void readTensorFloat16(InputStream is, float[] tensor, LlmExecutor executor) throws IOException {
 		final int dim1 = tensor.length;
 		final byte[] buf = new byte[dim1 * 2];
-		final int len = is.read(buf);
+		final int len = readFully(is, buf);
 		if (len < 2 * dim1) {
 			throw new IOException(String.format("Unexpected end of file (2 * dim1 = %d, len = %d)", 2 * dim1, len));
 		}
-		executor.startTasks((idxThread, nThreads) -> () -> {
-			final int blockSize = dim1 / nThreads;
-			final int iStart = idxThread * blockSize;
-			final int iEnd = (idxThread + 1) * blockSize;
+		executor.startLoopTasks(dim1, (iStart, iEnd) -> () -> {
 			int bufIdx = iStart * 2;
 			for (int i = iStart; i < iEnd; i++) {
 				final int val0 = buf[bufIdx + 1];
@@ -222,14 +314,11 @@ public class Tensor {
 	static void readTensorBFloat16(InputStream is, float[] tensor, LlmExecutor executor) throws IOException {
 		final int dim1 = tensor.length;
 		final byte[] buf = new byte[dim1 * 2];
-		final int len = is.read(buf);
+		final int len = readFully(is, buf);
 		if (len < 2 * dim1) {
 			throw new IOException(String.format("Unexpected end of file (2 * dim1 = %d, len = %d)", 2 * dim1, len));
 		}
-		executor.startTasks((idxThread, nThreads) -> () -> {
-			final int blockSize = dim1 / nThreads;
-			final int iStart = idxThread * blockSize;
-			final int iEnd = (idxThread + 1) * blockSize;
+		executor.startLoopTasks(dim1, (iStart, iEnd) -> () -> {
 			int bufIdx = iStart * 2;
 			for (int i = iStart; i < iEnd; i++) {
 				final int val0 = buf[bufIdx + 1];
@@ -252,14 +341,11 @@ public class Tensor {
 	static void readTensorFloat32(InputStream is, float[] tensor, LlmExecutor executor) throws IOException {
 		final int dim1 = tensor.length;
 		final byte[] buf = new byte[dim1 * 4];
-		final int len = is.read(buf);
+		final int len = readFully(is, buf);
 		if (len < 4 * dim1) {
 			throw new IOException(String.format("Unexpected end of file (4 * dim1 = %d, len = %d)", 4 * dim1, len));
 		}
-		executor.startTasks((idxThread, nThreads) -> () -> {
-			final int blockSize = dim1 / nThreads;
-			final int iStart = idxThread * blockSize;
-			final int iEnd = (idxThread + 1) * blockSize;
+		executor.startLoopTasks(dim1, (iStart, iEnd) -> () -> {
 			int bufIdx = iStart * 4;
 			for (int i = iStart; i < iEnd; i++) {
 				final int iFloat = ((buf[bufIdx + 3] & 0xff) << 24)
@@ -280,29 +366,21 @@ public class Tensor {
 	 * @throws IOException in case of an IO-error
 	 */
 	static void readTensorFloat16(InputStream is, float[][] tensor, LlmExecutor executor) throws IOException {
-		final int dim1 = tensor.length;
-		final int dim2 = tensor[0].length;
-		final byte[] buf = new byte[dim1 * dim2 * 2];
-		final int len = is.read(buf);
-		if (len < 2 * dim1 * dim2) {
-			throw new IOException(String.format("Unexpected end of file (2 * dim2 = %d, len = %d)", 2 * dim2, len));
-		}
-		executor.startLoopTasks(dim1, (iStart, iEnd) -> () -> {
-			for (int i = iStart; i < iEnd; i++) {
-				int bufIdx = i * (dim2 * 2);
-				for (int j = 0; j < dim2; j++) {
-					final int val0 = buf[bufIdx + 1];
-					final int val1 = buf[bufIdx];
-					int e = (val0 == 0 && val1 == 0) ? 0 : ((val0 & 0x7c) >> 2) - 15 + 127;
-					final int iFloat = ((val0 & 0x80) << 24)
-							+ ((e & 0xff) << 23)
-							+ ((val0 & 0x03) << 21)
-							+ ((val1 & 0xff) << 13);
-					tensor[i][j] = Float.intBitsToFloat(iFloat);
-					bufIdx += 2;
-				}
-			}
-		});
+		readTensorFloat16(is, tensor, tensor[0].length, 0, executor);
+	}
+
+	/**
+	 * Reads a column-range of the rows of a matrix.
+	 * @param is input-stream positioned at the first row
+	 * @param tensor tensor to be filled (rows, columns of the range)
+	 * @param fullDim2 number of columns of the stored matrix
+	 * @param colOffset first column to be read
+	 * @param executor executor
+	 * @throws IOException in case of an IO-error
+	 */
+	static void readTensorFloat16(InputStream is, float[][] tensor, final int fullDim2, final int colOffset,
+			LlmExecutor executor) throws IOException {
+		readRows(is, tensor, fullDim2, colOffset, 2, Tensor::decodeFloat16, executor);
 	}
 
 	/**
@@ -313,26 +391,21 @@ public class Tensor {
 	 * @throws IOException in case of an IO-error
 	 */
 	static void readTensorBFloat16(InputStream is, float[][] tensor, LlmExecutor executor) throws IOException {
-		final int dim1 = tensor.length;
-		final int dim2 = tensor[0].length;
-		final byte[] buf = new byte[dim1 * dim2 * 2];
-		final int len = is.read(buf);
-		if (len < 2 * dim1 * dim2) {
-			throw new IOException(String.format("Unexpected end of file (2 * dim2 = %d, len = %d)", 2 * dim2, len));
-		}
-		executor.startLoopTasks(dim1, (iStart, iEnd) -> () -> {
-			for (int i = iStart; i < iEnd; i++) {
-				int bufIdx = i * (dim2 * 2);
-				for (int j = 0; j < dim2; j++) {
-					final int val0 = buf[bufIdx + 1];
-					final int val1 = buf[bufIdx];
-					final int iFloat = ((val0 & 0xff) << 24)
-							+ ((val1 & 0xff) << 16);
-					tensor[i][j] = Float.intBitsToFloat(iFloat);
-					bufIdx += 2;
-				}
-			}
-		});
+		readTensorBFloat16(is, tensor, tensor[0].length, 0, executor);
+	}
+
+	/**
+	 * Reads a column-range of the rows of a matrix.
+	 * @param is input-stream positioned at the first row
+	 * @param tensor tensor to be filled (rows, columns of the range)
+	 * @param fullDim2 number of columns of the stored matrix
+	 * @param colOffset first column to be read
+	 * @param executor executor
+	 * @throws IOException in case of an IO-error
+	 */
+	static void readTensorBFloat16(InputStream is, float[][] tensor, final int fullDim2, final int colOffset,
+			LlmExecutor executor) throws IOException {
+		readRows(is, tensor, fullDim2, colOffset, 2, Tensor::decodeBFloat16, executor);
 	}
 
 	/**
@@ -343,26 +416,143 @@ public class Tensor {
 	 * @throws IOException in case of an IO-error
 	 */
 	static void readTensorFloat32(InputStream is, float[][] tensor, LlmExecutor executor) throws IOException {
+		readTensorFloat32(is, tensor, tensor[0].length, 0, executor);
+	}
+
+	/**
+	 * Reads a column-range of the rows of a matrix.
+	 * @param is input-stream positioned at the first row
+	 * @param tensor tensor to be filled (rows, columns of the range)
+	 * @param fullDim2 number of columns of the stored matrix
+	 * @param colOffset first column to be read
+	 * @param executor executor
+	 * @throws IOException in case of an IO-error
+	 */
+	static void readTensorFloat32(InputStream is, float[][] tensor, final int fullDim2, final int colOffset,
+			LlmExecutor executor) throws IOException {
+		readRows(is, tensor, fullDim2, colOffset, 4, Tensor::decodeFloat32, executor);
+	}
+
+	/**
+	 * Converts the values of a row.
+	 */
+	@FunctionalInterface
+	private interface RowDecoder {
+		/**
+		 * Converts the values of a row.
+		 * @param buf buffer containing the stored values
+		 * @param bufIdx offset of the row in the buffer
+		 * @param row row to be filled
+		 */
+		void decode(byte[] buf, int bufIdx, float[] row);
+	}
+
+	/**
+	 * Reads a column-range of the rows of a matrix. Only the bytes of the column-range are
+	 * kept, the rows are read in blocks of at most {@link #MAX_ROWS_BUFFER} bytes.
+	 * @param is input-stream positioned at the first row
+	 * @param tensor tensor to be filled (rows, columns of the range)
+	 * @param fullDim2 number of columns of the stored matrix
+	 * @param colOffset first column to be read
+	 * @param bytesPerValue number of bytes of a stored value
+	 * @param decoder converter of a row
+	 * @param executor executor
+	 * @throws IOException in case of an IO-error
+	 */
+	private static void readRows(final InputStream is, final float[][] tensor, final int fullDim2, final int colOffset,
+			final int bytesPerValue, final RowDecoder decoder, final LlmExecutor executor) throws IOException {
 		final int dim1 = tensor.length;
 		final int dim2 = tensor[0].length;
-		final byte[] buf = new byte[dim1 * dim2 * 4];
-		final int len = is.read(buf);
-		if (len < 4 * dim1 * dim2) {
-			throw new IOException(String.format("Unexpected end of file (4 * dim2 = %d, len = %d)", 4 * dim2, len));
-		}
-		executor.startLoopTasks(dim1, (iStart, iEnd) -> () -> {
-			for (int i = iStart; i < iEnd; i++) {
-				int bufIdx = i * (dim2 * 4);
-				for (int j = 0; j < dim2; j++) {
-					final int iFloat = ((buf[bufIdx + 3] & 0xff) << 24)
-							+ ((buf[bufIdx + 2] & 0xff) << 16)
-							+ ((buf[bufIdx + 1] & 0xff) << 8)
-							+ (buf[bufIdx] & 0xff);
-					tensor[i][j] = Float.intBitsToFloat(iFloat);
-					bufIdx += 4;
+		final int rowBytes = dim2 * bytesPerValue;
+		final long skipBefore = (long) colOffset * bytesPerValue;
+		final long skipAfter = (long) (fullDim2 - colOffset - dim2) * bytesPerValue;
+		final int rowsPerBlock = Math.max(1, Math.min(dim1, MAX_ROWS_BUFFER / rowBytes));
+		final byte[] buf = new byte[rowsPerBlock * rowBytes];
+		for (int blockStart = 0; blockStart < dim1; blockStart += rowsPerBlock) {
+			final int numRows = Math.min(rowsPerBlock, dim1 - blockStart);
+			if (skipBefore == 0 && skipAfter == 0) {
+				// The rows are stored contiguously.
+				final int len = readFully(is, buf, 0, numRows * rowBytes);
+				if (len < numRows * rowBytes) {
+					throw new IOException(String.format("Unexpected end of file in row %d (%d bytes of %d rows, len = %d)",
+							Integer.valueOf(blockStart), Integer.valueOf(numRows * rowBytes), Integer.valueOf(numRows), Integer.valueOf(len)));
 				}
 			}
-		});
+			else {
+				for (int i = 0; i < numRows; i++) {
+					skipFully(is, skipBefore);
+					final int len = readFully(is, buf, i * rowBytes, rowBytes);
+					if (len < rowBytes) {
+						throw new IOException(String.format("Unexpected end of file in row %d (%d bytes, len = %d)",
+								Integer.valueOf(blockStart + i), Integer.valueOf(rowBytes), Integer.valueOf(len)));
+					}
+					skipFully(is, skipAfter);
+				}
+			}
+			final int rowOffset = blockStart;
+			executor.startLoopTasks(numRows, (iStart, iEnd) -> () -> {
+				for (int i = iStart; i < iEnd; i++) {
+					decoder.decode(buf, i * rowBytes, tensor[rowOffset + i]);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Converts a row of float16-numbers.
+	 * @param buf buffer
+	 * @param bufIdxStart offset of the row in the buffer
+	 * @param row row to be filled
+	 */
+	private static void decodeFloat16(final byte[] buf, final int bufIdxStart, final float[] row) {
+		int bufIdx = bufIdxStart;
+		for (int j = 0; j < row.length; j++) {
+			final int val0 = buf[bufIdx + 1];
+			final int val1 = buf[bufIdx];
+			int e = (val0 == 0 && val1 == 0) ? 0 : ((val0 & 0x7c) >> 2) - 15 + 127;
+			final int iFloat = ((val0 & 0x80) << 24)
+					+ ((e & 0xff) << 23)
+					+ ((val0 & 0x03) << 21)
+					+ ((val1 & 0xff) << 13);
+			row[j] = Float.intBitsToFloat(iFloat);
+			bufIdx += 2;
+		}
+	}
+
+	/**
+	 * Converts a row of bfloat16-numbers.
+	 * @param buf buffer
+	 * @param bufIdxStart offset of the row in the buffer
+	 * @param row row to be filled
+	 */
+	private static void decodeBFloat16(final byte[] buf, final int bufIdxStart, final float[] row) {
+		int bufIdx = bufIdxStart;
+		for (int j = 0; j < row.length; j++) {
+			final int val0 = buf[bufIdx + 1];
+			final int val1 = buf[bufIdx];
+			final int iFloat = ((val0 & 0xff) << 24)
+					+ ((val1 & 0xff) << 16);
+			row[j] = Float.intBitsToFloat(iFloat);
+			bufIdx += 2;
+		}
+	}
+
+	/**
+	 * Converts a row of float32-numbers.
+	 * @param buf buffer
+	 * @param bufIdxStart offset of the row in the buffer
+	 * @param row row to be filled
+	 */
+	private static void decodeFloat32(final byte[] buf, final int bufIdxStart, final float[] row) {
+		int bufIdx = bufIdxStart;
+		for (int j = 0; j < row.length; j++) {
+			final int iFloat = ((buf[bufIdx + 3] & 0xff) << 24)
+					+ ((buf[bufIdx + 2] & 0xff) << 16)
+					+ ((buf[bufIdx + 1] & 0xff) << 8)
+					+ (buf[bufIdx] & 0xff);
+			row[j] = Float.intBitsToFloat(iFloat);
+			bufIdx += 4;
+		}
 	}
 
 	/**
@@ -386,37 +576,61 @@ public class Tensor {
 			int numHeads, int headDim,
 			int idxBlock1, int idxBlock2,
 			float alpha, float beta, float[][][][] output) {
+		baddbmmView4(0, numSeq, numSeq, fusedQkv, numBlocks, numHeads, headDim,
+				idxBlock1, idxBlock2, alpha, beta, output);
+	}
+
+	/**
+	 * multResult = beta * input + alpha * (batch1 * batch2) for a range of rows of batch1.
+	 * This is used when the rows of the first queryOffset tokens have been computed before (cache).
+	 * 
+	 * input is this tensor (e.g. ALiBi-tensor) of shape executor(batchSize * numHeads, 1, numSeq)
+	 * @param queryOffset index of the first row of batch1
+	 * @param numQuery number of rows of batch1
+	 * @param numSeq length of sequence
+	 * @param fusedQkv tensor containing batch1 and batch2
+	 * @param numBlocks number of blocks
+	 * @param numHeads number of heads
+	 * @param headDim dimension of a head
+	 * @param idxBlock1 block-index of batch1
+	 * @param idxBlock2 block-index of batch2
+	 * @param alpha alpha-factor of product
+	 * @param beta beta-factor of input
+	 * @param output result to be computed (batchSize, numHeads, numQuery, numSeq)
+	 */
+	public void baddbmmView4(final int queryOffset, final int numQuery, final int numSeq,
+			float[][][] fusedQkv, int numBlocks,
+			int numHeads, int headDim,
+			int idxBlock1, int idxBlock2,
+			float alpha, float beta, float[][][][] output) {
 		float[][][] input = t3;
 		final int batchSize = output.length;
 		if (LOG.isLoggable(Level.FINER)) {
 			LOG.finer("fusedQkv.length = " + fusedQkv.length + ", numHeads = " + numHeads);
 			LOG.finer("alpha = " + alpha + ", beta = " + beta);
-			LOG.finer("numSeq = " + numSeq + ", batchSize = " + batchSize);
+			LOG.finer("numSeq = " + numSeq + ", numQuery = " + numQuery + ", batchSize = " + batchSize);
 		}
-		for (int idxB = 0; idxB < batchSize; idxB++) {
-			final int b = idxB;
-			executor.startLoopTasks(numHeads, (hStart, hEnd) -> () -> {
-				for (int h = hStart; h < hEnd && h < numHeads; h++) {
-					for (int i = 0; i < numSeq; i++) {
-						for (int j = 0; j < numSeq; j++) {
-							float sum = 0f;
-							for (int k = 0; k < headDim; k++) {
-								sum += fusedQkv[b][i][(h * 3 + idxBlock1) * headDim + k]
-										* fusedQkv[b][j][(h * 3 + idxBlock2) * headDim + k];
-							}
-							sum *= alpha;
-							try {
-								sum += beta * input[b * numHeads + h][0][j];
-							} catch (ArrayIndexOutOfBoundsException e) {
-								throw new RuntimeException(String.format("AIOOBE: batchSize=%d, b=%d, numHeads=%d, h=%d, j=%d, input.length=%d",
-										batchSize, b, numHeads, h, j, input.length), e);
-							}
-							output[b][h][i][j] = sum;
+		executor.startLoopTasks(batchSize * numHeads, numQuery * numSeq * headDim, (bhStart, bhEnd) -> () -> {
+			for (int bh = bhStart; bh < bhEnd; bh++) {
+				final int b = bh / numHeads;
+				final int h = bh % numHeads;
+				final int offset1 = (h * 3 + idxBlock1) * headDim;
+				final int offset2 = (h * 3 + idxBlock2) * headDim;
+				final float[] alibiRow = input[bh][0];
+				for (int i = 0; i < numQuery; i++) {
+					final float[] rowQuery = fusedQkv[b][queryOffset + i];
+					final float[] rowOut = output[b][h][i];
+					for (int j = 0; j < numSeq; j++) {
+						final float[] rowKey = fusedQkv[b][j];
+						float sum = 0f;
+						for (int k = 0; k < headDim; k++) {
+							sum += rowQuery[offset1 + k] * rowKey[offset2 + k];
 						}
+						rowOut[j] = alpha * sum + beta * alibiRow[j];
 					}
 				}
-			});
-		}
+			}
+		});
 	}
 
 	/**
@@ -434,25 +648,52 @@ public class Tensor {
 	public static void bmmView4(float[][][][] multResult, float[][][] fusedQkv, int numSeq,
 			int numBlocks, int numHeads, int headDim, int idxBlock2,
 			float[][][] contextLayer, LlmExecutor executor) {
+		bmmView4(multResult, fusedQkv, numSeq, numSeq, numBlocks, numHeads, headDim, idxBlock2, contextLayer, executor);
+	}
+
+	/**
+	 * Executes a batch matrix product of the rows of some query-tokens.
+	 * @param multResult batch of left matrix, shape (batchSize, numHeads, numQuery, numSeq)
+	 * @param fusedQkv tensor containing right matrix in one of its blocks
+	 * @param numQuery number of rows of the left matrix
+	 * @param numSeq number of sequence-entries in fusedQkv to be used (number of tokens)
+	 * @param numBlocks number of blocks in fusedQkv
+	 * @param numHeads number of heads
+	 * @param headDim dimension of a head
+	 * @param idxBlock2 index of block of the right matrix
+	 * @param contextLayer tensor to be filled, shape (batch_size, numQuery, num_heads * head_dim)
+	 * @param executor executor
+	 */
+	public static void bmmView4(float[][][][] multResult, float[][][] fusedQkv, int numQuery, int numSeq,
+			int numBlocks, int numHeads, int headDim, int idxBlock2,
+			float[][][] contextLayer, LlmExecutor executor) {
 		final int batchSize = multResult.length;
-		for (int idxB = 0; idxB < batchSize; idxB++) {
-			final int b = idxB;
-			executor.startLoopTasks(numHeads, (hStart, hEnd) -> () -> {
-				for (int h = hStart; h < hEnd; h++) {
-					final int hh = h * headDim;
-					for (int i = 0; i < numSeq; i++) {
+		executor.startLoopTasks(batchSize * numHeads, numQuery * numSeq * headDim, (bhStart, bhEnd) -> () -> {
+			for (int bh = bhStart; bh < bhEnd; bh++) {
+				final int b = bh / numHeads;
+				final int h = bh % numHeads;
+				final int hh = h * headDim;
+				final int offset2 = (h * 3 + idxBlock2) * headDim;
+				for (int i = 0; i < numQuery; i++) {
+					final float[] rowScores = multResult[b][h][i];
+					final float[] rowOut = contextLayer[b][i];
+					for (int k = 0; k < headDim; k++) {
+						rowOut[hh + k] = 0f;
+					}
+					// Row-wise accumulation reads the value-rows sequentially.
+					for (int j = 0; j < numSeq; j++) {
+						final float p = rowScores[j];
+						if (p == 0f) {
+							continue;
+						}
+						final float[] rowValue = fusedQkv[b][j];
 						for (int k = 0; k < headDim; k++) {
-							float sum = 0f;
-							for (int j = 0; j < numSeq; j++) {
-								sum += multResult[b][h][i][j]
-										* fusedQkv[b][j][(h * 3 + idxBlock2) * headDim + k];
-							}
-							contextLayer[b][i][hh + k] = sum;
+							rowOut[hh + k] += p * rowValue[offset2 + k];
 						}
 					}
 				}
-			});
-		}
+			}
+		});
 	}
 
 
@@ -0,0 +1,237 @@
+package org.rogmann.llm.nn;
+
+/**
+ * Selection of the k largest values of a vector using a bounded min-heap.
+ *
+ * <p>Equal values are ordered by their index, the smaller index wins.
+ * So the result doesn't depend on the order of the offered values,
+ * partial selections of several threads can be merged.</p>
+ */
+public class TopKSelection {
+
+	/** indices of the selected values (heap-order, descending after sorting) */
+	private final int[] indices;
+
+	/** selected values */
+	private final float[] values;
+
+	/** current number of values to be selected */
+	private int k;
+
+	/** number of selected values */
+	private int size;
+
+	/** partial selections of the parts of a parallel selection, kept for the next call */
+	private TopKSelection[] parts = new TopKSelection[0];
+
+	/** maximum and sum of exp(value - maximum) of each part */
+	private double[] partsMaxSum = new double[0];
+
+	/** number of parts of the current parallel selection */
+	private int numParts;
+
+	/**
+	 * Constructor
+	 * @param capacity maximum number of values to be selected
+	 */
+	public TopKSelection(final int capacity) {
+		indices = new int[capacity];
+		values = new float[capacity];
+		k = capacity;
+	}
+
+	/**
+	 * Removes the selected values.
+	 * @param newK number of values to be selected (at most the capacity)
+	 */
+	public void reset(final int newK) {
+		if (newK > indices.length) {
+			throw new IllegalArgumentException(String.format("k=%d exceeds capacity %d",
+					Integer.valueOf(newK), Integer.valueOf(indices.length)));
+		}
+		k = newK;
+		size = 0;
+		numParts = 0;
+	}
+
+	/**
+	 * Gets the number of values to be selected.
+	 * @return k
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Gets the capacity of the selection.
+	 * @return maximum number of values
+	 */
+	public int getCapacity() {
+		return indices.length;
+	}
+
+	/**
+	 * Gets the number of selected values.
+	 * @return number of values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the array of indices. The first {@link #size()} entries are valid.
+	 * @return indices (descending by value after {@link #sortDescending()})
+	 */
+	public int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * Gets the array of values. The first {@link #size()} entries are valid.
+	 * @return values (descending after {@link #sortDescending()})
+	 */
+	public float[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Offers a value.
+	 * @param index index of the value
+	 * @param value value
+	 */
+	public void offer(final int index, final float value) {
+		if (size < k) {
+			siftUp(size++, index, value);
+		}
+		else if (size > 0 && isLess(values[0], indices[0], value, index)) {
+			siftDown(0, index, value, size);
+		}
+	}
+
+	/**
+	 * Offers the selected values of another selection.
+	 * @param other partial selection
+	 */
+	public void merge(final TopKSelection other) {
+		for (int i = 0; i < other.size; i++) {
+			offer(other.indices[i], other.values[i]);
+		}
+	}
+
+	/**
+	 * Prepares the partial selection of a part of a parallel selection.
+	 * The partial selections are kept, repeated selections don't allocate them again.
+	 * This method is called by the dispatching thread (see {@link org.rogmann.llm.LlmTaskFunction}).
+	 * @param idxPart index of the part
+	 * @param nParts number of parts
+	 * @param partK number of values to be selected in the part (at most k)
+	 * @return empty partial selection
+	 */
+	TopKSelection preparePart(final int idxPart, final int nParts, final int partK) {
+		if (parts.length < nParts) {
+			final TopKSelection[] newParts = new TopKSelection[nParts];
+			System.arraycopy(parts, 0, newParts, 0, parts.length);
+			parts = newParts;
+			partsMaxSum = new double[2 * nParts];
+		}
+		TopKSelection part = parts[idxPart];
+		if (part == null || part.getCapacity() < partK) {
+			part = new TopKSelection(indices.length);
+			parts[idxPart] = part;
+		}
+		part.reset(partK);
+		numParts = nParts;
+		partsMaxSum[2 * idxPart] = Double.NEGATIVE_INFINITY;
+		partsMaxSum[2 * idxPart + 1] = 0.0;
+		return part;
+	}
+
+	/**
+	 * Gets the array containing maximum and sum of exp(value - maximum) of each part
+	 * (index 2 * idxPart and 2 * idxPart + 1).
+	 * The array may be replaced by {@link #preparePart(int, int, int)}.
+	 * @return maxima and sums
+	 */
+	double[] getPartsMaxSum() {
+		return partsMaxSum;
+	}
+
+	/**
+	 * Gets the number of parts of the current parallel selection.
+	 * @return number of parts
+	 */
+	int getNumParts() {
+		return numParts;
+	}
+
+	/**
+	 * Merges the partial selections after all parts have been executed.
+	 */
+	void mergeParts() {
+		for (int i = 0; i < numParts; i++) {
+			merge(parts[i]);
+		}
+	}
+
+	/**
+	 * Sorts the selected values in descending order.
+	 * Afterwards no further values may be offered before calling {@link #reset(int)}.
+	 */
+	public void sortDescending() {
+		for (int end = size - 1; end > 0; end--) {
+			final int index = indices[end];
+			final float value = values[end];
+			indices[end] = indices[0];
+			values[end] = values[0];
+			siftDown(0, index, value, end);
+		}
+	}
+
+	/**
+	 * Compares two entries.
+	 * @param v1 value of first entry
+	 * @param i1 index of first entry
+	 * @param v2 value of second entry
+	 * @param i2 index of second entry
+	 * @return <code>true</code> if the first entry is less than the second one
+	 */
+	private static boolean isLess(final float v1, final int i1, final float v2, final int i2) {
+		return v1 < v2 || (v1 == v2 && i1 > i2);
+	}
+
+	private void siftUp(final int posStart, final int index, final float value) {
+		int pos = posStart;
+		while (pos > 0) {
+			final int parent = (pos - 1) >> 1;
+			if (!isLess(value, index, values[parent], indices[parent])) {
+				break;
+			}
+			values[pos] = values[parent];
+			indices[pos] = indices[parent];
+			pos = parent;
+		}
+		values[pos] = value;
+		indices[pos] = index;
+	}
+
+	private void siftDown(final int posStart, final int index, final float value, final int heapSize) {
+		int pos = posStart;
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && isLess(values[child + 1], indices[child + 1], values[child], indices[child])) {
+				child++;
+			}
+			if (!isLess(values[child], indices[child], value, index)) {
+				break;
+			}
+			values[pos] = values[child];
+			indices[pos] = indices[child];
+			pos = child;
+		}
+		values[pos] = value;
+		indices[pos] = index;
+	}
+}
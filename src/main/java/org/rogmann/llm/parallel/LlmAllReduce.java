@@ -0,0 +1,20 @@
+package org.rogmann.llm.parallel;
+
+/**
+ * Interface of an all-reduce between the processes of a tensor-parallel model.
+ */
+public interface LlmAllReduce extends AutoCloseable {
+
+	/**
+	 * Replaces the tensor by the sum of the tensors of all processes.
+	 * The partial tensors are summed in the order of the ranks, so all processes get the same result.
+	 * @param tensor partial tensor (batchSize, numSeq, dim), the sum afterwards
+	 */
+	void allReduceSum(float[][][] tensor);
+
+	/**
+	 * Releases the resources of the all-reduce.
+	 */
+	@Override
+	void close();
+}
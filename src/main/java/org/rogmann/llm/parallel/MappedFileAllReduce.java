@@ -0,0 +1,214 @@
+package org.rogmann.llm.parallel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * All-reduce between the processes of one host using a memory-mapped file.
+ *
+ * <p>The file contains a counter of each rank and two slots of partial sums of each rank.
+ * A rank writes its partial tensor into its slot, publishes the number of the call in its counter
+ * and waits until all ranks have published the call. Then each rank sums the slots in the order
+ * of the ranks. Consecutive calls use alternating slots: a rank can't reach call n + 2 before
+ * all ranks have published call n + 1, i.e. have finished reading call n.</p>
+ *
+ * <p>The file must be new (filled with zeros) when the processes start, e.g. a new temporary file of each run.
+ * A counter is written by a release-store and read by an acquire-load of a view-VarHandle of the mapped buffer.
+ * The Java memory model doesn't cover other processes, the ordering relies on the barriers of these accesses
+ * in the shared physical memory: the writes of a slot precede the store of its counter and the reads
+ * of the slots follow the loads of the counters.</p>
+ */
+public class MappedFileAllReduce implements LlmAllReduce {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(MappedFileAllReduce.class.getName());
+
+	/** offset of the counter of a rank (one cache-line per rank) */
+	private static final int STRIDE_COUNTER = 64;
+
+	/** offset of the slots */
+	private static final int OFFSET_SLOTS = 4096;
+
+	/** ordered accesses of the counters in the mapped buffer */
+	private static final VarHandle COUNTER = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	/** default timeout while waiting for the other ranks in seconds */
+	public static final int DEFAULT_TIMEOUT_SECONDS = 120;
+
+	/** index of the process */
+	private final int rank;
+
+	/** number of processes */
+	private final int worldSize;
+
+	/** maximal number of floats of a tensor */
+	private final int maxFloats;
+
+	/** timeout while waiting for the other ranks in nanoseconds */
+	private final long timeoutNanos;
+
+	/** mapped file */
+	private final RandomAccessFile raf;
+
+	/** mapped buffer */
+	private final MappedByteBuffer buffer;
+
+	/** slots (parity, rank) */
+	private final FloatBuffer[][] slots;
+
+	/** number of the current call */
+	private long generation;
+
+	/** row read from a slot */
+	private float[] rowSlot = new float[0];
+
+	/**
+	 * Constructor
+	 * @param file file shared by the processes
+	 * @param rank index of the process
+	 * @param worldSize number of processes
+	 * @param maxFloats maximal number of floats of a tensor (batchSize * numSeq * hiddenSize)
+	 * @throws IOException in case of an IO-error
+	 */
+	public MappedFileAllReduce(final File file, final int rank, final int worldSize, final int maxFloats) throws IOException {
+		this(file, rank, worldSize, maxFloats, DEFAULT_TIMEOUT_SECONDS);
+	}
+
+	/**
+	 * Constructor
+	 * @param file file shared by the processes
+	 * @param rank index of the process
+	 * @param worldSize number of processes
+	 * @param maxFloats maximal number of floats of a tensor (batchSize * numSeq * hiddenSize)
+	 * @param timeoutSeconds timeout while waiting for the other ranks in seconds
+	 * @throws IOException in case of an IO-error
+	 */
+	public MappedFileAllReduce(final File file, final int rank, final int worldSize, final int maxFloats,
+			final int timeoutSeconds) throws IOException {
+		if (worldSize * STRIDE_COUNTER > OFFSET_SLOTS) {
+			throw new IllegalArgumentException("World-size too large: " + worldSize);
+		}
+		final long size = OFFSET_SLOTS + 2L * worldSize * maxFloats * 4;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Mapped file too large: %d slots of %d floats",
+					Integer.valueOf(2 * worldSize), Integer.valueOf(maxFloats)));
+		}
+		this.rank = rank;
+		this.worldSize = worldSize;
+		this.maxFloats = maxFloats;
+		this.timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+			buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+		}
+		catch (IOException e) {
+			raf.close();
+			throw new IOException("Can't map all-reduce file " + file, e);
+		}
+		buffer.order(ByteOrder.nativeOrder());
+		slots = new FloatBuffer[2][worldSize];
+		for (int parity = 0; parity < 2; parity++) {
+			for (int r = 0; r < worldSize; r++) {
+				final int offset = OFFSET_SLOTS + (parity * worldSize + r) * maxFloats * 4;
+				final ByteBuffer bb = buffer.duplicate();
+				bb.position(offset);
+				bb.limit(offset + maxFloats * 4);
+				slots[parity][r] = bb.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+		}
+		LOG.info(String.format("All-reduce of rank %d/%d in %s", Integer.valueOf(rank), Integer.valueOf(worldSize), file));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void allReduceSum(final float[][][] tensor) {
+		final int d1 = tensor.length;
+		final int d2 = tensor[0].length;
+		final int d3 = tensor[0][0].length;
+		if ((long) d1 * d2 * d3 > maxFloats) {
+			throw new IllegalArgumentException(String.format("Tensor (%d, %d, %d) exceeds %d floats",
+					Integer.valueOf(d1), Integer.valueOf(d2), Integer.valueOf(d3), Integer.valueOf(maxFloats)));
+		}
+		generation++;
+		final FloatBuffer[] slotsGen = slots[(int) (generation & 1)];
+		final FloatBuffer slotOwn = slotsGen[rank];
+		slotOwn.clear();
+		for (float[][] mat : tensor) {
+			for (float[] row : mat) {
+				slotOwn.put(row, 0, d3);
+			}
+		}
+		// The slot has to be written before the counter.
+		COUNTER.setRelease(buffer, rank * STRIDE_COUNTER, generation);
+
+		awaitRanks();
+
+		if (rowSlot.length < d3) {
+			rowSlot = new float[d3];
+		}
+		for (int r = 0; r < worldSize; r++) {
+			final FloatBuffer slot = slotsGen[r];
+			slot.clear();
+			for (float[][] mat : tensor) {
+				for (float[] row : mat) {
+					if (r == 0) {
+						slot.get(row, 0, d3);
+						continue;
+					}
+					slot.get(rowSlot, 0, d3);
+					for (int k = 0; k < d3; k++) {
+						row[k] += rowSlot[k];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until all ranks have published the current call.
+	 */
+	private void awaitRanks() {
+		final long tsStart = System.nanoTime();
+		int spins = 0;
+		for (int r = 0; r < worldSize; r++) {
+			// The slots are read after the counters.
+			while ((long) COUNTER.getAcquire(buffer, r * STRIDE_COUNTER) < generation) {
+				spins++;
+				if (spins < 100) {
+					Thread.yield();
+				}
+				else {
+					LockSupport.parkNanos(this, 10_000L);
+					if (System.nanoTime() - tsStart > timeoutNanos) {
+						throw new IllegalStateException(String.format("Timeout in rank %d while waiting for rank %d (call %d)",
+								Integer.valueOf(rank), Integer.valueOf(r), Long.valueOf(generation)));
+					}
+				}
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() {
+		try {
+			raf.close();
+		}
+		catch (IOException e) {
+			LOG.warning("Can't close all-reduce file: " + e.getMessage());
+		}
+	}
+}
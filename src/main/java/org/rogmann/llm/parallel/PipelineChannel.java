@@ -0,0 +1,233 @@
+package org.rogmann.llm.parallel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.rogmann.llm.parallel.PipelineMessage.Type;
+
+/**
+ * Connections of a stage of a pipeline-parallel model on the local host.
+ *
+ * <p>The stages form a ring: stage i listens on port basePort + i and receives the
+ * messages of stage i - 1, it sends its messages to stage i + 1. The last stage sends
+ * its results back to the first stage. Each stage opens its server-socket before connecting
+ * to the next stage, so the stages can be started in any order.</p>
+ *
+ * <p>A channel is used by one reading thread and one writing thread.</p>
+ */
+public class PipelineChannel implements AutoCloseable {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(PipelineChannel.class.getName());
+
+	/** size of the stream-buffers */
+	private static final int BUFFER_SIZE = 65536;
+
+	/** default timeout while connecting the stages in seconds */
+	public static final int DEFAULT_TIMEOUT_SECONDS = 120;
+
+	/** socket of the previous stage */
+	private final Socket socketIn;
+
+	/** socket of the next stage */
+	private final Socket socketOut;
+
+	/** input-stream of the previous stage */
+	private final DataInputStream dis;
+
+	/** output-stream to the next stage */
+	private final DataOutputStream dos;
+
+	/** buffer of a row while reading */
+	private byte[] bufIn = new byte[0];
+
+	/** buffer of a row while writing */
+	private byte[] bufOut = new byte[0];
+
+	/**
+	 * Constructor, connects the stage with its neighbors.
+	 * @param stage stage of this process
+	 * @param basePort port of the first stage
+	 * @param timeoutSeconds timeout while connecting in seconds
+	 * @throws IOException in case of an IO-error
+	 */
+	public PipelineChannel(final PipelineStageConfig stage, final int basePort, final int timeoutSeconds) throws IOException {
+		final InetAddress addrLocal = InetAddress.getLoopbackAddress();
+		final int portOwn = basePort + stage.getStage();
+		final int portNext = basePort + (stage.getStage() + 1) % stage.getNumStages();
+		try (ServerSocket serverSocket = new ServerSocket(portOwn, 1, addrLocal)) {
+			serverSocket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(timeoutSeconds));
+			socketOut = connect(new InetSocketAddress(addrLocal, portNext), timeoutSeconds);
+			try {
+				socketIn = serverSocket.accept();
+			}
+			catch (IOException e) {
+				socketOut.close();
+				throw new IOException(String.format("Stage %d: no connection of the previous stage at port %d",
+						Integer.valueOf(stage.getStage()), Integer.valueOf(portOwn)), e);
+			}
+		}
+		socketIn.setTcpNoDelay(true);
+		socketOut.setTcpNoDelay(true);
+		dis = new DataInputStream(new BufferedInputStream(socketIn.getInputStream(), BUFFER_SIZE));
+		dos = new DataOutputStream(new BufferedOutputStream(socketOut.getOutputStream(), BUFFER_SIZE));
+		LOG.info(String.format("Stage %d/%d: receives at port %d, sends to port %d",
+				Integer.valueOf(stage.getStage()), Integer.valueOf(stage.getNumStages()),
+				Integer.valueOf(portOwn), Integer.valueOf(portNext)));
+	}
+
+	/**
+	 * Connects to the next stage. The connection is retried until the next stage listens.
+	 * @param address address of the next stage
+	 * @param timeoutSeconds timeout in seconds
+	 * @return socket
+	 * @throws IOException in case of an IO-error
+	 */
+	private static Socket connect(final InetSocketAddress address, final int timeoutSeconds) throws IOException {
+		final long tsStart = System.nanoTime();
+		while (true) {
+			final Socket socket = new Socket();
+			try {
+				socket.connect(address);
+				return socket;
+			}
+			catch (ConnectException e) {
+				socket.close();
+				if (System.nanoTime() - tsStart > TimeUnit.SECONDS.toNanos(timeoutSeconds)) {
+					throw new IOException("Can't connect to the next stage at " + address, e);
+				}
+			}
+			try {
+				Thread.sleep(50);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while connecting to " + address, e);
+			}
+		}
+	}
+
+	/**
+	 * Sends a message to the next stage.
+	 * @param message message
+	 * @throws IOException in case of an IO-error
+	 */
+	public void send(final PipelineMessage message) throws IOException {
+		dos.writeByte(message.getType().ordinal());
+		dos.writeInt(message.getMicroBatch());
+		final Integer numSeqLenCache = message.getNumSeqLenCache();
+		dos.writeInt((numSeqLenCache != null) ? numSeqLenCache.intValue() : -1);
+		dos.writeInt(message.getMaxSeqLen());
+		final float[][] mask = message.getAttentionMask();
+		if (mask == null) {
+			dos.writeInt(0);
+		}
+		else {
+			dos.writeInt(mask.length);
+			dos.writeInt(mask[0].length);
+			for (float[] row : mask) {
+				writeRow(row);
+			}
+		}
+		final float[][][] hiddenStates = message.getHiddenStates();
+		if (hiddenStates == null) {
+			dos.writeInt(0);
+		}
+		else {
+			dos.writeInt(hiddenStates.length);
+			dos.writeInt(hiddenStates[0].length);
+			dos.writeInt(hiddenStates[0][0].length);
+			for (float[][] mat : hiddenStates) {
+				for (float[] row : mat) {
+					writeRow(row);
+				}
+			}
+		}
+		dos.flush();
+	}
+
+	/**
+	 * Receives a message of the previous stage.
+	 * @return message
+	 * @throws IOException in case of an IO-error
+	 */
+	public PipelineMessage receive() throws IOException {
+		final int idxType = dis.readUnsignedByte();
+		final Type[] types = Type.values();
+		if (idxType >= types.length) {
+			throw new IOException("Unexpected message-type " + idxType);
+		}
+		final int microBatch = dis.readInt();
+		final int numCache = dis.readInt();
+		final int maxSeqLen = dis.readInt();
+		float[][] mask = null;
+		final int maskRows = dis.readInt();
+		if (maskRows > 0) {
+			mask = new float[maskRows][dis.readInt()];
+			for (float[] row : mask) {
+				readRow(row);
+			}
+		}
+		float[][][] hiddenStates = null;
+		final int dim1 = dis.readInt();
+		if (dim1 > 0) {
+			final int dim2 = dis.readInt();
+			final int dim3 = dis.readInt();
+			hiddenStates = new float[dim1][dim2][dim3];
+			for (float[][] mat : hiddenStates) {
+				for (float[] row : mat) {
+					readRow(row);
+				}
+			}
+		}
+		return new PipelineMessage(types[idxType], microBatch, (numCache >= 0) ? Integer.valueOf(numCache) : null,
+				maxSeqLen, mask, hiddenStates);
+	}
+
+	/**
+	 * Writes a row of floats.
+	 * @param row row
+	 * @throws IOException in case of an IO-error
+	 */
+	private void writeRow(final float[] row) throws IOException {
+		if (bufOut.length < 4 * row.length) {
+			bufOut = new byte[4 * row.length];
+		}
+		ByteBuffer.wrap(bufOut).asFloatBuffer().put(row);
+		dos.write(bufOut, 0, 4 * row.length);
+	}
+
+	/**
+	 * Reads a row of floats.
+	 * @param row row to be filled
+	 * @throws IOException in case of an IO-error
+	 */
+	private void readRow(final float[] row) throws IOException {
+		if (bufIn.length < 4 * row.length) {
+			bufIn = new byte[4 * row.length];
+		}
+		dis.readFully(bufIn, 0, 4 * row.length);
+		ByteBuffer.wrap(bufIn).asFloatBuffer().get(row);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		try {
+			socketOut.close();
+		}
+		finally {
+			socketIn.close();
+		}
+	}
+}
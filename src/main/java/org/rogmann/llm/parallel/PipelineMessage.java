@@ -0,0 +1,102 @@
+package org.rogmann.llm.parallel;
+
+/**
+ * Message sent between the stages of a pipeline-parallel model.
+ */
+public class PipelineMessage {
+
+	/** type of a message */
+	public enum Type {
+		/** hidden states of a micro-batch to be computed by the next stage */
+		FORWARD,
+		/** the cache of a micro-batch can be released */
+		RELEASE,
+		/** the stages terminate */
+		SHUTDOWN;
+	}
+
+	/** type of the message */
+	private final Type type;
+
+	/** id of the micro-batch */
+	private final int microBatch;
+
+	/** <code>null</code> if no cache is used, number of cached tokens otherwise */
+	private final Integer numSeqLenCache;
+
+	/** maximum number of tokens of the micro-batch (size of the cache) */
+	private final int maxSeqLen;
+
+	/** attention-mask (batchSize, numSeqLenCache + numSeq) or <code>null</code> */
+	private final float[][] attentionMask;
+
+	/** hidden states (batchSize, numSeq, hiddenSize) or <code>null</code> */
+	private final float[][][] hiddenStates;
+
+	/**
+	 * Constructor
+	 * @param type type of the message
+	 * @param microBatch id of the micro-batch
+	 * @param numSeqLenCache <code>null</code> if no cache is used, number of cached tokens otherwise
+	 * @param maxSeqLen maximum number of tokens of the micro-batch
+	 * @param attentionMask attention-mask or <code>null</code>
+	 * @param hiddenStates hidden states or <code>null</code>
+	 */
+	public PipelineMessage(final Type type, final int microBatch, final Integer numSeqLenCache, final int maxSeqLen,
+			final float[][] attentionMask, final float[][][] hiddenStates) {
+		this.type = type;
+		this.microBatch = microBatch;
+		this.numSeqLenCache = numSeqLenCache;
+		this.maxSeqLen = maxSeqLen;
+		this.attentionMask = attentionMask;
+		this.hiddenStates = hiddenStates;
+	}
+
+	/**
+	 * Gets the type of the message.
+	 * @return type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the id of the micro-batch.
+	 * @return id
+	 */
+	public int getMicroBatch() {
+		return microBatch;
+	}
+
+	/**
+	 * Gets the number of cached tokens.
+	 * @return <code>null</code> if no cache is used, number of cached tokens otherwise
+	 */
+	public Integer getNumSeqLenCache() {
+		return numSeqLenCache;
+	}
+
+	/**
+	 * Gets the maximum number of tokens of the micro-batch.
+	 * @return maximum number of tokens
+	 */
+	public int getMaxSeqLen() {
+		return maxSeqLen;
+	}
+
+	/**
+	 * Gets the attention-mask.
+	 * @return attention-mask (batchSize, numSeqLenCache + numSeq) or <code>null</code>
+	 */
+	public float[][] getAttentionMask() {
+		return attentionMask;
+	}
+
+	/**
+	 * Gets the hidden states.
+	 * @return hidden states (batchSize, numSeq, hiddenSize) or <code>null</code>
+	 */
+	public float[][][] getHiddenStates() {
+		return hiddenStates;
+	}
+}
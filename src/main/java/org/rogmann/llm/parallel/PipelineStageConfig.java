@@ -0,0 +1,83 @@
+package org.rogmann.llm.parallel;
+
+import org.rogmann.llm.LlmExecutor;
+
+/**
+ * Configuration of a process of a pipeline-parallel model.
+ *
+ * <p>Each of the numStages processes holds a contiguous range of layers. The first stage
+ * holds the word-embeddings, the last stage the final layer-norm. The hidden states are
+ * sent from stage to stage, see {@link PipelineChannel}.</p>
+ */
+public class PipelineStageConfig {
+
+	/** index of the stage */
+	private final int stage;
+
+	/** number of stages */
+	private final int numStages;
+
+	/**
+	 * Constructor
+	 * @param stage index of the stage (0 to numStages - 1)
+	 * @param numStages number of stages
+	 */
+	public PipelineStageConfig(final int stage, final int numStages) {
+		if (numStages < 1 || stage < 0 || stage >= numStages) {
+			throw new IllegalArgumentException(String.format("Invalid stage %d of %d stages",
+					Integer.valueOf(stage), Integer.valueOf(numStages)));
+		}
+		this.stage = stage;
+		this.numStages = numStages;
+	}
+
+	/**
+	 * Gets the index of the stage.
+	 * @return stage
+	 */
+	public int getStage() {
+		return stage;
+	}
+
+	/**
+	 * Gets the number of stages.
+	 * @return number of stages
+	 */
+	public int getNumStages() {
+		return numStages;
+	}
+
+	/**
+	 * Checks if this stage computes the word-embeddings.
+	 * @return <code>true</code> in the first stage
+	 */
+	public boolean isFirst() {
+		return stage == 0;
+	}
+
+	/**
+	 * Checks if this stage computes the final layer-norm.
+	 * @return <code>true</code> in the last stage
+	 */
+	public boolean isLast() {
+		return stage == numStages - 1;
+	}
+
+	/**
+	 * Gets the first layer of this stage.
+	 * @param numLayers number of layers of the model
+	 * @return index of the first layer
+	 */
+	public int getLayerStart(final int numLayers) {
+		return LlmExecutor.splitIndex(numLayers, stage, numStages);
+	}
+
+	/**
+	 * Gets the end of the layers of this stage.
+	 * @param numLayers number of layers of the model
+	 * @return index after the last layer
+	 */
+	public int getLayerEnd(final int numLayers) {
+		return LlmExecutor.splitIndex(numLayers, stage + 1, numStages);
+	}
+}
@@ -0,0 +1,79 @@
+package org.rogmann.llm.parallel;
+
+import org.rogmann.llm.LlmExecutor;
+
+/**
+ * Configuration of a process of a tensor-parallel model.
+ *
+ * <p>Each of the worldSize processes holds a part of the heads of the attention and a part
+ * of the rows of the MLP. The partial results are summed by an all-reduce.</p>
+ */
+public class TensorParallelConfig {
+
+	/** index of the process */
+	private final int rank;
+
+	/** number of processes */
+	private final int worldSize;
+
+	/** all-reduce between the processes */
+	private final LlmAllReduce allReduce;
+
+	/**
+	 * Constructor
+	 * @param rank index of the process (0 to worldSize - 1)
+	 * @param worldSize number of processes
+	 * @param allReduce all-reduce between the processes
+	 */
+	public TensorParallelConfig(final int rank, final int worldSize, final LlmAllReduce allReduce) {
+		if (worldSize < 1 || rank < 0 || rank >= worldSize) {
+			throw new IllegalArgumentException(String.format("Invalid rank %d of world-size %d",
+					Integer.valueOf(rank), Integer.valueOf(worldSize)));
+		}
+		this.rank = rank;
+		this.worldSize = worldSize;
+		this.allReduce = allReduce;
+	}
+
+	/**
+	 * Gets the index of the process.
+	 * @return rank
+	 */
+	public int getRank() {
+		return rank;
+	}
+
+	/**
+	 * Gets the number of processes.
+	 * @return world-size
+	 */
+	public int getWorldSize() {
+		return worldSize;
+	}
+
+	/**
+	 * Gets the all-reduce between the processes.
+	 * @return all-reduce
+	 */
+	public LlmAllReduce getAllReduce() {
+		return allReduce;
+	}
+
+	/**
+	 * Gets the start of the part of this process in a range of n items.
+	 * @param n number of items (e.g. heads)
+	 * @return start-index
+	 */
+	public int getPartStart(final int n) {
+		return LlmExecutor.splitIndex(n, rank, worldSize);
+	}
+
+	/**
+	 * Gets the end of the part of this process in a range of n items.
+	 * @param n number of items (e.g. heads)
+	 * @return end-index (exclusive)
+	 */
+	public int getPartEnd(final int n) {
+		return LlmExecutor.splitIndex(n, rank + 1, worldSize);
+	}
+}
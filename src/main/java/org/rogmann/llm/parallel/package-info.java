@@ -0,0 +1,4 @@
+/**
+ * Tensor-parallel and pipeline-parallel execution of a model in several processes.
+ */
+package org.rogmann.llm.parallel;
@@ -1,173 +1,339 @@
 package org.rogmann.llm.pickle;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.rogmann.llm.LlmConfigException;
 
+/**
+ * Reader of a pickle-stream (protocol 2 to 5) in a byte-buffer.
+ *
+ * <p>The primitives are decoded by bulk-reads of the buffer (little-endian).
+ * The memo is an array indexed by the memo-index. The stack is an array, the positions
+ * of the marks are kept in a separate int-array (like the metastack of CPython),
+ * so TUPLE, LIST, SETITEMS etc. don't have to search the mark-object.</p>
+ */
 public class PickleReader {
 	/** logger */
 	private static final Logger LOG = Logger.getLogger(PickleReader.class.getName());
-	
+
+	/** memo-entry of None, <code>null</code> is a memo-index not stored */
+	private static final Object MEMO_NONE = new Object();
+
 	/** version of pickle-stream */
 	private final int pickleVersion;
 
-	private final Map<String, Object> memo = new HashMap<>();
-	
-	/** current position in pickle-stream */
+	/** buffer containing the pickle-stream */
+	private final ByteBuffer bb;
+
+	/** memo-objects by index */
+	private Object[] memo = new Object[64];
+
+	/** number of memo-entries */
+	private int memoSize;
+
+	/** stack */
+	private Object[] stack = new Object[64];
+
+	/** number of elements on the stack */
+	private int stackSize;
+
+	/** stack-sizes at the marks */
+	private int[] marks = new int[16];
+
+	/** number of marks */
+	private int numMarks;
+
+	/** position of the current opcode */
 	private int pos;
 
 	/** Finished object */
 	private final Object result;
 
+	/**
+	 * Constructor, reads a pickle-stream.
+	 * The input-stream is read completely, it isn't closed.
+	 * @param is input-stream
+	 * @param reducer reducer of objects
+	 * @throws IOException in case of an IO-error
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
 	public PickleReader(InputStream is, PickleReducer reducer) throws IOException, LlmConfigException {
-		final PickleOpcode opVersion = readOpcode(is);
-		if (opVersion != PickleOpcode.PROTO) {
-			throw new IOException("Unexpected opcode (expected PROTO): " + opVersion);
+		this(ByteBuffer.wrap(readFully(is)), reducer);
+	}
+
+	/**
+	 * Constructor, reads a pickle-stream in a buffer (e.g. a mapped file).
+	 * The position of the given buffer isn't modified.
+	 * @param buffer buffer containing the pickle-stream (from position to limit)
+	 * @param reducer reducer of objects
+	 * @throws IOException in case of an invalid or truncated stream
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	public PickleReader(ByteBuffer buffer, PickleReducer reducer) throws IOException, LlmConfigException {
+		bb = buffer.slice();
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			final PickleOpcode opVersion = readOpcode();
+			if (opVersion != PickleOpcode.PROTO) {
+				throw new IOException("Unexpected opcode (expected PROTO): " + opVersion);
+			}
+			pickleVersion = readUInt8();
+			LOG.fine("pickle-version: " + pickleVersion);
+			result = execute(reducer);
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Unexpected end of stream at " + bb.position(), e);
 		}
-		pickleVersion = readUInt8(is);
-		LOG.fine("pickle-version: " + pickleVersion);
+	}
 
-		Stack<Object> stack = new Stack<>();
+	/**
+	 * Executes the opcodes up to STOP.
+	 * @param reducer reducer of objects
+	 * @return finished object
+	 * @throws IOException in case of an invalid stream
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	private Object execute(PickleReducer reducer) throws IOException, LlmConfigException {
 		while (true) {
-			final PickleOpcode op = readOpcode(is);
+			final PickleOpcode op = readOpcode();
 			if (op == PickleOpcode.STOP) {
 				break;
 			}
 			if (LOG.isLoggable(Level.FINEST)) {
 				LOG.finest(String.format("0x%04x: Opcode=%s, stack.size=%d",
-						Integer.valueOf(pos), op, Integer.valueOf(stack.size())));
+						Integer.valueOf(pos), op, Integer.valueOf(stackSize)));
 			}
 			try {
 				switch (op) {
+				case FRAME:
+					// The stream is in memory, the frame-length is not needed.
+					bb.getLong();
+					break;
 				case MARK:
-					stack.push(PickleMark.OBJECT);
+					if (numMarks == marks.length) {
+						marks = Arrays.copyOf(marks, 2 * numMarks);
+					}
+					marks[numMarks++] = stackSize;
+					break;
+				case POP:
+					if (numMarks > 0 && marks[numMarks - 1] == stackSize) {
+						numMarks--;
+					}
+					else {
+						pop(op);
+					}
+					break;
+				case POP_MARK:
+					stackSize = popMark(op);
+					break;
+				case DUP:
+					push(peek(op));
 					break;
 				case GLOBAL:
 				{
-					final String moduleName	= readStringN(is);
-					final String className	= readStringN(is);
-					stack.push(new PickleGlobal(moduleName, className));
+					final String moduleName	= readLine();
+					final String className	= readLine();
+					push(new PickleGlobal(moduleName, className));
+					break;
+				}
+				case STACK_GLOBAL:
+				{
+					final String className = (String) pop(op);
+					final String moduleName = (String) pop(op);
+					push(new PickleGlobal(moduleName, className));
 					break;
 				}
 				case BINPUT:
 				case LONG_BINPUT:
 				{
-					final int idx = (op == PickleOpcode.BINPUT) ? readUInt8(is) : readInt32LE(is);
-					final Object obj = stack.peek();
-					memo.put(Integer.toString(idx), obj);
-					if (LOG.isLoggable(Level.FINEST)) {
-						LOG.finest(String.format("%s: memo[%d] = %s", op, Integer.valueOf(idx), obj));
-					}
+					final int idx = (op == PickleOpcode.BINPUT) ? readUInt8() : bb.getInt();
+					putMemo(idx, peek(op), op);
 					break;
 				}
+				case MEMOIZE:
+					putMemo(memoSize, peek(op), op);
+					break;
 				case BINGET:
 				case LONG_BINGET:
 				{
-					final int idx = (op == PickleOpcode.BINGET) ? readUInt8(is) : readInt32LE(is);
-					final Object obj = memo.get(Integer.toString(idx));
+					final int idx = (op == PickleOpcode.BINGET) ? readUInt8() : bb.getInt();
+					// A gap in the memo (an index without BINPUT) is rejected, too.
+					final Object memoObj = (idx >= 0 && idx < memoSize) ? memo[idx] : null;
+					if (memoObj == null) {
+						throw new IllegalStateException(String.format("Unknown memo-index %d (memo-size %d)",
+								Integer.valueOf(idx), Integer.valueOf(memoSize)));
+					}
+					final Object obj = (memoObj != MEMO_NONE) ? memoObj : null;
 					if (LOG.isLoggable(Level.FINEST)) {
 						LOG.finest(String.format("%s: memo[%d] = %s", op, Integer.valueOf(idx), obj));
 					}
-					stack.push(obj);
+					push(obj);
 					break;
 				}
 				case BININT:
 				{
-					final int val = readInt32LE(is);
-					stack.push(Integer.valueOf(val));
+					final int val = bb.getInt();
+					push(Integer.valueOf(val));
 					if (LOG.isLoggable(Level.FINEST)) {
 						LOG.finest(String.format("%s: %d", op, Integer.valueOf(val)));
 					}
 					break;
 				}
 				case BININT1:
-				{
-					final int val = readUInt8(is);
-					stack.push(Integer.valueOf(val));
+					push(Integer.valueOf(readUInt8()));
 					break;
-				}
 				case BININT2:
+					push(Integer.valueOf(bb.getShort() & 0xffff));
+					break;
+				case LONG1:
+					push(readLong(readUInt8()));
+					break;
+				case LONG4:
+					push(readLong(bb.getInt()));
+					break;
+				case BINFLOAT:
+					push(Double.valueOf(Double.longBitsToDouble(Long.reverseBytes(bb.getLong()))));
+					break;
+				case NONE:
+					push(null);
+					break;
+				case NEWTRUE:
+					push(Boolean.TRUE);
+					break;
+				case NEWFALSE:
+					push(Boolean.FALSE);
+					break;
+				case SHORT_BINUNICODE:
+					push(readString(readUInt8(), StandardCharsets.UTF_8));
+					break;
+				case BINUNICODE:
+					push(readString(bb.getInt(), StandardCharsets.UTF_8));
+					break;
+				case BINUNICODE8:
+					push(readString(readLength64(), StandardCharsets.UTF_8));
+					break;
+				case SHORT_BINSTRING:
+					push(readString(readUInt8(), StandardCharsets.ISO_8859_1));
+					break;
+				case BINSTRING:
+					push(readString(bb.getInt(), StandardCharsets.ISO_8859_1));
+					break;
+				case SHORT_BINBYTES:
+					push(readBytes(readUInt8()));
+					break;
+				case BINBYTES:
+					push(readBytes(bb.getInt()));
+					break;
+				case BINBYTES8:
+				case BYTEARRAY8:
+					push(readBytes(readLength64()));
+					break;
+				case EMPTY_DICT:
+					push(new HashMap<Object, Object>());
+					break;
+				case DICT:
 				{
-					final int val = readUInt16LE(is);
-					stack.push(Integer.valueOf(val));
+					final int idxMark = popMark(op);
+					final Map<Object, Object> mapDict = new HashMap<>();
+					putItems(mapDict, idxMark, op);
+					stackSize = idxMark;
+					push(mapDict);
 					break;
 				}
-				case BINUNICODE:
+				case EMPTY_LIST:
+					push(new ArrayList<Object>());
+					break;
+				case LIST:
 				{
-					final int len = readInt32LE(is);
-					final String s = readString(is, len);
-					stack.push(s);
+					final int idxMark = popMark(op);
+					final List<Object> list = new ArrayList<>(Arrays.asList(stack).subList(idxMark, stackSize));
+					stackSize = idxMark;
+					push(list);
 					break;
 				}
-				case NEWFALSE:
-					stack.push(Boolean.FALSE);
+				case APPEND:
+				{
+					final Object obj = pop(op);
+					getList(stackSize - 1, op).add(obj);
 					break;
-				case EMPTY_DICT:
-					stack.push(new HashMap<String, Object>());
+				}
+				case APPENDS:
+				{
+					final int idxMark = popMark(op);
+					getList(idxMark - 1, op).addAll(Arrays.asList(stack).subList(idxMark, stackSize));
+					stackSize = idxMark;
 					break;
-				case EMPTY_TUPLE:
-					stack.push(new Object[2]);
+				}
+				case EMPTY_SET:
+					push(new HashSet<Object>());
 					break;
-				case TUPLE:
+				case ADDITEMS:
 				{
-					int idxMark = getMarkObjectIndex(stack, op);
-					final int size = stack.size() - 1 - idxMark;
-					final Object[] tuple = new Object[size];
-					for (int j = 0; j < size; j++) {
-						tuple[j] = stack.get(idxMark + 1 + j);
-					}
-					for (int j = stack.size() - 1; j >= idxMark; j--) {
-						stack.remove(j);
+					final int idxMark = popMark(op);
+					final Object oSet = get(idxMark - 1, op);
+					if (!(oSet instanceof Set)) {
+						throw new IllegalStateException("Unexpected non-set " + oSet);
 					}
-					stack.push(tuple);
+					@SuppressWarnings("unchecked")
+					final Set<Object> set = (Set<Object>) oSet;
+					set.addAll(Arrays.asList(stack).subList(idxMark, stackSize));
+					stackSize = idxMark;
 					break;
 				}
-				case TUPLE1:
+				case FROZENSET:
 				{
-					int size = stack.size();
-					if (size < 1) {
-						throw new IllegalStateException(String.format("stack size %d at 0x%x: %s",
-								Integer.valueOf(size), Integer.valueOf(pos), op));
-					}
-					final Object[] tuple = new Object[1];
-					tuple[0] = stack.pop();
-					stack.push(tuple);
+					final int idxMark = popMark(op);
+					final Set<Object> set = new HashSet<>(Arrays.asList(stack).subList(idxMark, stackSize));
+					stackSize = idxMark;
+					push(Collections.unmodifiableSet(set));
 					break;
 				}
+				case EMPTY_TUPLE:
+					push(new Object[0]);
+					break;
+				case TUPLE:
+				{
+					final int idxMark = popMark(op);
+					final Object[] tuple = Arrays.copyOfRange(stack, idxMark, stackSize);
+					stackSize = idxMark;
+					push(tuple);
+					break;
+				}
+				case TUPLE1:
 				case TUPLE2:
+				case TUPLE3:
 				{
-					int size = stack.size();
-					if (size < 2) {
-						throw new IllegalStateException(String.format("stack size %d at 0x%x: %s",
-								Integer.valueOf(size), Integer.valueOf(pos), op));
-					}
-					final Object[] tuple = new Object[2];
-					tuple[1] = stack.pop();
-					tuple[0] = stack.pop();
-					stack.push(tuple);
+					final int size = op.ordinal() - PickleOpcode.TUPLE1.ordinal() + 1;
+					checkStackSize(size, op);
+					final Object[] tuple = Arrays.copyOfRange(stack, stackSize - size, stackSize);
+					stackSize -= size;
+					push(tuple);
 					break;
 				}
 				case SETITEM:
 				{
-					int size = stack.size();
-					if (size < 3) {
-						throw new IllegalStateException(String.format("stack size %d at 0x%x: %s",
-								Integer.valueOf(size), Integer.valueOf(pos), op));
-					}
-					@SuppressWarnings("unchecked")
-					final Map<String, Object> mapDict = (Map<String, Object>) stack.get(size - 3);
-					final Object oValue = stack.pop();
-					final String key = (String) stack.pop();
-					mapDict.put(key, oValue);
+					checkStackSize(3, op);
+					final Object oValue = stack[stackSize - 1];
+					final Object key = stack[stackSize - 2];
+					getDict(stackSize - 3, op).put(key, oValue);
+					stackSize -= 2;
 					if (LOG.isLoggable(Level.FINEST)) {
 						LOG.finest(String.format("Added key %s in dict with value of type %s",
 								key, (oValue != null) ? oValue.getClass().getName() : null));
@@ -176,21 +342,10 @@ public class PickleReader {
 				}
 				case SETITEMS:
 				{
-					final int idxMark = getMarkObjectIndex(stack, op);
-					@SuppressWarnings("unchecked")
-					final Map<String, Object> mapDict = (Map<String, Object>) stack.get(idxMark - 1);
-					if ((stack.size() - 1 - idxMark) % 2 != 0) {
-						throw new IllegalStateException(String.format("Uneven number %d of elements after mark at %d for %s in stack of size %d at 0x%x",
-								Integer.valueOf(stack.size() - 1 - idxMark), Integer.valueOf(idxMark), op,
-								Integer.valueOf(stack.size()), Integer.valueOf(pos)));
-					}
-					final int numPairs = (stack.size() - 1 - idxMark) / 2;
-					for (int i = 0; i < numPairs; i++) {
-						final Object oValue = stack.pop();
-						final String key = (String) stack.pop();
-						mapDict.put(key, oValue);
-					}
-					stack.pop(); // remove mark
+					final int idxMark = popMark(op);
+					final Map<Object, Object> mapDict = getDict(idxMark - 1, op);
+					final int numPairs = putItems(mapDict, idxMark, op);
+					stackSize = idxMark;
 					if (LOG.isLoggable(Level.FINEST)) {
 						LOG.finest(String.format("Added %d %s in dict with keys %s",
 								Integer.valueOf(numPairs), (numPairs == 1) ? "item" : "items",
@@ -200,8 +355,7 @@ public class PickleReader {
 				}
 				case BINPERSID:
 				{
-					checkStack(stack, op);
-					final Object oPersistantId = stack.pop();
+					final Object oPersistantId = pop(op);
 					if (!(oPersistantId instanceof Object[])) {
 						throw new IllegalStateException(String.format("Unexpected non-array PID at 0x%x: %s",
 								Integer.valueOf(pos), oPersistantId));
@@ -212,11 +366,11 @@ public class PickleReader {
 								Integer.valueOf(pos), Arrays.toString(aPid)));
 					}
 					if ("storage".equals(aPid[0]) && aPid[1] instanceof PickleGlobal) {
-						final Storage storage = new Storage((PickleGlobal) aPid[1], (String) aPid[2], (String) aPid[3], ((Integer) aPid[4]).intValue());
+						final Storage storage = new Storage((PickleGlobal) aPid[1], (String) aPid[2], (String) aPid[3], ((Number) aPid[4]).intValue());
 						if (LOG.isLoggable(Level.FINER)) {
 							LOG.finer("Storage: " + storage);
 						}
-						stack.push(storage);
+						push(storage);
 					}
 					else {
 						throw new IllegalStateException(String.format("Unexpected PID-type (%s) at 0x%x: %s",
@@ -225,49 +379,61 @@ public class PickleReader {
 					break;
 				}
 				case REDUCE:
+				case NEWOBJ:
 				{
-					final Object[] args = (Object[]) stack.pop();
-					final Object obj = stack.pop();
+					final Object[] args = (Object[]) pop(op);
+					final Object obj = pop(op);
 					Object reducedObject = reducer.reduce(obj, args);
 					if (Void.TYPE.equals(reducedObject)) {
-							reducedObject = null;
-					} else if (reducedObject == null) {
-						throw new IllegalStateException(String.format("Can't reduce object %s at 0x%x: %s",
+						reducedObject = null;
+					}
+					else if (reducedObject == null) {
+						throw new IllegalStateException(String.format("Can't reduce object %s at 0x%x",
 								obj, Integer.valueOf(pos)));
 					}
-					stack.push(reducedObject);
+					push(reducedObject);
 					break;
 				}
 				case BUILD:
 				{
-					final Object args = stack.pop();
-					final Object obj = stack.pop();
+					final Object args = pop(op);
+					final Object obj = pop(op);
 					Object builtObject = reducer.build(obj, args);
 					if (builtObject == null) {
-						throw new IllegalStateException(String.format("Can't built object %s at 0x%x: %s",
+						throw new IllegalStateException(String.format("Can't built object %s at 0x%x",
 								obj, Integer.valueOf(pos)));
 					}
-					stack.push(builtObject);
+					push(builtObject);
 					break;
 				}
 				default:
 					throw new IllegalStateException("Unsupported opcode " + op);
 				}
 			}
+			catch (BufferUnderflowException e) {
+				throw e;
+			}
 			catch (RuntimeException e) {
-				throw new IllegalStateException(String.format("An error occured while processing opcode %s at 0x%d with stack of size %d",
-						op, Integer.valueOf(pos), Integer.valueOf(stack.size())), e);
+				throw new IllegalStateException(String.format("An error occured while processing opcode %s at 0x%x with stack of size %d",
+						op, Integer.valueOf(pos), Integer.valueOf(stackSize)), e);
 			}
 		}
 		if (LOG.isLoggable(Level.FINE)) {
 			LOG.fine(String.format("End of pickle-stream at 0x%x, stack.size=%d",
-					Integer.valueOf(pos), Integer.valueOf(stack.size())));
+					Integer.valueOf(pos), Integer.valueOf(stackSize)));
 		}
-		if (stack.size() == 0) {
+		if (stackSize == 0) {
 			throw new IllegalStateException("Stack is empty after executiong pickle-opcodes.");
 		}
-		final Object objFinished = stack.peek();
-		result = objFinished;
+		return stack[stackSize - 1];
+	}
+
+	/**
+	 * Gets the version of the pickle-stream.
+	 * @return protocol-version
+	 */
+	public int getPickleVersion() {
+		return pickleVersion;
 	}
 
 	/**
@@ -288,116 +454,302 @@ public class PickleReader {
 	}
 
 	/**
-	 * Gets the index of the top-most mark-object on the stack.
-	 * @param stack stack
-	 * @param op current opcode
-	 * @return index of mark-object
+	 * Pushes an object onto the stack.
+	 * @param obj object, may be <code>null</code> (None)
 	 */
-	private int getMarkObjectIndex(Stack<Object> stack, final PickleOpcode op) {
-		int i = stack.size() - 1;
-		while (i >= 0 && PickleMark.OBJECT != stack.get(i)) {
-			i--;
+	private void push(final Object obj) {
+		if (stackSize == stack.length) {
+			stack = Arrays.copyOf(stack, 2 * stackSize);
 		}
-		if (i < 0) {
-			throw new IllegalStateException(String.format("no mark object on stack %s at 0x%x for %s",
-					stack, Integer.valueOf(pos), op));
+		stack[stackSize++] = obj;
+	}
+
+	/**
+	 * Removes the top-most object of the stack.
+	 * @param op current opcode
+	 * @return object
+	 */
+	private Object pop(final PickleOpcode op) {
+		final Object obj = peek(op);
+		stack[--stackSize] = null;
+		return obj;
+	}
+
+	/**
+	 * Checks that there are enough objects on the stack above the current mark.
+	 * @param size number of objects needed
+	 * @param op current opcode
+	 */
+	private void checkStackSize(final int size, final PickleOpcode op) {
+		final int minSize = (numMarks > 0) ? marks[numMarks - 1] : 0;
+		if (stackSize - size < minSize) {
+			throw new IllegalStateException(String.format("stack size %d (mark at %d) at 0x%x: %s needs %d objects",
+					Integer.valueOf(stackSize), Integer.valueOf(minSize), Integer.valueOf(pos), op, Integer.valueOf(size)));
 		}
-		return i;
 	}
 
-	private void checkStack(Stack<Object> stack, final PickleOpcode op) {
-		if (stack.isEmpty()) {
+	/**
+	 * Gets the top-most object of the stack.
+	 * @param op current opcode
+	 * @return object
+	 */
+	private Object peek(final PickleOpcode op) {
+		final int minSize = (numMarks > 0) ? marks[numMarks - 1] : 0;
+		if (stackSize <= minSize) {
 			throw new IllegalStateException(String.format("Empty stack at 0x%x: %s",
 					Integer.valueOf(pos), op));
 		}
+		return stack[stackSize - 1];
+	}
+
+	/**
+	 * Gets an object on the stack.
+	 * @param idx index in the stack
+	 * @param op current opcode
+	 * @return object
+	 */
+	private Object get(final int idx, final PickleOpcode op) {
+		if (idx < 0 || idx >= stackSize) {
+			throw new IllegalStateException(String.format("Invalid stack-index %d at 0x%x: %s",
+					Integer.valueOf(idx), Integer.valueOf(pos), op));
+		}
+		return stack[idx];
+	}
+
+	/**
+	 * Gets a list on the stack.
+	 * @param idx index in the stack
+	 * @param op current opcode
+	 * @return list
+	 */
+	private List<Object> getList(final int idx, final PickleOpcode op) {
+		final Object obj = get(idx, op);
+		if (!(obj instanceof List)) {
+			throw new IllegalStateException("Unexpected non-list " + obj);
+		}
+		@SuppressWarnings("unchecked")
+		final List<Object> list = (List<Object>) obj;
+		return list;
+	}
+
+	/**
+	 * Gets a dictionary on the stack.
+	 * @param idx index in the stack
+	 * @param op current opcode
+	 * @return map
+	 */
+	private Map<Object, Object> getDict(final int idx, final PickleOpcode op) {
+		final Object obj = get(idx, op);
+		if (!(obj instanceof Map)) {
+			throw new IllegalStateException("Unexpected non-dict " + obj);
+		}
+		@SuppressWarnings("unchecked")
+		final Map<Object, Object> map = (Map<Object, Object>) obj;
+		return map;
+	}
+
+	/**
+	 * Puts the key-value-pairs above a mark into a dictionary.
+	 * @param mapDict dictionary
+	 * @param idxMark stack-index of the first key
+	 * @param op current opcode
+	 * @return number of pairs
+	 */
+	private int putItems(final Map<Object, Object> mapDict, final int idxMark, final PickleOpcode op) {
+		if ((stackSize - idxMark) % 2 != 0) {
+			throw new IllegalStateException(String.format("Uneven number %d of elements after mark at %d for %s in stack of size %d at 0x%x",
+					Integer.valueOf(stackSize - idxMark), Integer.valueOf(idxMark), op,
+					Integer.valueOf(stackSize), Integer.valueOf(pos)));
+		}
+		for (int i = idxMark; i < stackSize; i += 2) {
+			mapDict.put(stack[i], stack[i + 1]);
+		}
+		return (stackSize - idxMark) / 2;
+	}
+
+	/**
+	 * Removes the top-most mark.
+	 * @param op current opcode
+	 * @return stack-size at the mark, i.e. the index of the first object after the mark
+	 */
+	private int popMark(final PickleOpcode op) {
+		if (numMarks == 0) {
+			throw new IllegalStateException(String.format("no mark object on stack at 0x%x for %s",
+					Integer.valueOf(pos), op));
+		}
+		return marks[--numMarks];
+	}
+
+	/**
+	 * Stores an object in the memo.
+	 * @param idx memo-index
+	 * @param obj object
+	 * @param op current opcode
+	 */
+	private void putMemo(final int idx, final Object obj, final PickleOpcode op) {
+		if (idx < 0) {
+			throw new IllegalStateException(String.format("Invalid memo-index %d", Integer.valueOf(idx)));
+		}
+		if (idx >= memo.length) {
+			memo = Arrays.copyOf(memo, Math.max(2 * memo.length, idx + 1));
+		}
+		memo[idx] = (obj != null) ? obj : MEMO_NONE;
+		memoSize = Math.max(memoSize, idx + 1);
+		if (LOG.isLoggable(Level.FINEST)) {
+			LOG.finest(String.format("%s: memo[%d] = %s", op, Integer.valueOf(idx), obj));
+		}
 	}
 
 	/**
 	 * Reads the next opcode.
-	 * @param is input-stream
 	 * @return opcode
-	 * @throws IOException in case of an IO-error
 	 * @throws IllegalStateException in case of an unknown opcode
 	 */
-	private PickleOpcode readOpcode(InputStream is) throws IOException {
-		final int b = is.read();
-		if (b == -1) {
-			throw new IOException("Unexpected end of stream at " + pos);
-		}
-		PickleOpcode op = PickleOpcode.lookup((byte) b);
+	private PickleOpcode readOpcode() {
+		pos = bb.position();
+		final byte b = bb.get();
+		final PickleOpcode op = PickleOpcode.lookup(b);
 		if (op == null) {
 			throw new IllegalStateException(String.format("Unknown opcode 0x%02x at 0x%x",
 					Integer.valueOf(b & 0xff), Integer.valueOf(pos)));
 		}
-		pos++;
 		return op;
 	}
 
-	private String readStringN(InputStream is) throws IOException {
-		try (ByteArrayOutputStream baos = new ByteArrayOutputStream(20)) {
-			while (true) {
-				final int b = is.read();
-				if (b == -1) {
-					throw new IOException("Unexpected end of stream at " + pos);
-				}
-				pos++;
-				if (b == '\n') {
-					break;
-				}
-				baos.write(b);
-			}
-			return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+	/**
+	 * Reads a string terminated by a new-line.
+	 * @return string
+	 * @throws IOException in case of a missing new-line
+	 */
+	private String readLine() throws IOException {
+		final int start = bb.position();
+		final int limit = bb.limit();
+		int i = start;
+		while (i < limit && bb.get(i) != '\n') {
+			i++;
 		}
+		if (i == limit) {
+			throw new IOException("Unexpected end of stream at " + limit);
+		}
+		final String s = readString(i - start, StandardCharsets.UTF_8);
+		bb.get();
+		return s;
+	}
+
+	/**
+	 * Reads a string of given length.
+	 * @param len number of bytes
+	 * @param charset encoding
+	 * @return string
+	 */
+	private String readString(final int len, final Charset charset) {
+		checkLength(len);
+		final String s;
+		if (bb.hasArray()) {
+			s = new String(bb.array(), bb.arrayOffset() + bb.position(), len, charset);
+			bb.position(bb.position() + len);
+		}
+		else {
+			s = new String(readBytes(len), charset);
+		}
+		return s;
 	}
 
-	private String readString(InputStream is, final int len) throws IOException {
+	/**
+	 * Reads an array of bytes.
+	 * @param len number of bytes
+	 * @return bytes
+	 */
+	private byte[] readBytes(final int len) {
+		checkLength(len);
 		final byte[] buf = new byte[len];
-		for (int i = 0; i < len; i++) {
-			final int b = is.read();
-			if (b == -1) {
-				throw new IOException("Unexpected end of stream at " + pos);
+		bb.get(buf);
+		return buf;
+	}
+
+	/**
+	 * Reads an integer in two's complement (LONG1, LONG4).
+	 * @param len number of bytes (little-endian)
+	 * @return Integer, Long or BigInteger
+	 */
+	private Number readLong(final int len) {
+		checkLength(len);
+		if (len == 0) {
+			return Integer.valueOf(0);
+		}
+		if (len <= 8) {
+			long val = 0;
+			for (int i = 0; i < len; i++) {
+				val |= (bb.get() & 0xffL) << (8 * i);
+			}
+			// sign-extension
+			final int shift = 64 - 8 * len;
+			val = (val << shift) >> shift;
+			if (val == (int) val) {
+				return Integer.valueOf((int) val);
 			}
-			pos++;
-			buf[i] = (byte) b;
+			return Long.valueOf(val);
 		}
-		return new String(buf, StandardCharsets.UTF_8);
+		final byte[] buf = readBytes(len);
+		for (int i = 0; i < len / 2; i++) {
+			final byte b = buf[i];
+			buf[i] = buf[len - 1 - i];
+			buf[len - 1 - i] = b;
+		}
+		return new BigInteger(buf);
 	}
 
 	/**
-	 * Reads an integer (8 bit).
-	 * @param is input-stream
-	 * @return integer
-	 * @throws IOException in case of an IO-error
+	 * Reads a 64-bit-length.
+	 * @return length
 	 */
-	private int readUInt8(InputStream is) throws IOException {
-		final int b = is.read();
-		if (b == -1) {
-			throw new IOException("Unexpected end of stream at " + pos);
+	private int readLength64() {
+		final long len = bb.getLong();
+		if (len < 0 || len > Integer.MAX_VALUE) {
+			throw new IllegalStateException(String.format("Unsupported length %d at 0x%x",
+					Long.valueOf(len), Integer.valueOf(pos)));
 		}
-		pos++;
-		return b;
+		return (int) len;
 	}
 
-	private int readUInt16LE(InputStream is) throws IOException {
-		int i = readUInt8(is);
-		i += (readUInt8(is) << 8);
-		return i;
+	/**
+	 * Checks a length against the remaining bytes.
+	 * @param len length
+	 */
+	private void checkLength(final int len) {
+		if (len < 0 || len > bb.remaining()) {
+			throw new BufferUnderflowException();
+		}
 	}
 
-	protected int readInt32BE(InputStream is) throws IOException {
-		int i = (readUInt8(is) << 24);
-		i += (readUInt8(is) << 16);
-		i += (readUInt8(is) << 8);
-		i += readUInt8(is);
-		return i;
+	/**
+	 * Reads an integer (8 bit).
+	 * @return integer
+	 */
+	private int readUInt8() {
+		return bb.get() & 0xff;
 	}
 
-	private int readInt32LE(InputStream is) throws IOException {
-		int i = readUInt8(is);
-		i += (readUInt8(is) << 8);
-		i += (readUInt8(is) << 16);
-		i += (readUInt8(is) << 24);
-		return i;
+	/**
+	 * Reads an input-stream completely.
+	 * @param is input-stream
+	 * @return bytes
+	 * @throws IOException in case of an IO-error
+	 */
+	private static byte[] readFully(final InputStream is) throws IOException {
+		byte[] buf = new byte[65536];
+		int len = 0;
+		while (true) {
+			if (len == buf.length) {
+				buf = Arrays.copyOf(buf, 2 * len);
+			}
+			final int n = is.read(buf, len, buf.length - len);
+			if (n < 0) {
+				break;
+			}
+			len += n;
+		}
+		return Arrays.copyOf(buf, len);
 	}
 
 }
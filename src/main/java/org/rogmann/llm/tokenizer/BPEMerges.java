@@ -0,0 +1,218 @@
+package org.rogmann.llm.tokenizer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Rank-ordered merges of a byte-level BPE.
+ *
+ * <p>The rank of a pair of token-ids is stored in a {@link LongIntMap} with key (left &lt;&lt; 32) | right.
+ * A word is merged by a min-heap of candidate pairs ordered by rank and position,
+ * the symbols of the word are a linked list. This gives the same result as the reference
+ * implementation (the pair of lowest rank is merged first, leftmost on ties).</p>
+ */
+public class BPEMerges {
+
+	/** rank of a pair of token-ids */
+	private final LongIntMap pairRanks;
+
+	/** token-id of the merged pair of each rank */
+	private int[] mergedIds;
+
+	/** number of merges */
+	private int numMerges;
+
+	/**
+	 * Constructor
+	 * @param expectedMerges expected number of merges
+	 */
+	public BPEMerges(final int expectedMerges) {
+		pairRanks = new LongIntMap(expectedMerges);
+		mergedIds = new int[Math.max(16, expectedMerges)];
+	}
+
+	/**
+	 * Constructor of merges read from a compiled tokenizer-file.
+	 * @param pairRanks rank of a pair of token-ids
+	 * @param mergedIds token-id of the merged pair of each rank
+	 */
+	private BPEMerges(final LongIntMap pairRanks, final int[] mergedIds) {
+		this.pairRanks = pairRanks;
+		this.mergedIds = mergedIds;
+		this.numMerges = mergedIds.length;
+	}
+
+	/**
+	 * Adds a merge. The rank is the number of previous merges.
+	 * A pair which is known already keeps its rank.
+	 * @param left token-id of the left part
+	 * @param right token-id of the right part
+	 * @param merged token-id of the merged pair
+	 */
+	public void add(final int left, final int right, final int merged) {
+		final long key = pairKey(left, right);
+		if (pairRanks.get(key, -1) >= 0) {
+			return;
+		}
+		if (numMerges == mergedIds.length) {
+			mergedIds = Arrays.copyOf(mergedIds, Math.max(16, 2 * numMerges));
+		}
+		mergedIds[numMerges] = merged;
+		pairRanks.put(key, numMerges);
+		numMerges++;
+	}
+
+	/**
+	 * Gets the number of merges.
+	 * @return number of merges
+	 */
+	public int size() {
+		return numMerges;
+	}
+
+	/**
+	 * Writes the merges.
+	 * @param dos output-stream
+	 * @throws IOException in case of an IO-error
+	 */
+	void write(final DataOutputStream dos) throws IOException {
+		TokenizerFileFormat.writeInts(dos, mergedIds, numMerges);
+		pairRanks.write(dos);
+	}
+
+	/**
+	 * Reads merges written by {@link #write(DataOutputStream)}.
+	 * @param bb buffer
+	 * @return merges
+	 * @throws IOException in case of an invalid length
+	 */
+	static BPEMerges read(final ByteBuffer bb) throws IOException {
+		final int[] mergedIds = TokenizerFileFormat.readInts(bb);
+		return new BPEMerges(LongIntMap.read(bb), mergedIds);
+	}
+
+	/**
+	 * Computes the key of a pair.
+	 * @param left left token-id
+	 * @param right right token-id
+	 * @return key
+	 */
+	private static long pairKey(final int left, final int right) {
+		return ((long) left << 32) | (right & 0xffffffffL);
+	}
+
+	/**
+	 * Merges the symbols of a word in place.
+	 * @param ids token-ids of the symbols (e.g. bytes), contains the merged tokens afterwards
+	 * @param n number of symbols
+	 * @return number of tokens
+	 */
+	public int merge(final int[] ids, final int n) {
+		if (n < 2) {
+			return n;
+		}
+		final int[] prev = new int[n];
+		final int[] next = new int[n];
+		// Each merge adds at most two candidates.
+		final long[] heap = new long[3 * n];
+		int heapSize = 0;
+		for (int i = 0; i < n; i++) {
+			prev[i] = i - 1;
+			next[i] = i + 1;
+			if (i + 1 < n) {
+				final int rank = pairRanks.get(pairKey(ids[i], ids[i + 1]), -1);
+				if (rank >= 0) {
+					heapSize = push(heap, heapSize, ((long) rank << 32) | i);
+				}
+			}
+		}
+		while (heapSize > 0) {
+			final long top = heap[0];
+			heapSize = pop(heap, heapSize);
+			final int rank = (int) (top >>> 32);
+			final int pos = (int) top;
+			final int posNext = next[pos];
+			// A candidate is outdated if one of its symbols has been merged meanwhile.
+			if (ids[pos] < 0 || posNext >= n || pairRanks.get(pairKey(ids[pos], ids[posNext]), -1) != rank) {
+				continue;
+			}
+			ids[pos] = mergedIds[rank];
+			ids[posNext] = -1;
+			next[pos] = next[posNext];
+			if (next[pos] < n) {
+				prev[next[pos]] = pos;
+			}
+			if (prev[pos] >= 0) {
+				final int rankPrev = pairRanks.get(pairKey(ids[prev[pos]], ids[pos]), -1);
+				if (rankPrev >= 0) {
+					heapSize = push(heap, heapSize, ((long) rankPrev << 32) | prev[pos]);
+				}
+			}
+			if (next[pos] < n) {
+				final int rankNext = pairRanks.get(pairKey(ids[pos], ids[next[pos]]), -1);
+				if (rankNext >= 0) {
+					heapSize = push(heap, heapSize, ((long) rankNext << 32) | pos);
+				}
+			}
+		}
+		// The first symbol is never removed.
+		int numTokens = 0;
+		for (int i = 0; i < n; i = next[i]) {
+			ids[numTokens++] = ids[i];
+		}
+		return numTokens;
+	}
+
+	/**
+	 * Adds an entry to a min-heap.
+	 * @param heap heap
+	 * @param heapSize size of the heap
+	 * @param entry entry (rank &lt;&lt; 32 | position)
+	 * @return new size of the heap
+	 */
+	private static int push(final long[] heap, final int heapSize, final long entry) {
+		int pos = heapSize;
+		while (pos > 0) {
+			final int parent = (pos - 1) >> 1;
+			if (heap[parent] <= entry) {
+				break;
+			}
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = entry;
+		return heapSize + 1;
+	}
+
+	/**
+	 * Removes the smallest entry of a min-heap.
+	 * @param heap heap
+	 * @param heapSize size of the heap
+	 * @return new size of the heap
+	 */
+	private static int pop(final long[] heap, final int heapSize) {
+		final int size = heapSize - 1;
+		final long entry = heap[size];
+		int pos = 0;
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (entry <= heap[child]) {
+				break;
+			}
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		if (size > 0) {
+			heap[pos] = entry;
+		}
+		return size;
+	}
+}
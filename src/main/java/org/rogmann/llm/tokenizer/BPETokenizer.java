@@ -1,51 +1,162 @@
 package org.rogmann.llm.tokenizer;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
 
+import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.json.JSONArray;
 import org.rogmann.llm.json.JSONObject;
+import org.rogmann.llm.json.JSONStreamReader;
 
 /**
  * Class to convert a text into tokens (Byte-Pair-Encoding).
  *  
  * <p>This class implements a byte-level BPE (Byte-Pair Encoding).</p>
+ *
+ * <p>The added tokens (e.g. "&lt;s&gt;") are matched first. The remaining text is split into
+ * words by the pre-tokenizer, the bytes of a word are merged in the order of the merges
+ * of tokenizer.json. The tokens of recent words are kept in a LRU-cache.
+ * A tokenizer.json without merges is encoded by the longest matching tokens.</p>
+ *
+ * <p>Parsing a large tokenizer.json is slow. The tables of the tokenizer can be written
+ * into a compiled tokenizer-file once ({@link #writeCompiled(File)}), {@link #load(File)}
+ * maps this file and reads the tables by bulk-reads.</p>
+ *
+ * <p>The tables are read-only after construction, so one instance can encode in several threads
+ * ({@link #encodeBatch(List, LlmExecutor)}).</p>
  */
 public class BPETokenizer implements Tokenizer {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(BPETokenizer.class.getName());
+
 	/** name of the tokenizer JSON-file */
 	private static final String TOKENIZER_JSON = "tokenizer.json";
 
+	/** maximum number of words in the cache */
+	private static final int CACHE_SIZE = 10000;
+
+	/** number of characters read from a reader before encoding a chunk */
+	private static final int READER_CHUNK_SIZE = 65536;
+
 	/** byte level mapping from byte to char */
 	private static final char[] BYTE_TO_CHAR;
 	/** byte level mapping from char to byte */
 	private static final byte[] CHAR_TO_BYTE;
 
-	/** JSON-tokenizer */
-	private final JSONObject fJson;
+	/** name of the compiled tokenizer-file */
+	public static final String TOKENIZER_COMPILED = "tokenizer.jbtk";
 
 	/** version of the tokenizer */
 	private final String fVersion;
 
-	/** model */
-	private final JSONObject fJsonModel;
+	/** number of tokens of the vocabulary */
+	private final int fVocabSize;
+
+	/** UTF-8 bytes of the tokens by id (the added tokens included) */
+	private byte[][] fTokenBytes;
+
+	/** prefix-trie of the byte-sequences of the tokens, used if there are no merges only */
+	private final TokenTrie fTrie;
+
+	/** merges of the BPE-model or <code>null</code> if there are no merges */
+	private final BPEMerges fMerges;
+
+	/** pre-tokenizer */
+	private final PreTokenizer fPreTokenizer;
+
+	/** token-id of each byte, -1 if the vocabulary doesn't contain the byte */
+	private final int[] fByteIds = new int[256];
+
+	/** id of the unknown token or -1 */
+	private final int fUnkId;
+
+	/** prefix-trie of the added tokens or <code>null</code> */
+	private final TokenTrie fAddedTrie;
+
+	/** <code>true</code> if a byte is the first byte of an added token */
+	private final boolean[] fAddedFirstByte = new boolean[256];
+
+	/** ids of the special tokens */
+	private final Set<Integer> setSpecialIds = new HashSet<>();
+
+	/** LRU-cache of the tokens of a word */
+	private final Map<String, int[]> fCache = Collections.synchronizedMap(new LruCache(CACHE_SIZE));
+
+	/** LRU-map */
+	private static class LruCache extends LinkedHashMap<String, int[]> {
+		/** serialization-id */
+		private static final long serialVersionUID = 20240101L;
+
+		/** maximum number of entries */
+		private final int maxEntries;
+
+		/**
+		 * Constructor
+		 * @param maxEntries maximum number of entries
+		 */
+		LruCache(final int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, int[]> eldest) {
+			return size() > maxEntries;
+		}
+	}
 
-	/** map from token to index */
-	private final Map<String, Integer> mapTokenIdx = new HashMap<>();
+	/** growing list of token-ids */
+	private static class IdList {
+		/** ids */
+		int[] ids = new int[64];
+		/** number of ids */
+		int size;
 
-	/** map from index to token */
-	private final Map<Integer, String> mapIdxToken = new HashMap<>();
+		/**
+		 * Appends ids.
+		 * @param a array of ids
+		 * @param len number of ids to be appended
+		 */
+		void add(final int[] a, final int len) {
+			if (size + len > ids.length) {
+				ids = Arrays.copyOf(ids, Math.max(2 * ids.length, size + len));
+			}
+			System.arraycopy(a, 0, ids, size, len);
+			size += len;
+		}
 
-	/** List of tokens */
-	private final String[] fToken;
+		/**
+		 * Appends an id.
+		 * @param id id
+		 */
+		void add(final int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+			}
+			ids[size++] = id;
+		}
+	}
 
 	/**
 	 * Static initializer of byte-level mapping:
@@ -104,81 +215,433 @@ public class BPETokenizer implements Tokenizer {
 	 * @throws IOException in case of an IO-error
 	 */
 	public BPETokenizer(final InputStream is, final String name) throws IOException {
-		final StringBuilder sb = new StringBuilder(500);
-		final char[] cBuf = new char[1024];
-		try (InputStreamReader isr = new InputStreamReader(is, StandardCharsets.UTF_8)) {
-			while (true) {
-				final int len = isr.read(cBuf);
-				if (len == -1) {
-					break;
-				}
-				sb.append(cBuf, 0, len);
-			}
+		final TokenizerJsonReader jsonReader;
+		try (JSONStreamReader reader = new JSONStreamReader(is)) {
+			jsonReader = new TokenizerJsonReader(reader);
 		}
 		catch (IOException e) {
 			throw new IOException("IO-error while reading " + name, e);
 		}
-		fJson = new JSONObject(sb.toString());
-		fVersion = fJson.getString("version");
-		fJsonModel = fJson.getJSONObject("model");
-		final JSONObject jsonVocab = fJsonModel.getJSONObject("vocab");
-		fToken = new String[jsonVocab.length()];
-		for (String token : jsonVocab.keySet()) {
-			final int idx = jsonVocab.getInt(token);
-			fToken[idx] = token;
-			mapTokenIdx.put(token, Integer.valueOf(idx));
-			mapIdxToken.put(Integer.valueOf(idx), token);
+		fVersion = jsonReader.getVersion();
+		fVocabSize = jsonReader.getVocabSize();
+		fTokenBytes = jsonReader.getTokenBytes();
+		fMerges = jsonReader.getMerges();
+		fTrie = (fMerges == null) ? jsonReader.getVocabTrie() : null;
+		for (int b = 0; b < 256; b++) {
+			fByteIds[b] = jsonReader.getTokenId(String.valueOf(BYTE_TO_CHAR[b]));
+		}
+		final String unkToken = jsonReader.getUnkToken();
+		fUnkId = (unkToken != null) ? jsonReader.getTokenId(unkToken) : -1;
+
+		fPreTokenizer = new PreTokenizer(jsonReader.getPreTokenizer());
+		if (jsonReader.getNormalizer() != null) {
+			LOG.warning("The normalizer of the tokenizer is ignored: " + jsonReader.getNormalizer().getString("type"));
+		}
+		fAddedTrie = readAddedTokens(jsonReader.getAddedTokens());
+	}
+
+	/**
+	 * Constructor of a tokenizer read from a compiled tokenizer-file.
+	 * @param bb buffer containing the compiled tokenizer
+	 * @param name name of the file
+	 * @throws IOException in case of an invalid file
+	 */
+	private BPETokenizer(final ByteBuffer bb, final String name) throws IOException {
+		try {
+			if (bb.getInt() != TokenizerFileFormat.MAGIC) {
+				throw new IOException("Not a compiled tokenizer: " + name);
+			}
+			final int formatVersion = bb.getInt();
+			if (formatVersion != TokenizerFileFormat.FORMAT_VERSION) {
+				throw new IOException(String.format("Unsupported format-version %d of compiled tokenizer %s",
+						Integer.valueOf(formatVersion), name));
+			}
+			fVersion = TokenizerFileFormat.readString(bb);
+			fVocabSize = bb.getInt();
+			// The bytes of the tokens are stored as lengths (-1 if there is no token) and one block.
+			final int[] tokenLengths = TokenizerFileFormat.readInts(bb);
+			final byte[] tokenBlock = TokenizerFileFormat.readBytes(bb);
+			if (tokenBlock == null) {
+				throw new IOException("Missing token-block in compiled tokenizer " + name);
+			}
+			fTokenBytes = new byte[tokenLengths.length][];
+			int offset = 0;
+			for (int idx = 0; idx < tokenLengths.length; idx++) {
+				final int len = tokenLengths[idx];
+				if (len >= 0) {
+					fTokenBytes[idx] = Arrays.copyOfRange(tokenBlock, offset, offset + len);
+					offset += len;
+				}
+			}
+			System.arraycopy(TokenizerFileFormat.readInts(bb), 0, fByteIds, 0, fByteIds.length);
+			fUnkId = bb.getInt();
+			fMerges = (bb.get() != 0) ? BPEMerges.read(bb) : null;
+			fTrie = (bb.get() != 0) ? TokenTrie.read(bb) : null;
+			fAddedTrie = (bb.get() != 0) ? TokenTrie.read(bb) : null;
+			for (int b = 0; b < fAddedFirstByte.length; b++) {
+				fAddedFirstByte[b] = (bb.get() != 0);
+			}
+			for (int id : TokenizerFileFormat.readInts(bb)) {
+				setSpecialIds.add(Integer.valueOf(id));
+			}
+			fPreTokenizer = PreTokenizer.read(bb);
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException("Invalid compiled tokenizer " + name, e);
+		}
+	}
+
+	/**
+	 * Loads the tokenizer of a model-folder. The compiled tokenizer-file is used
+	 * if it exists and isn't older than tokenizer.json.
+	 * @param folder model-folder
+	 * @return tokenizer
+	 * @throws IOException in case of an IO-error
+	 */
+	public static BPETokenizer load(final File folder) throws IOException {
+		final File fileCompiled = new File(folder, TOKENIZER_COMPILED);
+		final File fileJson = new File(folder, TOKENIZER_JSON);
+		if (fileCompiled.isFile() && (!fileJson.isFile() || fileCompiled.lastModified() >= fileJson.lastModified())) {
+			return readCompiled(fileCompiled);
+		}
+		return new BPETokenizer(folder);
+	}
+
+	/**
+	 * Reads a compiled tokenizer-file. The file is mapped into memory.
+	 * @param file compiled tokenizer-file
+	 * @return tokenizer
+	 * @throws IOException in case of an IO-error
+	 */
+	public static BPETokenizer readCompiled(final File file) throws IOException {
+		final ByteBuffer bb;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			bb = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+		}
+		return new BPETokenizer(bb, file.toString());
+	}
+
+	/**
+	 * Writes the tables of the tokenizer into a compiled tokenizer-file.
+	 * @param file compiled tokenizer-file, e.g. tokenizer.jbtk in the model-folder
+	 * @throws IOException in case of an IO-error
+	 */
+	public void writeCompiled(final File file) throws IOException {
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+			dos.writeInt(TokenizerFileFormat.MAGIC);
+			dos.writeInt(TokenizerFileFormat.FORMAT_VERSION);
+			TokenizerFileFormat.writeString(dos, fVersion);
+			dos.writeInt(fVocabSize);
+			final int[] tokenLengths = new int[fTokenBytes.length];
+			int blockSize = 0;
+			for (int idx = 0; idx < fTokenBytes.length; idx++) {
+				tokenLengths[idx] = (fTokenBytes[idx] != null) ? fTokenBytes[idx].length : -1;
+				blockSize += Math.max(0, tokenLengths[idx]);
+			}
+			TokenizerFileFormat.writeInts(dos, tokenLengths, tokenLengths.length);
+			dos.writeInt(blockSize);
+			for (byte[] tokenBytes : fTokenBytes) {
+				if (tokenBytes != null) {
+					dos.write(tokenBytes);
+				}
+			}
+			TokenizerFileFormat.writeInts(dos, fByteIds, fByteIds.length);
+			dos.writeInt(fUnkId);
+			dos.writeBoolean(fMerges != null);
+			if (fMerges != null) {
+				fMerges.write(dos);
+			}
+			dos.writeBoolean(fTrie != null);
+			if (fTrie != null) {
+				fTrie.write(dos);
+			}
+			dos.writeBoolean(fAddedTrie != null);
+			if (fAddedTrie != null) {
+				fAddedTrie.write(dos);
+			}
+			for (boolean isFirstByte : fAddedFirstByte) {
+				dos.writeBoolean(isFirstByte);
+			}
+			final int[] specialIds = setSpecialIds.stream().mapToInt(Integer::intValue).sorted().toArray();
+			TokenizerFileFormat.writeInts(dos, specialIds, specialIds.length);
+			fPreTokenizer.write(dos);
+		}
+	}
+
+	/**
+	 * Reads the added tokens, they are matched before the pre-tokenizer.
+	 * @param aAdded added tokens or <code>null</code>
+	 * @return trie of the added tokens or <code>null</code>
+	 */
+	private TokenTrie readAddedTokens(final JSONArray aAdded) {
+		if (aAdded == null || aAdded.length() == 0) {
+			return null;
+		}
+		final TokenTrie trie = new TokenTrie(16 * aAdded.length());
+		for (int i = 0; i < aAdded.length(); i++) {
+			final JSONObject jsonAdded = aAdded.getJSONObject(i);
+			final int id = jsonAdded.getInt("id");
+			final String content = jsonAdded.getString("content");
+			if (content.isEmpty()) {
+				continue;
+			}
+			if ((jsonAdded.hasKey("single_word") && jsonAdded.getBoolean("single_word"))
+					|| (jsonAdded.hasKey("lstrip") && jsonAdded.getBoolean("lstrip"))
+					|| (jsonAdded.hasKey("rstrip") && jsonAdded.getBoolean("rstrip"))) {
+				LOG.warning(String.format("single_word, lstrip and rstrip of added token \"%s\" are ignored", content));
+			}
+			final byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+			trie.add(contentBytes, id);
+			fAddedFirstByte[contentBytes[0] & 0xff] = true;
+			if (id >= fTokenBytes.length) {
+				fTokenBytes = Arrays.copyOf(fTokenBytes, id + 1);
+			}
+			fTokenBytes[id] = contentBytes;
+			if (jsonAdded.hasKey("special") && jsonAdded.getBoolean("special")) {
+				setSpecialIds.add(Integer.valueOf(id));
+			}
 		}
+		return trie;
+	}
+
+	/**
+	 * Checks if a token is a special token (e.g. "&lt;/s&gt;").
+	 * @param tokenId id of the token
+	 * @return <code>true</code> if the token is an added special token
+	 */
+	public boolean isSpecialToken(final int tokenId) {
+		return setSpecialIds.contains(Integer.valueOf(tokenId));
+	}
+
+	/**
+	 * Converts a token in byte-level representation into its bytes.
+	 * @param token token, e.g. "Ġcat"
+	 * @return bytes or <code>null</code> if the token contains a character outside the byte-level alphabet
+	 */
+	static byte[] toBytes(final String token) {
+		final byte[] buf = new byte[token.length()];
+		for (int i = 0; i < buf.length; i++) {
+			final char c = token.charAt(i);
+			if (c >= CHAR_TO_BYTE.length || (CHAR_TO_BYTE[c] == 0 && c != BYTE_TO_CHAR[0])) {
+				return null;
+			}
+			buf[i] = CHAR_TO_BYTE[c];
+		}
+		return buf;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public int size() {
-		return mapTokenIdx.size();
+		return fVocabSize;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public int[][] encode(String s) {
-		final List<Integer> list = new ArrayList<>();
-		final int len = s.length();
-		int i = 0;
-		while (i < len) {
-			final String sPart = convertToInternal(s.substring(i)); // ' ' is mapped to 'Ġ'.
-			String tmpToken = null;
-			for (int idx = 0; idx < fToken.length; idx++) {
-				final String t = fToken[idx];
-				if (sPart.startsWith(t) && (tmpToken == null || t.length() > tmpToken.length())) {
-					tmpToken = t;
-				}
+		final IdList ids = new IdList();
+		encode(s, fCache, ids);
+		return new int[][] { Arrays.copyOf(ids.ids, ids.size) };
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public EncodedBatch encodeBatch(final List<String> texts, final LlmExecutor executor) {
+		final int numTexts = texts.size();
+		if (numTexts == 0) {
+			return new EncodedBatch(new int[0], new int[1]);
+		}
+		// Each part collects the ids of its texts in one list (at the index of its first text)
+		// and stores the number of ids of each text, the prefix-sum gives the offsets.
+		final IdList[] partIds = new IdList[numTexts];
+		final int[] offsets = new int[numTexts + 1];
+		executor.startLoopTasks(numTexts, (iStart, iEnd) -> () -> {
+			// The tables are read-only. Each part has its own cache, the shared cache would be a point of contention.
+			final Map<String, int[]> cache = new LruCache(CACHE_SIZE);
+			final IdList ids = new IdList();
+			for (int i = iStart; i < iEnd; i++) {
+				final int sizeBefore = ids.size;
+				encode(texts.get(i), cache, ids);
+				offsets[i + 1] = ids.size - sizeBefore;
 			}
-			for (int idx = 0; idx < fToken.length; idx++) {
-				final String t = fToken[idx];
-				if (sPart.startsWith(t) && (tmpToken == null || t.length() > tmpToken.length())) {
-					tmpToken = t;
+			partIds[iStart] = ids;
+		});
+		for (int i = 0; i < numTexts; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		final int[] packedIds = new int[offsets[numTexts]];
+		// The ids of a part are contiguous, each part is copied into its offset in one block.
+		executor.startLoopTasks(numTexts, (iStart, iEnd) -> () -> {
+			for (int i = iStart; i < iEnd; i++) {
+				final IdList ids = partIds[i];
+				if (ids != null) {
+					System.arraycopy(ids.ids, 0, packedIds, offsets[i], ids.size);
 				}
 			}
-			if (tmpToken == null) {
-				throw new RuntimeException(String.format("Can't tokenize: \"%s\"", sPart));
+		});
+		return new EncodedBatch(packedIds, offsets);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int[] encode(final Reader reader) throws IOException {
+		final IdList ids = new IdList();
+		char[] buf = new char[READER_CHUNK_SIZE];
+		int len = 0;
+		while (true) {
+			final int n = reader.read(buf, len, buf.length - len);
+			if (n < 0) {
+				break;
+			}
+			len += n;
+			if (len < buf.length) {
+				continue;
 			}
-			final Integer iIdx = mapTokenIdx.get(tmpToken);
-			list.add(iIdx);
-			i += convertFromInternal(tmpToken).length();
+			final int chunkEnd = findChunkEnd(buf, len);
+			if (chunkEnd <= 0) {
+				// There is no word-boundary in the buffer.
+				buf = Arrays.copyOf(buf, 2 * buf.length);
+				continue;
+			}
+			encode(new String(buf, 0, chunkEnd), fCache, ids);
+			System.arraycopy(buf, chunkEnd, buf, 0, len - chunkEnd);
+			len -= chunkEnd;
 		}
-		final int[] aIds = new int[list.size()];
-		for (int j = 0; j < aIds.length; j++) {
-			aIds[j] = list.get(j);
+		encode(new String(buf, 0, len), fCache, ids);
+		return Arrays.copyOf(ids.ids, ids.size);
+	}
+
+	/**
+	 * Searches the last position in a buffer where a text can be cut without changing the words
+	 * of the pre-tokenizer: after a line-break or before a single space, followed by a non-whitespace.
+	 * Line-breaks are preferred.
+	 * @param buf buffer
+	 * @param len number of characters in the buffer
+	 * @return end of the chunk to be encoded or 0 if there is no such position
+	 */
+	static int findChunkEnd(final char[] buf, final int len) {
+		int posSpace = 0;
+		for (int i = len - 2; i > 0; i--) {
+			if (buf[i - 1] == '\n' && !Character.isWhitespace(buf[i])) {
+				return i;
+			}
+			if (posSpace == 0 && buf[i] == ' ' && !Character.isWhitespace(buf[i - 1]) && !Character.isWhitespace(buf[i + 1])) {
+				posSpace = i;
+			}
+		}
+		return posSpace;
+	}
+
+	/**
+	 * Encodes a string.
+	 * @param s string
+	 * @param cache cache of the tokens of a word
+	 * @param ids list of the resulting token-ids
+	 */
+	private void encode(final String s, final Map<String, int[]> cache, final IdList ids) {
+		if (fMerges == null) {
+			encodeLongestMatch(s, ids);
+			return;
+		}
+		final byte[] buf = s.getBytes(StandardCharsets.UTF_8);
+		// The text between two added tokens is encoded by the BPE-model.
+		int textStart = 0;
+		int i = 0;
+		while (i < buf.length) {
+			final long match = (fAddedTrie != null && fAddedFirstByte[buf[i] & 0xff])
+					? fAddedTrie.matchLongest(buf, i, buf.length) : -1;
+			if (match < 0) {
+				i++;
+				continue;
+			}
+			encodeText(new String(buf, textStart, i - textStart, StandardCharsets.UTF_8), cache, ids);
+			ids.add((int) match);
+			i += (int) (match >>> 32);
+			textStart = i;
+		}
+		encodeText(new String(buf, textStart, buf.length - textStart, StandardCharsets.UTF_8), cache, ids);
+	}
+
+	/**
+	 * Encodes a text without added tokens: pre-tokenization and merges of each word.
+	 * @param text text
+	 * @param cache cache of the tokens of a word
+	 * @param ids list of the resulting token-ids
+	 */
+	private void encodeText(final String text, final Map<String, int[]> cache, final IdList ids) {
+		if (text.isEmpty()) {
+			return;
+		}
+		for (String word : fPreTokenizer.split(text)) {
+			int[] wordIds = cache.get(word);
+			if (wordIds == null) {
+				wordIds = encodeWord(word);
+				cache.put(word, wordIds);
+			}
+			ids.add(wordIds, wordIds.length);
+		}
+	}
+
+	/**
+	 * Encodes a word by merging its bytes.
+	 * @param word word
+	 * @return token-ids
+	 */
+	private int[] encodeWord(final String word) {
+		final byte[] buf = word.getBytes(StandardCharsets.UTF_8);
+		final int[] ids = new int[buf.length];
+		int n = 0;
+		for (byte b : buf) {
+			final int id = fByteIds[b & 0xff];
+			if (id >= 0) {
+				ids[n++] = id;
+			}
+			else if (fUnkId >= 0) {
+				ids[n++] = fUnkId;
+			}
+			else {
+				throw new RuntimeException(String.format("Can't tokenize byte 0x%02x in \"%s\"",
+						Integer.valueOf(b & 0xff), word));
+			}
+		}
+		final int numTokens = fMerges.merge(ids, n);
+		return Arrays.copyOf(ids, numTokens);
+	}
+
+	/**
+	 * Encodes a string by the longest matching tokens (tokenizer without merges).
+	 * The longest token at each position is searched in a trie of the bytes of the tokens.
+	 * @param s string
+	 * @param ids list of the resulting token-ids
+	 */
+	private void encodeLongestMatch(final String s, final IdList ids) {
+		final byte[] buf = s.getBytes(StandardCharsets.UTF_8);
+		int i = 0;
+		while (i < buf.length) {
+			final long match = fTrie.matchLongest(buf, i, buf.length);
+			if (match < 0) {
+				throw new RuntimeException(String.format("Can't tokenize: \"%s\"",
+						convertToInternal(new String(buf, i, buf.length - i, StandardCharsets.UTF_8))));
+			}
+			ids.add((int) match);
+			i += (int) (match >>> 32);
 		}
-		final int[][] output = new int[1][aIds.length];
-		output[0] = aIds;
-		return output;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public String decode(int idx) {
-		String blToken = mapIdxToken.get(Integer.valueOf(idx));
-		return convertFromInternal(blToken); // 'Ġ' maps to ' '.
+		return new String(decodeBytes(idx), StandardCharsets.UTF_8);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte[] decodeBytes(int idx) {
+		final byte[] tokenBytes = (idx >= 0 && idx < fTokenBytes.length) ? fTokenBytes[idx] : null;
+		if (tokenBytes == null) {
+			throw new IllegalArgumentException("Unknown token-id " + idx);
+		}
+		return tokenBytes;
 	}
 
 	/** {@inheritDoc} */
@@ -0,0 +1,82 @@
+package org.rogmann.llm.tokenizer;
+
+import java.util.Arrays;
+
+/**
+ * Token-ids of several texts packed into one array.
+ *
+ * <p>The tokens of text i are ids[offsets[i]] to ids[offsets[i + 1] - 1].
+ * There is no array per text, so a batch of millions of documents doesn't create millions of arrays.</p>
+ */
+public class EncodedBatch {
+
+	/** token-ids of all texts */
+	private final int[] ids;
+
+	/** start of the tokens of each text, the last entry is the total number of tokens */
+	private final int[] offsets;
+
+	/**
+	 * Constructor
+	 * @param ids token-ids of all texts
+	 * @param offsets start of the tokens of each text followed by the total number of tokens
+	 */
+	public EncodedBatch(final int[] ids, final int[] offsets) {
+		if (offsets.length == 0 || offsets[offsets.length - 1] != ids.length) {
+			throw new IllegalArgumentException(String.format("Offsets don't match %d ids", Integer.valueOf(ids.length)));
+		}
+		this.ids = ids;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Gets the number of texts.
+	 * @return number of texts
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Gets the token-ids of all texts.
+	 * @return packed token-ids (must not be modified)
+	 */
+	public int[] getIds() {
+		return ids;
+	}
+
+	/**
+	 * Gets the offsets of the texts.
+	 * @return start of the tokens of each text followed by the total number of tokens (must not be modified)
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Gets the start of the tokens of a text in the packed token-ids.
+	 * @param idxText index of the text
+	 * @return offset
+	 */
+	public int getStart(final int idxText) {
+		return offsets[idxText];
+	}
+
+	/**
+	 * Gets the number of tokens of a text.
+	 * @param idxText index of the text
+	 * @return number of tokens
+	 */
+	public int getLength(final int idxText) {
+		return offsets[idxText + 1] - offsets[idxText];
+	}
+
+	/**
+	 * Copies the tokens of a text.
+	 * @param idxText index of the text
+	 * @return token-ids
+	 */
+	public int[] getTokens(final int idxText) {
+		return Arrays.copyOfRange(ids, offsets[idxText], offsets[idxText + 1]);
+	}
+}
@@ -0,0 +1,191 @@
+package org.rogmann.llm.tokenizer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Map from long to int using open addressing (linear probing) in primitive arrays.
+ *
+ * <p>There are no boxed keys or entry-objects, so a map of millions of entries
+ * (e.g. the transitions of a token-trie) needs 12 bytes per slot only.
+ * The key {@link #EMPTY_KEY} is reserved.</p>
+ */
+public class LongIntMap {
+
+	/** reserved key marking an empty slot */
+	public static final long EMPTY_KEY = Long.MIN_VALUE;
+
+	/** maximum load factor before growing */
+	private static final float MAX_LOAD = 0.6f;
+
+	/** keys of the slots */
+	private long[] keys;
+
+	/** values of the slots */
+	private int[] values;
+
+	/** capacity - 1 (the capacity is a power of two) */
+	private int mask;
+
+	/** number of entries */
+	private int size;
+
+	/** number of entries which causes a rehash */
+	private int threshold;
+
+	/**
+	 * Constructor
+	 * @param expectedSize expected number of entries
+	 */
+	public LongIntMap(final int expectedSize) {
+		final int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Constructor of a map read from a compiled tokenizer-file.
+	 * @param keys keys of the slots
+	 * @param values values of the slots
+	 * @param size number of entries
+	 */
+	private LongIntMap(final long[] keys, final int[] values, final int size) {
+		if (Integer.bitCount(keys.length) != 1 || values.length != keys.length) {
+			throw new IllegalArgumentException("Invalid number of slots: " + keys.length);
+		}
+		this.keys = keys;
+		this.values = values;
+		this.mask = keys.length - 1;
+		this.size = size;
+		this.threshold = (int) (keys.length * MAX_LOAD);
+	}
+
+	/**
+	 * Allocates empty slots.
+	 * @param capacity number of slots (power of two)
+	 */
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY_KEY);
+		values = new int[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * MAX_LOAD);
+	}
+
+	/**
+	 * Computes the slot of a key (finalizer of MurmurHash3).
+	 * @param key key
+	 * @return slot
+	 */
+	private int slot(final long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h & mask;
+	}
+
+	/**
+	 * Gets the value of a key.
+	 * @param key key
+	 * @param defaultValue value returned if the key is unknown
+	 * @return value or default-value
+	 */
+	public int get(final long key, final int defaultValue) {
+		int idx = slot(key);
+		while (true) {
+			final long k = keys[idx];
+			if (k == key) {
+				return values[idx];
+			}
+			if (k == EMPTY_KEY) {
+				return defaultValue;
+			}
+			idx = (idx + 1) & mask;
+		}
+	}
+
+	/**
+	 * Stores a value.
+	 * @param key key (not {@link #EMPTY_KEY})
+	 * @param value value
+	 */
+	public void put(final long key, final int value) {
+		if (key == EMPTY_KEY) {
+			throw new IllegalArgumentException("Reserved key " + key);
+		}
+		int idx = slot(key);
+		while (true) {
+			final long k = keys[idx];
+			if (k == key) {
+				values[idx] = value;
+				return;
+			}
+			if (k == EMPTY_KEY) {
+				keys[idx] = key;
+				values[idx] = value;
+				size++;
+				if (size > threshold) {
+					rehash();
+				}
+				return;
+			}
+			idx = (idx + 1) & mask;
+		}
+	}
+
+	/**
+	 * Doubles the number of slots.
+	 */
+	private void rehash() {
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+		allocate(2 * oldKeys.length);
+		for (int i = 0; i < oldKeys.length; i++) {
+			final long key = oldKeys[i];
+			if (key != EMPTY_KEY) {
+				int idx = slot(key);
+				while (keys[idx] != EMPTY_KEY) {
+					idx = (idx + 1) & mask;
+				}
+				keys[idx] = key;
+				values[idx] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of entries.
+	 * @return size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Writes the slots of the map.
+	 * @param dos output-stream
+	 * @throws IOException in case of an IO-error
+	 */
+	void write(final DataOutputStream dos) throws IOException {
+		dos.writeInt(size);
+		TokenizerFileFormat.writeLongs(dos, keys);
+		TokenizerFileFormat.writeInts(dos, values, values.length);
+	}
+
+	/**
+	 * Reads a map written by {@link #write(DataOutputStream)}.
+	 * @param bb buffer
+	 * @return map
+	 * @throws IOException in case of an invalid length
+	 */
+	static LongIntMap read(final ByteBuffer bb) throws IOException {
+		final int size = bb.getInt();
+		final long[] keys = TokenizerFileFormat.readLongs(bb);
+		final int[] values = TokenizerFileFormat.readInts(bb);
+		return new LongIntMap(keys, values, size);
+	}
+}
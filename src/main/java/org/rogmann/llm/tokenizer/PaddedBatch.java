@@ -0,0 +1,170 @@
+package org.rogmann.llm.tokenizer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Batch of token-sequences of different lengths padded to a common length.
+ *
+ * <p>The attention-mask contains 1 for tokens of the input and 0 for padding-tokens.
+ * Left padding is used in text generation because the last column contains the last token of each row.</p>
+ */
+public class PaddedBatch {
+
+	/** input-ids (batchSize, maxSeqLen) */
+	private int[][] inputIds;
+
+	/** attention-mask (batchSize, maxSeqLen) */
+	private float[][] attentionMask;
+
+	/** number of non-padding tokens in each row */
+	private final int[] lengths;
+
+	/** <code>true</code> if the padding-tokens are placed in front of the tokens */
+	private final boolean leftPadding;
+
+	/** id of the padding-token */
+	private final int padTokenId;
+
+	/**
+	 * Constructor
+	 * @param inputIds input-ids (batchSize, maxSeqLen)
+	 * @param attentionMask attention-mask (batchSize, maxSeqLen)
+	 * @param lengths number of non-padding tokens in each row
+	 * @param leftPadding <code>true</code> in case of left padding
+	 * @param padTokenId id of the padding-token
+	 */
+	private PaddedBatch(int[][] inputIds, float[][] attentionMask, int[] lengths,
+			boolean leftPadding, int padTokenId) {
+		this.inputIds = inputIds;
+		this.attentionMask = attentionMask;
+		this.lengths = lengths;
+		this.leftPadding = leftPadding;
+		this.padTokenId = padTokenId;
+	}
+
+	/**
+	 * Pads a list of token-sequences.
+	 * @param sequences token-sequences
+	 * @param padTokenId id of the padding-token
+	 * @param leftPadding <code>true</code> for left padding, <code>false</code> for right padding
+	 * @return padded batch
+	 */
+	public static PaddedBatch pad(final List<int[]> sequences, final int padTokenId, final boolean leftPadding) {
+		final int batchSize = sequences.size();
+		if (batchSize == 0) {
+			throw new IllegalArgumentException("Empty list of sequences");
+		}
+		int maxSeqLen = 0;
+		for (int[] seq : sequences) {
+			maxSeqLen = Math.max(maxSeqLen, seq.length);
+		}
+		final int[][] inputIds = new int[batchSize][maxSeqLen];
+		final float[][] attentionMask = new float[batchSize][maxSeqLen];
+		final int[] lengths = new int[batchSize];
+		for (int b = 0; b < batchSize; b++) {
+			final int[] seq = sequences.get(b);
+			final int len = seq.length;
+			final int offset = leftPadding ? maxSeqLen - len : 0;
+			Arrays.fill(inputIds[b], padTokenId);
+			System.arraycopy(seq, 0, inputIds[b], offset, len);
+			Arrays.fill(attentionMask[b], offset, offset + len, 1.0f);
+			lengths[b] = len;
+		}
+		return new PaddedBatch(inputIds, attentionMask, lengths, leftPadding, padTokenId);
+	}
+
+	/**
+	 * Gets the input-ids.
+	 * @return input-ids (batchSize, maxSeqLen)
+	 */
+	public int[][] getInputIds() {
+		return inputIds;
+	}
+
+	/**
+	 * Gets the attention-mask.
+	 * @return attention-mask (batchSize, maxSeqLen), 1 = token, 0 = padding
+	 */
+	public float[][] getAttentionMask() {
+		return attentionMask;
+	}
+
+	/**
+	 * Gets the batch-size.
+	 * @return number of rows
+	 */
+	public int getBatchSize() {
+		return inputIds.length;
+	}
+
+	/**
+	 * Gets the length of the padded rows.
+	 * @return sequence-length including padding
+	 */
+	public int getSeqLen() {
+		return inputIds[0].length;
+	}
+
+	/**
+	 * Gets the number of non-padding tokens of a row.
+	 * @param b index of the row
+	 * @return number of tokens
+	 */
+	public int getLength(int b) {
+		return lengths[b];
+	}
+
+	/**
+	 * Gets the position of the last non-padding token of a row.
+	 * @param b index of the row
+	 * @return position in the padded row
+	 */
+	public int getLastIndex(int b) {
+		return leftPadding ? inputIds[b].length - 1 : lengths[b] - 1;
+	}
+
+	/**
+	 * Gets <code>true</code> in case of left padding.
+	 * @return padding-flag
+	 */
+	public boolean isLeftPadding() {
+		return leftPadding;
+	}
+
+	/**
+	 * Gets the id of the padding-token.
+	 * @return token-id
+	 */
+	public int getPadTokenId() {
+		return padTokenId;
+	}
+
+	/**
+	 * Appends a generated token to each row (left padding only).
+	 * The attention-mask is extended by a column of 1.
+	 * @param tokens one token for each row
+	 */
+	public void appendTokens(final int[] tokens) {
+		if (!leftPadding) {
+			throw new IllegalStateException("Appending tokens requires left padding");
+		}
+		final int batchSize = inputIds.length;
+		if (tokens.length != batchSize) {
+			throw new IllegalArgumentException(String.format("Expected %d tokens, got %d",
+					Integer.valueOf(batchSize), Integer.valueOf(tokens.length)));
+		}
+		final int seqLen = inputIds[0].length;
+		final int[][] nextInputIds = new int[batchSize][];
+		final float[][] nextMask = new float[batchSize][];
+		for (int b = 0; b < batchSize; b++) {
+			nextInputIds[b] = Arrays.copyOf(inputIds[b], seqLen + 1);
+			nextInputIds[b][seqLen] = tokens[b];
+			nextMask[b] = Arrays.copyOf(attentionMask[b], seqLen + 1);
+			nextMask[b][seqLen] = 1.0f;
+			lengths[b]++;
+		}
+		inputIds = nextInputIds;
+		attentionMask = nextMask;
+	}
+}
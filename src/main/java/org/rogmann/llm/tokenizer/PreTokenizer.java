@@ -0,0 +1,337 @@
+package org.rogmann.llm.tokenizer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.rogmann.llm.json.JSONArray;
+import org.rogmann.llm.json.JSONObject;
+
+/**
+ * Pre-tokenizer splitting a text into words before the BPE-merges (pre_tokenizer in tokenizer.json).
+ *
+ * <p>Supported types are Sequence, Split (regex or string, all split-behaviors) and ByteLevel
+ * (add_prefix_space, use_regex). The mapping of ByteLevel into bytes is done by the tokenizer.
+ * The regular expressions of tokenizer.json are written for Rust or Oniguruma, nested character-classes
+ * are flattened (a union in both dialects) and the character-classes are unicode-aware.</p>
+ */
+public class PreTokenizer {
+	/** logger */
+	private static final Logger LOG = Logger.getLogger(PreTokenizer.class.getName());
+
+	/** pattern of GPT-2 used by ByteLevel if use_regex is set */
+	static final String PATTERN_GPT2 = "'s|'t|'re|'ve|'m|'ll|'d| ?\\p{L}+| ?\\p{N}+| ?[^\\s\\p{L}\\p{N}]+|\\s+(?!\\S)|\\s+";
+
+	/** behavior of the matches of a split */
+	enum Behavior {
+		/** matches and gaps are separate words */
+		ISOLATED,
+		/** matches are removed */
+		REMOVED,
+		/** a match is appended to the previous word */
+		MERGED_WITH_PREVIOUS,
+		/** a match is prepended to the next word */
+		MERGED_WITH_NEXT,
+		/** consecutive matches are one word */
+		CONTIGUOUS;
+	}
+
+	/** step of the pre-tokenizer */
+	static class Step {
+		/** pattern of the split or <code>null</code> */
+		final Pattern pattern;
+		/** behavior of the matches */
+		final Behavior behavior;
+		/** <code>true</code> if the gaps are the matches */
+		final boolean invert;
+		/** <code>true</code> if a space is prepended to a word not starting with a space */
+		final boolean addPrefixSpace;
+
+		/**
+		 * Constructor
+		 * @param pattern pattern of the split or <code>null</code>
+		 * @param behavior behavior of the matches
+		 * @param invert <code>true</code> if the gaps are the matches
+		 * @param addPrefixSpace <code>true</code> if a space is prepended to a word not starting with a space
+		 */
+		Step(final Pattern pattern, final Behavior behavior, final boolean invert, final boolean addPrefixSpace) {
+			this.pattern = pattern;
+			this.behavior = behavior;
+			this.invert = invert;
+			this.addPrefixSpace = addPrefixSpace;
+		}
+	}
+
+	/** steps of the pre-tokenizer */
+	private final List<Step> steps = new ArrayList<>();
+
+	/**
+	 * Constructor
+	 * @param jsonPreTokenizer pre_tokenizer of tokenizer.json or <code>null</code>
+	 */
+	public PreTokenizer(final JSONObject jsonPreTokenizer) {
+		if (jsonPreTokenizer != null) {
+			addSteps(jsonPreTokenizer);
+		}
+	}
+
+	/**
+	 * Adds the steps of a pre-tokenizer.
+	 * @param json pre-tokenizer
+	 */
+	private void addSteps(final JSONObject json) {
+		final String type = json.getString("type");
+		if ("Sequence".equals(type)) {
+			final JSONArray aPreTokenizers = json.getJSONArray("pretokenizers");
+			for (int i = 0; i < aPreTokenizers.length(); i++) {
+				addSteps(aPreTokenizers.getJSONObject(i));
+			}
+		}
+		else if ("Split".equals(type)) {
+			final JSONObject jsonPattern = json.getJSONObject("pattern");
+			final Pattern pattern;
+			if (jsonPattern.hasKey("Regex")) {
+				pattern = Pattern.compile(convertRegex(jsonPattern.getString("Regex")), Pattern.UNICODE_CHARACTER_CLASS);
+			}
+			else {
+				pattern = Pattern.compile(Pattern.quote(jsonPattern.getString("String")));
+			}
+			final boolean invert = json.hasKey("invert") && json.getBoolean("invert");
+			steps.add(new Step(pattern, parseBehavior(json.getString("behavior")), invert, false));
+		}
+		else if ("ByteLevel".equals(type)) {
+			final boolean addPrefixSpace = json.hasKey("add_prefix_space") && json.getBoolean("add_prefix_space");
+			final boolean useRegex = !json.hasKey("use_regex") || json.getBoolean("use_regex");
+			final Pattern pattern = useRegex ? Pattern.compile(PATTERN_GPT2, Pattern.UNICODE_CHARACTER_CLASS) : null;
+			steps.add(new Step(pattern, Behavior.ISOLATED, false, addPrefixSpace));
+		}
+		else {
+			LOG.warning("Unsupported pre-tokenizer is ignored: " + type);
+		}
+	}
+
+	/**
+	 * Parses the behavior of a split.
+	 * @param behavior behavior in tokenizer.json, e.g. "Isolated"
+	 * @return behavior
+	 */
+	private static Behavior parseBehavior(final String behavior) {
+		switch (behavior) {
+		case "Isolated":
+			return Behavior.ISOLATED;
+		case "Removed":
+			return Behavior.REMOVED;
+		case "MergedWithPrevious":
+			return Behavior.MERGED_WITH_PREVIOUS;
+		case "MergedWithNext":
+			return Behavior.MERGED_WITH_NEXT;
+		case "Contiguous":
+			return Behavior.CONTIGUOUS;
+		default:
+			throw new IllegalArgumentException("Unknown split-behavior: " + behavior);
+		}
+	}
+
+	/**
+	 * Writes the steps of the pre-tokenizer.
+	 * @param dos output-stream
+	 * @throws IOException in case of an IO-error
+	 */
+	void write(final DataOutputStream dos) throws IOException {
+		dos.writeInt(steps.size());
+		for (Step step : steps) {
+			TokenizerFileFormat.writeString(dos, (step.pattern != null) ? step.pattern.pattern() : null);
+			dos.writeInt((step.pattern != null) ? step.pattern.flags() : 0);
+			dos.writeByte(step.behavior.ordinal());
+			dos.writeBoolean(step.invert);
+			dos.writeBoolean(step.addPrefixSpace);
+		}
+	}
+
+	/**
+	 * Reads a pre-tokenizer written by {@link #write(DataOutputStream)}.
+	 * @param bb buffer
+	 * @return pre-tokenizer
+	 * @throws IOException in case of an invalid length
+	 */
+	static PreTokenizer read(final ByteBuffer bb) throws IOException {
+		final PreTokenizer preTokenizer = new PreTokenizer(null);
+		final int numSteps = bb.getInt();
+		for (int i = 0; i < numSteps; i++) {
+			final String regex = TokenizerFileFormat.readString(bb);
+			final int flags = bb.getInt();
+			final Pattern pattern = (regex != null) ? Pattern.compile(regex, flags) : null;
+			final Behavior behavior = Behavior.values()[bb.get()];
+			final boolean invert = (bb.get() != 0);
+			final boolean addPrefixSpace = (bb.get() != 0);
+			preTokenizer.steps.add(new Step(pattern, behavior, invert, addPrefixSpace));
+		}
+		return preTokenizer;
+	}
+
+	/**
+	 * Converts a regular expression of tokenizer.json into a Java regular expression.
+	 * Nested character-classes are flattened, e.g. "[^(\s|[.,])]" into "[^(\s|.,)]".
+	 * @param regex regular expression
+	 * @return Java regular expression
+	 */
+	static String convertRegex(final String regex) {
+		final StringBuilder sb = new StringBuilder(regex.length());
+		int depth = 0;
+		final int len = regex.length();
+		for (int i = 0; i < len; i++) {
+			final char c = regex.charAt(i);
+			if (c == '\\' && i + 1 < len) {
+				sb.append(c).append(regex.charAt(++i));
+			}
+			else if (c == '[') {
+				if (depth == 0) {
+					sb.append(c);
+					if (i + 1 < len && regex.charAt(i + 1) == '^') {
+						sb.append('^');
+						i++;
+					}
+					if (i + 1 < len && regex.charAt(i + 1) == ']') {
+						// A leading ']' is a literal.
+						sb.append("\\]");
+						i++;
+					}
+				}
+				depth++;
+			}
+			else if (c == ']' && depth > 0) {
+				depth--;
+				if (depth == 0) {
+					sb.append(c);
+				}
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Splits a text into words.
+	 * @param text text
+	 * @return words
+	 */
+	public List<String> split(final String text) {
+		List<String> words = new ArrayList<>();
+		if (!text.isEmpty()) {
+			words.add(text);
+		}
+		for (Step step : steps) {
+			final List<String> wordsNext = new ArrayList<>(words.size() * 2);
+			for (String word : words) {
+				final String w = (step.addPrefixSpace && word.charAt(0) != ' ') ? ' ' + word : word;
+				if (step.pattern == null) {
+					wordsNext.add(w);
+				}
+				else {
+					splitWord(w, step, wordsNext);
+				}
+			}
+			words = wordsNext;
+		}
+		return words;
+	}
+
+	/**
+	 * Splits a word by the pattern of a step.
+	 * @param word word
+	 * @param step step
+	 * @param words list of the resulting words
+	 */
+	private static void splitWord(final String word, final Step step, final List<String> words) {
+		// segments (start, end, isMatch) covering the word, empty matches are ignored
+		final List<int[]> segments = new ArrayList<>();
+		final Matcher m = step.pattern.matcher(word);
+		int pos = 0;
+		while (m.find()) {
+			if (m.end() == m.start()) {
+				continue;
+			}
+			if (m.start() > pos) {
+				segments.add(new int[] { pos, m.start(), step.invert ? 1 : 0 });
+			}
+			segments.add(new int[] { m.start(), m.end(), step.invert ? 0 : 1 });
+			pos = m.end();
+		}
+		if (pos < word.length()) {
+			segments.add(new int[] { pos, word.length(), step.invert ? 1 : 0 });
+		}
+
+		// start of a word which hasn't been added yet
+		int pendingStart = -1;
+		int prevEnd = 0;
+		boolean prevIsMatch = false;
+		for (int[] segment : segments) {
+			final int start = segment[0];
+			final int end = segment[1];
+			final boolean isMatch = (segment[2] == 1);
+			switch (step.behavior) {
+			case REMOVED:
+				if (!isMatch) {
+					words.add(word.substring(start, end));
+				}
+				break;
+			case MERGED_WITH_PREVIOUS:
+				if (isMatch && pendingStart >= 0) {
+					words.add(word.substring(pendingStart, end));
+					pendingStart = -1;
+				}
+				else {
+					addPending(word, pendingStart, prevEnd, words);
+					pendingStart = isMatch ? -1 : start;
+					if (isMatch) {
+						words.add(word.substring(start, end));
+					}
+				}
+				break;
+			case MERGED_WITH_NEXT:
+				if (isMatch) {
+					addPending(word, pendingStart, prevEnd, words);
+					pendingStart = start;
+				}
+				else {
+					words.add(word.substring((pendingStart >= 0) ? pendingStart : start, end));
+					pendingStart = -1;
+				}
+				break;
+			case CONTIGUOUS:
+				if (!(isMatch && prevIsMatch)) {
+					addPending(word, pendingStart, prevEnd, words);
+					pendingStart = start;
+				}
+				break;
+			case ISOLATED:
+			default:
+				words.add(word.substring(start, end));
+				break;
+			}
+			prevEnd = end;
+			prevIsMatch = isMatch;
+		}
+		addPending(word, pendingStart, prevEnd, words);
+	}
+
+	/**
+	 * Adds a word which hasn't been added yet.
+	 * @param word word to be split
+	 * @param pendingStart start of the pending word or -1
+	 * @param end end of the pending word
+	 * @param words list of the resulting words
+	 */
+	private static void addPending(final String word, final int pendingStart, final int end, final List<String> words) {
+		if (pendingStart >= 0 && end > pendingStart) {
+			words.add(word.substring(pendingStart, end));
+		}
+	}
+}
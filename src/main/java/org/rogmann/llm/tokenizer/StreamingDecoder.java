@@ -0,0 +1,101 @@
+package org.rogmann.llm.tokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental decoder of generated tokens.
+ *
+ * <p>A byte-level token may end inside a multi-byte UTF-8 character (e.g. a CJK character
+ * consists of three bytes which may be distributed over two tokens). Such a token can't be
+ * decoded in isolation. The decoder keeps the incomplete bytes until the following token
+ * completes the character. The buffers are reused, only the returned string is allocated.</p>
+ *
+ * <p>An instance is used by one generation (one thread) only.</p>
+ */
+public class StreamingDecoder {
+	/** empty text */
+	private static final String EMPTY = "";
+
+	/** tokenizer */
+	private final Tokenizer tokenizer;
+
+	/** UTF-8 decoder */
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	/** bytes not decoded yet (write mode) */
+	private ByteBuffer bufBytes = ByteBuffer.allocate(64);
+
+	/** decoded characters */
+	private CharBuffer bufChars = CharBuffer.allocate(64);
+
+	/**
+	 * Constructor
+	 * @param tokenizer tokenizer
+	 */
+	public StreamingDecoder(final Tokenizer tokenizer) {
+		this.tokenizer = tokenizer;
+	}
+
+	/**
+	 * Decodes the next token.
+	 * @param tokenId token-id
+	 * @return characters completed by this token, an empty string if the token doesn't complete a character
+	 */
+	public String decode(final int tokenId) {
+		final byte[] tokenBytes = tokenizer.decodeBytes(tokenId);
+		if (bufBytes.remaining() < tokenBytes.length) {
+			final ByteBuffer bufNew = ByteBuffer.allocate(Math.max(2 * bufBytes.capacity(), bufBytes.position() + tokenBytes.length));
+			bufBytes.flip();
+			bufNew.put(bufBytes);
+			bufBytes = bufNew;
+		}
+		bufBytes.put(tokenBytes);
+		return decodeBuffer(false);
+	}
+
+	/**
+	 * Decodes the remaining bytes at the end of a generation.
+	 * An incomplete character is decoded as replacement character.
+	 * @return remaining characters, an empty string if there are no remaining bytes
+	 */
+	public String flush() {
+		final String text = decodeBuffer(true);
+		decoder.reset();
+		return text;
+	}
+
+	/**
+	 * Removes the remaining bytes, e.g. before a new generation.
+	 */
+	public void reset() {
+		bufBytes.clear();
+		decoder.reset();
+	}
+
+	/**
+	 * Decodes the buffered bytes.
+	 * @param endOfInput <code>true</code> if there are no further bytes
+	 * @return decoded characters
+	 */
+	private String decodeBuffer(final boolean endOfInput) {
+		bufBytes.flip();
+		// UTF-8 doesn't give more characters than bytes.
+		if (bufChars.capacity() < bufBytes.remaining()) {
+			bufChars = CharBuffer.allocate(Math.max(2 * bufChars.capacity(), bufBytes.remaining()));
+		}
+		bufChars.clear();
+		decoder.decode(bufBytes, bufChars, endOfInput);
+		if (endOfInput) {
+			decoder.flush(bufChars);
+		}
+		bufBytes.compact();
+		final int numChars = bufChars.position();
+		return (numChars == 0) ? EMPTY : new String(bufChars.array(), 0, numChars);
+	}
+}
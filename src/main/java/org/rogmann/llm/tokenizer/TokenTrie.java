@@ -0,0 +1,139 @@
+package org.rogmann.llm.tokenizer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Prefix-trie of the byte-sequences of the tokens.
+ *
+ * <p>A node is an int, the root is 0. The transition of a node by a byte is stored in a
+ * {@link LongIntMap} with key (node &lt;&lt; 8) | byte. The longest token at a position
+ * is found by walking the trie, so encoding needs O(input length * maximum token length).</p>
+ */
+public class TokenTrie {
+
+	/** token-id of each node, -1 if the node isn't the end of a token */
+	private int[] nodeToken;
+
+	/** number of nodes */
+	private int numNodes;
+
+	/** transitions (node &lt;&lt; 8 | byte) to child-node */
+	private final LongIntMap transitions;
+
+	/**
+	 * Constructor of an empty trie.
+	 * @param expectedNodes expected number of nodes (e.g. the sum of the token-lengths)
+	 */
+	public TokenTrie(final int expectedNodes) {
+		nodeToken = new int[Math.max(16, expectedNodes)];
+		Arrays.fill(nodeToken, -1);
+		numNodes = 1;
+		transitions = new LongIntMap(expectedNodes);
+	}
+
+	/**
+	 * Constructor of a trie read from a compiled tokenizer-file.
+	 * @param nodeToken token-id of each node
+	 * @param transitions transitions
+	 */
+	private TokenTrie(final int[] nodeToken, final LongIntMap transitions) {
+		this.nodeToken = nodeToken;
+		this.numNodes = nodeToken.length;
+		this.transitions = transitions;
+	}
+
+	/**
+	 * Adds a token.
+	 * @param tokenBytes bytes of the token
+	 * @param tokenId id of the token
+	 */
+	public void add(final byte[] tokenBytes, final int tokenId) {
+		int node = 0;
+		for (byte b : tokenBytes) {
+			final long key = ((long) node << 8) | (b & 0xff);
+			int child = transitions.get(key, -1);
+			if (child < 0) {
+				if (numNodes == nodeToken.length) {
+					final int oldLen = nodeToken.length;
+					nodeToken = Arrays.copyOf(nodeToken, 2 * oldLen);
+					Arrays.fill(nodeToken, oldLen, nodeToken.length, -1);
+				}
+				child = numNodes++;
+				transitions.put(key, child);
+			}
+			node = child;
+		}
+		nodeToken[node] = tokenId;
+	}
+
+	/**
+	 * Searches the longest token at a position.
+	 * @param buf input-bytes
+	 * @param start start-position
+	 * @param end end-position (exclusive)
+	 * @return (length &lt;&lt; 32) | token-id of the longest token or -1 if no token matches
+	 */
+	public long matchLongest(final byte[] buf, final int start, final int end) {
+		int node = 0;
+		long match = -1;
+		for (int i = start; i < end; i++) {
+			node = transitions.get(((long) node << 8) | (buf[i] & 0xff), -1);
+			if (node < 0) {
+				break;
+			}
+			final int tokenId = nodeToken[node];
+			if (tokenId >= 0) {
+				match = ((long) (i + 1 - start) << 32) | tokenId;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Gets the id of a token.
+	 * @param tokenBytes bytes of the token
+	 * @return token-id or -1 if the bytes aren't a token
+	 */
+	public int get(final byte[] tokenBytes) {
+		int node = 0;
+		for (byte b : tokenBytes) {
+			node = transitions.get(((long) node << 8) | (b & 0xff), -1);
+			if (node < 0) {
+				return -1;
+			}
+		}
+		return nodeToken[node];
+	}
+
+	/**
+	 * Gets the number of nodes including the root.
+	 * @return number of nodes
+	 */
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Writes the trie.
+	 * @param dos output-stream
+	 * @throws IOException in case of an IO-error
+	 */
+	void write(final DataOutputStream dos) throws IOException {
+		TokenizerFileFormat.writeInts(dos, nodeToken, numNodes);
+		transitions.write(dos);
+	}
+
+	/**
+	 * Reads a trie written by {@link #write(DataOutputStream)}.
+	 * @param bb buffer
+	 * @return trie
+	 * @throws IOException in case of an invalid length
+	 */
+	static TokenTrie read(final ByteBuffer bb) throws IOException {
+		final int[] nodeToken = TokenizerFileFormat.readInts(bb);
+		return new TokenTrie(nodeToken, LongIntMap.read(bb));
+	}
+}
@@ -1,5 +1,13 @@
 package org.rogmann.llm.tokenizer;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rogmann.llm.LlmExecutor;
+
 /**
  * Interface of a tokenizer.
  */
@@ -16,6 +24,64 @@ public interface Tokenizer {
 	 * @return array of length one containing the tokenized string
 	 */
 	int[][] encode(String s);
+
+	/**
+	 * Encodes several strings into a padded batch.
+	 * @param texts strings
+	 * @param padTokenId id of the padding-token
+	 * @param leftPadding <code>true</code> for left padding (text generation), <code>false</code> for right padding
+	 * @return padded batch including attention-mask
+	 */
+	default PaddedBatch encode(List<String> texts, int padTokenId, boolean leftPadding) {
+		final List<int[]> sequences = new ArrayList<>(texts.size());
+		for (String text : texts) {
+			sequences.add(encode(text)[0]);
+		}
+		return PaddedBatch.pad(sequences, padTokenId, leftPadding);
+	}
+
+	/**
+	 * Encodes several strings in parallel (e.g. documents of an offline corpus).
+	 * The default implementation encodes the strings sequentially.
+	 * @param texts strings
+	 * @param executor executor distributing the strings on the worker-threads
+	 * @return token-ids of the strings packed into one array
+	 */
+	default EncodedBatch encodeBatch(List<String> texts, LlmExecutor executor) {
+		final int numTexts = texts.size();
+		final int[][] textIds = new int[numTexts][];
+		final int[] offsets = new int[numTexts + 1];
+		for (int i = 0; i < numTexts; i++) {
+			textIds[i] = encode(texts.get(i))[0];
+			offsets[i + 1] = offsets[i] + textIds[i].length;
+		}
+		final int[] packedIds = new int[offsets[numTexts]];
+		for (int i = 0; i < numTexts; i++) {
+			System.arraycopy(textIds[i], 0, packedIds, offsets[i], textIds[i].length);
+		}
+		return new EncodedBatch(packedIds, offsets);
+	}
+
+	/**
+	 * Encodes a text read from a reader. An implementation may encode the text in chunks,
+	 * so a large document isn't materialized as one string.
+	 * The default implementation reads the whole text.
+	 * @param reader reader
+	 * @return token-ids
+	 * @throws IOException in case of an IO-error
+	 */
+	default int[] encode(Reader reader) throws IOException {
+		final StringBuilder sb = new StringBuilder(4096);
+		final char[] buf = new char[4096];
+		while (true) {
+			final int len = reader.read(buf);
+			if (len < 0) {
+				break;
+			}
+			sb.append(buf, 0, len);
+		}
+		return encode(sb.toString())[0];
+	}
 	
 	/**
 	 * Decodes a token.
@@ -24,6 +90,18 @@ public interface Tokenizer {
 	 */
 	String decode(int idx);
 
+	/**
+	 * Decodes a token into its UTF-8 bytes.
+	 * A token may contain a part of a multi-byte character only, see {@link StreamingDecoder}.
+	 * The default implementation encodes the decoded string, a byte-level tokenizer
+	 * should return the bytes of the token.
+	 * @param idx index of the token
+	 * @return bytes of the token (must not be modified)
+	 */
+	default byte[] decodeBytes(int idx) {
+		return decode(idx).getBytes(StandardCharsets.UTF_8);
+	}
+
 	/**
 	 * Appends a token to a given array of tokens.
 	 * @param inputIds tokens
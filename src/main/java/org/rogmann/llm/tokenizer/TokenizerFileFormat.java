@@ -0,0 +1,154 @@
+package org.rogmann.llm.tokenizer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Primitives of the compiled tokenizer-file (big-endian).
+ *
+ * <p>Arrays are stored as length followed by the elements, so they can be read
+ * by bulk-gets of a mapped byte-buffer.</p>
+ */
+final class TokenizerFileFormat {
+
+	/** magic number ("JBTK") */
+	static final int MAGIC = 0x4a42544b;
+
+	/** version of the format */
+	static final int FORMAT_VERSION = 1;
+
+	/** private constructor */
+	private TokenizerFileFormat() {
+		// static methods only
+	}
+
+	/**
+	 * Writes a string or <code>null</code>.
+	 * @param dos output-stream
+	 * @param s string
+	 * @throws IOException in case of an IO-error
+	 */
+	static void writeString(final DataOutputStream dos, final String s) throws IOException {
+		if (s == null) {
+			dos.writeInt(-1);
+			return;
+		}
+		writeBytes(dos, s.getBytes(StandardCharsets.UTF_8), 0, -1);
+	}
+
+	/**
+	 * Reads a string or <code>null</code>.
+	 * @param bb buffer
+	 * @return string
+	 * @throws IOException in case of an invalid length
+	 */
+	static String readString(final ByteBuffer bb) throws IOException {
+		final byte[] buf = readBytes(bb);
+		return (buf != null) ? new String(buf, StandardCharsets.UTF_8) : null;
+	}
+
+	/**
+	 * Writes an array of bytes.
+	 * @param dos output-stream
+	 * @param buf bytes
+	 * @param offset offset in the array
+	 * @param len number of bytes or -1 for the whole array
+	 * @throws IOException in case of an IO-error
+	 */
+	static void writeBytes(final DataOutputStream dos, final byte[] buf, final int offset, final int len) throws IOException {
+		final int n = (len >= 0) ? len : buf.length;
+		dos.writeInt(n);
+		dos.write(buf, offset, n);
+	}
+
+	/**
+	 * Reads an array of bytes.
+	 * @param bb buffer
+	 * @return bytes or <code>null</code>
+	 * @throws IOException in case of an invalid length
+	 */
+	static byte[] readBytes(final ByteBuffer bb) throws IOException {
+		final int len = bb.getInt();
+		if (len < 0) {
+			return null;
+		}
+		checkLength(bb, len, 1);
+		final byte[] buf = new byte[len];
+		bb.get(buf);
+		return buf;
+	}
+
+	/**
+	 * Writes an array of ints.
+	 * @param dos output-stream
+	 * @param a array
+	 * @param len number of elements
+	 * @throws IOException in case of an IO-error
+	 */
+	static void writeInts(final DataOutputStream dos, final int[] a, final int len) throws IOException {
+		dos.writeInt(len);
+		for (int i = 0; i < len; i++) {
+			dos.writeInt(a[i]);
+		}
+	}
+
+	/**
+	 * Reads an array of ints.
+	 * @param bb buffer
+	 * @return array
+	 * @throws IOException in case of an invalid length
+	 */
+	static int[] readInts(final ByteBuffer bb) throws IOException {
+		final int len = bb.getInt();
+		checkLength(bb, len, 4);
+		final int[] a = new int[len];
+		bb.asIntBuffer().get(a);
+		bb.position(bb.position() + 4 * len);
+		return a;
+	}
+
+	/**
+	 * Writes an array of longs.
+	 * @param dos output-stream
+	 * @param a array
+	 * @throws IOException in case of an IO-error
+	 */
+	static void writeLongs(final DataOutputStream dos, final long[] a) throws IOException {
+		dos.writeInt(a.length);
+		for (long v : a) {
+			dos.writeLong(v);
+		}
+	}
+
+	/**
+	 * Reads an array of longs.
+	 * @param bb buffer
+	 * @return array
+	 * @throws IOException in case of an invalid length
+	 */
+	static long[] readLongs(final ByteBuffer bb) throws IOException {
+		final int len = bb.getInt();
+		checkLength(bb, len, 8);
+		final long[] a = new long[len];
+		bb.asLongBuffer().get(a);
+		bb.position(bb.position() + 8 * len);
+		return a;
+	}
+
+	/**
+	 * Checks the length of an array before allocating it.
+	 * A corrupt file must not lead to a negative or huge allocation.
+	 * @param bb buffer
+	 * @param len number of elements
+	 * @param elementSize size of an element in bytes
+	 * @throws IOException if the elements don't fit into the remaining buffer
+	 */
+	private static void checkLength(final ByteBuffer bb, final int len, final int elementSize) throws IOException {
+		if (len < 0 || (long) elementSize * len > bb.remaining()) {
+			throw new IOException(String.format("Invalid array-length %d at position %d (remaining %d bytes)",
+					Integer.valueOf(len), Integer.valueOf(bb.position()), Integer.valueOf(bb.remaining())));
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package org.rogmann.llm.tokenizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.rogmann.llm.json.JSONArray;
+import org.rogmann.llm.json.JSONException;
+import org.rogmann.llm.json.JSONObject;
+import org.rogmann.llm.json.JSONStreamReader;
+import org.rogmann.llm.json.JSONStreamReader.Event;
+
+/**
+ * Streaming reader of tokenizer.json.
+ *
+ * <p>The vocabulary and the merges are read from the events of a {@link JSONStreamReader} into
+ * an array of token-bytes indexed by token-id and a trie of the token-bytes. Neither the text
+ * of the document nor a map of boxed ids is created. The small parts (added tokens, pre-tokenizer,
+ * normalizer) are read as JSON-objects.</p>
+ */
+class TokenizerJsonReader {
+
+	/** version of the tokenizer */
+	private String version;
+
+	/** bytes of the tokens of the vocabulary by id */
+	private byte[][] tokenBytes = new byte[1024][];
+
+	/** number of tokens of the vocabulary */
+	private int vocabSize;
+
+	/** trie of the byte-level tokens of the vocabulary */
+	private final TokenTrie vocabTrie = new TokenTrie(4096);
+
+	/** left and right parts of the merges (in byte-level representation) */
+	private final List<String> mergeParts = new ArrayList<>();
+
+	/** merges or <code>null</code> */
+	private BPEMerges merges;
+
+	/** unknown token or <code>null</code> */
+	private String unkToken;
+
+	/** added tokens or <code>null</code> */
+	private JSONArray jsonAddedTokens;
+
+	/** pre-tokenizer or <code>null</code> */
+	private JSONObject jsonPreTokenizer;
+
+	/** normalizer or <code>null</code> */
+	private JSONObject jsonNormalizer;
+
+	/**
+	 * Constructor, reads the document.
+	 * @param reader JSON-reader
+	 * @throws IOException in case of an IO-error
+	 * @throws JSONException in case of an invalid document
+	 */
+	TokenizerJsonReader(final JSONStreamReader reader) throws IOException {
+		expect(reader.next(), Event.START_OBJECT, "tokenizer");
+		while (reader.next() == Event.KEY) {
+			switch (reader.getText()) {
+			case "version":
+				version = readString(reader, "version");
+				break;
+			case "added_tokens":
+				jsonAddedTokens = readValue(reader, JSONArray.class, "added_tokens");
+				break;
+			case "normalizer":
+				jsonNormalizer = readValue(reader, JSONObject.class, "normalizer");
+				break;
+			case "pre_tokenizer":
+				jsonPreTokenizer = readValue(reader, JSONObject.class, "pre_tokenizer");
+				break;
+			case "model":
+				readModel(reader);
+				break;
+			default:
+				reader.skipValue();
+				break;
+			}
+		}
+		if (version == null) {
+			throw new JSONException("There is no value of key \"version\".");
+		}
+		tokenBytes = Arrays.copyOf(tokenBytes, vocabSize);
+		merges = resolveMerges();
+	}
+
+	/**
+	 * Reads the model.
+	 * @param reader JSON-reader
+	 * @throws IOException in case of an IO-error
+	 */
+	private void readModel(final JSONStreamReader reader) throws IOException {
+		expect(reader.next(), Event.START_OBJECT, "model");
+		while (reader.next() == Event.KEY) {
+			switch (reader.getText()) {
+			case "vocab":
+				readVocab(reader);
+				break;
+			case "merges":
+				readMerges(reader);
+				break;
+			case "unk_token":
+				unkToken = readString(reader, "unk_token");
+				break;
+			default:
+				reader.skipValue();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads the vocabulary (map from token to id).
+	 * @param reader JSON-reader
+	 * @throws IOException in case of an IO-error
+	 */
+	private void readVocab(final JSONStreamReader reader) throws IOException {
+		expect(reader.next(), Event.START_OBJECT, "vocab");
+		int maxId = -1;
+		while (reader.next() == Event.KEY) {
+			final String token = reader.getText();
+			expect(reader.next(), Event.NUMBER, token);
+			final int id = reader.getInt();
+			if (id < 0) {
+				throw new JSONException(String.format("Invalid id %d of token \"%s\"", Integer.valueOf(id), token));
+			}
+			if (id >= tokenBytes.length) {
+				tokenBytes = Arrays.copyOf(tokenBytes, Math.max(2 * tokenBytes.length, id + 1));
+			}
+			final byte[] bytes = BPETokenizer.toBytes(token);
+			if (bytes != null) {
+				vocabTrie.add(bytes, id);
+				tokenBytes[id] = bytes;
+			}
+			else {
+				// The token isn't in byte-level representation.
+				tokenBytes[id] = token.getBytes(StandardCharsets.UTF_8);
+			}
+			maxId = Math.max(maxId, id);
+			vocabSize++;
+		}
+		if (maxId + 1 != vocabSize) {
+			throw new JSONException(String.format("The %d tokens of the vocabulary have ids up to %d",
+					Integer.valueOf(vocabSize), Integer.valueOf(maxId)));
+		}
+	}
+
+	/**
+	 * Reads the merges. A merge is a string "left right" or an array ["left", "right"].
+	 * The merges are resolved after the whole document has been read.
+	 * @param reader JSON-reader
+	 * @throws IOException in case of an IO-error
+	 */
+	private void readMerges(final JSONStreamReader reader) throws IOException {
+		final Event eventStart = reader.next();
+		if (eventStart == Event.NULL) {
+			return;
+		}
+		expect(eventStart, Event.START_ARRAY, "merges");
+		while (true) {
+			final Event event = reader.next();
+			if (event == Event.END_ARRAY) {
+				break;
+			}
+			if (event == Event.START_ARRAY) {
+				expect(reader.next(), Event.STRING, "merge");
+				mergeParts.add(reader.getText());
+				expect(reader.next(), Event.STRING, "merge");
+				mergeParts.add(reader.getText());
+				expect(reader.next(), Event.END_ARRAY, "merge");
+				continue;
+			}
+			expect(event, Event.STRING, "merge");
+			final String merge = reader.getText();
+			final int idxSpace = merge.indexOf(' ', 1);
+			if (idxSpace < 0) {
+				throw new IllegalArgumentException(String.format("Invalid merge %d: \"%s\"",
+						Integer.valueOf(mergeParts.size() / 2), merge));
+			}
+			mergeParts.add(merge.substring(0, idxSpace));
+			mergeParts.add(merge.substring(idxSpace + 1));
+		}
+	}
+
+	/**
+	 * Resolves the token-ids of the merges.
+	 * @return merges or <code>null</code> if there are no merges
+	 */
+	private BPEMerges resolveMerges() {
+		final int numMerges = mergeParts.size() / 2;
+		if (numMerges == 0) {
+			return null;
+		}
+		final BPEMerges bpeMerges = new BPEMerges(numMerges);
+		for (int i = 0; i < numMerges; i++) {
+			final String left = mergeParts.get(2 * i);
+			final String right = mergeParts.get(2 * i + 1);
+			final int idLeft = getTokenId(left);
+			final int idRight = getTokenId(right);
+			final int idMerged = getTokenId(left + right);
+			if (idLeft < 0 || idRight < 0 || idMerged < 0) {
+				throw new IllegalArgumentException(String.format("Merge %d (\"%s\", \"%s\") refers to an unknown token",
+						Integer.valueOf(i), left, right));
+			}
+			bpeMerges.add(idLeft, idRight, idMerged);
+		}
+		mergeParts.clear();
+		return bpeMerges;
+	}
+
+	/**
+	 * Gets the id of a byte-level token of the vocabulary.
+	 * @param token token, e.g. "Ġcat"
+	 * @return id or -1
+	 */
+	int getTokenId(final String token) {
+		final byte[] bytes = BPETokenizer.toBytes(token);
+		return (bytes != null) ? vocabTrie.get(bytes) : -1;
+	}
+
+	/**
+	 * Reads a string-value or <code>null</code>.
+	 * @param reader JSON-reader
+	 * @param key key of the value
+	 * @return string or <code>null</code>
+	 * @throws IOException in case of an IO-error
+	 */
+	private static String readString(final JSONStreamReader reader, final String key) throws IOException {
+		final Event event = reader.next();
+		if (event == Event.NULL) {
+			return null;
+		}
+		expect(event, Event.STRING, key);
+		return reader.getText();
+	}
+
+	/**
+	 * Reads a JSON-object or JSON-array.
+	 * @param <T> type of the value
+	 * @param reader JSON-reader
+	 * @param type type of the value
+	 * @param key key of the value
+	 * @return value or <code>null</code>
+	 * @throws IOException in case of an IO-error
+	 */
+	private static <T> T readValue(final JSONStreamReader reader, final Class<T> type, final String key) throws IOException {
+		final Object value = reader.readValue();
+		if (value != null && !type.isInstance(value)) {
+			throw new JSONException(String.format("Invalid value %s of key \"%s\", %s expected.",
+					value.getClass().getName(), key, type.getSimpleName()));
+		}
+		return type.cast(value);
+	}
+
+	/**
+	 * Checks an event.
+	 * @param event event
+	 * @param expected expected event
+	 * @param context key or part of the document
+	 */
+	private static void expect(final Event event, final Event expected, final String context) {
+		if (event != expected) {
+			throw new JSONException(String.format("Unexpected event %s in \"%s\", expected %s", event, context, expected));
+		}
+	}
+
+	/**
+	 * Gets the version of the tokenizer.
+	 * @return version
+	 */
+	String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the bytes of the tokens.
+	 * @return bytes by token-id
+	 */
+	byte[][] getTokenBytes() {
+		return tokenBytes;
+	}
+
+	/**
+	 * Gets the number of tokens of the vocabulary.
+	 * @return number of tokens
+	 */
+	int getVocabSize() {
+		return vocabSize;
+	}
+
+	/**
+	 * Gets the trie of the byte-level tokens.
+	 * @return trie
+	 */
+	TokenTrie getVocabTrie() {
+		return vocabTrie;
+	}
+
+	/**
+	 * Gets the merges.
+	 * @return merges or <code>null</code> if there are no merges
+	 */
+	BPEMerges getMerges() {
+		return merges;
+	}
+
+	/**
+	 * Gets the unknown token.
+	 * @return unknown token or <code>null</code>
+	 */
+	String getUnkToken() {
+		return unkToken;
+	}
+
+	/**
+	 * Gets the added tokens.
+	 * @return added tokens or <code>null</code>
+	 */
+	JSONArray getAddedTokens() {
+		return jsonAddedTokens;
+	}
+
+	/**
+	 * Gets the pre-tokenizer.
+	 * @return pre-tokenizer or <code>null</code>
+	 */
+	JSONObject getPreTokenizer() {
+		return jsonPreTokenizer;
+	}
+
+	/**
+	 * Gets the normalizer.
+	 * @return normalizer or <code>null</code>
+	 */
+	JSONObject getNormalizer() {
+		return jsonNormalizer;
+	}
+}
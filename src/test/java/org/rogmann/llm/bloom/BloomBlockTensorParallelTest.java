@@ -0,0 +1,216 @@
+package org.rogmann.llm.bloom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rogmann.llm.LlmConfigException;
+import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.LlmExecutorSingleThread;
+import org.rogmann.llm.nn.Tensor;
+import org.rogmann.llm.nn.TensorProvider;
+import org.rogmann.llm.parallel.MappedFileAllReduce;
+import org.rogmann.llm.parallel.TensorParallelConfig;
+
+/**
+ * Compares the forward pass of a tensor-parallel block (weights sliced by
+ * {@link BloomModel#computeShardSlice(String, int[], int, int, TensorParallelConfig)})
+ * with the forward pass of the unsharded block of a tiny random model.
+ */
+public class BloomBlockTensorParallelTest {
+
+	/** hidden size */
+	private static final int HIDDEN_SIZE = 16;
+
+	/** number of heads */
+	private static final int NUM_HEADS = 4;
+
+	/** number of tokens */
+	private static final int NUM_SEQ = 5;
+
+	/** number of ranks */
+	private static final int WORLD_SIZE = 2;
+
+	/** maximal difference of sharded and unsharded outputs */
+	private static final float DELTA = 1e-4f;
+
+	/** temporary folder */
+	@TempDir
+	File tempDir;
+
+	/**
+	 * Two ranks compute the block, their outputs are compared with the unsharded output.
+	 * @throws Exception in case of an error
+	 */
+	@Test
+	public void testShardedForwardEqualsUnsharded() throws Exception {
+		final Random rnd = new Random(42);
+		final Map<String, float[][]> weights = createWeights(rnd);
+		final float[][][] hiddenStates = new float[1][NUM_SEQ][HIDDEN_SIZE];
+		for (float[] row : hiddenStates[0]) {
+			fill(row, rnd, 1.0f);
+		}
+
+		final float[][][] expected;
+		try (LlmExecutor executor = new LlmExecutorSingleThread()) {
+			final BloomBlock block = new BloomBlock(1, HIDDEN_SIZE, NUM_HEADS, 0,
+					key -> createTensor(weights, key, null, executor), executor);
+			expected = forward(block, hiddenStates, 3 * HIDDEN_SIZE, executor);
+		}
+
+		final File file = new File(tempDir, "allreduce.bin");
+		final ExecutorService threads = Executors.newFixedThreadPool(WORLD_SIZE);
+		try {
+			final List<Future<float[][][]>> futures = new ArrayList<>();
+			for (int rank = 0; rank < WORLD_SIZE; rank++) {
+				final int r = rank;
+				futures.add(threads.submit(() -> {
+					try (LlmExecutor executor = new LlmExecutorSingleThread();
+							MappedFileAllReduce allReduce = new MappedFileAllReduce(file, r, WORLD_SIZE, NUM_SEQ * HIDDEN_SIZE, 10)) {
+						final TensorParallelConfig tp = new TensorParallelConfig(r, WORLD_SIZE, allReduce);
+						final BloomBlock block = new BloomBlock(1, HIDDEN_SIZE, NUM_HEADS, 0,
+								key -> createTensor(weights, key, tp, executor), executor, tp);
+						final int numLocalHeads = tp.getPartEnd(NUM_HEADS) - tp.getPartStart(NUM_HEADS);
+						return forward(block, hiddenStates, 3 * (HIDDEN_SIZE / NUM_HEADS) * numLocalHeads, executor);
+					}
+				}));
+			}
+			for (int rank = 0; rank < WORLD_SIZE; rank++) {
+				final float[][][] output = futures.get(rank).get(30, TimeUnit.SECONDS);
+				for (int i = 0; i < NUM_SEQ; i++) {
+					assertArrayEquals(expected[0][i], output[0][i], DELTA, "rank " + rank + ", token " + i);
+				}
+			}
+		}
+		finally {
+			threads.shutdownNow();
+		}
+	}
+
+	/**
+	 * Computes the block on a prompt.
+	 * @param block block
+	 * @param hiddenStates input (1, numSeq, hiddenSize)
+	 * @param fusedQkvSize size of the rows of the fused query, key and value
+	 * @param executor executor
+	 * @return output (1, numSeq, hiddenSize)
+	 */
+	private static float[][][] forward(final BloomBlock block, final float[][][] hiddenStates, final int fusedQkvSize,
+			final LlmExecutor executor) {
+		final float[][] mask = new float[1][NUM_SEQ];
+		final boolean[][][][] causalMask = new boolean[1][1][NUM_SEQ][NUM_SEQ];
+		for (int i = 0; i < NUM_SEQ; i++) {
+			mask[0][i] = 1.0f;
+			for (int j = i + 1; j < NUM_SEQ; j++) {
+				causalMask[0][0][i][j] = true;
+			}
+		}
+		final Tensor alibi = BloomAlibi.buildAlibiTensor(mask, NUM_HEADS, executor);
+		final float[][][] fusedQkv = new float[1][NUM_SEQ][fusedQkvSize];
+		final float[][][] attentionResidual = new float[1][NUM_SEQ][HIDDEN_SIZE];
+		final float[][][] output = new float[1][NUM_SEQ][HIDDEN_SIZE];
+		block.forward(hiddenStates, fusedQkv, null, causalMask, alibi, attentionResidual, output);
+		return output;
+	}
+
+	/**
+	 * Creates the random weights of a block (1-dimensional tensors are stored as matrix of one row).
+	 * @param rnd random generator
+	 * @return map from key to weights
+	 */
+	private static Map<String, float[][]> createWeights(final Random rnd) {
+		final Map<String, float[][]> weights = new HashMap<>();
+		final int h = HIDDEN_SIZE;
+		weights.put("h.0.input_layernorm.weight", createMatrix(rnd, 1, h, 0.1f, 1.0f));
+		weights.put("h.0.input_layernorm.bias", createMatrix(rnd, 1, h, 0.1f, 0.0f));
+		weights.put("h.0.self_attention.query_key_value.weight", createMatrix(rnd, 3 * h, h, 0.3f, 0.0f));
+		weights.put("h.0.self_attention.query_key_value.bias", createMatrix(rnd, 1, 3 * h, 0.1f, 0.0f));
+		weights.put("h.0.self_attention.dense.weight", createMatrix(rnd, h, h, 0.3f, 0.0f));
+		weights.put("h.0.self_attention.dense.bias", createMatrix(rnd, 1, h, 0.1f, 0.0f));
+		weights.put("h.0.post_attention_layernorm.weight", createMatrix(rnd, 1, h, 0.1f, 1.0f));
+		weights.put("h.0.post_attention_layernorm.bias", createMatrix(rnd, 1, h, 0.1f, 0.0f));
+		weights.put("h.0.mlp.dense_h_to_4h.weight", createMatrix(rnd, 4 * h, h, 0.3f, 0.0f));
+		weights.put("h.0.mlp.dense_h_to_4h.bias", createMatrix(rnd, 1, 4 * h, 0.1f, 0.0f));
+		weights.put("h.0.mlp.dense_4h_to_h.weight", createMatrix(rnd, h, 4 * h, 0.3f, 0.0f));
+		weights.put("h.0.mlp.dense_4h_to_h.bias", createMatrix(rnd, 1, h, 0.1f, 0.0f));
+		return weights;
+	}
+
+	/**
+	 * Creates a tensor containing the weights or the slice of a rank.
+	 * @param weights weights of the block
+	 * @param key key of the tensor
+	 * @param tp configuration of the rank or <code>null</code>
+	 * @param executor executor
+	 * @return tensor
+	 * @throws LlmConfigException in case of an unknown key
+	 */
+	private static Tensor createTensor(final Map<String, float[][]> weights, final String key,
+			final TensorParallelConfig tp, final LlmExecutor executor) throws LlmConfigException {
+		final float[][] data = weights.get(key);
+		if (data == null) {
+			throw new LlmConfigException("Unknown tensor " + key);
+		}
+		final boolean isVector = key.endsWith(".bias") || key.contains("layernorm");
+		final int[] shape = isVector ? new int[] { data[0].length } : new int[] { data.length, data[0].length };
+		final int[] slice = (tp != null) ? BloomModel.computeShardSlice(key, shape, NUM_HEADS, HIDDEN_SIZE, tp)
+				: new int[] { 0, shape[0], 0, isVector ? 0 : shape[1] };
+		final Tensor tensor = new Tensor(null, 0, shape, isVector ? new int[] { 1 } : new int[] { shape[1], 1 }, false, executor);
+		if (isVector) {
+			final float[] t1 = new float[slice[1] - slice[0]];
+			System.arraycopy(data[0], slice[0], t1, 0, t1.length);
+			tensor.t1 = t1;
+		}
+		else {
+			final float[][] t2 = new float[slice[1] - slice[0]][slice[3] - slice[2]];
+			for (int i = 0; i < t2.length; i++) {
+				System.arraycopy(data[slice[0] + i], slice[2], t2[i], 0, t2[i].length);
+			}
+			tensor.t2 = t2;
+		}
+		return tensor;
+	}
+
+	/**
+	 * Creates a random matrix.
+	 * @param rnd random generator
+	 * @param rows number of rows
+	 * @param cols number of columns
+	 * @param scale standard deviation
+	 * @param offset value added to each element
+	 * @return matrix
+	 */
+	private static float[][] createMatrix(final Random rnd, final int rows, final int cols, final float scale, final float offset) {
+		final float[][] mat = new float[rows][cols];
+		for (float[] row : mat) {
+			fill(row, rnd, scale);
+			for (int j = 0; j < cols; j++) {
+				row[j] += offset;
+			}
+		}
+		return mat;
+	}
+
+	/**
+	 * Fills a row with gaussian values.
+	 * @param row row
+	 * @param rnd random generator
+	 * @param scale standard deviation
+	 */
+	private static void fill(final float[] row, final Random rnd, final float scale) {
+		for (int j = 0; j < row.length; j++) {
+			row[j] = (float) rnd.nextGaussian() * scale;
+		}
+	}
+}
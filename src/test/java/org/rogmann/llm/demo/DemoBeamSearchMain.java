@@ -0,0 +1,60 @@
+package org.rogmann.llm.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.rogmann.llm.LlmConfigException;
+import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.LlmWorkerPoolPhaser;
+import org.rogmann.llm.ModelReader;
+import org.rogmann.llm.bloom.BloomModel;
+import org.rogmann.llm.generation.BeamHypothesis;
+import org.rogmann.llm.generation.BeamSearchGenerator;
+import org.rogmann.llm.tokenizer.BPETokenizer;
+import org.rogmann.llm.tokenizer.StreamingDecoder;
+import org.rogmann.llm.tokenizer.Tokenizer;
+
+/**
+ * Executes a beam search using a BLOOM based model.
+ */
+public class DemoBeamSearchMain {
+
+	/**
+	 * Entry method.
+	 * @param args model-folder
+	 */
+	public static void main(String[] args) throws IOException, LlmConfigException {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Usage: model-folder");
+		}
+		final File folder = new File(args[0]);
+		final Tokenizer tokenizer = BPETokenizer.load(folder);
+		
+		final ModelReader modelReader = new ModelReader(folder, true);
+		final int nThreads = 8;
+		final int numBeams = 3;
+
+		try (LlmExecutor executor = new LlmWorkerPoolPhaser(nThreads)) {
+			final BloomModel model = new BloomModel(modelReader, numBeams, executor);
+	
+			String inputSentence = "Translate to Chinese: I write a program in Java.";
+			//String inputSentence = "Translate to German: The cat sits on the mat.";
+			final int maxToken = 20;
+			final BeamSearchGenerator generator = new BeamSearchGenerator(model, tokenizer, numBeams, 1.0, false);
+			final List<BeamHypothesis> hypotheses = generator.generate(inputSentence, maxToken, null);
+			System.out.println("Prompt: " + inputSentence);
+			for (BeamHypothesis hypothesis : hypotheses) {
+				final StringBuilder sb = new StringBuilder();
+				final StreamingDecoder decoder = new StreamingDecoder(tokenizer);
+				for (int tokenId : hypothesis.getTokens()) {
+					if (tokenId != model.getEosTokenId()) {
+						sb.append(decoder.decode(tokenId));
+					}
+				}
+				sb.append(decoder.flush());
+				System.out.println(String.format("Score %.4f: %s", Double.valueOf(hypothesis.getScore()), sb));
+			}
+		}
+	}
+}
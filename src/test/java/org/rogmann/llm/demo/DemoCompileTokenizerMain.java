@@ -0,0 +1,37 @@
+package org.rogmann.llm.demo;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.rogmann.llm.tokenizer.BPETokenizer;
+
+/**
+ * Compiles the tokenizer.json of a model into a binary tokenizer-file.
+ *
+ * <p>The compiled file is written into the model-folder, {@link BPETokenizer#load(File)} prefers it.</p>
+ */
+public class DemoCompileTokenizerMain {
+
+	/**
+	 * Entry method.
+	 * @param args model-folder
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Usage: model-folder");
+		}
+		final File folder = new File(args[0]);
+		final long tsStart = System.nanoTime();
+		final BPETokenizer tokenizer = new BPETokenizer(folder);
+		final long tsParsed = System.nanoTime();
+		final File fileCompiled = new File(folder, BPETokenizer.TOKENIZER_COMPILED);
+		tokenizer.writeCompiled(fileCompiled);
+		final long tsWritten = System.nanoTime();
+		BPETokenizer.readCompiled(fileCompiled);
+		final long tsRead = System.nanoTime();
+		System.out.println(String.format("Parsing tokenizer.json: %d ms", Long.valueOf((tsParsed - tsStart) / 1000000)));
+		System.out.println(String.format("Writing %s (%d bytes): %d ms", fileCompiled,
+				Long.valueOf(fileCompiled.length()), Long.valueOf((tsWritten - tsParsed) / 1000000)));
+		System.out.println(String.format("Reading %s: %d ms", fileCompiled.getName(), Long.valueOf((tsRead - tsWritten) / 1000000)));
+	}
+}
@@ -0,0 +1,117 @@
+package org.rogmann.llm.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.rogmann.llm.LlmConfigException;
+import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.LlmWorkerPoolPhaser;
+import org.rogmann.llm.ModelReader;
+import org.rogmann.llm.bloom.BloomModel;
+import org.rogmann.llm.bloom.BloomPipeline;
+import org.rogmann.llm.bloom.BloomPipelineStage;
+import org.rogmann.llm.parallel.PipelineChannel;
+import org.rogmann.llm.parallel.PipelineStageConfig;
+import org.rogmann.llm.tokenizer.BPETokenizer;
+import org.rogmann.llm.tokenizer.StreamingDecoder;
+import org.rogmann.llm.tokenizer.Tokenizer;
+
+/**
+ * Executes a text generation using a BLOOM based model in several processes (pipeline-parallel).
+ *
+ * <p>This process is the first stage, it starts one JVM per further stage. Each stage reads
+ * its layers only. The prompts are micro-batches which are computed concurrently by the stages.</p>
+ */
+public class DemoPipelineMain {
+
+	/** port of the first stage */
+	private static final int BASE_PORT = 47300;
+
+	/**
+	 * Entry method.
+	 * @param args model-folder [number of stages] or model-folder stage number-of-stages
+	 */
+	public static void main(String[] args) throws IOException, LlmConfigException, InterruptedException {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Usage: model-folder [number of stages]");
+		}
+		final File folder = new File(args[0]);
+		if (args.length == 3) {
+			runStage(folder, new PipelineStageConfig(Integer.parseInt(args[1]), Integer.parseInt(args[2])));
+			return;
+		}
+		final int numStages = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+		final String javaCmd = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		final List<Process> processes = new ArrayList<>();
+		for (int stage = 1; stage < numStages; stage++) {
+			final ProcessBuilder pb = new ProcessBuilder(javaCmd, "-cp", System.getProperty("java.class.path"),
+					DemoPipelineMain.class.getName(), args[0], Integer.toString(stage), Integer.toString(numStages));
+			pb.inheritIO();
+			processes.add(pb.start());
+		}
+
+		final Tokenizer tokenizer = BPETokenizer.load(folder);
+		final ModelReader modelReader = new ModelReader(folder, true);
+		final PipelineStageConfig stageConfig = new PipelineStageConfig(0, numStages);
+		try (LlmExecutor executor = new LlmWorkerPoolPhaser(numThreads(numStages))) {
+			final BloomModel model = new BloomModel(modelReader, 1, executor, stageConfig);
+			final List<String> prompts = Arrays.asList("Translate to Chinese: I write a program in Java.",
+					"What is the capital of France?", "Translate to German: cat.", "¿Quién era Joan Miró?");
+			final List<int[]> promptIds = new ArrayList<>();
+			for (String prompt : prompts) {
+				promptIds.add(tokenizer.encode(prompt)[0]);
+			}
+			final List<int[]> generated;
+			try (BloomPipeline pipeline = new BloomPipeline(model,
+					new PipelineChannel(stageConfig, BASE_PORT, PipelineChannel.DEFAULT_TIMEOUT_SECONDS))) {
+				generated = pipeline.generateGreedy(promptIds, 10, true);
+			}
+			for (int i = 0; i < prompts.size(); i++) {
+				final StringBuilder sb = new StringBuilder(100);
+				final StreamingDecoder decoder = new StreamingDecoder(tokenizer);
+				for (int tokenId : generated.get(i)) {
+					sb.append(decoder.decode(tokenId));
+				}
+				sb.append(decoder.flush());
+				System.out.println("Prompt: " + prompts.get(i));
+				System.out.println("Result: " + sb);
+			}
+		}
+		for (Process process : processes) {
+			if (!process.waitFor(1, TimeUnit.MINUTES)) {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Executes a stage following the first stage.
+	 * @param folder model-folder
+	 * @param stageConfig configuration of the stage
+	 * @throws IOException in case of an IO-error
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	private static void runStage(final File folder, final PipelineStageConfig stageConfig)
+			throws IOException, LlmConfigException {
+		final ModelReader modelReader = new ModelReader(folder, true);
+		try (LlmExecutor executor = new LlmWorkerPoolPhaser(numThreads(stageConfig.getNumStages()))) {
+			final BloomModel model = new BloomModel(modelReader, 1, executor, stageConfig);
+			try (PipelineChannel channel = new PipelineChannel(stageConfig, BASE_PORT, PipelineChannel.DEFAULT_TIMEOUT_SECONDS)) {
+				new BloomPipelineStage(model).run(channel);
+			}
+		}
+	}
+
+	/**
+	 * Computes the number of threads of a stage.
+	 * @param numStages number of stages
+	 * @return number of threads
+	 */
+	private static int numThreads(final int numStages) {
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / numStages);
+	}
+}
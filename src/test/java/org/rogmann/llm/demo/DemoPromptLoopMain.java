@@ -3,11 +3,7 @@ package org.rogmann.llm.demo;
 import java.io.File;
 import java.io.IOException;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import java.util.Scanner;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.rogmann.llm.LlmConfigException;
@@ -16,6 +12,9 @@ import org.rogmann.llm.LlmWorkerPoolPhaser;
 import org.rogmann.llm.ModelReader;
 import org.rogmann.llm.ThreadProfiler;
 import org.rogmann.llm.bloom.BloomModel;
+import org.rogmann.llm.generation.GenerationConfig;
+import org.rogmann.llm.generation.StopReason;
+import org.rogmann.llm.generation.TextGenerator;
 import org.rogmann.llm.tokenizer.BPETokenizer;
 import org.rogmann.llm.tokenizer.Tokenizer;
 
@@ -36,7 +35,7 @@ public class DemoPromptLoopMain {
 			throw new IllegalArgumentException("Usage: model-folder");
 		}
 		final File folder = new File(args[0]);
-		final Tokenizer tokenizer = new BPETokenizer(folder);
+		final Tokenizer tokenizer = BPETokenizer.load(folder);
 		
 		System.out.println("#tokens in tokenizer: " + tokenizer.size());
 		final Instant tsStartLoad = Instant.now();
@@ -54,9 +53,9 @@ public class DemoPromptLoopMain {
 		try (Scanner scanner = new Scanner(System.in)) {
 			try (LlmExecutor executor = new LlmWorkerPoolPhaser(nThreads)) {
 		
-				// Set maxBatchSize = 3 to get three different beams.
 				final int maxBatchSize = 1;
 				final BloomModel model = new BloomModel(modelReader, maxBatchSize, executor);
+				final TextGenerator generator = new TextGenerator(model, tokenizer);
 
 				while (true) {
 					System.out.println("Prompt: ");
@@ -64,69 +63,12 @@ public class DemoPromptLoopMain {
 					if (inputSentence == null || inputSentence.length() == 0) {
 						break;
 					}
-					Instant tsStartInfer = Instant.now();
 					final int maxToken = 60;
-					final boolean useCache = Boolean.TRUE.booleanValue(); // use fusedQkv-cache?
-					int[][] inputIds = tokenizer.encode(inputSentence);
-					final int numTokenInput = inputIds[0].length;
-					final List<List<String>> listBatchesToken = new ArrayList<>();
-					listBatchesToken.add(new ArrayList<>());
-					final float[][][][] layersFusedQkv = new float[model.getNumLayers()][maxBatchSize]
-							[numTokenInput + maxToken][3 * model.getHiddenSize()];
+					final GenerationConfig config = new GenerationConfig(maxToken);
 					System.out.print("Response: ");
-					for(int idxInf = 1; idxInf <= maxToken; idxInf++) {
-						final int batchSize = inputIds.length;
-		
-						final float[][][][] hiddenState;
-						if (idxInf == 1 || !useCache) {
-							// First iteration, computes the fusedQkv-entries of the input-tokens.
-							hiddenState = model.forward(inputIds, layersFusedQkv, null);
-						}
-						else {
-							// Next iteration, re-use of existing fusedQkv-entries.
-							final int curNumSeqIdx = numTokenInput + idxInf - 1;
-							final Integer numSeqLenCache = Integer.valueOf(curNumSeqIdx - 1);
-							final int[][] inputIdsForward = new int[batchSize][1];
-							for (int b = 0; b < batchSize; b++) {
-								inputIdsForward[b][0] = inputIds[b][curNumSeqIdx - 1];
-							}
-							hiddenState = model.forward(inputIdsForward, layersFusedQkv, numSeqLenCache);
-						}
-		
-						final List<Integer> idxCandidates = new ArrayList<>();
-						final int[][] nextInputIds = new int[batchSize][];
-						for (int b = 0; b < batchSize; b++) {
-							final float[][] batchState = hiddenState[model.getNumLayers()][b];
-							final float[] lastState = batchState[batchState.length - 1];
-							if (LOG.isLoggable(Level.FINE)) {
-								LOG.fine("Last State: " + Arrays.toString(Arrays.copyOfRange(lastState, 0, 3)));
-								LOG.fine("     [...]  " + Arrays.toString(Arrays.copyOfRange(lastState, lastState.length - 3, lastState.length)));
-								LOG.fine("Tok.size: " + tokenizer.size());
-								LOG.fine("lastState.len: " + lastState.length);
-							}
-							final float[] lastEmbedding = model.getEmbeddings().computeLastEmbedding(lastState);
-							int idx = 0;
-							float max = -1e10f;
-							idxCandidates.clear();
-							for (int i = 0; i < lastEmbedding.length; i++) {
-								if (lastEmbedding[i] > max) {
-									max = lastEmbedding[i];
-									idx = i;
-									String token = tokenizer.decode(i);
-									idxCandidates.add(Integer.valueOf(idx));
-								}
-							}
-							String sToken = tokenizer.decode(idx);
-							System.out.print(sToken);
-							final List<String> listToken = listBatchesToken.get(b);
-							listToken.add(sToken);
-							nextInputIds[b] = tokenizer.appendToken(inputIds[b], idx);
-						}
-		
-						final int numCandidates = idxCandidates.size();
-						inputIds = nextInputIds;
-						final Instant tsEnd = Instant.now();
-					}
+					final StopReason stopReason = generator.generate(inputSentence, config,
+							(idxToken, tokenId, token) -> System.out.print(token), null);
+					LOG.fine("Stop reason: " + stopReason);
 					System.out.println();
 					System.out.println();
 				}
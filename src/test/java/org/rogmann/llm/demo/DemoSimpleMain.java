@@ -27,7 +27,7 @@ public class DemoSimpleMain {
 			throw new IllegalArgumentException("Usage: model-folder");
 		}
 		final File folder = new File(args[0]);
-		final Tokenizer tokenizer = new BPETokenizer(folder);
+		final Tokenizer tokenizer = BPETokenizer.load(folder);
 		
 		final ModelReader modelReader = new ModelReader(folder, true);
 		final int nThreads = 8;
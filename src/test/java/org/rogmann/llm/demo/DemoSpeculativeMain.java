@@ -0,0 +1,61 @@
+package org.rogmann.llm.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.rogmann.llm.LlmConfigException;
+import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.LlmWorkerPoolPhaser;
+import org.rogmann.llm.ModelReader;
+import org.rogmann.llm.bloom.BloomModel;
+import org.rogmann.llm.generation.GenerationConfig;
+import org.rogmann.llm.generation.SpeculativeGenerator;
+import org.rogmann.llm.generation.StopReason;
+import org.rogmann.llm.tokenizer.BPETokenizer;
+import org.rogmann.llm.tokenizer.Tokenizer;
+
+/**
+ * Executes a text generation using speculative decoding,
+ * e.g. bloomz-7b1 as target-model and bloomz-560m as draft-model.
+ */
+public class DemoSpeculativeMain {
+
+	/**
+	 * Entry method.
+	 * @param args model-folder of target-model, model-folder of draft-model
+	 */
+	public static void main(String[] args) throws IOException, LlmConfigException {
+		if (args.length < 2) {
+			throw new IllegalArgumentException("Usage: model-folder draft-model-folder");
+		}
+		final File folder = new File(args[0]);
+		final File folderDraft = new File(args[1]);
+		final Tokenizer tokenizer = BPETokenizer.load(folder);
+		
+		final ModelReader modelReader = new ModelReader(folder, true);
+		final ModelReader modelReaderDraft = new ModelReader(folderDraft, true);
+		final int nThreads = 8;
+		final int numDraftTokens = 4;
+
+		try (LlmExecutor executor = new LlmWorkerPoolPhaser(nThreads)) {
+			final BloomModel model = new BloomModel(modelReader, 1, executor);
+			final BloomModel draftModel = new BloomModel(modelReaderDraft, 1, executor);
+			final SpeculativeGenerator generator = new SpeculativeGenerator(model, draftModel, tokenizer, numDraftTokens);
+	
+			String inputSentence = "Translate to Chinese: I write a program in Java.";
+			//String inputSentence = "What is the capital of France?";
+			final int maxToken = 40;
+			System.out.println("Prompt: " + inputSentence);
+			System.out.print("Result: ");
+			final Instant tsStart = Instant.now();
+			final StopReason stopReason = generator.generate(inputSentence, new GenerationConfig(maxToken),
+					(idxToken, tokenId, token) -> System.out.print(token), null);
+			final Duration duration = Duration.between(tsStart, Instant.now());
+			System.out.println();
+			System.out.println(String.format("Stop reason: %s, duration: %s, acceptance-rate: %.2f",
+					stopReason, duration, Double.valueOf(generator.getAcceptanceRate())));
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.rogmann.llm.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.rogmann.llm.LlmConfigException;
+import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.LlmWorkerPoolPhaser;
+import org.rogmann.llm.ModelReader;
+import org.rogmann.llm.bloom.BloomModel;
+import org.rogmann.llm.generation.GenerationConfig;
+import org.rogmann.llm.generation.StopReason;
+import org.rogmann.llm.generation.TextGenerator;
+import org.rogmann.llm.parallel.MappedFileAllReduce;
+import org.rogmann.llm.parallel.TensorParallelConfig;
+import org.rogmann.llm.tokenizer.BPETokenizer;
+import org.rogmann.llm.tokenizer.Tokenizer;
+
+/**
+ * Executes a text generation using a BLOOM based model in several processes (tensor-parallel).
+ *
+ * <p>The parent process starts one JVM per rank. Each process reads its part of the heads and
+ * of the MLP and executes the same generation, rank 0 prints the tokens.</p>
+ */
+public class DemoTensorParallelMain {
+
+	/** maximal number of tokens of prompt and generated text */
+	private static final int MAX_SEQ_LEN = 512;
+
+	/**
+	 * Entry method.
+	 * @param args model-folder [world-size] or model-folder rank world-size all-reduce-file
+	 */
+	public static void main(String[] args) throws IOException, LlmConfigException, InterruptedException {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Usage: model-folder [world-size]");
+		}
+		if (args.length == 4) {
+			runRank(new File(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), new File(args[3]));
+			return;
+		}
+		final int worldSize = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+		final File fileAllReduce = File.createTempFile("jbloomz-allreduce-", ".bin");
+		try {
+			final String javaCmd = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			final List<Process> processes = new ArrayList<>();
+			for (int rank = 0; rank < worldSize; rank++) {
+				final ProcessBuilder pb = new ProcessBuilder(javaCmd, "-cp", System.getProperty("java.class.path"),
+						DemoTensorParallelMain.class.getName(),
+						args[0], Integer.toString(rank), Integer.toString(worldSize), fileAllReduce.getAbsolutePath());
+				pb.inheritIO();
+				processes.add(pb.start());
+			}
+			for (Process process : processes) {
+				if (!process.waitFor(10, TimeUnit.MINUTES)) {
+					process.destroy();
+				}
+			}
+		}
+		finally {
+			if (!fileAllReduce.delete()) {
+				fileAllReduce.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Executes the generation of one rank.
+	 * @param folder model-folder
+	 * @param rank index of the process
+	 * @param worldSize number of processes
+	 * @param fileAllReduce file of the all-reduce
+	 * @throws IOException in case of an IO-error
+	 * @throws LlmConfigException in case of a configuration-error
+	 */
+	private static void runRank(final File folder, final int rank, final int worldSize, final File fileAllReduce)
+			throws IOException, LlmConfigException {
+		final Tokenizer tokenizer = BPETokenizer.load(folder);
+		final ModelReader modelReader = new ModelReader(folder, true);
+		final int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / worldSize);
+		final int maxBatchSize = 1;
+
+		try (MappedFileAllReduce allReduce = new MappedFileAllReduce(fileAllReduce, rank, worldSize,
+				maxBatchSize * MAX_SEQ_LEN * modelReader.hiddenSize);
+				LlmExecutor executor = new LlmWorkerPoolPhaser(nThreads)) {
+			final TensorParallelConfig tp = new TensorParallelConfig(rank, worldSize, allReduce);
+			final BloomModel model = new BloomModel(modelReader, maxBatchSize, executor, tp);
+
+			final String inputSentence = "Translate to Chinese: I write a program in Java.";
+			final int maxToken = 10;
+			final StringBuilder sb = new StringBuilder(100);
+			final StopReason reason = new TextGenerator(model, tokenizer).generate(inputSentence,
+					new GenerationConfig(maxToken, true, Collections.emptyList()),
+					(idx, tokenId, token) -> sb.append(token), null);
+			if (rank == 0) {
+				System.out.println("Prompt: " + inputSentence);
+				System.out.println("Result: " + sb + " (" + reason + ")");
+			}
+		}
+	}
+}
@@ -43,7 +43,7 @@ public class DemoVerboseMain {
 			throw new IllegalArgumentException("Usage: model-folder");
 		}
 		final File folder = new File(args[0]);
-		final Tokenizer tokenizer = new BPETokenizer(folder);
+		final Tokenizer tokenizer = BPETokenizer.load(folder);
 		
 		System.out.println("#tokens in tokenizer: " + tokenizer.size());
 		final Instant tsStartLoad = Instant.now();
@@ -63,10 +63,12 @@ public class DemoVerboseMain {
 		//try (LlmExecutor executor = new LlmWorkerPoolReentrantLock(nThreads)) {
 		//try (LlmExecutor executor = new LlmWorkerPoolBusySpin(nThreads)) {
 		//try (LlmExecutor executor = new LlmExecutorSingleThread()) {
+		//try (LlmExecutor executor = new LlmWorkerPoolPhaser(nThreads, LlmThreadAffinity.planCpus(nThreads))) {
 	
-			// Set maxBatchSize = 3 to get three different beams.
+			// Set maxBatchSize = 3 to get three different first tokens (see BeamSearchGenerator for a beam search).
 			final int maxBatchSize = 1;
 			final BloomModel model = new BloomModel(modelReader, maxBatchSize, executor);
+			// Pinned workers: model.localizeWeights() places the weight-rows in the NUMA-node of their worker.
 	
 			tsStartInfer = Instant.now();
 			//String inputSentence = "Auf der Wiese läuft ein Hund hinter";
@@ -86,7 +88,7 @@ public class DemoVerboseMain {
 			final List<List<String>> listBatchesToken = new ArrayList<>();
 			listBatchesToken.add(new ArrayList<>());
 			final float[][][][] layersFusedQkv = new float[model.getNumLayers()][maxBatchSize]
-					[numTokenInput + maxToken][3 * model.getHiddenSize()];
+					[numTokenInput + maxToken][model.getFusedQkvSize()];
 			float[][][][] hiddenStatesOut = new float[model.getNumLayers() + 1][maxBatchSize][numTokenInput - 1 + maxToken][];
 			LOG.info(String.format("numTokenInput=%d, maxToken=%d", Integer.valueOf(numTokenInput), Integer.valueOf(maxToken)));
 			int idxTokenStatesOut = 0;
@@ -175,7 +177,7 @@ public class DemoVerboseMain {
 						listBatchesToken.add(listToken);
 						for (int l = 0; l < model.getNumLayers(); l++) {
 							for (int j = 0; j < numTokenInput + maxToken; j++) {
-								System.arraycopy(layersFusedQkv[l][0][j], 0, layersFusedQkv[l][b][j], 0, 3 * model.getHiddenSize());
+								System.arraycopy(layersFusedQkv[l][0][j], 0, layersFusedQkv[l][b][j], 0, model.getFusedQkvSize());
 							}
 						}
 					}
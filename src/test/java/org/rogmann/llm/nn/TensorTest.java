@@ -0,0 +1,146 @@
+package org.rogmann.llm.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.jupiter.api.Test;
+import org.rogmann.llm.LlmExecutor;
+import org.rogmann.llm.LlmExecutorSingleThread;
+
+/**
+ * Tests of reading a column-range of the rows of a stored matrix.
+ */
+public class TensorTest {
+
+	/** number of rows */
+	private static final int DIM1 = 7;
+
+	/** number of columns of the stored matrix */
+	private static final int FULL_DIM2 = 10;
+
+	/** first column to be read */
+	private static final int COL_OFFSET = 3;
+
+	/** number of columns to be read */
+	private static final int DIM2 = 4;
+
+	/**
+	 * Reads columns of a float32-matrix.
+	 * @throws IOException in case of an IO-error
+	 */
+	@Test
+	public void testReadColumnsFloat32() throws IOException {
+		final ByteBuffer bb = ByteBuffer.allocate(DIM1 * FULL_DIM2 * 4 + 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < DIM1; i++) {
+			for (int j = 0; j < FULL_DIM2; j++) {
+				bb.putFloat(value(i, j));
+			}
+		}
+		bb.putInt(0x12345678);
+		final ByteArrayInputStream bais = new ByteArrayInputStream(bb.array());
+		final float[][] tensor = new float[DIM1][DIM2];
+		try (LlmExecutor executor = new LlmExecutorSingleThread()) {
+			Tensor.readTensorFloat32(bais, tensor, FULL_DIM2, COL_OFFSET, executor);
+		}
+		assertColumns(tensor);
+		// The stream is positioned after the matrix.
+		assertEquals(0x78, bais.read());
+	}
+
+	/**
+	 * Reads columns of a bfloat16-matrix.
+	 * @throws IOException in case of an IO-error
+	 */
+	@Test
+	public void testReadColumnsBFloat16() throws IOException {
+		final ByteBuffer bb = ByteBuffer.allocate(DIM1 * FULL_DIM2 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < DIM1; i++) {
+			for (int j = 0; j < FULL_DIM2; j++) {
+				bb.putShort((short) (Float.floatToIntBits(value(i, j)) >>> 16));
+			}
+		}
+		final float[][] tensor = new float[DIM1][DIM2];
+		try (LlmExecutor executor = new LlmExecutorSingleThread()) {
+			Tensor.readTensorBFloat16(new ByteArrayInputStream(bb.array()), tensor, FULL_DIM2, COL_OFFSET, executor);
+		}
+		assertColumns(tensor);
+	}
+
+	/**
+	 * Reads columns of a float16-matrix.
+	 * @throws IOException in case of an IO-error
+	 */
+	@Test
+	public void testReadColumnsFloat16() throws IOException {
+		final ByteBuffer bb = ByteBuffer.allocate(DIM1 * FULL_DIM2 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < DIM1; i++) {
+			for (int j = 0; j < FULL_DIM2; j++) {
+				bb.putShort(toFloat16(value(i, j)));
+			}
+		}
+		final float[][] tensor = new float[DIM1][DIM2];
+		try (LlmExecutor executor = new LlmExecutorSingleThread()) {
+			Tensor.readTensorFloat16(new ByteArrayInputStream(bb.array()), tensor, FULL_DIM2, COL_OFFSET, executor);
+		}
+		assertColumns(tensor);
+	}
+
+	/**
+	 * A truncated matrix is rejected.
+	 */
+	@Test
+	public void testReadColumnsTruncated() {
+		final byte[] buf = new byte[(DIM1 * FULL_DIM2 - 2) * 4];
+		final float[][] tensor = new float[DIM1][DIM2];
+		try (LlmExecutor executor = new LlmExecutorSingleThread()) {
+			assertThrows(IOException.class,
+					() -> Tensor.readTensorFloat32(new ByteArrayInputStream(buf), tensor, FULL_DIM2, COL_OFFSET, executor));
+		}
+	}
+
+	/**
+	 * Checks the columns read.
+	 * @param tensor tensor read
+	 */
+	private static void assertColumns(final float[][] tensor) {
+		for (int i = 0; i < DIM1; i++) {
+			final float[] expected = new float[DIM2];
+			for (int j = 0; j < DIM2; j++) {
+				expected[j] = value(i, COL_OFFSET + j);
+			}
+			assertArrayEquals(expected, tensor[i], "row " + i);
+		}
+	}
+
+	/**
+	 * Gets the value of an element (exact in float16 and bfloat16).
+	 * @param i row
+	 * @param j column
+	 * @return value
+	 */
+	private static float value(final int i, final int j) {
+		return (j % 2 == 0 ? 1 : -1) * (i + 1) * 0.5f + j;
+	}
+
+	/**
+	 * Converts a normal float (or zero) without rounding into float16.
+	 * @param f value
+	 * @return float16-bits
+	 */
+	private static short toFloat16(final float f) {
+		if (f == 0.0f) {
+			return 0;
+		}
+		final int bits = Float.floatToIntBits(f);
+		final int sign = (bits >>> 16) & 0x8000;
+		final int exp = ((bits >>> 23) & 0xff) - 127 + 15;
+		final int mantissa = (bits >>> 13) & 0x3ff;
+		return (short) (sign | (exp << 10) | mantissa);
+	}
+}
@@ -0,0 +1,102 @@
+package org.rogmann.llm.parallel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link MappedFileAllReduce}: the ranks are threads of one process sharing a temporary file.
+ */
+public class MappedFileAllReduceTest {
+
+	/** number of ranks */
+	private static final int WORLD_SIZE = 2;
+
+	/** number of calls (the slots alternate between the calls) */
+	private static final int NUM_CALLS = 5;
+
+	/** temporary folder */
+	@TempDir
+	File tempDir;
+
+	/**
+	 * Each rank sums the partial tensors of both ranks in several consecutive calls.
+	 * @throws Exception in case of an error in a rank
+	 */
+	@Test
+	public void testAllReduceSumTwoRanks() throws Exception {
+		final File file = new File(tempDir, "allreduce.bin");
+		final int d1 = 2;
+		final int d2 = 3;
+		final int d3 = 5;
+		final ExecutorService executor = Executors.newFixedThreadPool(WORLD_SIZE);
+		try {
+			final List<Future<float[][][][]>> futures = new ArrayList<>();
+			for (int rank = 0; rank < WORLD_SIZE; rank++) {
+				final int r = rank;
+				futures.add(executor.submit(() -> {
+					final float[][][][] results = new float[NUM_CALLS][][][];
+					try (MappedFileAllReduce allReduce = new MappedFileAllReduce(file, r, WORLD_SIZE, d1 * d2 * d3, 10)) {
+						for (int call = 0; call < NUM_CALLS; call++) {
+							final float[][][] tensor = new float[d1][d2][d3];
+							fillPartial(tensor, r, call);
+							allReduce.allReduceSum(tensor);
+							results[call] = tensor;
+						}
+					}
+					return results;
+				}));
+			}
+			for (Future<float[][][][]> future : futures) {
+				final float[][][][] results = future.get(30, TimeUnit.SECONDS);
+				for (int call = 0; call < NUM_CALLS; call++) {
+					final float[][][] expected = new float[d1][d2][d3];
+					for (int r = 0; r < WORLD_SIZE; r++) {
+						final float[][][] partial = new float[d1][d2][d3];
+						fillPartial(partial, r, call);
+						for (int i = 0; i < d1; i++) {
+							for (int j = 0; j < d2; j++) {
+								for (int k = 0; k < d3; k++) {
+									expected[i][j][k] += partial[i][j][k];
+								}
+							}
+						}
+					}
+					for (int i = 0; i < d1; i++) {
+						for (int j = 0; j < d2; j++) {
+							assertArrayEquals(expected[i][j], results[call][i][j], "call " + call);
+						}
+					}
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fills the partial tensor of a rank.
+	 * @param tensor tensor
+	 * @param rank rank
+	 * @param call number of the call
+	 */
+	private static void fillPartial(final float[][][] tensor, final int rank, final int call) {
+		for (int i = 0; i < tensor.length; i++) {
+			for (int j = 0; j < tensor[i].length; j++) {
+				for (int k = 0; k < tensor[i][j].length; k++) {
+					tensor[i][j][k] = (rank + 1) * 1000f + call * 100f + i * 10f + j + k * 0.25f;
+				}
+			}
+		}
+	}
+}